@@ -0,0 +1,110 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Benchmarks for many threads reading one shared file a byte at a time through their own streams,
+ * for each {@link AccessTimePolicy}. Every read updates the file's access time according to the
+ * policy.
+ */
+@State(Scope.Benchmark)
+public class AccessTimeBenchmark {
+
+  private static final int FILE_SIZE = 64 * 1024;
+
+  @Param({"STRICT", "RELATIVE", "NONE", "LAZY"})
+  AccessTimePolicy accessTimePolicy;
+
+  private FileSystem fileSystem;
+  private Path file;
+
+  @Setup
+  public void setUp() throws IOException {
+    fileSystem = Jimfs.newFileSystem(Configuration.unix().toBuilder()
+        .setAccessTimePolicy(accessTimePolicy)
+        .build());
+
+    byte[] bytes = new byte[FILE_SIZE];
+    new Random(19).nextBytes(bytes);
+    file = Files.write(fileSystem.getPath("/file"), bytes);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    fileSystem.close();
+  }
+
+  /**
+   * Per-thread state: a stream open to the file, reopened when it reaches the end of the file.
+   */
+  @State(Scope.Thread)
+  public static class Reader {
+    private InputStream in;
+
+    int read(Path file) throws IOException {
+      if (in == null) {
+        in = Files.newInputStream(file);
+      }
+      int b = in.read();
+      if (b == -1) {
+        in.close();
+        in = null;
+      }
+      return b;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+      if (in != null) {
+        in.close();
+      }
+    }
+  }
+
+  @Benchmark
+  @Threads(1)
+  public int read_1Thread(Reader reader) throws IOException {
+    return reader.read(file);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public int read_4Threads(Reader reader) throws IOException {
+    return reader.read(file);
+  }
+
+  @Benchmark
+  @Threads(16)
+  public int read_16Threads(Reader reader) throws IOException {
+    return reader.read(file);
+  }
+}
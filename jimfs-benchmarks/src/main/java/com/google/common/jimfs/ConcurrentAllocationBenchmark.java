@@ -0,0 +1,90 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.IOException;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * Benchmarks for many threads each writing to and then truncating their own file on one shared
+ * {@link Disk}, so that each operation allocates blocks from and frees blocks to the disk, for
+ * various numbers of threads.
+ */
+@State(Scope.Benchmark)
+public class ConcurrentAllocationBenchmark {
+
+  private static final int BLOCK_SIZE = 8192;
+
+  /** The number of blocks written by each operation. */
+  @Param({"1", "16"})
+  int blocks;
+
+  private Disk disk;
+
+  @Setup
+  public void setUp() {
+    int maxBlockCount = 64 * 1024; // 512 MB
+    disk = new HeapDisk(BLOCK_SIZE, maxBlockCount, maxBlockCount);
+  }
+
+  /**
+   * Per-thread state: the file to write to.
+   */
+  @State(Scope.Thread)
+  public static class Writer {
+    private final byte[] bytes = new byte[BLOCK_SIZE];
+    private RegularFile file;
+
+    @Setup
+    public void setUp(ConcurrentAllocationBenchmark benchmark) {
+      file = RegularFile.create(0, FileTime.fromMillis(0), benchmark.disk);
+    }
+
+    long writeAndTruncate(int blocks) throws IOException {
+      for (int i = 0; i < blocks; i++) {
+        file.write((long) i * BLOCK_SIZE, bytes, 0, BLOCK_SIZE);
+      }
+      file.truncate(0);
+      return blocks;
+    }
+  }
+
+  @Benchmark
+  @Threads(1)
+  public long writeAndTruncate_1Thread(Writer writer) throws IOException {
+    return writer.writeAndTruncate(blocks);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public long writeAndTruncate_4Threads(Writer writer) throws IOException {
+    return writer.writeAndTruncate(blocks);
+  }
+
+  @Benchmark
+  @Threads(16)
+  public long writeAndTruncate_16Threads(Writer writer) throws IOException {
+    return writer.writeAndTruncate(blocks);
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Benchmarks for many threads doing positional reads of one shared file through one shared
+ * {@link FileChannel}, for various numbers of threads.
+ */
+@State(Scope.Benchmark)
+public class ConcurrentReadBenchmark {
+
+  private static final int FILE_SIZE = 1024 * 1024;
+  private static final int READ_SIZE = 4096;
+
+  @Param({"JIMFS", "DEFAULT"})
+  FileSystemType fileSystemType;
+
+  private Path workingDirectory;
+  private FileChannel channel;
+
+  @Setup
+  public void setUp() throws IOException {
+    workingDirectory = fileSystemType.createWorkingDirectory();
+
+    byte[] bytes = new byte[FILE_SIZE];
+    new Random(19).nextBytes(bytes);
+    Path file = Files.write(workingDirectory.resolve("file"), bytes);
+    channel = FileChannel.open(file, READ);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    channel.close();
+    fileSystemType.dispose(workingDirectory);
+  }
+
+  /**
+   * Per-thread state: the buffer to read into and the position to read from next.
+   */
+  @State(Scope.Thread)
+  public static class Reader {
+    private final ByteBuffer buffer = ByteBuffer.allocate(READ_SIZE);
+    private long position;
+
+    int read(FileChannel channel) throws IOException {
+      buffer.clear();
+      int read = channel.read(buffer, position);
+      position = (position + READ_SIZE) % FILE_SIZE;
+      return read;
+    }
+  }
+
+  @Benchmark
+  @Threads(1)
+  public int positionalRead_1Thread(Reader reader) throws IOException {
+    return reader.read(channel);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public int positionalRead_4Threads(Reader reader) throws IOException {
+    return reader.read(channel);
+  }
+
+  @Benchmark
+  @Threads(16)
+  public int positionalRead_16Threads(Reader reader) throws IOException {
+    return reader.read(channel);
+  }
+}
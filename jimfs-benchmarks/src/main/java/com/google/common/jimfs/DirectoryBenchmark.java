@@ -0,0 +1,103 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.file.attribute.FileTime;
+
+/**
+ * Benchmarks for adding, removing, getting and iterating {@link Directory} entries, for various
+ * numbers of entries in the directory.
+ */
+@State(Scope.Thread)
+public class DirectoryBenchmark {
+
+  @Param({"1000", "100000", "1000000"})
+  int entryCount;
+
+  private Name[] names;
+  private Name[] missingNames;
+  private Name extraName;
+  private File file;
+  private Directory directory;
+
+  private int index;
+
+  @Setup
+  public void setUp() {
+    names = new Name[entryCount];
+    missingNames = new Name[entryCount];
+    for (int i = 0; i < entryCount; i++) {
+      names[i] = Name.simple("file" + i);
+      missingNames[i] = Name.simple("missing" + i);
+    }
+    extraName = Name.simple("extra");
+
+    file = RegularFile.create(1, FileTime.fromMillis(0), new HeapDisk(8192, 1, 0));
+    directory = fill();
+  }
+
+  private int nextIndex() {
+    int result = index;
+    index = result + 1 == entryCount ? 0 : result + 1;
+    return result;
+  }
+
+  @Benchmark
+  public DirectoryEntry get() {
+    return directory.get(names[nextIndex()]);
+  }
+
+  @Benchmark
+  public DirectoryEntry getMissing() {
+    return directory.get(missingNames[nextIndex()]);
+  }
+
+  @Benchmark
+  public int iterate() {
+    int count = 0;
+    for (DirectoryEntry entry : directory) {
+      count += entry.name().hashCode();
+    }
+    return count;
+  }
+
+  @Benchmark
+  public Directory linkAndUnlink() {
+    directory.link(extraName, file);
+    directory.unlink(extraName);
+    return directory;
+  }
+
+  /**
+   * Creates a new directory and links every name in it, including the cost of expanding the
+   * directory's table as it grows.
+   */
+  @Benchmark
+  public Directory fill() {
+    Directory dir = Directory.create(0, FileTime.fromMillis(0));
+    for (Name name : names) {
+      dir.link(name, file);
+    }
+    return dir;
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Benchmarks for concurrently creating and deleting files with each {@link LockGranularity}, for
+ * various numbers of threads.
+ */
+@State(Scope.Benchmark)
+public class DirectoryLockingBenchmark {
+
+  @Param({"FILE_SYSTEM", "DIRECTORY"})
+  LockGranularity lockGranularity;
+
+  /**
+   * Whether all threads create files in the same directory or each thread creates files in its
+   * own directory.
+   */
+  @Param({"false", "true"})
+  boolean sameDirectory;
+
+  private FileSystem fs;
+  private final AtomicInteger threadCount = new AtomicInteger();
+
+  @Setup
+  public void setUp() throws IOException {
+    fs = Jimfs.newFileSystem(Configuration.unix().toBuilder()
+        .setLockGranularity(lockGranularity)
+        .build());
+    Files.createDirectory(fs.getPath("/shared"));
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    fs.close();
+  }
+
+  /**
+   * Per-thread state: the directory the thread creates files in and the name of its file.
+   */
+  @State(Scope.Thread)
+  public static class ThreadState {
+    private Path file;
+
+    Path file(DirectoryLockingBenchmark benchmark) throws IOException {
+      if (file == null) {
+        int thread = benchmark.threadCount.getAndIncrement();
+        Path dir = benchmark.sameDirectory
+            ? benchmark.fs.getPath("/shared")
+            : Files.createDirectory(benchmark.fs.getPath("/thread" + thread));
+        file = dir.resolve("file" + thread);
+      }
+      return file;
+    }
+  }
+
+  private Path createAndDelete(ThreadState state) throws IOException {
+    Path file = state.file(this);
+    Files.createFile(file);
+    Files.delete(file);
+    return file;
+  }
+
+  @Benchmark
+  @Threads(1)
+  public Path createAndDelete_1Thread(ThreadState state) throws IOException {
+    return createAndDelete(state);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public Path createAndDelete_4Threads(ThreadState state) throws IOException {
+    return createAndDelete(state);
+  }
+
+  @Benchmark
+  @Threads(16)
+  public Path createAndDelete_16Threads(ThreadState state) throws IOException {
+    return createAndDelete(state);
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.file.attribute.FileTime;
+import java.util.Random;
+
+/**
+ * Benchmarks for a large file built by sequential appends on a {@link HeapDisk}, comparing blocks
+ * created one at a time ({@code maxExtentSize} equal to the block size) with blocks sliced from
+ * growing extents. Run with {@code -prof gc} to compare allocation and GC activity as well.
+ */
+@State(Scope.Benchmark)
+public class ExtentBenchmark {
+
+  private static final int BLOCK_SIZE = 8192;
+
+  /** The size of the file (256 MB). */
+  private static final int FILE_SIZE = 256 * 1024 * 1024;
+
+  @Param({"8192", "1048576"})
+  int maxExtentSize;
+
+  private RegularFile file;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    int maxBlockCount = 2 * FILE_SIZE / BLOCK_SIZE;
+    HeapDisk disk = new HeapDisk(BLOCK_SIZE, maxBlockCount, maxBlockCount, maxExtentSize);
+
+    byte[] chunk = new byte[BLOCK_SIZE];
+    new Random(19).nextBytes(chunk);
+
+    file = RegularFile.create(0, FileTime.fromMillis(0), disk);
+    for (long pos = 0; pos < FILE_SIZE; pos += chunk.length) {
+      file.write(pos, chunk, 0, chunk.length);
+    }
+  }
+
+  /**
+   * Reads the whole file sequentially, a 64 KB chunk at a time.
+   */
+  @Benchmark
+  public long sequentialRead() {
+    byte[] buf = new byte[64 * 1024];
+    long total = 0;
+    for (long pos = 0; pos < FILE_SIZE; pos += buf.length) {
+      total += file.read(pos, buf, 0, buf.length);
+    }
+    return total;
+  }
+
+  /**
+   * Runs a full garbage collection while the file is live, which measures how long the collector
+   * takes to trace the file's blocks.
+   */
+  @Benchmark
+  public void fullGc() {
+    System.gc();
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Benchmarks for sequential, scattering/gathering and positional I/O through a {@link FileChannel},
+ * compared against the default file system. Each operation reads or writes the whole file in
+ * buffer-sized chunks.
+ */
+@State(Scope.Thread)
+public class FileChannelBenchmark {
+
+  private static final int FILE_SIZE = 4 * 1024 * 1024;
+
+  /** The number of buffers each buffer-sized chunk is split into for scattering/gathering I/O. */
+  private static final int BUFFER_COUNT = 16;
+
+  @Param({"JIMFS", "DEFAULT"})
+  FileSystemType fileSystemType;
+
+  @Param({"512", "8192", "65536"})
+  int bufferSize;
+
+  private Path workingDirectory;
+  private FileChannel channel;
+  private FileChannel copyChannel;
+  private ByteBuffer buffer;
+  private ByteBuffer[] buffers;
+
+  /** Buffer-aligned positions in the file, in random order. */
+  private long[] positions;
+
+  @Setup
+  public void setUp() throws IOException {
+    workingDirectory = fileSystemType.createWorkingDirectory();
+
+    byte[] bytes = new byte[FILE_SIZE];
+    Random random = new Random(19);
+    random.nextBytes(bytes);
+    Path file = Files.write(workingDirectory.resolve("file"), bytes);
+
+    channel = FileChannel.open(file, READ, WRITE);
+    copyChannel = FileChannel.open(workingDirectory.resolve("copy"), CREATE, WRITE);
+    buffer = ByteBuffer.allocate(bufferSize);
+    buffers = new ByteBuffer[BUFFER_COUNT];
+    for (int i = 0; i < BUFFER_COUNT; i++) {
+      buffers[i] = ByteBuffer.allocate(bufferSize / BUFFER_COUNT);
+    }
+
+    positions = new long[FILE_SIZE / bufferSize];
+    for (int i = 0; i < positions.length; i++) {
+      positions[i] = (long) i * bufferSize;
+    }
+    for (int i = positions.length - 1; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      long tmp = positions[i];
+      positions[i] = positions[j];
+      positions[j] = tmp;
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    channel.close();
+    copyChannel.close();
+    fileSystemType.dispose(workingDirectory);
+  }
+
+  @Benchmark
+  public long sequentialRead() throws IOException {
+    channel.position(0);
+    long total = 0;
+    int read;
+    buffer.clear();
+    while ((read = channel.read(buffer)) != -1) {
+      total += read;
+      buffer.clear();
+    }
+    return total;
+  }
+
+  @Benchmark
+  public long sequentialWrite() throws IOException {
+    channel.position(0);
+    long total = 0;
+    while (total < FILE_SIZE) {
+      buffer.clear();
+      total += channel.write(buffer);
+    }
+    return total;
+  }
+
+  @Benchmark
+  public long scatteringRead() throws IOException {
+    channel.position(0);
+    long total = 0;
+    long read;
+    clear(buffers);
+    while ((read = channel.read(buffers)) != -1) {
+      total += read;
+      clear(buffers);
+    }
+    return total;
+  }
+
+  @Benchmark
+  public long gatheringWrite() throws IOException {
+    channel.position(0);
+    long total = 0;
+    while (total < FILE_SIZE) {
+      clear(buffers);
+      total += channel.write(buffers);
+    }
+    return total;
+  }
+
+  /**
+   * Copies the whole file to another file with a single transfer. Between two Jimfs files, whole
+   * blocks are shared rather than copied.
+   */
+  @Benchmark
+  public long transferTo() throws IOException {
+    copyChannel.truncate(0);
+    copyChannel.position(0);
+    return channel.transferTo(0, FILE_SIZE, copyChannel);
+  }
+
+  @Benchmark
+  public long positionalRead() throws IOException {
+    long total = 0;
+    for (long position : positions) {
+      buffer.clear();
+      total += channel.read(buffer, position);
+    }
+    return total;
+  }
+
+  @Benchmark
+  public long positionalWrite() throws IOException {
+    long total = 0;
+    for (long position : positions) {
+      buffer.clear();
+      total += channel.write(buffer, position);
+    }
+    return total;
+  }
+
+  private static void clear(ByteBuffer[] buffers) {
+    for (ByteBuffer buffer : buffers) {
+      buffer.clear();
+    }
+  }
+}
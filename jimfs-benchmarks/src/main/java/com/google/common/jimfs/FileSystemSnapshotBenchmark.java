@@ -0,0 +1,84 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Benchmarks for taking a {@link FileSystemSnapshot} of a file system and forking new file systems
+ * from it, for trees of different sizes. Forking should take about the same time for every size.
+ */
+@State(Scope.Benchmark)
+public class FileSystemSnapshotBenchmark {
+
+  /**
+   * The number of directories in the tree, each of which contains 10 small files.
+   */
+  @Param({"10", "100", "1000"})
+  int directories;
+
+  private FileSystem fs;
+  private FileSystemSnapshot snapshot;
+
+  @Setup
+  public void setUp() throws IOException {
+    fs = Jimfs.newFileSystem(Configuration.unix());
+
+    byte[] content = new byte[1000];
+    for (int i = 0; i < directories; i++) {
+      Path dir = Files.createDirectory(fs.getPath("/dir" + i));
+      for (int j = 0; j < 10; j++) {
+        Files.write(dir.resolve("file" + j), content);
+      }
+    }
+    snapshot = Jimfs.snapshot(fs);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    fs.close();
+  }
+
+  @Benchmark
+  public FileSystemSnapshot snapshot() throws IOException {
+    return Jimfs.snapshot(fs);
+  }
+
+  @Benchmark
+  public FileSystem fork() throws IOException {
+    FileSystem fork = snapshot.fork();
+    fork.close();
+    return fork;
+  }
+
+  @Benchmark
+  public byte[] forkAndReadFile() throws IOException {
+    try (FileSystem fork = snapshot.fork()) {
+      return Files.readAllBytes(fork.getPath("/dir0/file0"));
+    }
+  }
+}
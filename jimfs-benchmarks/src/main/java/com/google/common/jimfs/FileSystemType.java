@@ -0,0 +1,85 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * The file systems benchmarks can be run against. The default file system serves as a baseline
+ * for comparing Jimfs results.
+ */
+public enum FileSystemType {
+
+  /**
+   * A new Jimfs file system with the Unix configuration.
+   */
+  JIMFS {
+    @Override
+    public Path createWorkingDirectory() throws IOException {
+      FileSystem fs = Jimfs.newFileSystem(Configuration.unix());
+      return Files.createDirectory(fs.getPath("/benchmark"));
+    }
+
+    @Override
+    public void dispose(Path workingDirectory) throws IOException {
+      workingDirectory.getFileSystem().close();
+    }
+  },
+
+  /**
+   * A new temporary directory in the default file system.
+   */
+  DEFAULT {
+    @Override
+    public Path createWorkingDirectory() throws IOException {
+      return Files.createTempDirectory("jimfs-benchmark");
+    }
+
+    @Override
+    public void dispose(Path workingDirectory) throws IOException {
+      Files.walkFileTree(workingDirectory, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+          Files.delete(file);
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+          Files.delete(dir);
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    }
+  };
+
+  /**
+   * Creates a new, empty directory for a benchmark to work in.
+   */
+  public abstract Path createWorkingDirectory() throws IOException;
+
+  /**
+   * Deletes the given working directory and everything in it, closing its file system if needed.
+   */
+  public abstract void dispose(Path workingDirectory) throws IOException;
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystem;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * Benchmarks for small writes, each of which updates the file's last modified time, with each
+ * kind of {@link FileTimeSource}.
+ */
+@State(Scope.Thread)
+public class FileTimeSourceBenchmark {
+
+  /**
+   * The kinds of source to compare.
+   */
+  public enum SourceType {
+    SYSTEM {
+      @Override
+      FileTimeSource create() {
+        return FileTimeSources.system();
+      }
+    },
+    PRECISE {
+      @Override
+      FileTimeSource create() {
+        return FileTimeSources.precise();
+      }
+    },
+    CACHED {
+      @Override
+      FileTimeSource create() {
+        return FileTimeSources.cached(1, MILLISECONDS);
+      }
+    },
+    MANUAL {
+      @Override
+      FileTimeSource create() {
+        return new ManualFileTimeSource(FileTime.fromMillis(0));
+      }
+    };
+
+    abstract FileTimeSource create();
+  }
+
+  @Param({"SYSTEM", "PRECISE", "CACHED", "MANUAL"})
+  SourceType sourceType;
+
+  private FileSystem fileSystem;
+  private FileChannel channel;
+  private final ByteBuffer buffer = ByteBuffer.allocate(16);
+
+  @Setup
+  public void setUp() throws IOException {
+    fileSystem = Jimfs.newFileSystem(Configuration.unix().toBuilder()
+        .setFileTimeSource(sourceType.create())
+        .build());
+    channel = FileChannel.open(fileSystem.getPath("/file"), CREATE, WRITE);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    channel.close();
+    fileSystem.close();
+  }
+
+  @Benchmark
+  public int write() throws IOException {
+    buffer.clear();
+    return channel.write(buffer, 0);
+  }
+}
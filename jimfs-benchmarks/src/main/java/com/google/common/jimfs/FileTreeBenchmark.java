@@ -0,0 +1,88 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Benchmarks for looking up files in a {@link FileTree}, both through deep paths and through
+ * chains of symbolic links, with and without the lookup cache.
+ */
+@State(Scope.Benchmark)
+public class FileTreeBenchmark {
+
+  /**
+   * The number of directories in the deep path and the number of links in the symbolic link
+   * chain. Must be less than the maximum symbolic link depth, 40.
+   */
+  @Param({"1", "10", "30"})
+  int depth;
+
+  @Param({"0", "1024"})
+  int lookupCacheSize;
+
+  private JimfsFileSystem fs;
+  private FileSystemView view;
+  private JimfsPath deepPath;
+  private JimfsPath linkChain;
+
+  @Setup
+  public void setUp() throws IOException {
+    fs = (JimfsFileSystem) Jimfs.newFileSystem(Configuration.unix().toBuilder()
+        .setLookupCacheSize(lookupCacheSize)
+        .build());
+    view = fs.getDefaultView();
+
+    Path dir = fs.getPath("/");
+    for (int i = 0; i < depth; i++) {
+      dir = Files.createDirectory(dir.resolve("dir" + i));
+    }
+    deepPath = (JimfsPath) Files.createFile(dir.resolve("file"));
+
+    // /links/0 -> /links/1 -> ... -> /links/<depth - 1> -> /target
+    Path links = Files.createDirectory(fs.getPath("/links"));
+    Path target = Files.createFile(fs.getPath("/target"));
+    for (int i = depth - 1; i >= 0; i--) {
+      target = Files.createSymbolicLink(links.resolve(String.valueOf(i)), target);
+    }
+    linkChain = (JimfsPath) target;
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    fs.close();
+  }
+
+  @Benchmark
+  public DirectoryEntry lookUpDeepPath() throws IOException {
+    return view.lookUpWithLock(deepPath, Options.NOFOLLOW_LINKS);
+  }
+
+  @Benchmark
+  public DirectoryEntry lookUpSymbolicLinkChain() throws IOException {
+    return view.lookUpWithLock(linkChain, Options.FOLLOW_LINKS);
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmarks for matching paths against many globs at once with a {@link GlobSet}, compared
+ * against matching them with one {@link PathMatcher} per glob. Each operation matches every glob
+ * against a fixed set of paths.
+ */
+@State(Scope.Benchmark)
+public class GlobSetBenchmark {
+
+  private static final String[] PATHS = {
+      "README.md",
+      "pom.xml",
+      "src/main/java/com/google/common/jimfs/Jimfs.java",
+      "src/main/java/com/google/common/jimfs/JimfsFileSystem.java",
+      "src/test/java/com/google/common/jimfs/JimfsUnixLikeFileSystemTest.java",
+      "target/classes/com/google/common/jimfs/Jimfs.class",
+      "target/classes/com/google/common/jimfs/Jimfs$1.class",
+      "foo/bar/baz.txt",
+      "a/b/c/d/e/f/g/h/i/j/k/l/m/n/o/p.java",
+      ".hidden",
+  };
+
+  /**
+   * Globs of the kinds typically found in build tool and linter rules, which the benchmarked sets
+   * of globs are drawn from in turn, with a number appended to keep them distinct.
+   */
+  private static final String[] GLOBS = {
+      "**/*.ext%d",
+      "src/module%d/**",
+      "**/generated%d/**/*.java",
+      "target/classes%d/**/*.class",
+      "**/Test%d*.java",
+      "docs/%d/*.md",
+  };
+
+  @Param({"1", "10", "100"})
+  int globCount;
+
+  private FileSystem fs;
+  private GlobSet globSet;
+  private PathMatcher[] matchers;
+  private Path[] paths;
+
+  @Setup
+  public void setUp() {
+    fs = Jimfs.newFileSystem(Configuration.unix());
+
+    List<String> globs = new ArrayList<>();
+    globs.add("**/*.java");
+    for (int i = 1; i < globCount; i++) {
+      globs.add(String.format(GLOBS[i % GLOBS.length], i));
+    }
+
+    globSet = Jimfs.newGlobSet(fs, globs);
+    matchers = new PathMatcher[globs.size()];
+    for (int i = 0; i < matchers.length; i++) {
+      matchers[i] = fs.getPathMatcher("glob:" + globs.get(i));
+    }
+
+    paths = new Path[PATHS.length];
+    for (int i = 0; i < PATHS.length; i++) {
+      paths[i] = fs.getPath(PATHS[i]);
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    fs.close();
+  }
+
+  @Benchmark
+  public int globSet() {
+    int count = 0;
+    for (Path path : paths) {
+      count += globSet.matches(path).cardinality();
+    }
+    return count;
+  }
+
+  @Benchmark
+  public int pathMatchers() {
+    int count = 0;
+    for (Path path : paths) {
+      for (PathMatcher matcher : matchers) {
+        if (matcher.matches(path)) {
+          count++;
+        }
+      }
+    }
+    return count;
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+
+/**
+ * Benchmarks for matching paths against glob patterns with a {@link PathMatcher}, compared against
+ * the default file system. Each operation matches the pattern against a fixed set of paths.
+ */
+@State(Scope.Benchmark)
+public class PathMatcherBenchmark {
+
+  private static final String[] PATHS = {
+      "README.md",
+      "pom.xml",
+      "src/main/java/com/google/common/jimfs/Jimfs.java",
+      "src/main/java/com/google/common/jimfs/JimfsFileSystem.java",
+      "src/main/java/com/google/common/jimfs/package-info.java",
+      "src/test/java/com/google/common/jimfs/JimfsUnixLikeFileSystemTest.java",
+      "target/classes/com/google/common/jimfs/Jimfs.class",
+      "target/classes/com/google/common/jimfs/Jimfs$1.class",
+      "foo/bar/baz.txt",
+      "foo/bar/baz/qux.java",
+      "a/b/c/d/e/f/g/h/i/j/k/l/m/n/o/p.java",
+      ".hidden",
+  };
+
+  @Param({"JIMFS", "DEFAULT"})
+  FileSystemType fileSystemType;
+
+  @Param({"*.java", "**/*.java", "**/{main,test}/**/*.{java,class}", "foo/[a-c]??/*"})
+  String glob;
+
+  private Path workingDirectory;
+  private PathMatcher matcher;
+  private Path[] paths;
+
+  @Setup
+  public void setUp() throws IOException {
+    workingDirectory = fileSystemType.createWorkingDirectory();
+    FileSystem fs = workingDirectory.getFileSystem();
+
+    matcher = fs.getPathMatcher("glob:" + glob);
+    paths = new Path[PATHS.length];
+    for (int i = 0; i < PATHS.length; i++) {
+      paths[i] = fs.getPath(PATHS[i]);
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    fileSystemType.dispose(workingDirectory);
+  }
+
+  @Benchmark
+  public int matches() {
+    int count = 0;
+    for (Path path : paths) {
+      if (matcher.matches(path)) {
+        count++;
+      }
+    }
+    return count;
+  }
+}
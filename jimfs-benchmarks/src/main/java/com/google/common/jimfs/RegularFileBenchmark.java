@@ -0,0 +1,85 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.file.attribute.FileTime;
+import java.util.Random;
+
+/**
+ * Benchmarks for reading and writing {@link RegularFile} content directly, for various block sizes
+ * and types of block storage.
+ */
+@State(Scope.Thread)
+public class RegularFileBenchmark {
+
+  @Param({"512", "8192", "65536"})
+  int blockSize;
+
+  @Param({"HEAP", "DIRECT"})
+  BlockStorage blockStorage;
+
+  /** The number of bytes read or written by each operation. */
+  @Param({"1024", "1048576"})
+  int size;
+
+  private Disk disk;
+  private RegularFile file;
+  private byte[] bytes;
+
+  @Setup
+  public void setUp() throws IOException {
+    int maxBlockCount = (int) (64L * 1024 * 1024 / blockSize);
+    disk = blockStorage == BlockStorage.HEAP
+        ? new HeapDisk(blockSize, maxBlockCount, maxBlockCount)
+        : new DirectDisk(blockSize, maxBlockCount, maxBlockCount);
+
+    bytes = new byte[size];
+    new Random(19).nextBytes(bytes);
+
+    file = RegularFile.create(0, FileTime.fromMillis(0), disk);
+    file.write(0, bytes, 0, bytes.length);
+  }
+
+  @Benchmark
+  public int read() {
+    return file.read(0, bytes, 0, bytes.length);
+  }
+
+  @Benchmark
+  public int overwrite() throws IOException {
+    return file.write(0, bytes, 0, bytes.length);
+  }
+
+  /**
+   * Writes to a new file and then deletes it, so each operation allocates blocks from and returns
+   * them to the disk.
+   */
+  @Benchmark
+  public int writeNewFile() throws IOException {
+    RegularFile newFile = RegularFile.create(1, FileTime.fromMillis(0), disk);
+    int written = newFile.write(0, bytes, 0, bytes.length);
+    disk.free(newFile);
+    return written;
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import com.google.common.io.ByteStreams;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Benchmarks for writing {@link FileSystemSnapshot} images and reading them back, both from a
+ * memory-mapped file and from a stream. Reading should be bound by the cost of copying the file
+ * content.
+ */
+@State(Scope.Benchmark)
+public class SnapshotImageBenchmark {
+
+  /**
+   * The total size, in megabytes, of the files in the image. The content is split between 100
+   * files.
+   */
+  @Param({"1", "64", "512"})
+  int megabytes;
+
+  private final Configuration configuration = Configuration.unix();
+
+  private FileSystem fs;
+  private FileSystemSnapshot snapshot;
+  private Path image;
+
+  @Setup
+  public void setUp() throws IOException {
+    fs = Jimfs.newFileSystem(configuration);
+
+    byte[] content = new byte[megabytes * 1024 * 1024 / 100];
+    for (int i = 0; i < 100; i++) {
+      Files.write(fs.getPath("/file" + i), content);
+    }
+    snapshot = Jimfs.snapshot(fs);
+
+    image = Files.createTempFile("jimfs-snapshot", ".img");
+    try (OutputStream out = Files.newOutputStream(image)) {
+      snapshot.writeTo(out);
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    fs.close();
+    Files.delete(image);
+  }
+
+  @Benchmark
+  public void write() throws IOException {
+    snapshot.writeTo(ByteStreams.nullOutputStream());
+  }
+
+  @Benchmark
+  public FileSystemSnapshot readMapped() throws IOException {
+    return FileSystemSnapshot.readFrom(image, configuration);
+  }
+
+  @Benchmark
+  public FileSystemSnapshot readStream() throws IOException {
+    try (InputStream in = Files.newInputStream(image)) {
+      return FileSystemSnapshot.readFrom(in, configuration);
+    }
+  }
+}
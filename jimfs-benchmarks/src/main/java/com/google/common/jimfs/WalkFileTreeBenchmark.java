@@ -0,0 +1,87 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Benchmarks for walking a large tree of files with {@link Files#walkFileTree}, compared against
+ * the default file system.
+ */
+@State(Scope.Benchmark)
+public class WalkFileTreeBenchmark {
+
+  /** The number of directories and files in each directory of the tree. */
+  private static final int FAN_OUT = 10;
+
+  /**
+   * The number of levels of directories in the tree. The tree contains about
+   * {@code FAN_OUT ^ (depth + 1)} files.
+   */
+  @Param({"2", "3", "4"})
+  int depth;
+
+  @Param({"JIMFS", "DEFAULT"})
+  FileSystemType fileSystemType;
+
+  private Path workingDirectory;
+
+  @Setup
+  public void setUp() throws IOException {
+    workingDirectory = fileSystemType.createWorkingDirectory();
+    createTree(workingDirectory, depth);
+  }
+
+  private static void createTree(Path dir, int depth) throws IOException {
+    for (int i = 0; i < FAN_OUT; i++) {
+      Files.createFile(dir.resolve("file" + i));
+      if (depth > 0) {
+        createTree(Files.createDirectory(dir.resolve("dir" + i)), depth - 1);
+      }
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    fileSystemType.dispose(workingDirectory);
+  }
+
+  @Benchmark
+  public int walkFileTree() throws IOException {
+    final int[] count = new int[1];
+    Files.walkFileTree(workingDirectory, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+        count[0]++;
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    return count[0];
+  }
+}
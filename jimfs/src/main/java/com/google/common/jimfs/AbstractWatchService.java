@@ -18,6 +18,7 @@ package com.google.common.jimfs;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
 import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
 
 import com.google.common.annotations.VisibleForTesting;
@@ -31,10 +32,11 @@ import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
 import java.nio.file.Watchable;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
@@ -228,7 +230,7 @@ abstract class AbstractWatchService implements WatchService {
     private final AtomicBoolean valid = new AtomicBoolean(true);
     private final AtomicInteger overflow = new AtomicInteger();
 
-    private final BlockingQueue<WatchEvent<?>> events = new ArrayBlockingQueue<>(MAX_QUEUE_SIZE);
+    private final Deque<WatchEvent<?>> events = new ArrayDeque<>();
 
     public Key(AbstractWatchService watcher, @Nullable Watchable watchable,
         Iterable<? extends WatchEvent.Kind<?>> subscribedTypes) {
@@ -255,13 +257,33 @@ abstract class AbstractWatchService implements WatchService {
     /**
      * Posts the given event to this key. After posting one or more events, {@link #signal()} must
      * be called to cause the key to be enqueued with the watch service.
+     *
+     * <p>A modify event for the same context as the last pending event, if that's also a modify
+     * event, is folded into that event by increasing its count, so a file that's written to many
+     * times between polls doesn't flood the key.
      */
     public void post(WatchEvent<?> event) {
-      if (!events.offer(event)) {
-        overflow.incrementAndGet();
+      synchronized (events) {
+        WatchEvent<?> last = events.peekLast();
+        if (event.kind() == ENTRY_MODIFY && last != null && last.kind() == ENTRY_MODIFY
+            && Objects.equal(last.context(), event.context())) {
+          events.removeLast();
+          events.addLast(repeated(last, event.count()));
+        } else if (events.size() < MAX_QUEUE_SIZE) {
+          events.addLast(event);
+        } else {
+          overflow.incrementAndGet();
+        }
       }
     }
 
+    /**
+     * Returns a copy of the given event with its count increased by the given count.
+     */
+    private static <T> WatchEvent<T> repeated(WatchEvent<T> event, int count) {
+      return new Event<>(event.kind(), event.count() + count, event.context());
+    }
+
     /**
      * Sets the state to SIGNALLED and enqueues this key with the watcher if it was previously in
      * the READY state.
@@ -282,8 +304,11 @@ abstract class AbstractWatchService implements WatchService {
       // note: it's correct to be able to retrieve more events from a key without calling reset()
       // reset() is ONLY for "returning" the key to the watch service to potentially be retrieved by
       // another thread when you're finished with it
-      List<WatchEvent<?>> result = new ArrayList<>(events.size());
-      events.drainTo(result);
+      List<WatchEvent<?>> result;
+      synchronized (events) {
+        result = new ArrayList<>(events);
+        events.clear();
+      }
       int overflowCount = overflow.getAndSet(0);
       if (overflowCount != 0) {
         result.add(overflowEvent(overflowCount));
@@ -297,7 +322,7 @@ abstract class AbstractWatchService implements WatchService {
       // watcher queue multiple times, but not much that can be done about that
       if (isValid() && state.compareAndSet(State.SIGNALLED, State.READY)) {
         // requeue if events are pending
-        if (!events.isEmpty()) {
+        if (hasPendingEvents()) {
           signal();
         }
       }
@@ -305,12 +330,26 @@ abstract class AbstractWatchService implements WatchService {
       return isValid();
     }
 
+    private boolean hasPendingEvents() {
+      synchronized (events) {
+        return !events.isEmpty();
+      }
+    }
+
     @Override
     public void cancel() {
       valid.set(false);
       watcher.cancelled(this);
     }
 
+    /**
+     * Invalidates this key without notifying the watch service, for when the watchable no longer
+     * exists and the service has already stopped watching it.
+     */
+    void invalidate() {
+      valid.set(false);
+    }
+
     @Override
     public Watchable watchable() {
       return watchable;
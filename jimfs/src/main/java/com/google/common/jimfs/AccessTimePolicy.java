@@ -0,0 +1,52 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+/**
+ * Options for when reading a file updates its last access time, mirroring the Linux mount options
+ * of similar names. Reading a file here means reading its content through a stream or channel or
+ * listing the entries of a directory.
+ */
+public enum AccessTimePolicy {
+
+  /**
+   * Every read updates the file's last access time ({@code strictatime}). This is the default.
+   */
+  STRICT,
+
+  /**
+   * A read updates the file's last access time only if the access time isn't later than the file's
+   * last modified time or is more than a day old ({@code relatime}). This still lets a user tell
+   * whether a file has been read since it was last modified.
+   */
+  RELATIVE,
+
+  /**
+   * Reads never update the file's last access time ({@code noatime}). The access time only changes
+   * when it's set explicitly.
+   */
+  NONE,
+
+  /**
+   * Every read records the time of the read, but without locking the file; the recorded time only
+   * becomes the file's last access time when the file's attributes are read ({@code lazytime}).
+   * The observable access times are the same as with {@link #STRICT}, but many threads reading
+   * the same file don't contend with each other. With a {@linkplain FileTimeSources#cached cached}
+   * time source, recording the time of a read is no more than a couple of field reads.
+   */
+  LAZY
+}
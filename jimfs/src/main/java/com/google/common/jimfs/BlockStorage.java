@@ -0,0 +1,42 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Options for where a Jimfs file system stores the contents of its regular files.
+ */
+public enum BlockStorage {
+
+  /**
+   * File contents are stored in byte arrays on the Java heap. This is the default.
+   */
+  HEAP,
+
+  /**
+   * File contents are stored in {@linkplain ByteBuffer#allocateDirect(int) direct} memory outside
+   * the Java heap. Blocks are carved out of large direct buffers, so storing a large amount of
+   * file data this way doesn't increase the heap size or the amount of work done by the garbage
+   * collector.
+   *
+   * <p>Note that the amount of direct memory available to the JVM is limited separately from the
+   * heap (see {@code -XX:MaxDirectMemorySize}), and that direct memory that is no longer cached
+   * for reuse is only returned to the system once the garbage collector reclaims its buffers.
+   */
+  DIRECT
+}
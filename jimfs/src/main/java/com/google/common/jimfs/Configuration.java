@@ -42,6 +42,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 import javax.annotation.Nullable;
@@ -200,6 +201,9 @@ public final class Configuration {
   final int blockSize;
   final long maxSize;
   final long maxCacheSize;
+  final long cacheTrimIntervalNanos;
+  final boolean backgroundZeroing;
+  final BlockStorage blockStorage;
 
   // Attribute configuration
   final ImmutableSet<String> attributeViews;
@@ -207,6 +211,10 @@ public final class Configuration {
   final ImmutableMap<String, Object> defaultAttributeValues;
 
   // Other
+  final LockGranularity lockGranularity;
+  final int lookupCacheSize;
+  final AccessTimePolicy accessTimePolicy;
+  final FileTimeSource fileTimeSource;
   final ImmutableSet<String> roots;
   final String workingDirectory;
   final ImmutableSet<Feature> supportedFeatures;
@@ -222,6 +230,9 @@ public final class Configuration {
     this.blockSize = builder.blockSize;
     this.maxSize = builder.maxSize;
     this.maxCacheSize = builder.maxCacheSize;
+    this.cacheTrimIntervalNanos = builder.cacheTrimIntervalNanos;
+    this.backgroundZeroing = builder.backgroundZeroing;
+    this.blockStorage = builder.blockStorage;
     this.attributeViews = builder.attributeViews;
     this.attributeProviders = builder.attributeProviders == null
         ? ImmutableSet.<AttributeProvider>of()
@@ -229,6 +240,10 @@ public final class Configuration {
     this.defaultAttributeValues = builder.defaultAttributeValues == null
         ? ImmutableMap.<String, Object>of()
         : ImmutableMap.copyOf(builder.defaultAttributeValues);
+    this.lockGranularity = builder.lockGranularity;
+    this.lookupCacheSize = builder.lookupCacheSize;
+    this.accessTimePolicy = builder.accessTimePolicy;
+    this.fileTimeSource = builder.fileTimeSource;
     this.roots = builder.roots;
     this.workingDirectory = builder.workingDirectory;
     this.supportedFeatures = builder.supportedFeatures;
@@ -255,6 +270,9 @@ public final class Configuration {
     /** Equal to the configured max size. */
     public static final long DEFAULT_MAX_CACHE_SIZE = -1;
 
+    /** 1024 lookups. */
+    public static final int DEFAULT_LOOKUP_CACHE_SIZE = 1024;
+
     // Path configuration
     private final PathType pathType;
     private ImmutableSet<PathNormalization> nameDisplayNormalization = ImmutableSet.of();
@@ -265,6 +283,9 @@ public final class Configuration {
     private int blockSize = DEFAULT_BLOCK_SIZE;
     private long maxSize = DEFAULT_MAX_SIZE;
     private long maxCacheSize = DEFAULT_MAX_CACHE_SIZE;
+    private long cacheTrimIntervalNanos = 0;
+    private boolean backgroundZeroing = false;
+    private BlockStorage blockStorage = BlockStorage.HEAP;
 
     // Attribute configuration
     private ImmutableSet<String> attributeViews = ImmutableSet.of();
@@ -272,6 +293,10 @@ public final class Configuration {
     private Map<String, Object> defaultAttributeValues;
 
     // Other
+    private LockGranularity lockGranularity = LockGranularity.FILE_SYSTEM;
+    private int lookupCacheSize = DEFAULT_LOOKUP_CACHE_SIZE;
+    private AccessTimePolicy accessTimePolicy = AccessTimePolicy.STRICT;
+    private FileTimeSource fileTimeSource = FileTimeSources.system();
     private ImmutableSet<String> roots = ImmutableSet.of();
     private String workingDirectory;
     private ImmutableSet<Feature> supportedFeatures = ImmutableSet.of();
@@ -288,6 +313,9 @@ public final class Configuration {
       this.blockSize = configuration.blockSize;
       this.maxSize = configuration.maxSize;
       this.maxCacheSize = configuration.maxCacheSize;
+      this.cacheTrimIntervalNanos = configuration.cacheTrimIntervalNanos;
+      this.backgroundZeroing = configuration.backgroundZeroing;
+      this.blockStorage = configuration.blockStorage;
       this.attributeViews = configuration.attributeViews;
       this.attributeProviders = configuration.attributeProviders.isEmpty()
           ? null
@@ -295,6 +323,10 @@ public final class Configuration {
       this.defaultAttributeValues = configuration.defaultAttributeValues.isEmpty()
           ? null
           : new HashMap<>(configuration.defaultAttributeValues);
+      this.lockGranularity = configuration.lockGranularity;
+      this.lookupCacheSize = configuration.lookupCacheSize;
+      this.accessTimePolicy = configuration.accessTimePolicy;
+      this.fileTimeSource = configuration.fileTimeSource;
       this.roots = configuration.roots;
       this.workingDirectory = configuration.workingDirectory;
       this.supportedFeatures = configuration.supportedFeatures;
@@ -425,6 +457,52 @@ public final class Configuration {
       return this;
     }
 
+    /**
+     * Sets how often the file system releases cached space that has gone unused. At each
+     * interval, the file system finds the fewest unused blocks that were cached at any point since
+     * the last interval. Those blocks weren't needed at all during that time, so they're removed
+     * from the cache and become available for garbage collection. The space a steady workload
+     * keeps reusing stays cached, while space left over from a burst of large temporary files is
+     * released within two intervals of the burst ending. Trimming is done by a single shared
+     * daemon thread.
+     *
+     * <p>Cached space can also be released on demand with {@link Jimfs#trimCache}.
+     *
+     * <p>The default is 0, which disables trimming: cached space is kept until it's reused, up to
+     * the {@linkplain #setMaxCacheSize(long) maximum cache size}.
+     */
+    public Builder setCacheTrimInterval(long interval, TimeUnit unit) {
+      checkArgument(interval >= 0, "interval (%s) may not be negative", interval);
+      this.cacheTrimIntervalNanos = unit.toNanos(interval);
+      return this;
+    }
+
+    /**
+     * Sets whether or not the file system zeroes freed space in the background. Space freed from
+     * a file keeps that file's old content while it's cached, so it has to be zeroed before it can
+     * be used where a file needs zeros, such as when writing into a
+     * {@linkplain java.nio.file.StandardOpenOption#SPARSE sparse} region of a file. Space that's
+     * simply overwritten is never zeroed. With background zeroing enabled, a single shared daemon
+     * thread zeroes cached space soon after it's freed, so later writes don't have to.
+     *
+     * <p>The default is {@code false}: cached space is only zeroed when it's needed.
+     */
+    public Builder setBackgroundZeroing(boolean backgroundZeroing) {
+      this.backgroundZeroing = backgroundZeroing;
+      return this;
+    }
+
+    /**
+     * Sets where the file system's in-memory file storage keeps the contents of regular files. See
+     * {@link BlockStorage} for the available options.
+     *
+     * <p>The default is {@link BlockStorage#HEAP}.
+     */
+    public Builder setBlockStorage(BlockStorage blockStorage) {
+      this.blockStorage = checkNotNull(blockStorage);
+      return this;
+    }
+
     /**
      * Sets the attribute views the file system should support. By default, the following views may
      * be specified:
@@ -587,6 +665,60 @@ public final class Configuration {
       return this;
     }
 
+    /**
+     * Sets how finely the file system locks its file tree. See {@link LockGranularity} for the
+     * available options. {@link LockGranularity#DIRECTORY DIRECTORY} allows many threads to
+     * create and delete files in different directories in parallel.
+     *
+     * <p>The default is {@link LockGranularity#FILE_SYSTEM}.
+     */
+    public Builder setLockGranularity(LockGranularity lockGranularity) {
+      this.lockGranularity = checkNotNull(lockGranularity);
+      return this;
+    }
+
+    /**
+     * Sets the number of directory lookups the file system caches. Looking up a path normally
+     * resolves each of its names in turn, following symbolic links. With the cache, the directory
+     * that a path's parent names resolve to is remembered, so looking up another file in the same
+     * directory, or the same file again, only has to find the last name. Creating and deleting
+     * files keeps cached lookups valid; deleting or moving a directory or a symbolic link
+     * invalidates all of them.
+     *
+     * <p>The default is {@value #DEFAULT_LOOKUP_CACHE_SIZE}. A size of 0 disables the cache.
+     */
+    public Builder setLookupCacheSize(int lookupCacheSize) {
+      checkArgument(lookupCacheSize >= 0,
+          "lookupCacheSize (%s) may not be negative", lookupCacheSize);
+      this.lookupCacheSize = lookupCacheSize;
+      return this;
+    }
+
+    /**
+     * Sets when reading a file updates its last access time. See {@link AccessTimePolicy} for the
+     * available options. {@link AccessTimePolicy#LAZY LAZY} and {@link AccessTimePolicy#NONE NONE}
+     * avoid locking files that are read by many threads at once.
+     *
+     * <p>The default is {@link AccessTimePolicy#STRICT}.
+     */
+    public Builder setAccessTimePolicy(AccessTimePolicy accessTimePolicy) {
+      this.accessTimePolicy = checkNotNull(accessTimePolicy);
+      return this;
+    }
+
+    /**
+     * Sets the source of the current time for file timestamps. {@link FileTimeSources} provides
+     * a {@linkplain FileTimeSources#cached cached} source that avoids reading the clock on every
+     * write and a {@linkplain FileTimeSources#precise precise} source with nanosecond precision;
+     * a {@link ManualFileTimeSource} makes timestamps deterministic.
+     *
+     * <p>The default is {@link FileTimeSources#system()}, which has millisecond precision.
+     */
+    public Builder setFileTimeSource(FileTimeSource fileTimeSource) {
+      this.fileTimeSource = checkNotNull(fileTimeSource);
+      return this;
+    }
+
     /**
      * Sets the given features to be supported by the file system. Any features not provided here
      * will not be supported.
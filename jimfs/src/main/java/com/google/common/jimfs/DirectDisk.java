@@ -0,0 +1,81 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nullable;
+
+/**
+ * A {@link Disk} whose blocks are stored in direct (off-heap) memory.
+ *
+ * <p>Rather than allocating a separate direct buffer for each block, blocks are sliced from
+ * larger direct buffers (arenas). This keeps the number of objects the garbage collector has to
+ * track small and reserves native memory in large chunks rather than a block at a time. An arena's
+ * memory is released once none of the blocks sliced from it are referenced any longer.
+ */
+final class DirectDisk extends Disk {
+
+  /** Target size of each arena in bytes (1 MB). */
+  private static final int ARENA_SIZE = 1024 * 1024;
+
+  /** The number of blocks in each arena. */
+  private final int arenaBlockCount;
+
+  /** The arena new blocks are currently being sliced from. */
+  @Nullable
+  private ByteBuffer arena;
+
+  /** Index of the next unused block in the current arena. */
+  private int nextBlockIndex;
+
+  /**
+   * Creates a new disk using settings from the given configuration.
+   */
+  public DirectDisk(Configuration config) {
+    super(config);
+    this.arenaBlockCount = arenaBlockCount(blockSize(), maxBlockCount());
+  }
+
+  /**
+   * Creates a new disk with the given {@code blockSize}, {@code maxBlockCount} and
+   * {@code maxCachedBlockCount}.
+   */
+  public DirectDisk(int blockSize, int maxBlockCount, int maxCachedBlockCount) {
+    super(blockSize, maxBlockCount, maxCachedBlockCount);
+    this.arenaBlockCount = arenaBlockCount(blockSize, maxBlockCount);
+  }
+
+  private static int arenaBlockCount(int blockSize, int maxBlockCount) {
+    return Math.max(1, Math.min(ARENA_SIZE / blockSize, maxBlockCount));
+  }
+
+  // synchronized since blocks may be created by multiple threads at once
+  @Override
+  synchronized ByteBuffer createBlock() {
+    if (arena == null || nextBlockIndex == arenaBlockCount) {
+      arena = ByteBuffer.allocateDirect(arenaBlockCount * blockSize());
+      nextBlockIndex = 0;
+    }
+
+    int start = nextBlockIndex++ * blockSize();
+    ByteBuffer block = arena.duplicate();
+    block.position(start);
+    block.limit(start + blockSize());
+    return block.slice();
+  }
+}
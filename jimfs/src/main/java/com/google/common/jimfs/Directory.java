@@ -16,11 +16,23 @@
 
 package com.google.common.jimfs;
 
+import static com.google.common.base.Preconditions.checkState;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSortedSet;
 
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import javax.annotation.Nullable;
 
@@ -34,27 +46,48 @@ final class Directory extends File implements Iterable<DirectoryEntry> {
   /** The entry linking to this directory in its parent directory. */
   private DirectoryEntry entryInParent;
 
+  /** Lock for this directory's entries; created on first use. */
+  @Nullable
+  private volatile ReadWriteLock entryLock;
+
   /**
-   * Creates a new normal directory with the given ID.
+   * The directory in a {@linkplain FileSystemSnapshot snapshot} whose entries are copied into this
+   * directory the first time its entries are accessed, or null if there is nothing left to copy.
    */
-  public static Directory create(int id) {
-    return new Directory(id);
+  @Nullable
+  private volatile Directory entrySource;
+
+  /** The fork used to copy the entries of {@link #entrySource}. */
+  @Nullable
+  private SnapshotFork fork;
+
+  /** The watches registered on this directory by watch services. */
+  private volatile ImmutableList<EventWatchService.Watch> watches = ImmutableList.of();
+
+  /** Whether or not this directory has been deleted. */
+  private boolean deleted;
+
+  /**
+   * Creates a new normal directory with the given ID and creation time.
+   */
+  public static Directory create(int id, FileTime creationTime) {
+    return new Directory(id, creationTime);
   }
 
   /**
-   * Creates a new root directory with the given ID and name.
+   * Creates a new root directory with the given ID, creation time and name.
    */
-  public static Directory createRoot(int id, Name name) {
-    return new Directory(id, name);
+  public static Directory createRoot(int id, FileTime creationTime, Name name) {
+    return new Directory(id, creationTime, name);
   }
 
-  private Directory(int id) {
-    super(id);
+  private Directory(int id, FileTime creationTime) {
+    super(id, creationTime);
     put(new DirectoryEntry(this, Name.SELF, this));
   }
 
-  private Directory(int id, Name rootName) {
-    this(id);
+  private Directory(int id, FileTime creationTime, Name rootName) {
+    this(id, creationTime);
     linked(new DirectoryEntry(this, rootName, this));
   }
 
@@ -63,8 +96,8 @@ final class Directory extends File implements Iterable<DirectoryEntry> {
    * this directory.
    */
   @Override
-  Directory copyWithoutContent(int id) {
-    return Directory.create(id);
+  Directory copyWithoutContent(int id, FileTime creationTime) {
+    return Directory.create(id, creationTime);
   }
 
   /**
@@ -83,6 +116,74 @@ final class Directory extends File implements Iterable<DirectoryEntry> {
     return entryInParent.directory();
   }
 
+  /**
+   * Returns the lock guarding the entries of this directory. This lock is only used when the file
+   * system is configured to use {@linkplain LockGranularity#DIRECTORY per-directory locking};
+   * otherwise, the file system's single lock guards all directories.
+   */
+  public ReadWriteLock entryLock() {
+    ReadWriteLock result = entryLock;
+    if (result == null) {
+      synchronized (this) {
+        result = entryLock;
+        if (result == null) {
+          entryLock = result = new ReentrantReadWriteLock();
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Sets this directory to copy the entries of the given snapshot directory into itself, using the
+   * given fork, the first time its entries are accessed. This directory must have no entries other
+   * than "." and "..".
+   */
+  void copyEntriesLazily(Directory source, SnapshotFork fork) {
+    this.fork = fork;
+    this.entrySource = source;
+  }
+
+  /**
+   * Returns whether the entries of the snapshot directory this directory was forked from have yet
+   * to be copied into this directory. Until they are, the directory's entries belong to the
+   * snapshot.
+   */
+  boolean hasUncopiedEntries() {
+    return entrySource != null;
+  }
+
+  /**
+   * Copies the entries of the snapshot directory this directory was forked from into this
+   * directory if that hasn't been done yet.
+   */
+  private void copyEntriesIfNeeded() {
+    if (entrySource != null) {
+      synchronized (this) {
+        Directory source = entrySource;
+        if (source != null) {
+          for (DirectoryEntry entry : source) {
+            if (!isReserved(entry.name())) {
+              File file = fork.copyOf(entry.file());
+              DirectoryEntry copy = new DirectoryEntry(this, entry.name(), file);
+              put(copy, false);
+              file.linked(copy);
+
+              // the fork already gave the copies the link counts of the snapshot files, which
+              // include the links being restored here
+              file.decrementLinkCount();
+              if (file.isDirectory()) {
+                decrementLinkCount();
+              }
+            }
+          }
+          fork = null;
+          entrySource = null;
+        }
+      }
+    }
+  }
+
   @Override
   void linked(DirectoryEntry entry) {
     File parent = entry.directory(); // handles null check
@@ -97,11 +198,97 @@ final class Directory extends File implements Iterable<DirectoryEntry> {
     parent().decrementLinkCount();
   }
 
+  @Override
+  void deleted() {
+    // a directory only has a single link, so it's gone; its watches can't see any more events
+    deleted = true;
+    ImmutableList<EventWatchService.Watch> watches = this.watches;
+    this.watches = ImmutableList.of();
+    for (EventWatchService.Watch watch : watches) {
+      watch.directoryDeleted();
+    }
+  }
+
+  /**
+   * Returns whether or not this directory has been deleted. Files can't be linked into a deleted
+   * directory.
+   */
+  boolean isDeleted() {
+    return deleted;
+  }
+
+  /**
+   * Adds the given watch to this directory, returning false if this directory has already been
+   * deleted. When the first watch is added, the entries in this directory are marked as watched
+   * so that changes to the files they link to are posted to the watches.
+   */
+  boolean addWatch(EventWatchService.Watch watch) {
+    if (deleted) {
+      return false;
+    }
+
+    if (watches.isEmpty()) {
+      for (DirectoryEntry entry : this) {
+        if (!isReserved(entry.name())) {
+          entry.file().watched(entry);
+        }
+      }
+    }
+
+    watches = ImmutableList.<EventWatchService.Watch>builder()
+        .addAll(watches)
+        .add(watch)
+        .build();
+    return true;
+  }
+
+  /**
+   * Removes the given watch from this directory, unmarking its entries if no watches remain.
+   */
+  void removeWatch(EventWatchService.Watch watch) {
+    ImmutableList.Builder<EventWatchService.Watch> builder = ImmutableList.builder();
+    for (EventWatchService.Watch existing : watches) {
+      if (existing != watch) {
+        builder.add(existing);
+      }
+    }
+    ImmutableList<EventWatchService.Watch> remaining = builder.build();
+    if (remaining.size() == watches.size()) {
+      return;
+    }
+
+    watches = remaining;
+    if (remaining.isEmpty()) {
+      for (DirectoryEntry entry : this) {
+        if (!isReserved(entry.name())) {
+          entry.file().unwatched(entry);
+        }
+      }
+    }
+  }
+
+  /**
+   * Posts an event of the given kind for the given name to the watches on this directory.
+   */
+  private void post(WatchEvent.Kind<Path> kind, Name name) {
+    for (EventWatchService.Watch watch : watches) {
+      watch.post(kind, name);
+    }
+  }
+
+  /**
+   * Called when the file linked to the given name in this directory is modified.
+   */
+  void entryModified(Name name) {
+    post(ENTRY_MODIFY, name);
+  }
+
   /**
    * Returns the number of entries in this directory.
    */
   @VisibleForTesting
   int entryCount() {
+    copyEntriesIfNeeded();
     return entryCount;
   }
 
@@ -117,17 +304,8 @@ final class Directory extends File implements Iterable<DirectoryEntry> {
    */
   @Nullable
   public DirectoryEntry get(Name name) {
-    int index = bucketIndex(name, table.length);
-
-    DirectoryEntry entry = table[index];
-    while (entry != null) {
-      if (name.equals(entry.name())) {
-        return entry;
-      }
-
-      entry = entry.next;
-    }
-    return null;
+    copyEntriesIfNeeded();
+    return find(name);
   }
 
   /**
@@ -135,11 +313,19 @@ final class Directory extends File implements Iterable<DirectoryEntry> {
    *
    * @throws IllegalArgumentException if {@code name} is a reserved name such as "." or if an
    *     entry already exists for the name
+   * @throws IllegalStateException if this directory has been deleted
    */
   public void link(Name name, File file) {
+    checkState(!deleted, "can't link %s: directory has been deleted", name);
+    copyEntriesIfNeeded();
     DirectoryEntry entry = new DirectoryEntry(this, checkNotReserved(name, "link"), file);
     put(entry);
     file.linked(entry);
+
+    if (!watches.isEmpty()) {
+      file.watched(entry);
+      post(ENTRY_CREATE, name);
+    }
   }
 
   /**
@@ -149,8 +335,14 @@ final class Directory extends File implements Iterable<DirectoryEntry> {
    *     exists for the name
    */
   public void unlink(Name name) {
+    copyEntriesIfNeeded();
     DirectoryEntry entry = remove(checkNotReserved(name, "unlink"));
     entry.file().unlinked();
+
+    if (!watches.isEmpty()) {
+      entry.file().unwatched(entry);
+      post(ENTRY_DELETE, name);
+    }
   }
 
   /**
@@ -170,6 +362,21 @@ final class Directory extends File implements Iterable<DirectoryEntry> {
     return builder.build();
   }
 
+  /**
+   * Returns the entries in this directory other than those for "." and "..", in no particular
+   * order.
+   */
+  public DirectoryEntry[] snapshotEntries() {
+    DirectoryEntry[] result = new DirectoryEntry[entryCount()];
+    int count = 0;
+    for (DirectoryEntry entry : this) {
+      if (!isReserved(entry.name())) {
+        result[count++] = entry;
+      }
+    }
+    return count == result.length ? result : Arrays.copyOf(result, count);
+  }
+
   /**
    * Checks that the given name is not "." or "..". Those names cannot be set/removed by users.
    */
@@ -188,22 +395,90 @@ final class Directory extends File implements Iterable<DirectoryEntry> {
     return name == Name.SELF || name == Name.PARENT;
   }
 
-  // Simple hash table code to avoid allocation of Map.Entry objects when DirectoryEntry can
-  // serve the same purpose.
+  // Open-addressing hash table of entries using linear probing, to avoid allocation of Map.Entry
+  // objects when DirectoryEntry can serve the same purpose. The hash code of each entry's name is
+  // cached in an array parallel to the entries, so a probe only needs to look at an entry's name
+  // when its hash code matches.
+  //
+  // Rather than moving every entry to a new, larger table at once when the table needs to grow,
+  // which would stall the insert that triggers it for a long time in a huge directory, the table
+  // keeps its previous arrays while growing and moves a few of their slots to the new arrays on
+  // each subsequent change. Lookups check both tables until the move is complete.
 
   private static final int INITIAL_CAPACITY = 16;
-  private static final int INITIAL_RESIZE_THRESHOLD = (int) (INITIAL_CAPACITY * 0.75);
 
-  private DirectoryEntry[] table = new DirectoryEntry[INITIAL_CAPACITY];
-  private int resizeThreshold = INITIAL_RESIZE_THRESHOLD;
+  /**
+   * The minimum number of slots of the previous table to move to the current table for each change
+   * made while the table is growing.
+   */
+  private static final int MOVE_STEP = 8;
+
+  private int[] hashes = new int[INITIAL_CAPACITY];
+  private DirectoryEntry[] entries = new DirectoryEntry[INITIAL_CAPACITY];
+  private int resizeThreshold = resizeThreshold(INITIAL_CAPACITY);
+
+  /**
+   * The arrays of the previous table while the table is growing, or null if it isn't. Slots before
+   * {@link #moveIndex} have already been moved to the current table and are empty, and the slot at
+   * {@code moveIndex} is empty unless no slots have been moved yet, so no entry remaining in the
+   * previous table can be found by probing from a slot before {@code moveIndex}.
+   */
+  @Nullable
+  private int[] previousHashes;
+  @Nullable
+  private DirectoryEntry[] previousEntries;
+  private int moveIndex;
 
   private int entryCount;
 
   /**
-   * Returns the index of the bucket in the array where an entry for the given name should go.
+   * Returns the number of entries a table with the given capacity may hold before growing.
+   */
+  private static int resizeThreshold(int capacity) {
+    return capacity / 3 * 2;
+  }
+
+  /**
+   * Returns the index of the slot in the given table containing an entry with the given name, or
+   * of the empty slot where such an entry should go if there is none.
+   */
+  private static int indexOf(int[] hashes, DirectoryEntry[] entries, int hash, Name name) {
+    int mask = entries.length - 1;
+    int index = hash & mask;
+    while (true) {
+      DirectoryEntry entry = entries[index];
+      if (entry == null || (hashes[index] == hash && name.equals(entry.name()))) {
+        return index;
+      }
+      index = (index + 1) & mask;
+    }
+  }
+
+  /**
+   * Returns the index of the slot in the previous table containing an entry with the given name,
+   * or -1 if the table isn't growing or the entry isn't there.
+   */
+  private int indexInPrevious(int hash, Name name) {
+    if (previousEntries == null || (hash & (previousEntries.length - 1)) < moveIndex) {
+      // any entry for the name has already been moved to the current table
+      return -1;
+    }
+
+    int index = indexOf(previousHashes, previousEntries, hash, name);
+    return previousEntries[index] == null ? -1 : index;
+  }
+
+  /**
+   * Returns the entry with the given name or null if there is no such entry.
    */
-  private static int bucketIndex(Name name, int tableLength) {
-    return name.hashCode() & (tableLength - 1);
+  @Nullable
+  private DirectoryEntry find(Name name) {
+    int hash = name.hashCode();
+    int index = indexInPrevious(hash, name);
+    if (index != -1) {
+      return previousEntries[index];
+    }
+    return entries[indexOf(hashes, entries, hash, name)];
   }
 
   /**
@@ -214,6 +489,7 @@ final class Directory extends File implements Iterable<DirectoryEntry> {
    */
   @VisibleForTesting
   void put(DirectoryEntry entry) {
+    copyEntriesIfNeeded();
     put(entry, false);
   }
 
@@ -230,89 +506,90 @@ final class Directory extends File implements Iterable<DirectoryEntry> {
    * entry with the same name should be overwritten or an exception should be thrown.
    */
   private void put(DirectoryEntry entry, boolean overwriteExisting) {
-    int index = bucketIndex(entry.name(), table.length);
-
-    // find the place the new entry should go, ensuring an entry with the same name doesn't already
-    // exist along the way
-    DirectoryEntry prev = null;
-    DirectoryEntry curr = table[index];
-    while (curr != null) {
-      if (curr.name().equals(entry.name())) {
-        if (overwriteExisting) {
-          // just replace the existing entry; no need to expand, and entryCount doesn't change
-          if (prev != null) {
-            prev.next = entry;
-          } else {
-            table[index] = entry;
-          }
-          entry.next = curr.next;
-          curr.next = null;
-          entry.file().incrementLinkCount();
-          return;
-        } else {
-          throw new IllegalArgumentException("entry '" + entry.name() + "' already exists");
-        }
-      }
-
-      prev = curr;
-      curr = curr.next;
+    Name name = entry.name();
+    int hash = name.hashCode();
+
+    int[] hashes = this.hashes;
+    DirectoryEntry[] entries = this.entries;
+    int index = indexInPrevious(hash, name);
+    if (index != -1) {
+      hashes = previousHashes;
+      entries = previousEntries;
+    } else {
+      index = indexOf(hashes, entries, hash, name);
     }
 
-    entryCount++;
-    if (expandIfNeeded()) {
-      // if the table was expanded, the index/entry we found is no longer applicable, so just add
-      // the entry normally
-      index = bucketIndex(entry.name(), table.length);
-      addToBucket(index, table, entry);
-    } else {
-      // otherwise, we just can use the index/entry we found
-      if (prev != null) {
-        prev.next = entry;
-      } else {
-        table[index] = entry;
+    if (entries[index] != null) {
+      if (!overwriteExisting) {
+        throw new IllegalArgumentException("entry '" + name + "' already exists");
       }
+      // just replace the existing entry; entryCount doesn't change
+      entries[index] = entry;
+      entry.file().incrementLinkCount();
+      return;
     }
 
+    hashes[index] = hash;
+    entries[index] = entry;
+    entryCount++;
     entry.file().incrementLinkCount();
-  }
 
-  private boolean expandIfNeeded() {
-    if (entryCount <= resizeThreshold) {
-      return false;
+    moveEntriesIfGrowing();
+    if (entryCount > resizeThreshold) {
+      grow();
     }
+  }
 
-    DirectoryEntry[] newTable = new DirectoryEntry[table.length << 1];
-
-    // redistribute all current entries in the new table
-    for (DirectoryEntry entry : table) {
-      while (entry != null) {
-        int index = bucketIndex(entry.name(), newTable.length);
-        addToBucket(index, newTable, entry);
-        DirectoryEntry next = entry.next;
-        // set entry.next to null; it's always the last entry in its bucket after being added
-        entry.next = null;
-        entry = next;
-      }
+  /**
+   * Starts moving the entries to a table twice the size of the current one.
+   */
+  private void grow() {
+    while (previousEntries != null) {
+      // only happens if entries were added much faster than they could be moved; finish moving
+      moveEntriesIfGrowing();
     }
 
-    this.table = newTable;
-    resizeThreshold <<= 1;
-    return true;
+    int capacity = entries.length << 1;
+    previousHashes = hashes;
+    previousEntries = entries;
+    moveIndex = 0;
+    hashes = new int[capacity];
+    entries = new DirectoryEntry[capacity];
+    resizeThreshold = resizeThreshold(capacity);
+    moveEntriesIfGrowing();
   }
 
-  private static void addToBucket(
-      int bucketIndex, DirectoryEntry[] table, DirectoryEntry entryToAdd) {
-    DirectoryEntry prev = null;
-    DirectoryEntry existing = table[bucketIndex];
-    while (existing != null) {
-      prev = existing;
-      existing = existing.next;
+  /**
+   * If the table is growing, moves at least {@link #MOVE_STEP} slots of the previous table to the
+   * current table, continuing until reaching an empty slot in the previous table.
+   */
+  private void moveEntriesIfGrowing() {
+    DirectoryEntry[] previousEntries = this.previousEntries;
+    if (previousEntries == null) {
+      return;
+    }
+
+    int[] previousHashes = this.previousHashes;
+    int index = moveIndex;
+    for (int moved = 0;
+        index < previousEntries.length && (moved < MOVE_STEP || previousEntries[index] != null);
+        moved++, index++) {
+      DirectoryEntry entry = previousEntries[index];
+      if (entry != null) {
+        int hash = previousHashes[index];
+        int newIndex = indexOf(hashes, entries, hash, entry.name());
+        hashes[newIndex] = hash;
+        entries[newIndex] = entry;
+        previousEntries[index] = null;
+      }
     }
 
-    if (prev != null) {
-      prev.next = entryToAdd;
+    if (index == previousEntries.length) {
+      this.previousHashes = null;
+      this.previousEntries = null;
+      moveIndex = 0;
     } else {
-      table[bucketIndex] = entryToAdd;
+      moveIndex = index;
     }
   }
 
@@ -323,49 +600,84 @@ final class Directory extends File implements Iterable<DirectoryEntry> {
    */
   @VisibleForTesting
   DirectoryEntry remove(Name name) {
-    int index = bucketIndex(name, table.length);
-
-    DirectoryEntry prev = null;
-    DirectoryEntry entry = table[index];
-    while (entry != null) {
-      if (name.equals(entry.name())) {
-        if (prev != null) {
-          prev.next = entry.next;
-        } else {
-          table[index] = entry.next;
-        }
+    copyEntriesIfNeeded();
+    int hash = name.hashCode();
+
+    int[] hashes = this.hashes;
+    DirectoryEntry[] entries = this.entries;
+    int index = indexInPrevious(hash, name);
+    if (index != -1) {
+      hashes = previousHashes;
+      entries = previousEntries;
+    } else {
+      index = indexOf(hashes, entries, hash, name);
+    }
+
+    DirectoryEntry entry = entries[index];
+    if (entry == null) {
+      throw new IllegalArgumentException("no entry matching '" + name + "' in this directory");
+    }
 
-        entry.next = null;
-        entryCount--;
-        entry.file().decrementLinkCount();
-        return entry;
+    removeSlot(hashes, entries, index);
+    entryCount--;
+    entry.file().decrementLinkCount();
+
+    moveEntriesIfGrowing();
+    return entry;
+  }
+
+  /**
+   * Empties the slot at the given index in the given table, shifting later entries in the same
+   * run of occupied slots back as needed so that every remaining entry can still be found by
+   * probing from its home slot.
+   */
+  private static void removeSlot(int[] hashes, DirectoryEntry[] entries, int index) {
+    int mask = entries.length - 1;
+    int gap = index;
+    int i = index;
+    while (true) {
+      i = (i + 1) & mask;
+      DirectoryEntry entry = entries[i];
+      if (entry == null) {
+        break;
       }
 
-      prev = entry;
-      entry = entry.next;
+      // the entry can fill the gap unless its home slot is after the gap (cyclically)
+      int home = hashes[i] & mask;
+      if (((i - home) & mask) >= ((i - gap) & mask)) {
+        hashes[gap] = hashes[i];
+        entries[gap] = entry;
+        gap = i;
+      }
     }
-
-    throw new IllegalArgumentException("no entry matching '" + name + "' in this directory");
+    entries[gap] = null;
   }
 
   @Override
   public Iterator<DirectoryEntry> iterator() {
+    copyEntriesIfNeeded();
+    final DirectoryEntry[] previousEntries = this.previousEntries;
+    final DirectoryEntry[] entries = this.entries;
     return new AbstractIterator<DirectoryEntry>() {
+      DirectoryEntry[] table = previousEntries != null ? previousEntries : entries;
       int index;
-      @Nullable
-      DirectoryEntry entry;
 
       @Override
       protected DirectoryEntry computeNext() {
-        if (entry != null) {
-          entry = entry.next;
-        }
+        while (true) {
+          while (index < table.length) {
+            DirectoryEntry entry = table[index++];
+            if (entry != null) {
+              return entry;
+            }
+          }
 
-        while (entry == null && index < table.length) {
-          entry = table[index++];
+          if (table == entries) {
+            return endOfData();
+          }
+          table = entries;
+          index = 0;
         }
-
-        return entry != null ? entry : endOfData();
       }
     };
   }
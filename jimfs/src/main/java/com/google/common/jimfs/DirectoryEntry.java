@@ -44,9 +44,6 @@ final class DirectoryEntry {
   @Nullable
   private final File file;
 
-  @Nullable
-  DirectoryEntry next; // for use in Directory
-
   DirectoryEntry(Directory directory, Name name, @Nullable File file) {
     this.directory = checkNotNull(directory);
     this.name = checkNotNull(name);
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableList;
+
+import java.nio.file.LinkOption;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+/**
+ * A path returned by a {@linkplain JimfsSecureDirectoryStream directory stream}, which carries the
+ * file that the directory entry it was created for linked to.
+ *
+ * <p>{@link java.nio.file.Files#walkFileTree} and {@link java.nio.file.Files#find} read the
+ * attributes of each path a directory stream returns. Looking the path up again for that repeats
+ * the lookup of the stream's directory and takes the file system's lock a second time, for a file
+ * the stream already found. A path located the file it was created for when the stream looked up
+ * its directory, and it keeps locating that file until some file in the file system is unlinked,
+ * since creating files can't change what an existing path locates. So until then, the file can be
+ * used instead of looking the path up. The file's attributes are still read when they're asked
+ * for, so they're never stale.
+ */
+final class DirectoryStreamPath extends JimfsPath {
+
+  private final File file;
+  private final File workingDirectory;
+  private final long unlinkCount;
+
+  /**
+   * Creates a path for the given file, which the given name is linked to in the directory
+   * located by the given path, looked up from the given working directory when the file tree had
+   * the given unlink count.
+   */
+  DirectoryStreamPath(JimfsPath dir, Name name, File file, File workingDirectory,
+      long unlinkCount) {
+    super(dir.getJimfsFileSystem().getPathService(), dir.root(), ImmutableList.<Name>builder()
+        .addAll(dir.names())
+        .add(name)
+        .build());
+    this.file = checkNotNull(file);
+    this.workingDirectory = checkNotNull(workingDirectory);
+    this.unlinkCount = unlinkCount;
+  }
+
+  /**
+   * Returns the file this path was created for if looking the path up from the given working
+   * directory with the given options would locate that file given the file tree's current unlink
+   * count, or {@code null} if the path must be looked up.
+   */
+  @Nullable
+  File file(File workingDirectory, long currentUnlinkCount, Set<? super LinkOption> options) {
+    if (workingDirectory != this.workingDirectory || currentUnlinkCount != unlinkCount) {
+      return null;
+    }
+    if (file.isSymbolicLink() && !options.contains(LinkOption.NOFOLLOW_LINKS)) {
+      // the lookup would follow the link
+      return null;
+    }
+    return file;
+  }
+}
@@ -0,0 +1,942 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.MapMaker;
+import com.google.common.math.LongMath;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+/**
+ * A resizable pseudo-disk acting as a shared space for storing file data. A disk allocates fixed
+ * size blocks of bytes to files as needed and may cache blocks that have been freed for reuse. A
+ * disk has a fixed maximum number of blocks it will allocate at a time (which sets the total
+ * "size" of the disk) and a maximum number of unused blocks it will cache for reuse at a time
+ * (which sets the maximum amount of space the disk will keep around once it's been used).
+ *
+ * <p>Subclasses determine where the memory for each block comes from by implementing
+ * {@link #createBlock()}, and optionally {@link #createBlocks(int)}; all block accounting and
+ * caching is handled here.
+ *
+ * <p>New blocks are created in extents: runs of blocks that subclasses may back with a single
+ * allocation. The extents a file gets grow with the file, doubling up to a maximum size, so a large
+ * file written sequentially is made up of a small number of large allocations rather than one
+ * allocation per block.
+ *
+ * <p>Allocating and freeing blocks doesn't lock the disk as a whole, so threads writing to
+ * different files don't contend with each other. The counts of allocated and cached blocks are
+ * atomic and are always reserved before blocks are allocated or cached, so the maximum counts are
+ * never exceeded. The block cache is split into stripes, each with its own lock, and each thread
+ * caches blocks in and takes blocks from its own stripe first. Only changes to blocks that may be
+ * {@linkplain #share shared} between files lock the table of shared blocks.
+ */
+abstract class Disk {
+
+  /** Default maximum size in bytes of an extent of blocks created at once (1 MB). */
+  static final int DEFAULT_MAX_EXTENT_SIZE = 1024 * 1024;
+
+  /** Maximum number of stripes the block cache is split into. */
+  private static final int MAX_CACHE_STRIPES = 64;
+
+  /**
+   * Creates a new disk of the type specified by the given configuration.
+   */
+  public static Disk create(Configuration config) {
+    Disk disk;
+    switch (config.blockStorage) {
+      case HEAP:
+        disk = new HeapDisk(config);
+        break;
+      case DIRECT:
+        disk = new DirectDisk(config);
+        break;
+      default:
+        throw new AssertionError(); // there are no other cases
+    }
+
+    if (config.cacheTrimIntervalNanos > 0) {
+      new Trim(disk).schedule(config.cacheTrimIntervalNanos);
+    }
+    return disk;
+  }
+
+  /** Fixed size of each block for this disk. */
+  private final int blockSize;
+
+  /** Maximum total number of blocks that the disk may contain at any time. */
+  private final int maxBlockCount;
+
+  /** Maximum total number of unused blocks that may be cached for reuse at any time. */
+  private final int maxCachedBlockCount;
+
+  /** Maximum number of blocks in an extent. */
+  private final int maxExtentBlockCount;
+
+  /**
+   * Stripes of the cache of free blocks to be allocated to files. Each stripe is only accessed
+   * while holding its lock.
+   */
+  private final CacheStripe[] blockCaches;
+
+  /** Whether or not freed blocks are zeroed by a background thread while they're cached. */
+  private final boolean backgroundZeroing;
+
+  /** Whether or not a task to zero cached blocks has been scheduled but hasn't started. */
+  private final AtomicBoolean zeroingScheduled = new AtomicBoolean();
+
+  /** The current total number of blocks in all stripes of the block cache. */
+  private final AtomicInteger cachedBlockCount = new AtomicInteger();
+
+  /**
+   * The fewest blocks the cache has held since it was last {@linkplain #trimIdleBlocks trimmed}:
+   * the low watermark of the cache. That many blocks went unused the whole time.
+   */
+  private final AtomicInteger minCachedBlockCount = new AtomicInteger();
+
+  /** The current total number of blocks that are currently allocated to files. */
+  private final AtomicInteger allocatedBlockCount = new AtomicInteger();
+
+  /**
+   * Reference counts for blocks that are {@linkplain #share shared} by more than one file. Blocks
+   * are compared by identity (the map has weak keys); a block that only one file references has
+   * no entry. Only modified while holding the lock on the map, but a file holding its write lock
+   * may check whether one of its blocks is shared without it: no other file can start sharing the
+   * block until the write lock is released.
+   */
+  private final ConcurrentMap<ByteBuffer, Integer> sharedBlocks =
+      new MapMaker().weakKeys().makeMap();
+
+  /**
+   * Read-only block of zeros standing in for each block of a file that has never been written to.
+   * Holes aren't allocated: they don't count against the size of this disk and are never cached,
+   * and a hole is only replaced with a real block when it's {@linkplain #copyOnWrite written to}.
+   */
+  private final ByteBuffer hole;
+
+  /**
+   * Whether a {@linkplain FileSystemSnapshot snapshot} stores files on this disk. A shared disk
+   * outlives the file systems using it, so they must free their files' blocks when closed.
+   */
+  private volatile boolean shared;
+
+  /**
+   * Creates a new disk using settings from the given configuration.
+   */
+  Disk(Configuration config) {
+    this.blockSize = config.blockSize;
+    this.maxBlockCount = toBlockCount(config.maxSize, blockSize);
+    this.maxCachedBlockCount = config.maxCacheSize == -1
+        ? maxBlockCount
+        : toBlockCount(config.maxCacheSize, blockSize);
+    this.maxExtentBlockCount = Math.max(1, DEFAULT_MAX_EXTENT_SIZE / blockSize);
+    this.blockCaches = createBlockCaches(maxCachedBlockCount);
+    this.backgroundZeroing = config.backgroundZeroing;
+    this.hole = ByteBuffer.allocate(blockSize).asReadOnlyBuffer();
+  }
+
+  /**  Returns the nearest multiple of {@code blockSize} that is <= {@code size}. */
+  private static int toBlockCount(long size, int blockSize) {
+    return (int) LongMath.divide(size, blockSize, RoundingMode.FLOOR);
+  }
+
+  /**
+   * Creates a new disk with the given {@code blockSize}, {@code maxBlockCount} and
+   * {@code maxCachedBlockCount}.
+   */
+  Disk(int blockSize, int maxBlockCount, int maxCachedBlockCount) {
+    this(blockSize, maxBlockCount, maxCachedBlockCount, DEFAULT_MAX_EXTENT_SIZE);
+  }
+
+  /**
+   * Creates a new disk with the given {@code blockSize}, {@code maxBlockCount} and
+   * {@code maxCachedBlockCount} that creates extents of at most {@code maxExtentSize} bytes. A
+   * {@code maxExtentSize} no larger than {@code blockSize} means that every block is created on
+   * its own.
+   */
+  Disk(int blockSize, int maxBlockCount, int maxCachedBlockCount, int maxExtentSize) {
+    checkArgument(blockSize > 0, "blockSize (%s) must be positive", blockSize);
+    checkArgument(maxBlockCount > 0, "maxBlockCount (%s) must be positive", maxBlockCount);
+    checkArgument(maxCachedBlockCount >= 0,
+        "maxCachedBlockCount must be non-negative", maxCachedBlockCount);
+    checkArgument(maxExtentSize > 0, "maxExtentSize (%s) must be positive", maxExtentSize);
+    this.blockSize = blockSize;
+    this.maxBlockCount = maxBlockCount;
+    this.maxCachedBlockCount = maxCachedBlockCount;
+    this.maxExtentBlockCount = Math.max(1, maxExtentSize / blockSize);
+    this.blockCaches = createBlockCaches(maxCachedBlockCount);
+    this.backgroundZeroing = false;
+    this.hole = ByteBuffer.allocate(blockSize).asReadOnlyBuffer();
+  }
+
+  private CacheStripe[] createBlockCaches(int maxCachedBlockCount) {
+    // one stripe per processor, rounded up to a power of 2 so a stripe can be picked with a mask
+    int stripeCount = Math.min(
+        Util.nextPowerOf2(Runtime.getRuntime().availableProcessors()), MAX_CACHE_STRIPES);
+    CacheStripe[] caches = new CacheStripe[stripeCount];
+    for (int i = 0; i < stripeCount; i++) {
+      caches[i] = new CacheStripe(this, Math.min(maxCachedBlockCount, 32));
+    }
+    return caches;
+  }
+
+  /**
+   * Creates a new block of {@link #blockSize()} bytes, all of which are zero. Only called when no
+   * cached block is available. May be called by multiple threads at once.
+   */
+  abstract ByteBuffer createBlock();
+
+  /**
+   * Creates an extent of {@code count} new blocks of {@link #blockSize()} bytes, all of which are
+   * zero. Only called when no cached block is available. May be called by multiple threads at
+   * once.
+   *
+   * <p>By default, each block is created separately with {@link #createBlock()}. Subclasses may
+   * instead slice all the blocks from a single allocation.
+   */
+  ByteBuffer[] createBlocks(int count) {
+    ByteBuffer[] blocks = new ByteBuffer[count];
+    for (int i = 0; i < count; i++) {
+      blocks[i] = createBlock();
+    }
+    return blocks;
+  }
+
+  /**
+   * Returns the size of blocks created by this disk.
+   */
+  public final int blockSize() {
+    return blockSize;
+  }
+
+  /**
+   * Returns the maximum number of blocks this disk may allocate.
+   */
+  final int maxBlockCount() {
+    return maxBlockCount;
+  }
+
+  /**
+   * Returns the block used for holes in sparse files: a read-only block of zeros that's never
+   * allocated.
+   */
+  final ByteBuffer hole() {
+    return hole;
+  }
+
+  /**
+   * Returns whether or not the given block is a {@linkplain #hole() hole}.
+   */
+  final boolean isHole(ByteBuffer block) {
+    return block == hole;
+  }
+
+  /**
+   * Marks this disk as shared by a snapshot and the file systems forked from it.
+   */
+  final void markShared() {
+    shared = true;
+  }
+
+  /**
+   * Returns whether or not this disk is shared by a snapshot and the file systems forked from it.
+   */
+  final boolean isShared() {
+    return shared;
+  }
+
+  /**
+   * Returns the total size of this disk. This is the maximum size of the disk and does not reflect
+   * the amount of data currently allocated or cached.
+   */
+  public final long getTotalSpace() {
+    return maxBlockCount * (long) blockSize;
+  }
+
+  /**
+   * Returns the current number of unallocated bytes on this disk. This is the maximum number of
+   * additional bytes that could be allocated and does not reflect the number of bytes currently
+   * actually cached in the disk.
+   */
+  public final long getUnallocatedSpace() {
+    return (maxBlockCount - allocatedBlockCount.get()) * (long) blockSize;
+  }
+
+  /**
+   * Returns the number of free blocks currently cached for reuse.
+   */
+  @VisibleForTesting
+  final int cachedBlockCount() {
+    return cachedBlockCount.get();
+  }
+
+  /**
+   * Allocates the given number of blocks and adds them to the given file.
+   *
+   * <p>Cached blocks are used first. When new blocks have to be created, the extent they're
+   * created in is at least as large as the file already is (up to the maximum extent size), so
+   * that the extents of a growing file double in size. Blocks of the extent that the file doesn't
+   * need yet are cached, where they're typically picked up by the file's next allocation.
+   *
+   * @throws IOException if the disk doesn't have enough free space or the file's
+   *     {@linkplain RegularFile#quota() quota} doesn't have enough space remaining
+   */
+  public final void allocate(RegularFile file, int count) throws IOException {
+    reserve(file, count);
+
+    int fileBlockCount = file.blockCount();
+    int newBlocksNeeded = count - takeCachedBlocks(file, count);
+    if (newBlocksNeeded > 0) {
+      int extentBlockCount = Math.min(fileBlockCount, maxExtentBlockCount);
+      int extraBlockCount = reserveCacheSpace(extentBlockCount - newBlocksNeeded);
+      ByteBuffer[] extraBlocks = createNewBlocks(file, newBlocksNeeded, extraBlockCount);
+      if (extraBlocks != null) {
+        // cache the extra blocks last to first so that they're allocated in order; they're new,
+        // so they're clean
+        CacheStripe cache = blockCache();
+        synchronized (cache) {
+          for (int i = extraBlocks.length - 1; i >= 0; i--) {
+            cache.clean.addBlock(extraBlocks[i]);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Creates {@code count} new blocks, in extents of at most the maximum extent size, and adds them
+   * to the given file. Also creates {@code extraCount} blocks in the last extent and returns them,
+   * or returns {@code null} if {@code extraCount} is 0.
+   */
+  @Nullable
+  private ByteBuffer[] createNewBlocks(RegularFile file, int count, int extraCount) {
+    ByteBuffer[] extraBlocks = extraCount == 0 ? null : new ByteBuffer[extraCount];
+    int remaining = count + extraCount;
+    while (remaining > 0) {
+      ByteBuffer[] extent = createBlocks(Math.min(remaining, maxExtentBlockCount));
+      for (ByteBuffer block : extent) {
+        if (remaining > extraCount) {
+          file.addBlock(block);
+        } else {
+          extraBlocks[extraCount - remaining] = block;
+        }
+        remaining--;
+      }
+    }
+    return extraBlocks;
+  }
+
+  /**
+   * Reserves space for {@code count} more allocated blocks.
+   *
+   * @throws IOException if the disk doesn't have room for that many more blocks
+   */
+  private void reserve(int count) throws IOException {
+    while (true) {
+      int current = allocatedBlockCount.get();
+      if (current + count > maxBlockCount) {
+        throw new IOException("out of disk space");
+      }
+      if (allocatedBlockCount.compareAndSet(current, current + count)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Reserves space for up to {@code count} more cached blocks, returning the number of blocks
+   * space was reserved for.
+   */
+  private int reserveCacheSpace(int count) {
+    while (count > 0) {
+      int current = cachedBlockCount.get();
+      int reserved = Math.min(count, maxCachedBlockCount - current);
+      if (reserved <= 0) {
+        return 0;
+      }
+      if (cachedBlockCount.compareAndSet(current, current + reserved)) {
+        return reserved;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Returns the stripe of the block cache for the current thread.
+   */
+  private CacheStripe blockCache() {
+    return blockCaches[stripeIndex()];
+  }
+
+  private int stripeIndex() {
+    return (int) Thread.currentThread().getId() & (blockCaches.length - 1);
+  }
+
+  /**
+   * Moves up to {@code count} cached blocks to the end of the given file, taking them from the
+   * current thread's stripe of the cache first and then from the other stripes. Returns the number
+   * of blocks moved. The blocks are about to be written, so dirty blocks are taken first, leaving
+   * clean blocks for {@linkplain #copyOnWrite filling holes}.
+   */
+  private int takeCachedBlocks(RegularFile file, int count) {
+    int taken = 0;
+    int start = stripeIndex();
+    for (int i = 0; i < blockCaches.length && taken < count; i++) {
+      if (cachedBlockCount.get() == 0) {
+        break;
+      }
+
+      CacheStripe cache = blockCaches[(start + i) & (blockCaches.length - 1)];
+      synchronized (cache) {
+        taken += take(cache.dirty, file, count - taken);
+        taken += take(cache.clean, file, count - taken);
+      }
+    }
+
+    if (taken > 0) {
+      updateMinCachedBlockCount(cachedBlockCount.addAndGet(-taken));
+    }
+    return taken;
+  }
+
+  /**
+   * Moves up to {@code count} blocks from the end of the given list of cached blocks to the end of
+   * the given file, returning the number of blocks moved.
+   */
+  private static int take(RegularFile blocks, RegularFile file, int count) {
+    int n = Math.min(count, blocks.blockCount());
+    if (n > 0) {
+      blocks.transferBlocksTo(file, n);
+    }
+    return n;
+  }
+
+  /**
+   * Removes a cached block from the cache and returns it, or returns {@code null} if no block is
+   * cached. If {@code zeroed} is true, the block is all zeros: a clean block is taken if there is
+   * one and otherwise a dirty block is zeroed. If not, the block's content is undefined.
+   */
+  @Nullable
+  private ByteBuffer takeCachedBlock(boolean zeroed) {
+    int start = stripeIndex();
+    for (int i = 0; i < blockCaches.length; i++) {
+      if (cachedBlockCount.get() == 0) {
+        return null;
+      }
+
+      CacheStripe cache = blockCaches[(start + i) & (blockCaches.length - 1)];
+      ByteBuffer block;
+      boolean dirty;
+      synchronized (cache) {
+        RegularFile preferred = zeroed ? cache.clean : cache.dirty;
+        RegularFile blocks = preferred.blockCount() > 0
+            ? preferred
+            : zeroed ? cache.dirty : cache.clean;
+        int cachedCount = blocks.blockCount();
+        if (cachedCount == 0) {
+          continue;
+        }
+
+        block = blocks.getBlock(cachedCount - 1);
+        blocks.truncateBlocks(cachedCount - 1);
+        dirty = blocks == cache.dirty;
+      }
+
+      updateMinCachedBlockCount(cachedBlockCount.decrementAndGet());
+      if (zeroed && dirty) {
+        Util.zero(block, 0, blockSize);
+      }
+      return block;
+    }
+    return null;
+  }
+
+  private void updateMinCachedBlockCount(int count) {
+    while (true) {
+      int min = minCachedBlockCount.get();
+      if (count >= min || minCachedBlockCount.compareAndSet(min, count)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Removes all blocks from the cache, so that they can be garbage collected. Returns the number
+   * of blocks removed. A block that's part of an {@linkplain #createBlocks extent} is only
+   * collected along with the rest of the extent, once none of its blocks are referenced.
+   */
+  public final int trimCache() {
+    return trimCache(Integer.MAX_VALUE);
+  }
+
+  /**
+   * Removes the blocks from the cache that haven't been needed since the last time this method was
+   * called, which is the lowest number of blocks the cache has held since then. Returns the number
+   * of blocks removed. Called periodically when the disk is configured to
+   * {@linkplain Configuration.Builder#setCacheTrimInterval trim its cache}.
+   */
+  final int trimIdleBlocks() {
+    int idleCount = minCachedBlockCount.get();
+    int trimmed = idleCount == 0 ? 0 : trimCache(idleCount);
+    // start the next interval from the current cache size
+    minCachedBlockCount.set(cachedBlockCount.get());
+    return trimmed;
+  }
+
+  /**
+   * Removes up to {@code count} blocks from the cache, returning the number removed.
+   */
+  private int trimCache(int count) {
+    int trimmed = 0;
+    for (CacheStripe cache : blockCaches) {
+      if (trimmed == count) {
+        break;
+      }
+
+      synchronized (cache) {
+        trimmed += trim(cache.dirty, count - trimmed);
+        trimmed += trim(cache.clean, count - trimmed);
+      }
+    }
+
+    updateMinCachedBlockCount(cachedBlockCount.addAndGet(-trimmed));
+    return trimmed;
+  }
+
+  /**
+   * Removes up to {@code count} blocks from the end of the given list of cached blocks, returning
+   * the number removed.
+   */
+  private static int trim(RegularFile blocks, int count) {
+    int n = Math.min(count, blocks.blockCount());
+    blocks.truncateBlocks(blocks.blockCount() - n);
+    return n;
+  }
+
+  /**
+   * Zeroes all dirty blocks in the cache, making them clean so that filling a hole with one of
+   * them doesn't have to zero it. Returns the number of blocks zeroed. The blocks are zeroed
+   * without holding the lock on their stripe, so other threads can use the cache meanwhile. Called
+   * by a background thread after blocks are freed when the disk is configured for
+   * {@linkplain Configuration.Builder#setBackgroundZeroing background zeroing}.
+   */
+  final int zeroDirtyBlocks() {
+    int zeroed = 0;
+    for (CacheStripe cache : blockCaches) {
+      ByteBuffer[] blocks;
+      synchronized (cache) {
+        int count = cache.dirty.blockCount();
+        if (count == 0) {
+          continue;
+        }
+
+        blocks = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+          blocks[i] = cache.dirty.getBlock(i);
+        }
+        cache.dirty.truncateBlocks(0);
+      }
+
+      for (ByteBuffer block : blocks) {
+        Util.zero(block, 0, blockSize);
+      }
+
+      synchronized (cache) {
+        for (ByteBuffer block : blocks) {
+          cache.clean.addBlock(block);
+        }
+      }
+      zeroed += blocks.length;
+    }
+    return zeroed;
+  }
+
+  /**
+   * Schedules the dirty blocks in the cache to be zeroed in the background, if the disk is
+   * configured to do so and they aren't already scheduled to be.
+   */
+  private void scheduleZeroing() {
+    if (backgroundZeroing && zeroingScheduled.compareAndSet(false, true)) {
+      Maintenance.EXECUTOR.execute(new Runnable() {
+        @Override
+        public void run() {
+          zeroingScheduled.set(false);
+          zeroDirtyBlocks();
+        }
+      });
+    }
+  }
+
+  /**
+   * Reserves the given number of blocks for the given file, charging them to the file's quota if
+   * it has one.
+   *
+   * @throws IOException if the disk doesn't have enough free space or the quota doesn't have
+   *     enough space remaining
+   */
+  private void reserve(RegularFile file, int count) throws IOException {
+    chargeQuota(file, count);
+    try {
+      reserve(count);
+    } catch (IOException e) {
+      chargeQuota(file, -count);
+      throw e;
+    }
+  }
+
+  /**
+   * Charges the space of the given number of blocks to the quota of the given file, if it has one.
+   * A negative count releases that many blocks instead; releasing never fails.
+   *
+   * @throws IOException if the quota doesn't have enough space remaining
+   */
+  private void chargeQuota(RegularFile file, int count) throws IOException {
+    Quota quota = file.quota();
+    if (quota != null && count != 0) {
+      quota.charge((long) count * blockSize, 0);
+    }
+  }
+
+  /**
+   * Releases the space of the given number of blocks from the quota of the given file, if it has
+   * one.
+   */
+  private void releaseQuota(RegularFile file, int count) {
+    Quota quota = file.quota();
+    if (quota != null) {
+      quota.release((long) count * blockSize, 0);
+    }
+  }
+
+  /**
+   * Returns the number of the {@code count} blocks of the given file starting at {@code index}
+   * that aren't holes.
+   */
+  private int countBlocks(RegularFile file, int index, int count) {
+    if (!file.mayHaveHoles()) {
+      return count;
+    }
+
+    int result = 0;
+    for (int i = index; i < index + count; i++) {
+      if (file.getBlock(i) != hole) {
+        result++;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Caches the given freed block if there's room in the cache.
+   */
+  private void cacheBlock(ByteBuffer block) {
+    if (reserveCacheSpace(1) == 1) {
+      CacheStripe cache = blockCache();
+      synchronized (cache) {
+        cache.dirty.addBlock(block);
+      }
+    }
+  }
+
+  /**
+   * Adds all blocks of the given source file to the end of the given copy, so that the two files
+   * share the blocks rather than the copy getting new blocks. Shared blocks are only counted once
+   * against the size of this disk. Once shared, a block must not be written to until it has been
+   * made exclusive to the writing file with {@link #copyOnWrite}. Holes are copied as holes.
+   * Both files are marked as {@linkplain RegularFile#mayShareBlocks() possibly sharing blocks}.
+   * The copy's quota, if it has one, is charged for the shared blocks just as if they had been
+   * allocated to it.
+   *
+   * @throws IOException if the copy's quota doesn't have enough space remaining
+   */
+  public final void share(RegularFile source, RegularFile copy) throws IOException {
+    chargeQuota(copy, countBlocks(source, 0, source.blockCount()));
+    synchronized (sharedBlocks) {
+      source.setMayShareBlocks();
+      copy.setMayShareBlocks();
+      for (int i = 0; i < source.blockCount(); i++) {
+        ByteBuffer block = source.getBlock(i);
+        if (block != hole) {
+          Integer count = sharedBlocks.get(block);
+          sharedBlocks.put(block, count == null ? 2 : count + 1);
+        }
+        copy.addBlock(block);
+      }
+    }
+  }
+
+  /**
+   * Makes the {@code count} blocks of the target file starting at {@code targetIndex} the blocks
+   * of the source file starting at {@code sourceIndex}, so that the two files share them. Blocks
+   * the target file had at those indexes are released; indexes past the end of the target file
+   * must directly follow its last block. As with {@link #share(RegularFile, RegularFile)}, shared
+   * blocks must be made exclusive with {@link #copyOnWrite} before they're written to.
+   *
+   * @throws IOException if the target file's quota doesn't have enough space for the blocks it
+   *     gains
+   */
+  public final void share(RegularFile source, int sourceIndex,
+      RegularFile target, int targetIndex, int count) throws IOException {
+    int replacedCount = Math.min(count, target.blockCount() - targetIndex);
+    int quotaCount = countBlocks(source, sourceIndex, count)
+        - countBlocks(target, targetIndex, replacedCount);
+    chargeQuota(target, quotaCount);
+
+    int freedCount = 0;
+    synchronized (sharedBlocks) {
+      source.setMayShareBlocks();
+      target.setMayShareBlocks();
+      for (int i = 0; i < count; i++) {
+        ByteBuffer block = source.getBlock(sourceIndex + i);
+        if (block != hole) {
+          Integer sharedCount = sharedBlocks.get(block);
+          sharedBlocks.put(block, sharedCount == null ? 2 : sharedCount + 1);
+        }
+
+        int index = targetIndex + i;
+        if (index == target.blockCount()) {
+          target.addBlock(block);
+          continue;
+        }
+
+        ByteBuffer replaced = target.getBlock(index);
+        target.setBlock(index, block);
+        if (replaced != hole && !release(replaced)) {
+          freedCount++;
+          if (!target.isMapped()) {
+            cacheBlock(replaced);
+          }
+        }
+      }
+    }
+
+    allocatedBlockCount.addAndGet(-freedCount);
+    if (freedCount > 0) {
+      scheduleZeroing();
+    }
+  }
+
+  /**
+   * Returns the block at the given index in the given file for writing. If the block is shared
+   * with other files, it's first replaced in the file with a new block containing a copy of its
+   * content. If the block is a {@linkplain #hole() hole}, it's first replaced with a newly
+   * allocated block of zeros, which is charged to the file's quota.
+   *
+   * @throws IOException if the block needs to be copied or allocated but the disk is full, or if
+   *     a hole needs to be filled but the file's quota is full
+   */
+  public final ByteBuffer copyOnWrite(RegularFile file, int index) throws IOException {
+    ByteBuffer block = file.getBlock(index);
+    if (block == hole) {
+      reserve(file, 1);
+      ByteBuffer newBlock = takeCachedBlock(true);
+      if (newBlock == null) {
+        newBlock = createBlock();
+      }
+      file.setBlock(index, newBlock);
+      return newBlock;
+    }
+
+    if (!sharedBlocks.containsKey(block)) {
+      return block;
+    }
+
+    // the block's reference count may be changed concurrently by the other files sharing it, so
+    // the check, the copy and the release must all happen with the lock held
+    synchronized (sharedBlocks) {
+      if (!sharedBlocks.containsKey(block)) {
+        return block;
+      }
+
+      reserve(1);
+      ByteBuffer copy = takeCachedBlock(false);
+      if (copy == null) {
+        copy = createBlock();
+      }
+      copy.duplicate().put(block.duplicate());
+
+      file.setBlock(index, copy);
+      release(block);
+      return copy;
+    }
+  }
+
+  /**
+   * Returns whether or not the given block is currently {@linkplain #share shared} with other
+   * files. Only meaningful to a file that holds its write lock and references the block.
+   */
+  final boolean isSharedBlock(ByteBuffer block) {
+    return sharedBlocks.containsKey(block);
+  }
+
+  /**
+   * Releases one file's reference to the given block if it's shared, returning {@code true} if
+   * so. Returns {@code false} if the block isn't shared. Must be called with the lock on the
+   * shared blocks held.
+   */
+  private boolean release(ByteBuffer block) {
+    Integer count = sharedBlocks.get(block);
+    if (count == null) {
+      return false;
+    }
+
+    if (count == 2) {
+      sharedBlocks.remove(block);
+    } else {
+      sharedBlocks.put(block, count - 1);
+    }
+    return true;
+  }
+
+  /**
+   * Frees all blocks in the given file.
+   */
+  public final void free(RegularFile file) {
+    free(file, file.blockCount());
+  }
+
+  /**
+   * Frees the last {@code count} blocks from the given file. Blocks from a file that has been
+   * mapped are never cached, since they may still be in use by a mapped buffer. Blocks that are
+   * shared with other files are only released by the given file; they aren't freed until no file
+   * references them. Holes are simply removed.
+   */
+  public final void free(RegularFile file, int count) {
+    if (file.mayShareBlocks() || file.mayHaveHoles()) {
+      freeWithSharing(file, count);
+      return;
+    }
+
+    if (!file.isMapped()) {
+      int cacheCount = reserveCacheSpace(count);
+      if (cacheCount > 0) {
+        CacheStripe cache = blockCache();
+        synchronized (cache) {
+          file.copyBlocksTo(cache.dirty, cacheCount);
+        }
+        scheduleZeroing();
+      }
+    }
+    file.truncateBlocks(file.blockCount() - count);
+
+    allocatedBlockCount.addAndGet(-count);
+    releaseQuota(file, count);
+  }
+
+  /**
+   * Frees the last {@code count} blocks from the given file when some blocks may be shared or be
+   * holes.
+   */
+  private void freeWithSharing(RegularFile file, int count) {
+    int newBlockCount = file.blockCount() - count;
+    releaseQuota(file, countBlocks(file, newBlockCount, count));
+    int freedCount = 0;
+    synchronized (sharedBlocks) {
+      for (int i = newBlockCount; i < file.blockCount(); i++) {
+        ByteBuffer block = file.getBlock(i);
+        if (block != hole && !release(block)) {
+          freedCount++;
+          if (!file.isMapped()) {
+            cacheBlock(block);
+          }
+        }
+      }
+    }
+    file.truncateBlocks(newBlockCount);
+
+    allocatedBlockCount.addAndGet(-freedCount);
+    if (freedCount > 0) {
+      scheduleZeroing();
+    }
+  }
+
+  /**
+   * Task that periodically {@linkplain #trimIdleBlocks trims} a disk's cache. The task only weakly
+   * references the disk, and cancels itself once the disk has been collected.
+   */
+  private static final class Trim implements Runnable {
+
+    private final WeakReference<Disk> disk;
+    private volatile ScheduledFuture<?> future;
+
+    Trim(Disk disk) {
+      this.disk = new WeakReference<>(disk);
+    }
+
+    void schedule(long intervalNanos) {
+      future = Maintenance.EXECUTOR.scheduleAtFixedRate(
+          this, intervalNanos, intervalNanos, NANOSECONDS);
+    }
+
+    @Override
+    public void run() {
+      Disk disk = this.disk.get();
+      if (disk != null) {
+        disk.trimIdleBlocks();
+      } else if (future != null) {
+        future.cancel(false);
+      }
+    }
+  }
+
+  /**
+   * A stripe of the block cache. Blocks that may still hold content from the files they were freed
+   * from (dirty blocks) are kept apart from blocks known to be all zeros (clean blocks), so a block
+   * is only zeroed when a file actually needs zeros in it. While each list of blocks is stored as a
+   * file, it isn't used like a normal file: only the methods for accessing its blocks are used.
+   */
+  private static final class CacheStripe {
+
+    final RegularFile dirty;
+    final RegularFile clean;
+
+    CacheStripe(Disk disk, int initialCapacity) {
+      this.dirty = new RegularFile(-1, FileTime.fromMillis(0), disk,
+          new ByteBuffer[initialCapacity], 0, 0);
+      this.clean = new RegularFile(-1, FileTime.fromMillis(0), disk,
+          new ByteBuffer[initialCapacity], 0, 0);
+    }
+  }
+
+  /**
+   * Holder for the single daemon thread that trims and zeroes the caches of all disks in the
+   * background, created when the first disk that needs it is.
+   */
+  private static final class Maintenance {
+    static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder()
+            .setNameFormat("com.google.common.jimfs.Disk-maintenance")
+            .setDaemon(true)
+            .build());
+  }
+}
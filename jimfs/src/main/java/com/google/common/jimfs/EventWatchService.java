@@ -0,0 +1,144 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableList;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchService;
+import java.nio.file.Watchable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Implementation of {@link WatchService} that is notified of changes to watched directories as
+ * they happen. Registering a directory adds a {@link Watch} to the {@link Directory} itself, and
+ * the directory posts events to its watches when entries are linked or unlinked in it or when the
+ * file an entry links to is modified. No threads are used and a service with no changes to report
+ * does no work at all.
+ */
+final class EventWatchService extends AbstractWatchService {
+
+  /**
+   * Map of keys to the watches that post events to them.
+   */
+  private final ConcurrentMap<Key, Watch> watches = new ConcurrentHashMap<>();
+
+  private final FileSystemView view;
+  private final PathService pathService;
+  private final FileSystemState fileSystemState;
+
+  public EventWatchService(
+      FileSystemView view, PathService pathService, FileSystemState fileSystemState) {
+    this.view = checkNotNull(view);
+    this.pathService = checkNotNull(pathService);
+    this.fileSystemState = checkNotNull(fileSystemState);
+
+    fileSystemState.register(this);
+  }
+
+  @Override
+  public Key register(Watchable watchable,
+      Iterable<? extends WatchEvent.Kind<?>> eventTypes) throws IOException {
+    JimfsPath path = checkWatchable(watchable);
+
+    Key key = super.register(path, eventTypes);
+    Watch watch = new Watch(key);
+    watches.put(key, watch);
+    try {
+      watch.directory = view.watch(path, watch);
+    } catch (IOException | RuntimeException e) {
+      watches.remove(key);
+      throw e;
+    }
+
+    return key;
+  }
+
+  private JimfsPath checkWatchable(Watchable watchable) {
+    if (!(watchable instanceof JimfsPath) || !isSameFileSystem((Path) watchable)) {
+      throw new IllegalArgumentException("watchable (" + watchable + ") must be a Path "
+          + "associated with the same file system as this watch service");
+    }
+
+    return (JimfsPath) watchable;
+  }
+
+  private boolean isSameFileSystem(Path path) {
+    return ((JimfsFileSystem) path.getFileSystem()).getDefaultView() == view;
+  }
+
+  @Override
+  public void cancelled(Key key) {
+    Watch watch = watches.remove(key);
+    if (watch != null && watch.directory != null) {
+      view.unwatch(watch.directory, watch);
+    }
+  }
+
+  @Override
+  public void close() {
+    super.close();
+
+    for (Key key : ImmutableList.copyOf(watches.keySet())) {
+      key.cancel();
+    }
+
+    fileSystemState.unregister(this);
+  }
+
+  /**
+   * A registration of a key with a directory. Posts the events the directory reports to the key
+   * and signals it.
+   */
+  final class Watch {
+
+    private final Key key;
+
+    /** The watched directory; set once the watch has been added to it. */
+    private volatile Directory directory;
+
+    private Watch(Key key) {
+      this.key = key;
+    }
+
+    /**
+     * Posts an event of the given kind with the given name as its context to the key, if the key
+     * is subscribed to that kind of event.
+     */
+    void post(WatchEvent.Kind<Path> kind, Name name) {
+      if (key.subscribesTo(kind)) {
+        key.post(new Event<>(kind, 1, pathService.createFileName(name)));
+        key.signal();
+      }
+    }
+
+    /**
+     * Called when the watched directory is deleted. The directory has already dropped this watch,
+     * so the key is invalidated and signalled without removing the watch from it again.
+     */
+    void directoryDeleted() {
+      watches.remove(key);
+      key.invalidate();
+      key.signal();
+    }
+  }
+}
@@ -21,10 +21,14 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Objects;
 import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableTable;
 import com.google.common.collect.Table;
 
 import java.io.IOException;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import javax.annotation.Nullable;
@@ -36,24 +40,53 @@ import javax.annotation.Nullable;
  */
 public abstract class File {
 
+  /**
+   * How old the access time must be for a read to update it with
+   * {@link AccessTimePolicy#RELATIVE} even though the file hasn't been modified since: one day.
+   */
+  private static final long RELATIVE_ACCESS_TIME_INTERVAL = TimeUnit.DAYS.toMillis(1);
+
   private final int id;
 
   private int links;
 
-  private long creationTime;
-  private long lastAccessTime;
-  private long lastModifiedTime;
+  private FileTime creationTime;
+  private volatile FileTime lastAccessTime;
+  private volatile FileTime lastModifiedTime;
+
+  /**
+   * The time of the last read not yet reflected in {@link #lastAccessTime}, recorded without
+   * locking when using {@link AccessTimePolicy#LAZY}.
+   */
+  @Nullable
+  private volatile FileTime pendingAccessTime;
 
   @Nullable // null when only the basic view is used (default)
   private Table<String, String, Object> attributes;
 
-  File(int id) {
-    this.id = id;
+  /**
+   * The entries linking to this file in directories that are being watched, to which changes to
+   * this file are posted as modify events. Empty for nearly all files.
+   */
+  private volatile ImmutableList<DirectoryEntry> watchedEntries = ImmutableList.of();
+
+  /**
+   * The quota this file is charged to, or for a directory, the quota its entries are charged to.
+   */
+  @Nullable
+  private volatile Quota quota;
+
+  /**
+   * Whether a cached lookup may have resolved names through this file, in which case unlinking it
+   * must invalidate the lookup cache. Only ever set for directories and symbolic links.
+   */
+  private volatile boolean resolvedThrough;
 
-    long now = System.currentTimeMillis(); // TODO(cgdecker): Use a Clock
-    this.creationTime = now;
-    this.lastAccessTime = now;
-    this.lastModifiedTime = now;
+  File(int id, FileTime creationTime) {
+    this.id = id;
+    this.creationTime = checkNotNull(creationTime);
+    this.lastAccessTime = creationTime;
+    this.lastModifiedTime = creationTime;
   }
 
   /**
@@ -93,11 +126,11 @@ public abstract class File {
   }
 
   /**
-   * Creates a new file of the same type as this file with the given ID. Does not copy the content
-   * of this file unless the cost of copying the content is minimal. This is because this method is
-   * called with a hold on the file system's lock.
+   * Creates a new file of the same type as this file with the given ID and creation time. Does not
+   * copy the content of this file unless the cost of copying the content is minimal. This is
+   * because this method is called with a hold on the file system's lock.
    */
-  abstract File copyWithoutContent(int id);
+  abstract File copyWithoutContent(int id, FileTime creationTime);
 
   /**
    * Copies the content of this file to the given file. The given file must be the same type of
@@ -177,60 +210,176 @@ public abstract class File {
     links--;
   }
 
+  /**
+   * Sets the link count for this file. Used when forking a file from a snapshot, since the links
+   * to the fork's copy are only restored as the directories containing it are copied.
+   */
+  synchronized final void setLinkCount(int links) {
+    this.links = links;
+  }
+
+  /**
+   * Returns the quota this file is charged to, or {@code null} if it isn't charged to a quota. For
+   * a directory, this is the quota that files created in it are charged to, which is the
+   * directory's own quota if it has one.
+   */
+  @Nullable
+  final Quota quota() {
+    return quota;
+  }
+
+  /**
+   * Sets the quota this file is charged to. The caller is responsible for moving any charges.
+   */
+  final void setQuota(@Nullable Quota quota) {
+    this.quota = quota;
+  }
+
+  /**
+   * Returns whether or not a cached lookup may have resolved names through this file.
+   */
+  final boolean isResolvedThrough() {
+    return resolvedThrough;
+  }
+
+  /**
+   * Records that a cached lookup resolved names through this file.
+   */
+  final void setResolvedThrough() {
+    // most walks go through files that are already marked, so avoid the volatile write
+    if (!resolvedThrough) {
+      resolvedThrough = true;
+    }
+  }
+
   /**
    * Gets the creation time of the file.
    */
-  public synchronized final long getCreationTime() {
+  public synchronized final FileTime getCreationTime() {
     return creationTime;
   }
 
   /**
    * Gets the last access time of the file.
    */
-  public synchronized final long getLastAccessTime() {
+  public synchronized final FileTime getLastAccessTime() {
+    materializeAccessTime();
     return lastAccessTime;
   }
 
   /**
    * Gets the last modified time of the file.
    */
-  public synchronized final long getLastModifiedTime() {
+  public synchronized final FileTime getLastModifiedTime() {
     return lastModifiedTime;
   }
 
   /**
    * Sets the creation time of the file.
    */
-  synchronized final void setCreationTime(long creationTime) {
-    this.creationTime = creationTime;
+  synchronized final void setCreationTime(FileTime creationTime) {
+    this.creationTime = checkNotNull(creationTime);
   }
 
   /**
    * Sets the last access time of the file.
    */
-  synchronized final void setLastAccessTime(long lastAccessTime) {
-    this.lastAccessTime = lastAccessTime;
+  synchronized final void setLastAccessTime(FileTime lastAccessTime) {
+    this.lastAccessTime = checkNotNull(lastAccessTime);
+    this.pendingAccessTime = null;
   }
 
   /**
-   * Sets the last modified time of the file.
+   * Sets the last modified time of the file, posting a modify event to each watched directory
+   * linking to it.
    */
-  synchronized final void setLastModifiedTime(long lastModifiedTime) {
-    this.lastModifiedTime = lastModifiedTime;
+  final void setLastModifiedTime(FileTime lastModifiedTime) {
+    checkNotNull(lastModifiedTime);
+    synchronized (this) {
+      this.lastModifiedTime = lastModifiedTime;
+    }
+
+    for (DirectoryEntry entry : watchedEntries) {
+      entry.directory().entryModified(entry.name());
+    }
   }
 
   /**
-   * Sets the last access time of the file to the current time.
+   * Called when the given entry linking to this file is in, or was just added to, a directory
+   * that is being watched.
    */
-  final void updateAccessTime() {
-    setLastAccessTime(System.currentTimeMillis());
+  synchronized final void watched(DirectoryEntry entry) {
+    watchedEntries = ImmutableList.<DirectoryEntry>builder()
+        .addAll(watchedEntries)
+        .add(entry)
+        .build();
   }
 
   /**
-   * Sets the last modified time of the file to the current time.
+   * Called when the given entry linking to this file was removed from a watched directory or its
+   * directory is no longer being watched.
    */
-  final void updateModifiedTime() {
-    setLastModifiedTime(System.currentTimeMillis());
+  synchronized final void unwatched(DirectoryEntry entry) {
+    ImmutableList.Builder<DirectoryEntry> builder = ImmutableList.builder();
+    for (DirectoryEntry watched : watchedEntries) {
+      if (watched != entry) {
+        builder.add(watched);
+      }
+    }
+    watchedEntries = builder.build();
+  }
+
+  /**
+   * Updates the last access time of the file, which was just read, according to the given policy,
+   * getting the current time from the given source only if the policy needs it now.
+   */
+  final void updateAccessTime(AccessTimePolicy policy, FileTimeSource clock) {
+    FileTime now;
+    switch (policy) {
+      case STRICT:
+        // reads of a file can be very frequent and needn't otherwise lock it; only lock when the
+        // time has actually changed
+        now = clock.now();
+        if (!now.equals(lastAccessTime)) {
+          setLastAccessTime(now);
+        }
+        break;
+      case RELATIVE:
+        FileTime accessTime = lastAccessTime;
+        if (accessTime.compareTo(lastModifiedTime) <= 0) {
+          setLastAccessTime(clock.now());
+          break;
+        }
+        now = clock.now();
+        if (now.toMillis() - accessTime.toMillis() >= RELATIVE_ACCESS_TIME_INTERVAL) {
+          setLastAccessTime(now);
+        }
+        break;
+      case LAZY:
+        // only write when the time has changed so that threads reading the file concurrently
+        // don't keep invalidating each other's cached copy of the field; with a cached time
+        // source, reading the time is itself just a field read
+        now = clock.now();
+        if (!now.equals(pendingAccessTime)) {
+          pendingAccessTime = now;
+        }
+        break;
+      case NONE:
+        break;
+      default:
+        throw new AssertionError(policy);
+    }
+  }
+
+  /**
+   * Makes the time of the last read recorded with {@link AccessTimePolicy#LAZY}, if any, the last
+   * access time of this file.
+   */
+  private void materializeAccessTime() {
+    FileTime pending = pendingAccessTime;
+    if (pending != null && pending.compareTo(lastAccessTime) > 0) {
+      lastAccessTime = pending;
+    }
   }
 
   /**
@@ -260,6 +409,17 @@ public abstract class File {
     return builder.build();
   }
 
+  /**
+   * Returns an immutable copy of the attributes table for the file, with the attribute view and
+   * attribute names as the row and column keys.
+   */
+  synchronized final ImmutableTable<String, String, Object> getAttributes() {
+    if (attributes == null) {
+      return ImmutableTable.of();
+    }
+    return ImmutableTable.copyOf(attributes);
+  }
+
   /**
    * Gets the value of the given attribute in the given view.
    */
@@ -294,14 +454,16 @@ public abstract class File {
    * Copies basic attributes (file times) from this file to the given file.
    */
   synchronized final void copyBasicAttributes(File target) {
+    materializeAccessTime();
     target.setFileTimes(creationTime, lastModifiedTime, lastAccessTime);
   }
 
   private synchronized void setFileTimes(
-      long creationTime, long lastModifiedTime, long lastAccessTime) {
+      FileTime creationTime, FileTime lastModifiedTime, FileTime lastAccessTime) {
     this.creationTime = creationTime;
     this.lastModifiedTime = lastModifiedTime;
     this.lastAccessTime = lastAccessTime;
+    this.pendingAccessTime = null;
   }
 
   /**
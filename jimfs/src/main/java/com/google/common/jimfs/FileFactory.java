@@ -22,6 +22,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Supplier;
 
 import java.io.IOException;
+import java.nio.file.attribute.FileTime;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -31,33 +32,49 @@ import java.util.concurrent.atomic.AtomicInteger;
  */
 final class FileFactory {
 
-  private final AtomicInteger idGenerator = new AtomicInteger();
+  private final AtomicInteger idGenerator;
 
-  private final HeapDisk disk;
+  private final Disk disk;
+  private final FileTimeSource fileTimeSource;
 
   /**
-   * Creates a new file factory using the given disk for regular files.
+   * Creates a new file factory using the given disk for regular files and the given source for
+   * the creation times of new files.
    */
-  public FileFactory(HeapDisk disk) {
+  public FileFactory(Disk disk, FileTimeSource fileTimeSource) {
+    this(disk, fileTimeSource, 0);
+  }
+
+  /**
+   * Creates a new file factory using the given disk for regular files and the given source for
+   * the creation times of new files, giving new files IDs starting at the given ID.
+   */
+  public FileFactory(Disk disk, FileTimeSource fileTimeSource, int firstFileId) {
     this.disk = checkNotNull(disk);
+    this.fileTimeSource = checkNotNull(fileTimeSource);
+    this.idGenerator = new AtomicInteger(firstFileId);
   }
 
   private int nextFileId() {
     return idGenerator.getAndIncrement();
   }
 
+  private FileTime now() {
+    return fileTimeSource.now();
+  }
+
   /**
    * Creates a new directory.
    */
   public Directory createDirectory() {
-    return Directory.create(nextFileId());
+    return Directory.create(nextFileId(), now());
   }
 
   /**
    * Creates a new root directory with the given name.
    */
   public Directory createRootDirectory(Name name) {
-    return Directory.createRoot(nextFileId(), name);
+    return Directory.createRoot(nextFileId(), now(), name);
   }
 
   /**
@@ -65,7 +82,7 @@ final class FileFactory {
    */
   @VisibleForTesting
   RegularFile createRegularFile() {
-    return RegularFile.create(nextFileId(), disk);
+    return RegularFile.create(nextFileId(), now(), disk);
   }
 
   /**
@@ -73,14 +90,14 @@ final class FileFactory {
    */
   @VisibleForTesting
   SymbolicLink createSymbolicLink(JimfsPath target) {
-    return SymbolicLink.create(nextFileId(), target);
+    return SymbolicLink.create(nextFileId(), now(), target);
   }
 
   /**
    * Creates and returns a copy of the given file.
    */
   public File copyWithoutContent(File file) throws IOException {
-    return file.copyWithoutContent(nextFileId());
+    return file.copyWithoutContent(nextFileId(), now());
   }
 
   // suppliers to act as file creation callbacks
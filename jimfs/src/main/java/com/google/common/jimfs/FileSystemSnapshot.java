@@ -0,0 +1,330 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.collect.ImmutableSortedMap;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileSystem;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+
+/**
+ * A point-in-time copy of the files in a Jimfs file system, from which any number of new,
+ * independent file systems can be {@linkplain #fork() forked}. Snapshots are created with
+ * {@link Jimfs#snapshot(FileSystem)}.
+ *
+ * <p>Taking a snapshot copies the file tree and the attributes of every file, but not the content
+ * of regular files: the snapshot shares each file's blocks with the file system until the file
+ * system writes to them. Forking, on the other hand, takes the same time regardless of the size of
+ * the snapshot. A fork starts out with only its root directories; the entries of each directory
+ * are copied from the snapshot the first time the directory is accessed, and regular files share
+ * their blocks with the snapshot until they're written to.
+ *
+ * <p>Since they share blocks, a snapshot and all file systems forked from it store file content on
+ * the disk of the file system the snapshot was taken of, and are limited by that file system's
+ * {@linkplain Configuration.Builder#setMaxSize maximum size} together with it. Closing a file
+ * system that shares the disk frees the blocks of its files, and {@linkplain #close() closing} the
+ * snapshot frees the blocks of the snapshot's files once all of its forks have been closed.
+ *
+ * <p>Files keep their IDs, and with them their {@linkplain
+ * java.nio.file.attribute.BasicFileAttributes#fileKey() file keys}, in a snapshot and its forks.
+ *
+ * <p>A snapshot can be saved as a binary image with {@link #writeTo(OutputStream)} and restored,
+ * possibly in another JVM, with {@link #readFrom(Path, Configuration)}.
+ */
+public final class FileSystemSnapshot implements Closeable {
+
+  private final Configuration configuration;
+  private final Disk disk;
+  private final ImmutableSortedMap<Name, Directory> roots;
+  private final int nextFileId;
+
+  /** The number of file systems forked from this snapshot that haven't been closed. */
+  private int openForkCount;
+  private boolean closed;
+
+  FileSystemSnapshot(Configuration configuration, Disk disk,
+      ImmutableSortedMap<Name, Directory> roots, int nextFileId) {
+    this.configuration = checkNotNull(configuration);
+    this.disk = checkNotNull(disk);
+    this.roots = checkNotNull(roots);
+    this.nextFileId = nextFileId;
+    disk.markShared();
+  }
+
+  /**
+   * Creates a snapshot of the given file system. The file system's write lock is held while the
+   * file tree is copied.
+   */
+  static FileSystemSnapshot create(JimfsFileSystem fileSystem) throws IOException {
+    JimfsFileStore store = fileSystem.getFileStore();
+    ImmutableSortedMap.Builder<Name, Directory> roots =
+        ImmutableSortedMap.orderedBy(Name.canonicalOrdering());
+    Map<File, File> copies = new IdentityHashMap<>();
+
+    store.writeLock().lock();
+    try {
+      for (Name name : store.getRootDirectoryNames()) {
+        Directory root = store.getRoot(name);
+        Directory rootCopy = Directory.createRoot(root.id(), root.getCreationTime(), name);
+        copies.put(root, rootCopy);
+        root.copyAttributes(rootCopy);
+        copyEntries(root, rootCopy, copies);
+        roots.put(name, rootCopy);
+      }
+    } catch (IOException e) {
+      // release the blocks the partial snapshot shares with the file system
+      for (File copy : copies.values()) {
+        if (copy.isRegularFile()) {
+          store.disk().free((RegularFile) copy);
+        }
+      }
+      throw e;
+    } finally {
+      store.writeLock().unlock();
+    }
+
+    int nextFileId = 0;
+    for (File file : copies.keySet()) {
+      nextFileId = Math.max(nextFileId, file.id() + 1);
+    }
+    return new FileSystemSnapshot(
+        fileSystem.getConfiguration(), store.disk(), roots.build(), nextFileId);
+  }
+
+  /**
+   * Copies the entries of the given directory, and the files they link to, to the given copy of
+   * the directory. Files with more than one link are only copied once.
+   */
+  private static void copyEntries(Directory dir, Directory copy, Map<File, File> copies)
+      throws IOException {
+    for (DirectoryEntry entry : dir) {
+      Name name = entry.name();
+      if (name.equals(Name.SELF) || name.equals(Name.PARENT)) {
+        continue;
+      }
+
+      File file = entry.file();
+      File fileCopy = copies.get(file);
+      if (fileCopy == null) {
+        fileCopy = file.copyWithoutContent(file.id(), file.getCreationTime());
+        copies.put(file, fileCopy);
+        file.copyAttributes(fileCopy);
+        if (file.isDirectory()) {
+          copyEntries((Directory) file, (Directory) fileCopy, copies);
+        } else {
+          copyContent(file, fileCopy);
+        }
+      }
+      copy.link(name, fileCopy);
+    }
+  }
+
+  private static void copyContent(File file, File copy) throws IOException {
+    ReadWriteLock lock = file.contentLock();
+    if (lock == null) {
+      file.copyContentTo(copy);
+      return;
+    }
+
+    lock.readLock().lock();
+    try {
+      file.copyContentTo(copy);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the configuration of the file system this snapshot was taken of, which forks of the
+   * snapshot also use.
+   */
+  Configuration configuration() {
+    return configuration;
+  }
+
+  /**
+   * Returns the disk storing the content of the files in this snapshot.
+   */
+  Disk disk() {
+    return disk;
+  }
+
+  /**
+   * Returns the root directories of this snapshot.
+   */
+  ImmutableSortedMap<Name, Directory> roots() {
+    return roots;
+  }
+
+  /**
+   * Returns the root directory with the given name in this snapshot.
+   */
+  Directory getRoot(Name name) {
+    return roots.get(name);
+  }
+
+  /**
+   * Returns an ID greater than the IDs of all files in this snapshot.
+   */
+  int nextFileId() {
+    return nextFileId;
+  }
+
+  /**
+   * Discards the regular files in the trees under the given directories, freeing the blocks they
+   * hold on a shared disk. Directories whose entries haven't been copied from a snapshot yet don't
+   * contain any files of their own and are skipped.
+   */
+  static void discardFiles(Iterable<Directory> roots) {
+    Deque<Directory> stack = new ArrayDeque<>();
+    for (Directory root : roots) {
+      stack.push(root);
+    }
+
+    while (!stack.isEmpty()) {
+      Directory dir = stack.pop();
+      if (dir.hasUncopiedEntries()) {
+        continue;
+      }
+
+      for (DirectoryEntry entry : dir) {
+        Name name = entry.name();
+        if (name.equals(Name.SELF) || name.equals(Name.PARENT)) {
+          continue;
+        }
+
+        File file = entry.file();
+        if (file.isDirectory()) {
+          stack.push((Directory) file);
+        } else if (file.isRegularFile()) {
+          ((RegularFile) file).discarded();
+        }
+      }
+    }
+  }
+
+  /**
+   * Records that a file system is being forked from this snapshot.
+   *
+   * @throws IllegalStateException if this snapshot has been closed
+   */
+  synchronized void forkOpened() {
+    checkState(!closed, "snapshot has been closed");
+    openForkCount++;
+  }
+
+  /**
+   * Records that a file system forked from this snapshot has been closed. If it was the last open
+   * fork of a closed snapshot, the snapshot's files are discarded.
+   */
+  synchronized void forkClosed() {
+    if (--openForkCount == 0 && closed) {
+      discardFiles(roots.values());
+    }
+  }
+
+  /**
+   * Creates a new file system containing the files in this snapshot. Changes to the new file system
+   * don't affect this snapshot or other file systems forked from it.
+   *
+   * @throws IllegalStateException if this snapshot has been closed
+   */
+  public FileSystem fork() {
+    return Jimfs.fork(this, Jimfs.newRandomFileSystemName());
+  }
+
+  /**
+   * Creates a new file system containing the files in this snapshot, using the given name as the
+   * host part of its URI. Changes to the new file system don't affect this snapshot or other file
+   * systems forked from it.
+   *
+   * @throws IllegalStateException if this snapshot has been closed
+   */
+  public FileSystem fork(String name) {
+    return Jimfs.fork(this, name);
+  }
+
+  /**
+   * Writes a binary image of this snapshot, including the content of all regular files, to the
+   * given stream. The stream is flushed but not closed.
+   *
+   * @throws IllegalStateException if this snapshot has been closed
+   */
+  public void writeTo(OutputStream out) throws IOException {
+    synchronized (this) {
+      checkState(!closed, "snapshot has been closed");
+    }
+    SnapshotImage.write(this, out);
+  }
+
+  /**
+   * Closes this snapshot, after which it can no longer be forked or written. The blocks of the
+   * snapshot's files are freed as soon as all file systems forked from it have been closed; until
+   * then, those file systems may still copy files from the snapshot. Closing a snapshot that has
+   * already been closed has no effect.
+   */
+  @Override
+  public synchronized void close() {
+    if (!closed) {
+      closed = true;
+      if (openForkCount == 0) {
+        discardFiles(roots.values());
+      }
+    }
+  }
+
+  /**
+   * Reads a snapshot from the binary image in the given file, which was written by
+   * {@link #writeTo(OutputStream)}. The image is memory-mapped if its file system supports it, so
+   * the content of regular files is copied directly from the mapped image to the new snapshot's
+   * disk. Forks of the snapshot use the given configuration, which must have the same root
+   * directories as the configuration of the file system the image was created from; the content of
+   * the image must also fit in its {@linkplain Configuration.Builder#setMaxSize maximum size}.
+   *
+   * @throws IOException if the image can't be read or is invalid, or if there isn't enough space
+   *     for its content
+   */
+  public static FileSystemSnapshot readFrom(Path image, Configuration configuration)
+      throws IOException {
+    return SnapshotImage.read(image, configuration);
+  }
+
+  /**
+   * Reads a snapshot from a binary image, written by {@link #writeTo(OutputStream)}, from the given
+   * stream. Forks of the snapshot use the given configuration, as with
+   * {@link #readFrom(Path, Configuration)}. The stream is not closed.
+   *
+   * @throws IOException if the image can't be read or is invalid, or if there isn't enough space
+   *     for its content
+   */
+  public static FileSystemSnapshot readFrom(InputStream in, Configuration configuration)
+      throws IOException {
+    return SnapshotImage.read(in, configuration);
+  }
+}
@@ -25,6 +25,7 @@ import com.google.common.collect.Sets;
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.ClosedFileSystemException;
+import java.nio.file.attribute.FileTime;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -41,6 +42,8 @@ final class FileSystemState implements Closeable {
 
   private final Set<Closeable> resources = Sets.newConcurrentHashSet();
   private final Runnable onClose;
+  private final FileTimeSource fileTimeSource;
+  private final AccessTimePolicy accessTimePolicy;
 
   private final AtomicBoolean open = new AtomicBoolean(true);
 
@@ -48,7 +51,33 @@ final class FileSystemState implements Closeable {
   private final AtomicInteger registering = new AtomicInteger();
 
   FileSystemState(Runnable onClose) {
+    this(onClose, FileTimeSources.system(), AccessTimePolicy.STRICT);
+  }
+
+  FileSystemState(
+      Runnable onClose, FileTimeSource fileTimeSource, AccessTimePolicy accessTimePolicy) {
     this.onClose = checkNotNull(onClose);
+    this.fileTimeSource = checkNotNull(fileTimeSource);
+    this.accessTimePolicy = checkNotNull(accessTimePolicy);
+  }
+
+  /**
+   * Returns the current time according to the file system's {@link FileTimeSource}.
+   */
+  public FileTime now() {
+    return fileTimeSource.now();
+  }
+
+  /**
+   * Updates the last access time of the given file, which was just read, according to the file
+   * system's {@linkplain AccessTimePolicy access time policy}.
+   */
+  public void accessed(File file) {
+    // files are read far more often than their access times are, so don't read the clock unless
+    // the policy needs the time
+    if (accessTimePolicy != AccessTimePolicy.NONE) {
+      file.updateAccessTime(accessTimePolicy, fileTimeSource);
+    }
   }
 
   /**
@@ -27,7 +27,6 @@ import static java.nio.file.StandardOpenOption.WRITE;
 import com.google.common.base.Objects;
 import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Lists;
 
 import java.io.IOException;
@@ -45,6 +44,8 @@ import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileAttribute;
 import java.nio.file.attribute.FileAttributeView;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.locks.Lock;
@@ -133,55 +134,103 @@ final class FileSystemView {
       DirectoryStream.Filter<? super Path> filter,
       Set<? super LinkOption> options,
       JimfsPath basePathForStream) throws IOException {
+    // read before the directory is looked up, so that the stream's paths are only used to locate
+    // their files while nothing has been unlinked since the lookup
+    long unlinkCount = store.unlinkCount();
     Directory file = (Directory) lookUpWithLock(dir, options)
         .requireDirectory(dir)
         .file();
     FileSystemView view = new FileSystemView(store, file, basePathForStream);
-    JimfsSecureDirectoryStream stream = new JimfsSecureDirectoryStream(view, filter, state());
+    // a base path other than dir itself is relative to another stream's directory, not to this
+    // view's working directory, so the stream's paths can't carry their files
+    JimfsSecureDirectoryStream stream = new JimfsSecureDirectoryStream(view, filter, state(),
+        basePathForStream == dir ? workingDirectory : null, unlinkCount);
     return store.supportsFeature(Feature.SECURE_DIRECTORY_STREAM)
         ? stream
         : new DowngradedDirectoryStream(stream);
   }
 
   /**
-   * Snapshots the entries of the working directory of this view.
+   * Snapshots the entries of the working directory of this view, sorted by name.
    */
-  public ImmutableSortedSet<Name> snapshotWorkingDirectoryEntries() {
+  public DirectoryEntry[] snapshotWorkingDirectoryEntries() {
+    DirectoryEntry[] entries = snapshotEntries(workingDirectory);
+    Arrays.sort(entries, ENTRY_NAME_ORDER);
+    return entries;
+  }
+
+  /**
+   * Orders directory entries by the display form of their names.
+   */
+  private static final Comparator<DirectoryEntry> ENTRY_NAME_ORDER =
+      new Comparator<DirectoryEntry>() {
+        @Override
+        public int compare(DirectoryEntry a, DirectoryEntry b) {
+          return Name.displayOrdering().compare(a.name(), b.name());
+        }
+      };
+
+  /**
+   * Snapshots the entries of the given directory, in no particular order.
+   */
+  DirectoryEntry[] snapshotEntries(Directory dir) {
     store.readLock().lock();
     try {
-      ImmutableSortedSet<Name> names = workingDirectory.snapshot();
-      workingDirectory.updateAccessTime();
-      return names;
+      DirectoryEntry[] entries;
+      lockForRead(dir);
+      try {
+        entries = dir.snapshotEntries();
+      } finally {
+        unlockForRead(dir);
+      }
+      state().accessed(dir);
+      return entries;
     } finally {
       store.readLock().unlock();
     }
   }
 
   /**
-   * Returns a snapshot mapping the names of each file in the directory at the given path to the
-   * last modified time of that file.
+   * Adds the given watch to the directory at the given path, returning the directory. From then
+   * on, the directory posts events for changes to its entries to the watch.
    */
-  public ImmutableMap<Name, Long> snapshotModifiedTimes(JimfsPath path) throws IOException {
-    ImmutableMap.Builder<Name, Long> modifiedTimes = ImmutableMap.builder();
-
-    store.readLock().lock();
+  public Directory watch(JimfsPath path, EventWatchService.Watch watch) throws IOException {
+    Lock lock = lockForUpdate();
     try {
-      Directory dir = (Directory) lookUp(path, Options.FOLLOW_LINKS)
-          .requireDirectory(path)
-          .file();
-      // TODO(cgdecker): Investigate whether WatchServices should keep a reference to the actual
-      // directory when SecureDirectoryStream is supported rather than looking up the directory
-      // each time the WatchService polls
+      while (true) {
+        Directory dir = (Directory) lookUp(path, Options.FOLLOW_LINKS)
+            .requireDirectory(path)
+            .file();
 
-      for (DirectoryEntry entry : dir) {
-        if (!entry.name().equals(Name.SELF) && !entry.name().equals(Name.PARENT)) {
-          modifiedTimes.put(entry.name(), entry.file().getLastModifiedTime());
+        lockDirectories(dir);
+        try {
+          if (dir.addWatch(watch)) {
+            return dir;
+          }
+          // the directory was deleted after the lookup; try again
+        } finally {
+          unlockDirectories(dir);
         }
       }
+    } finally {
+      lock.unlock();
+    }
+  }
 
-      return modifiedTimes.build();
+  /**
+   * Removes the given watch from the given directory.
+   */
+  public void unwatch(Directory dir, EventWatchService.Watch watch) {
+    Lock lock = lockForUpdate();
+    try {
+      lockDirectories(dir);
+      try {
+        dir.removeWatch(watch);
+      } finally {
+        unlockDirectories(dir);
+      }
     } finally {
-      store.readLock().unlock();
+      lock.unlock();
     }
   }
 
@@ -265,30 +314,38 @@ final class FileSystemView {
     checkNotNull(path);
     checkNotNull(fileCreator);
 
-    store.writeLock().lock();
+    Lock lock = lockForUpdate();
     try {
       DirectoryEntry entry = lookUp(path, Options.NOFOLLOW_LINKS);
+      Directory parent = entry.directory();
 
-      if (entry.exists()) {
-        if (failIfExists) {
-          throw new FileAlreadyExistsException(path.toString());
+      lockDirectories(parent);
+      try {
+        checkNotDeleted(parent, path);
+        entry = currentEntry(entry);
+
+        if (entry.exists()) {
+          if (failIfExists) {
+            throw new FileAlreadyExistsException(path.toString());
+          }
+
+          // currently can only happen if getOrCreateFile doesn't find the file with the read lock
+          // and then the file is created between when it releases the read lock and when it
+          // acquires the write lock; so, very unlikely
+          return entry.file();
         }
 
-        // currently can only happen if getOrCreateFile doesn't find the file with the read lock
-        // and then the file is created between when it releases the read lock and when it
-        // acquires the write lock; so, very unlikely
-        return entry.file();
+        File newFile = fileCreator.get();
+        store.setInitialAttributes(newFile, attrs);
+        chargeNewFile(newFile, parent);
+        parent.link(path.name(), newFile);
+        parent.setLastModifiedTime(state().now());
+        return newFile;
+      } finally {
+        unlockDirectories(parent);
       }
-
-      Directory parent = entry.directory();
-
-      File newFile = fileCreator.get();
-      store.setInitialAttributes(newFile, attrs);
-      parent.link(path.name(), newFile);
-      parent.updateModifiedTime();
-      return newFile;
     } finally {
-      store.writeLock().unlock();
+      lock.unlock();
     }
   }
 
@@ -324,15 +381,21 @@ final class FileSystemView {
       JimfsPath path, Set<OpenOption> options) throws IOException {
     store.readLock().lock();
     try {
-      DirectoryEntry entry = lookUp(path, options);
-      if (entry.exists()) {
-        File file = entry.file();
-        if (!file.isRegularFile()) {
-          throw new FileSystemException(path.toString(), null, "not a regular file");
+      while (true) {
+        DirectoryEntry entry = lookUp(path, options);
+        if (entry.exists()) {
+          File file = entry.file();
+          if (!file.isRegularFile()) {
+            throw new FileSystemException(path.toString(), null, "not a regular file");
+          }
+          RegularFile openedFile = open((RegularFile) file, options);
+          if (openedFile != null) {
+            return openedFile;
+          }
+          // the file was deleted after it was looked up; look it up again
+        } else {
+          return null;
         }
-        return open((RegularFile) file, options);
-      } else {
-        return null;
       }
     } finally {
       store.readLock().unlock();
@@ -344,24 +407,40 @@ final class FileSystemView {
    */
   private RegularFile getOrCreateRegularFileWithWriteLock(
       JimfsPath path, Set<OpenOption> options, FileAttribute<?>[] attrs) throws IOException {
-    store.writeLock().lock();
+    Lock lock = lockForUpdate();
     try {
-      File file = createFile(path, store.regularFileCreator(), options.contains(CREATE_NEW), attrs);
-      // the file already existed but was not a regular file
-      if (!file.isRegularFile()) {
-        throw new FileSystemException(path.toString(), null, "not a regular file");
+      while (true) {
+        File file =
+            createFile(path, store.regularFileCreator(), options.contains(CREATE_NEW), attrs);
+        // the file already existed but was not a regular file
+        if (!file.isRegularFile()) {
+          throw new FileSystemException(path.toString(), null, "not a regular file");
+        }
+        RegularFile openedFile = open((RegularFile) file, options);
+        if (openedFile != null) {
+          return openedFile;
+        }
+        // the file was deleted after it was created or found; try again
       }
-      return open((RegularFile) file, options);
     } finally {
-      store.writeLock().unlock();
+      lock.unlock();
     }
   }
 
   /**
-   * Opens the given regular file with the given options, truncating it if necessary and
-   * incrementing its open count. Returns the given file.
+   * Opens the given regular file with the given options, incrementing its open count and
+   * truncating it if necessary. Returns the given file, or {@code null} if the file has already
+   * been deleted.
    */
+  @Nullable
   private static RegularFile open(RegularFile file, Set<OpenOption> options) {
+    // must be opened while holding a file store lock to ensure no race between opening and
+    // deleting the file; with per-directory locking, the file may have been deleted after the
+    // lookup that found it, in which case it isn't opened
+    if (!file.openIfNotDeleted()) {
+      return null;
+    }
+
     if (options.contains(TRUNCATE_EXISTING) && options.contains(WRITE)) {
       file.writeLock().lock();
       try {
@@ -371,10 +450,6 @@ final class FileSystemView {
       }
     }
 
-    // must be opened while holding a file store lock to ensure no race between opening and
-    // deleting the file
-    file.opened();
-
     return file;
   }
 
@@ -425,25 +500,40 @@ final class FileSystemView {
     Name linkName = link.name();
 
     // existingView is in the same file system, so just one lock is needed
-    store.writeLock().lock();
+    Lock lock = lockForUpdate();
     try {
-      // we do want to follow links when finding the existing file
-      File existingFile = existingView.lookUp(existing, Options.FOLLOW_LINKS)
-          .requireExists(existing)
-          .file();
-      if (!existingFile.isRegularFile()) {
-        throw new FileSystemException(link.toString(), existing.toString(),
-            "can't link: not a regular file");
-      }
-
-      Directory linkParent = lookUp(link, Options.NOFOLLOW_LINKS)
-          .requireDoesNotExist(link)
-          .directory();
+      while (true) {
+        // we do want to follow links when finding the existing file
+        DirectoryEntry existingEntry = existingView.lookUp(existing, Options.FOLLOW_LINKS)
+            .requireExists(existing);
+        File existingFile = existingEntry.file();
+        if (!existingFile.isRegularFile()) {
+          throw new FileSystemException(link.toString(), existing.toString(),
+              "can't link: not a regular file");
+        }
 
-      linkParent.link(linkName, existingFile);
-      linkParent.updateModifiedTime();
+        DirectoryEntry linkEntry = lookUp(link, Options.NOFOLLOW_LINKS)
+            .requireDoesNotExist(link);
+        Directory existingParent = existingEntry.directory();
+        Directory linkParent = linkEntry.directory();
+
+        lockDirectories(existingParent, linkParent);
+        try {
+          if (currentEntry(existingEntry).fileOrNull() != existingFile) {
+            continue; // the existing file was moved or deleted after the lookup; try again
+          }
+          checkNotDeleted(linkParent, link);
+          currentEntry(linkEntry).requireDoesNotExist(link);
+
+          linkParent.link(linkName, existingFile);
+          linkParent.setLastModifiedTime(state().now());
+          return;
+        } finally {
+          unlockDirectories(existingParent, linkParent);
+        }
+      }
     } finally {
-      store.writeLock().unlock();
+      lock.unlock();
     }
   }
 
@@ -451,13 +541,29 @@ final class FileSystemView {
    * Deletes the file at the given absolute path.
    */
   public void deleteFile(JimfsPath path, DeleteMode deleteMode) throws IOException {
-    store.writeLock().lock();
+    Lock lock = lockForUpdate();
     try {
-      DirectoryEntry entry = lookUp(path, Options.NOFOLLOW_LINKS)
-          .requireExists(path);
-      delete(entry, deleteMode, path);
+      while (true) {
+        DirectoryEntry entry = lookUp(path, Options.NOFOLLOW_LINKS)
+            .requireExists(path);
+        Directory parent = entry.directory();
+        // a directory must also be locked to check that it's empty
+        Directory dir = toDirectory(entry.file());
+
+        lockDirectories(parent, dir);
+        try {
+          if (currentEntry(entry).requireExists(path).file() != entry.file()) {
+            continue; // the file was replaced after the lookup; try again
+          }
+
+          delete(entry, deleteMode, path);
+          return;
+        } finally {
+          unlockDirectories(parent, dir);
+        }
+      }
     } finally {
-      store.writeLock().unlock();
+      lock.unlock();
     }
   }
 
@@ -471,9 +577,19 @@ final class FileSystemView {
 
     checkDeletable(file, deleteMode, pathForException);
     parent.unlink(entry.name());
-    parent.updateModifiedTime();
+    parent.setLastModifiedTime(state().now());
+    store.unlinked(file);
 
     file.deleted();
+
+    // a directory is charged to the quota of the directory it's in, which differs from its own
+    // quota if it has one; its entries have all been deleted already
+    if (file.isDirectory() || file.links() == 0) {
+      Quota quota = file.isDirectory() ? parent.quota() : file.quota();
+      if (quota != null) {
+        quota.release(0, 1);
+      }
+    }
   }
 
   /**
@@ -544,89 +660,149 @@ final class FileSystemView {
     checkNotNull(options);
 
     boolean sameFileSystem = isSameFileSystem(destView);
+    // with per-directory locking, a copy or move within the file system only needs the store's
+    // read lock and the locks for the directories involved, unless it moves a directory
+    boolean useDirectoryLocks = sameFileSystem && store.usesDirectoryLocks();
 
     File sourceFile;
     File copyFile = null; // non-null after block completes iff source file was copied
-    lockBoth(store.writeLock(), destView.store.writeLock());
+    if (useDirectoryLocks) {
+      store.readLock().lock();
+    } else {
+      lockBoth(store.writeLock(), destView.store.writeLock());
+    }
     try {
-      DirectoryEntry sourceEntry = lookUp(source, options)
-          .requireExists(source);
-      DirectoryEntry destEntry = destView.lookUp(dest, Options.NOFOLLOW_LINKS);
-
-      Directory sourceParent = sourceEntry.directory();
-      sourceFile = sourceEntry.file();
-
-      Directory destParent = destEntry.directory();
-
-      if (move && sourceFile.isDirectory()) {
-        if (sameFileSystem) {
-          checkMovable(sourceFile, source);
-          checkNotAncestor(sourceFile, destParent, destView);
-        } else {
-          // move to another file system is accomplished by copy-then-delete, so the source file
-          // must be deletable to be moved
-          checkDeletable(sourceFile, DeleteMode.ANY, source);
-        }
-      }
-
-      if (destEntry.exists()) {
-        if (destEntry.file().equals(sourceFile)) {
-          return;
-        } else if (options.contains(REPLACE_EXISTING)) {
-          destView.delete(destEntry, DeleteMode.ANY, dest);
-        } else {
-          throw new FileAlreadyExistsException(dest.toString());
+      while (true) {
+        DirectoryEntry sourceEntry = lookUp(source, options)
+            .requireExists(source);
+        DirectoryEntry destEntry = destView.lookUp(dest, Options.NOFOLLOW_LINKS);
+
+        Directory sourceParent = sourceEntry.directory();
+        sourceFile = sourceEntry.file();
+
+        Directory destParent = destEntry.directory();
+
+        if (useDirectoryLocks && move && sourceFile.isDirectory()) {
+          // moving a directory changes the structure of the file tree, which requires the store's
+          // write lock; switch to it and start over
+          store.readLock().unlock();
+          lockBoth(store.writeLock(), destView.store.writeLock());
+          useDirectoryLocks = false;
+          continue;
         }
-      }
-
-      if (move && sameFileSystem) {
-        // Real move on the same file system.
-        sourceParent.unlink(source.name());
-        sourceParent.updateModifiedTime();
 
-        destParent.link(dest.name(), sourceFile);
-        destParent.updateModifiedTime();
-      } else {
-        // Doing a copy OR a move to a different file system, which must be implemented by copy and
-        // delete.
-
-        // By default, don't copy attributes.
-        AttributeCopyOption attributeCopyOption = AttributeCopyOption.NONE;
-        if (move) {
-          // Copy only the basic attributes of the file to the other file system, as it may not
-          // support all the attribute views that this file system does. This also matches the
-          // behavior of moving a file to a foreign file system with a different
-          // FileSystemProvider.
-          attributeCopyOption = AttributeCopyOption.BASIC;
-        } else if (options.contains(COPY_ATTRIBUTES)) {
-          // As with move, if we're copying the file to a different file system, only copy its
-          // basic attributes.
-          attributeCopyOption = sameFileSystem
-              ? AttributeCopyOption.ALL
-              : AttributeCopyOption.BASIC;
+        // an existing directory at dest must also be locked to check that it's empty if replaced
+        Directory destDir = toDirectory(destEntry.fileOrNull());
+        if (useDirectoryLocks) {
+          lockDirectories(sourceParent, destParent, destDir);
         }
-
-        // Copy the file, but don't copy its content while we're holding the file store locks.
-        copyFile = destView.store.copyWithoutContent(sourceFile, attributeCopyOption);
-        destParent.link(dest.name(), copyFile);
-        destParent.updateModifiedTime();
-
-        // In order for the copy to be atomic (not strictly necessary, but seems preferable since
-        // we can) lock both source and copy files before leaving the file store locks. This
-        // ensures that users cannot observe the copy's content until the content has been copied.
-        // This also marks the source file as opened, preventing its content from being deleted
-        // until after it's copied if the source file itself is deleted in the next step.
-        lockSourceAndCopy(sourceFile, copyFile);
-
-        if (move) {
-          // It should not be possible for delete to throw an exception here, because we already
-          // checked that the file was deletable above.
-          delete(sourceEntry, DeleteMode.ANY, source);
+        try {
+          if (useDirectoryLocks
+              && (currentEntry(sourceEntry).fileOrNull() != sourceFile
+                  || currentEntry(destEntry).fileOrNull() != destEntry.fileOrNull())) {
+            continue; // the source or dest was changed after the lookups; try again
+          }
+          destView.checkNotDeleted(destParent, dest);
+
+          if (move && sourceFile.isDirectory()) {
+            if (sameFileSystem) {
+              checkMovable(sourceFile, source);
+              checkNotAncestor(sourceFile, destParent, destView);
+              checkMovableToQuota((Directory) sourceFile, sourceParent, destParent, source);
+            } else {
+              // move to another file system is accomplished by copy-then-delete, so the source file
+              // must be deletable to be moved
+              checkDeletable(sourceFile, DeleteMode.ANY, source);
+            }
+          }
+
+          // a file being replaced is only deleted once the file replacing it has been charged to
+          // the quota of the dest directory, so that the replaced file is left in place if the
+          // charge fails
+          File replacedFile = null;
+          if (destEntry.exists()) {
+            if (destEntry.file().equals(sourceFile)) {
+              return;
+            } else if (options.contains(REPLACE_EXISTING)) {
+              replacedFile = destEntry.file();
+              destView.checkDeletable(replacedFile, DeleteMode.ANY, dest);
+            } else {
+              throw new FileAlreadyExistsException(dest.toString());
+            }
+          }
+
+          if (move && sameFileSystem) {
+            // Real move on the same file system.
+            if (sourceParent.quota() != destParent.quota()) {
+              chargeTo(sourceFile, destParent.quota(), replacedFile);
+            }
+            if (replacedFile != null) {
+              destView.delete(destEntry, DeleteMode.ANY, dest);
+            }
+            sourceParent.unlink(source.name());
+            sourceParent.setLastModifiedTime(state().now());
+            store.unlinked(sourceFile);
+
+            destParent.link(dest.name(), sourceFile);
+            destParent.setLastModifiedTime(state().now());
+          } else {
+            // Doing a copy OR a move to a different file system, which must be implemented by copy
+            // and delete.
+
+            // By default, don't copy attributes.
+            AttributeCopyOption attributeCopyOption = AttributeCopyOption.NONE;
+            if (move) {
+              // Copy only the basic attributes of the file to the other file system, as it may not
+              // support all the attribute views that this file system does. This also matches the
+              // behavior of moving a file to a foreign file system with a different
+              // FileSystemProvider.
+              attributeCopyOption = AttributeCopyOption.BASIC;
+            } else if (options.contains(COPY_ATTRIBUTES)) {
+              // As with move, if we're copying the file to a different file system, only copy its
+              // basic attributes.
+              attributeCopyOption = sameFileSystem
+                  ? AttributeCopyOption.ALL
+                  : AttributeCopyOption.BASIC;
+            }
+
+            // Copy the file, but don't copy its content while we're holding the file store locks.
+            copyFile = destView.store.copyWithoutContent(sourceFile, attributeCopyOption);
+            chargeNewFile(copyFile, destParent, replacedFile);
+            if (replacedFile != null) {
+              destView.delete(destEntry, DeleteMode.ANY, dest);
+            }
+            destParent.link(dest.name(), copyFile);
+            destParent.setLastModifiedTime(destView.state().now());
+
+            // In order for the copy to be atomic (not strictly necessary, but seems preferable
+            // since we can) lock both source and copy files before leaving the file store locks.
+            // This ensures that users cannot observe the copy's content until the content has been
+            // copied. This also marks the source file as opened, preventing its content from being
+            // deleted until after it's copied if the source file itself is deleted in the next
+            // step.
+            lockSourceAndCopy(sourceFile, copyFile);
+
+            if (move) {
+              // It should not be possible for delete to throw an exception here, because we already
+              // checked that the file was deletable above.
+              delete(sourceEntry, DeleteMode.ANY, source);
+            }
+          }
+
+          break;
+        } finally {
+          if (useDirectoryLocks) {
+            unlockDirectories(sourceParent, destParent, destDir);
+          }
         }
       }
     } finally {
-      destView.store.writeLock().unlock();
-      store.writeLock().unlock();
+      if (useDirectoryLocks) {
+        store.readLock().unlock();
+      } else {
+        destView.store.writeLock().unlock();
+        store.writeLock().unlock();
+      }
     }
 
     if (copyFile != null) {
@@ -645,6 +821,335 @@ final class FileSystemView {
     }
   }
 
+  /**
+   * Sets a quota on the directory at the given path, limiting the space used by the regular files
+   * in its tree and the number of files in its tree. If the directory already has a quota, only
+   * its limits are changed. Otherwise, the files already in the tree are charged to the new quota,
+   * even if that puts it over its limits. A quota can't be set on a directory in the tree of
+   * another quota or on a directory whose tree contains another quota.
+   */
+  public void setQuota(JimfsPath path, long maxSize, long maxFileCount) throws IOException {
+    Quota.checkLimits(maxSize, maxFileCount);
+
+    store.writeLock().lock();
+    try {
+      Directory dir = (Directory) lookUp(path, Options.FOLLOW_LINKS)
+          .requireDirectory(path)
+          .file();
+
+      Quota quota = dir.quota();
+      if (quota != null) {
+        if (!hasOwnQuota(dir)) {
+          throw new FileSystemException(
+              path.toString(), null, "can't set quota: directory is in a tree with a quota");
+        }
+        quota.setLimits(maxSize, maxFileCount);
+        return;
+      }
+
+      checkNoQuotas(dir, path);
+      quota = new Quota(Long.MAX_VALUE, Long.MAX_VALUE);
+      moveCharges(dir, null, quota);
+      quota.setLimits(maxSize, maxFileCount);
+      dir.setQuota(quota);
+    } finally {
+      store.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Removes the quota from the directory at the given path, releasing the files in its tree from
+   * it.
+   */
+  public void removeQuota(JimfsPath path) throws IOException {
+    store.writeLock().lock();
+    try {
+      Directory dir = (Directory) lookUp(path, Options.FOLLOW_LINKS)
+          .requireDirectory(path)
+          .file();
+
+      if (!hasOwnQuota(dir)) {
+        throw new FileSystemException(
+            path.toString(), null, "can't remove quota: directory doesn't have a quota");
+      }
+
+      // files in the tree may also be linked from outside it, and those stay charged to the quota,
+      // so it must no longer limit anything
+      Quota quota = dir.quota();
+      quota.setLimits(Long.MAX_VALUE, Long.MAX_VALUE);
+      moveCharges(dir, quota, null);
+      dir.setQuota(null);
+    } finally {
+      store.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Returns whether or not the given directory has a quota of its own, rather than being in the
+   * tree of another directory's quota.
+   */
+  private static boolean hasOwnQuota(Directory dir) {
+    Quota quota = dir.quota();
+    return quota != null && (dir.isRootDirectory() || dir.parent().quota() != quota);
+  }
+
+  /**
+   * Checks that no directory in the tree of the given directory has a quota.
+   */
+  private static void checkNoQuotas(Directory dir, Path pathForException)
+      throws FileSystemException {
+    for (DirectoryEntry entry : dir) {
+      Name name = entry.name();
+      if (name.equals(Name.SELF) || name.equals(Name.PARENT) || !entry.file().isDirectory()) {
+        continue;
+      }
+
+      Directory child = (Directory) entry.file();
+      if (child.quota() != null) {
+        throw new FileSystemException(pathForException.toString(), null,
+            "can't set quota: directory contains a directory with a quota");
+      }
+      checkNoQuotas(child, pathForException);
+    }
+  }
+
+  /**
+   * Charges every file in the tree of the given directory that's charged to the quota
+   * {@code from} to the quota {@code to} instead. Quotas aren't nested, so every directory in the
+   * tree is charged to {@code from}; regular files may be charged to another quota if they're also
+   * linked from its tree.
+   */
+  private static void moveCharges(Directory dir, @Nullable Quota from, @Nullable Quota to)
+      throws IOException {
+    for (DirectoryEntry entry : dir) {
+      Name name = entry.name();
+      if (name.equals(Name.SELF) || name.equals(Name.PARENT)) {
+        continue;
+      }
+
+      File file = entry.file();
+      if (file.isDirectory()) {
+        chargeTo(file, to);
+        moveCharges((Directory) file, from, to);
+      } else if (file.quota() == from) {
+        chargeTo(file, to);
+      }
+    }
+  }
+
+  /**
+   * Charges the given new file to the quota of the directory it's about to be linked in, if any.
+   * If the file is a directory, files created in it are charged to the same quota.
+   *
+   * @throws IOException if the quota is already charged for as many files as it allows
+   */
+  private static void chargeNewFile(File file, Directory parent) throws IOException {
+    chargeNewFile(file, parent, null);
+  }
+
+  /**
+   * Charges the given new file to the quota of the directory it's about to be linked in, as
+   * {@link #chargeNewFile(File, Directory)} does, in place of the given file being replaced, if
+   * any, which is about to be deleted from the directory.
+   */
+  private static void chargeNewFile(File file, Directory parent, @Nullable File replacedFile)
+      throws IOException {
+    Quota quota = parent.quota();
+    if (quota != null) {
+      quota.chargeReplacing(0, 1, 0, replacedFileCount(replacedFile, quota));
+    }
+    file.setQuota(quota);
+  }
+
+  /**
+   * Moves the charges for the given file, including the space allocated to it if it's a regular
+   * file, from the quota it's charged to, if any, to the given quota, if any. A directory's entries
+   * aren't charged.
+   *
+   * @throws IOException if the given quota doesn't have room for the file
+   */
+  private static void chargeTo(File file, @Nullable Quota quota) throws IOException {
+    chargeTo(file, quota, null);
+  }
+
+  /**
+   * Moves the charges for the given file to the given quota, as {@link #chargeTo(File, Quota)}
+   * does, in place of the given file being replaced, if any, which is about to be deleted from a
+   * directory in the quota's tree.
+   */
+  private static void chargeTo(File file, @Nullable Quota quota, @Nullable File replacedFile)
+      throws IOException {
+    if (file.isRegularFile()) {
+      // the file's space is charged while its write lock is held
+      Lock lock = ((RegularFile) file).writeLock();
+      lock.lock();
+      try {
+        chargeTo(file, ((RegularFile) file).allocatedSize(), quota, replacedFile);
+      } finally {
+        lock.unlock();
+      }
+    } else {
+      chargeTo(file, 0, quota, replacedFile);
+    }
+  }
+
+  private static void chargeTo(File file, long size, @Nullable Quota quota,
+      @Nullable File replacedFile) throws IOException {
+    Quota oldQuota = file.quota();
+    if (quota != null) {
+      quota.chargeReplacing(size, 1,
+          replacedSize(replacedFile, quota), replacedFileCount(replacedFile, quota));
+    }
+    if (oldQuota != null) {
+      oldQuota.release(size, 1);
+    }
+    file.setQuota(quota);
+  }
+
+  /**
+   * Returns the number of files that deleting the given file, if any, from a directory in the tree
+   * of the given quota will release from the quota. A directory is charged to the quota of the
+   * directory it's in; other files are released once their last link is deleted.
+   */
+  private static long replacedFileCount(@Nullable File replacedFile, Quota quota) {
+    if (replacedFile == null) {
+      return 0;
+    }
+    return replacedFile.isDirectory()
+        || (replacedFile.links() == 1 && replacedFile.quota() == quota) ? 1 : 0;
+  }
+
+  /**
+   * Returns the space that deleting the given file, if any, from a directory in the tree of the
+   * given quota will release from the quota once the file's content is deleted.
+   */
+  private static long replacedSize(@Nullable File replacedFile, Quota quota) {
+    if (replacedFile == null || !replacedFile.isRegularFile()
+        || replacedFile.links() != 1 || replacedFile.quota() != quota) {
+      return 0;
+    }
+    return ((RegularFile) replacedFile).allocatedSize();
+  }
+
+  /**
+   * Checks that the given directory can be moved from the given parent to the given new parent.
+   * If the parents are in the trees of different quotas, only an empty directory without a quota
+   * of its own can be moved; a directory with entries can't be moved without walking its tree to
+   * move their charges, and a directory with a quota can't be nested in another quota's tree.
+   */
+  private static void checkMovableToQuota(Directory dir,
+      Directory parent, Directory newParent, Path path) throws FileSystemException {
+    if (parent.quota() != newParent.quota() && (!dir.isEmpty() || hasOwnQuota(dir))) {
+      throw new FileSystemException(
+          path.toString(), null, "can't move directory to a tree with a different quota");
+    }
+  }
+
+  /**
+   * Acquires and returns the store lock needed by an operation that changes directories. With
+   * per-directory locking, this is the store's read lock and the directories being changed must
+   * also be locked with {@link #lockDirectories}. Otherwise, it's the store's write lock.
+   */
+  private Lock lockForUpdate() {
+    Lock lock = store.usesDirectoryLocks() ? store.readLock() : store.writeLock();
+    lock.lock();
+    return lock;
+  }
+
+  /**
+   * With per-directory locking, write locks the given directories, ignoring nulls. Directories
+   * are always locked in order of their IDs so that operations that lock more than one directory
+   * can't deadlock. Does nothing if the store doesn't use per-directory locking.
+   */
+  private void lockDirectories(Directory... dirs) {
+    if (store.usesDirectoryLocks()) {
+      Directory[] sorted = dirs.clone();
+      Arrays.sort(sorted, DIRECTORY_LOCK_ORDER);
+      for (Directory dir : sorted) {
+        if (dir != null) {
+          dir.entryLock().writeLock().lock();
+        }
+      }
+    }
+  }
+
+  /**
+   * Unlocks directories locked by {@link #lockDirectories}.
+   */
+  private void unlockDirectories(Directory... dirs) {
+    if (store.usesDirectoryLocks()) {
+      for (Directory dir : dirs) {
+        if (dir != null) {
+          dir.entryLock().writeLock().unlock();
+        }
+      }
+    }
+  }
+
+  /**
+   * Orders directories by ID, with nulls last.
+   */
+  private static final Comparator<Directory> DIRECTORY_LOCK_ORDER = new Comparator<Directory>() {
+    @Override
+    public int compare(Directory a, Directory b) {
+      if (a == null || b == null) {
+        return a == b ? 0 : (a == null ? 1 : -1);
+      }
+      return Integer.compare(a.id(), b.id());
+    }
+  };
+
+  /**
+   * With per-directory locking, read locks the given directory. Does nothing otherwise.
+   */
+  private void lockForRead(Directory dir) {
+    if (store.usesDirectoryLocks()) {
+      dir.entryLock().readLock().lock();
+    }
+  }
+
+  /**
+   * Unlocks a directory locked by {@link #lockForRead}.
+   */
+  private void unlockForRead(Directory dir) {
+    if (store.usesDirectoryLocks()) {
+      dir.entryLock().readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the current entry for the given entry's name in the given entry's directory, which
+   * must be locked. With per-directory locking, the entry found by a lookup may be changed by
+   * another thread before its directory is locked, so operations check that it's still current
+   * after locking. Without per-directory locking, just returns the given entry.
+   */
+  private DirectoryEntry currentEntry(DirectoryEntry entry) {
+    if (!store.usesDirectoryLocks() || (entry.exists() && entry.file().isRootDirectory())) {
+      return entry;
+    }
+
+    Directory dir = entry.directory();
+    DirectoryEntry current = dir.get(entry.name());
+    return current != null ? current : new DirectoryEntry(dir, entry.name(), null);
+  }
+
+  /**
+   * Checks that the given directory, which must be locked, hasn't been deleted, throwing
+   * {@link NoSuchFileException} for the given path if it has. A directory found by a lookup may be
+   * deleted by another thread before it's locked when using per-directory locking, and the working
+   * directory may have been deleted with any locking.
+   */
+  private void checkNotDeleted(Directory dir, JimfsPath path) throws NoSuchFileException {
+    if (dir.isDeleted()) {
+      throw new NoSuchFileException(path.toString());
+    }
+  }
+
+  @Nullable
+  private static Directory toDirectory(@Nullable File file) {
+    return file != null && file.isDirectory() ? (Directory) file : null;
+  }
+
   private void checkMovable(File file, JimfsPath path) throws FileSystemException {
     if (file.isRootDirectory()) {
       throw new FileSystemException(path.toString(), null, "can't move root directory");
@@ -739,6 +1244,25 @@ final class FileSystemView {
     return store.getFileAttributeView(lookup, type);
   }
 
+  /**
+   * Looks up the file at the given path, throwing an exception if it doesn't exist. A path that a
+   * directory stream returned is only looked up if it may no longer locate the file it was created
+   * for.
+   */
+  private File lookUpExistingWithLock(
+      JimfsPath path, Set<? super LinkOption> options) throws IOException {
+    if (path instanceof DirectoryStreamPath) {
+      File file = ((DirectoryStreamPath) path).file(workingDirectory, store.unlinkCount(), options);
+      if (file != null) {
+        state().checkOpen();
+        return file;
+      }
+    }
+    return lookUpWithLock(path, options)
+        .requireExists(path)
+        .file();
+  }
+
   /**
    * Returns a file attribute view for the given path in this view.
    */
@@ -748,9 +1272,7 @@ final class FileSystemView {
     return store.getFileAttributeView(new FileLookup() {
       @Override
       public File lookup() throws IOException {
-        return lookUpWithLock(path, options)
-            .requireExists(path)
-            .file();
+        return lookUpExistingWithLock(path, options);
       }
     }, type);
   }
@@ -760,9 +1282,14 @@ final class FileSystemView {
    */
   public <A extends BasicFileAttributes> A readAttributes(
       JimfsPath path, Class<A> type, Set<? super LinkOption> options) throws IOException {
-    File file = lookUpWithLock(path, options)
-        .requireExists(path)
-        .file();
+    File file = lookUpExistingWithLock(path, options);
+    return store.readAttributes(file, type);
+  }
+
+  /**
+   * Reads attributes of the given file, which must be in this view's file system, as an object.
+   */
+  public <A extends BasicFileAttributes> A readAttributes(File file, Class<A> type) {
     return store.readAttributes(file, type);
   }
 
@@ -771,9 +1298,7 @@ final class FileSystemView {
    */
   public ImmutableMap<String, Object> readAttributes(
       JimfsPath path, String attributes, Set<? super LinkOption> options) throws IOException {
-    File file = lookUpWithLock(path, options)
-        .requireExists(path)
-        .file();
+    File file = lookUpExistingWithLock(path, options);
     return store.readAttributes(file, attributes);
   }
 
@@ -783,9 +1308,7 @@ final class FileSystemView {
    */
   public void setAttribute(JimfsPath path, String attribute, Object value,
       Set<? super LinkOption> options) throws IOException {
-    File file = lookUpWithLock(path, options)
-        .requireExists(path)
-        .file();
+    File file = lookUpExistingWithLock(path, options);
     store.setAttribute(file, attribute, value);
   }
 }
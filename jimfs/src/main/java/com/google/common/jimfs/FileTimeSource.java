@@ -0,0 +1,35 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import java.nio.file.attribute.FileTime;
+
+/**
+ * A source of the current time for the timestamps of files in a file system. Implementations must
+ * be thread-safe. {@link FileTimeSources} provides several implementations, and
+ * {@link ManualFileTimeSource} can be used for file systems whose timestamps should be
+ * reproducible.
+ *
+ * @see Configuration.Builder#setFileTimeSource(FileTimeSource)
+ */
+public interface FileTimeSource {
+
+  /**
+   * Returns the current time.
+   */
+  FileTime now();
+}
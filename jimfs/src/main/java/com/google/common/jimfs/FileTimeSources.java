@@ -0,0 +1,169 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.lang.ref.WeakReference;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Static factories for standard {@link FileTimeSource} implementations.
+ */
+public final class FileTimeSources {
+
+  private FileTimeSources() {}
+
+  /**
+   * Returns a source of the current system time with millisecond precision, read from
+   * {@link System#currentTimeMillis()} each time it's asked for the time. This is the default.
+   */
+  public static FileTimeSource system() {
+    return SystemFileTimeSource.INSTANCE;
+  }
+
+  /**
+   * Returns a source of the current time with nanosecond precision, for tools that compare
+   * timestamps of files changed in quick succession. The time is the system time when the source
+   * was first used plus the time elapsed since then as measured by {@link System#nanoTime()}, so
+   * it doesn't follow later adjustments of the system clock.
+   */
+  public static FileTimeSource precise() {
+    return PreciseFileTimeSource.INSTANCE;
+  }
+
+  /**
+   * Returns a source of the system time that is only read once per the given interval, by a
+   * shared background thread, rather than every time the source is asked for the time. Asking the
+   * returned source for the time just reads a field, so operations that update timestamps, such
+   * as writes, never read the clock themselves. Timestamps are only as precise as the interval.
+   */
+  public static FileTimeSource cached(long interval, TimeUnit unit) {
+    checkArgument(interval > 0, "interval (%s) must be positive", interval);
+    return new CachedFileTimeSource(system(), unit.toNanos(interval));
+  }
+
+  private static final class SystemFileTimeSource implements FileTimeSource {
+
+    static final SystemFileTimeSource INSTANCE = new SystemFileTimeSource();
+
+    @Override
+    public FileTime now() {
+      return FileTime.fromMillis(System.currentTimeMillis());
+    }
+
+    @Override
+    public String toString() {
+      return "FileTimeSources.system()";
+    }
+  }
+
+  private static final class PreciseFileTimeSource implements FileTimeSource {
+
+    static final PreciseFileTimeSource INSTANCE = new PreciseFileTimeSource();
+
+    private final long originNanos = MILLISECONDS.toNanos(System.currentTimeMillis());
+    private final long originNanoTime = System.nanoTime();
+
+    @Override
+    public FileTime now() {
+      return FileTime.from(originNanos + (System.nanoTime() - originNanoTime), NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+      return "FileTimeSources.precise()";
+    }
+  }
+
+  /**
+   * Source whose time is updated periodically by a task on the {@link Ticker} thread. The task
+   * only weakly references the source, and cancels itself once the source has been collected.
+   */
+  private static final class CachedFileTimeSource implements FileTimeSource {
+
+    private final FileTimeSource source;
+    private final long intervalNanos;
+    private volatile FileTime now;
+
+    CachedFileTimeSource(FileTimeSource source, long intervalNanos) {
+      this.source = checkNotNull(source);
+      this.intervalNanos = intervalNanos;
+      this.now = source.now();
+      new Tick(this).schedule(intervalNanos);
+    }
+
+    @Override
+    public FileTime now() {
+      return now;
+    }
+
+    @Override
+    public String toString() {
+      return "FileTimeSources.cached(" + intervalNanos + ", NANOSECONDS)";
+    }
+
+    /**
+     * Task that updates the time of a cached source.
+     */
+    private static final class Tick implements Runnable {
+
+      private final WeakReference<CachedFileTimeSource> source;
+      private volatile ScheduledFuture<?> future;
+
+      Tick(CachedFileTimeSource source) {
+        this.source = new WeakReference<>(source);
+      }
+
+      void schedule(long intervalNanos) {
+        future = Ticker.EXECUTOR.scheduleAtFixedRate(
+            this, intervalNanos, intervalNanos, NANOSECONDS);
+      }
+
+      @Override
+      public void run() {
+        CachedFileTimeSource cached = source.get();
+        if (cached != null) {
+          cached.now = cached.source.now();
+        } else if (future != null) {
+          future.cancel(false);
+        }
+      }
+    }
+  }
+
+  /**
+   * Holder for the single daemon thread that updates all cached sources, created when the first
+   * cached source is.
+   */
+  private static final class Ticker {
+    static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder()
+            .setNameFormat("com.google.common.jimfs.FileTimeSources-ticker")
+            .setDaemon(true)
+            .build());
+  }
+}
@@ -16,6 +16,7 @@
 
 package com.google.common.jimfs;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import com.google.common.collect.ImmutableList;
@@ -28,6 +29,10 @@ import java.nio.file.NoSuchFileException;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
 
 import javax.annotation.Nullable;
 
@@ -53,11 +58,67 @@ final class FileTree {
    */
   private final ImmutableSortedMap<Name, Directory> roots;
 
+  /**
+   * Whether or not each directory is read locked while looking up an entry in it. This is needed
+   * when directories may be changed by other threads that don't hold the file system's write lock.
+   */
+  private final boolean lockDirectories;
+
+  /**
+   * Cache of the directories that the parent names of looked up paths resolve to, or {@code null}
+   * if lookups aren't cached. A cached directory is only valid if its generation is the current
+   * {@link #generation}. Holds at most {@link #lookupCacheSize} lookups; when it's full, an
+   * arbitrary lookup is evicted for each new one.
+   */
+  @Nullable
+  private final ConcurrentMap<ParentKey, CachedParent> parentCache;
+
+  private final int lookupCacheSize;
+
+  /**
+   * Incremented whenever a directory or symbolic link that a cached lookup may have resolved names
+   * through is unlinked, which is the only change to the tree that can make the names that
+   * resolved to a directory resolve differently. Linking a file can't change the resolution of
+   * names that already resolved to a directory, and only directories are cached.
+   */
+  private final AtomicLong generation = new AtomicLong();
+
+  /**
+   * Incremented whenever any file is unlinked. Until a file is unlinked, every path that located a
+   * file keeps locating the same file.
+   */
+  private final AtomicLong unlinkCount = new AtomicLong();
+
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+
   /**
    * Creates a new file tree with the given root directories.
    */
   FileTree(Map<Name, Directory> roots) {
+    this(roots, LockGranularity.FILE_SYSTEM, 0);
+  }
+
+  /**
+   * Creates a new file tree with the given root directories, locked with the given granularity,
+   * caching the resolution of up to {@code lookupCacheSize} parent paths.
+   */
+  FileTree(Map<Name, Directory> roots, LockGranularity lockGranularity, int lookupCacheSize) {
+    checkArgument(lookupCacheSize >= 0,
+        "lookupCacheSize (%s) may not be negative", lookupCacheSize);
     this.roots = ImmutableSortedMap.copyOf(roots, Name.canonicalOrdering());
+    this.lockDirectories = lockGranularity == LockGranularity.DIRECTORY;
+    this.lookupCacheSize = lookupCacheSize;
+    this.parentCache = lookupCacheSize == 0
+        ? null
+        : new ConcurrentHashMap<ParentKey, CachedParent>(lookupCacheSize);
+  }
+
+  /**
+   * Returns whether or not directories in this tree are locked individually.
+   */
+  public boolean usesDirectoryLocks() {
+    return lockDirectories;
   }
 
   /**
@@ -77,6 +138,43 @@ final class FileTree {
     return dir == null ? null : dir.entryInParent();
   }
 
+  /**
+   * Called after the given file is unlinked from a directory. If it's a directory or a symbolic
+   * link that a lookup has resolved names through, paths may no longer resolve through it, so all
+   * cached lookups are invalidated.
+   */
+  public void unlinked(File file) {
+    // the count must be incremented before checking whether lookups resolved through the file;
+    // see lookUpParent
+    unlinkCount.incrementAndGet();
+    if (parentCache != null && file.isResolvedThrough()) {
+      generation.incrementAndGet();
+    }
+  }
+
+  /**
+   * Returns the number of times a file has been unlinked from a directory in this tree.
+   */
+  public long unlinkCount() {
+    return unlinkCount.get();
+  }
+
+  /**
+   * Returns the number of lookups that found the directory their path's parent names resolve to
+   * in the lookup cache.
+   */
+  public long lookupCacheHitCount() {
+    return hitCount.get();
+  }
+
+  /**
+   * Returns the number of lookups that had to resolve their path's parent names because the
+   * directory wasn't in the lookup cache.
+   */
+  public long lookupCacheMissCount() {
+    return missCount.get();
+  }
+
   /**
    * Returns the result of the file lookup for the given path.
    */
@@ -125,22 +223,78 @@ final class FileTree {
    * lookup fails.
    */
   @Nullable
-  private DirectoryEntry lookUp(File dir, Iterable<Name> names,
+  private DirectoryEntry lookUp(File dir, ImmutableList<Name> names,
       Set<? super LinkOption> options, int linkDepth) throws IOException {
-    Iterator<Name> nameIterator = names.iterator();
-    Name name = nameIterator.next();
-    while (nameIterator.hasNext()) {
+    int last = names.size() - 1;
+    if (last > 0) {
+      dir = lookUpParent(dir, names.subList(0, last), linkDepth);
+    }
+    return lookUpLast(dir, names.get(last), options, linkDepth);
+  }
+
+  /**
+   * Returns the file that the given parent names of a path resolve to against the given base file,
+   * using the lookup cache if there is one. Returns {@code null} if the names don't resolve to a
+   * file.
+   */
+  @Nullable
+  private File lookUpParent(File dir, ImmutableList<Name> names, int linkDepth)
+      throws IOException {
+    if (parentCache == null) {
+      return walk(dir, names, linkDepth);
+    }
+
+    // the generation must be read before walking, so that the result of a walk that raced with
+    // an unlink is cached with a generation that the unlink has already invalidated
+    long currentGeneration = generation.get();
+    long currentUnlinkCount = unlinkCount.get();
+    ParentKey key = new ParentKey(dir, names);
+    CachedParent cached = parentCache.get(key);
+    if (cached != null && cached.generation == currentGeneration) {
+      hitCount.incrementAndGet();
+      return cached.directory;
+    }
+
+    missCount.incrementAndGet();
+    File result = walk(dir, names, linkDepth);
+
+    // an unlink that raced with the walk may have checked the files the walk resolved through
+    // before the walk marked them, in which case it didn't invalidate the cache; don't cache a
+    // result that might be stale. An unlink that starts after this check sees the marks.
+    if (result != null && result.isDirectory() && unlinkCount.get() == currentUnlinkCount) {
+      if (parentCache.put(key, new CachedParent((Directory) result, currentGeneration)) == null
+          && parentCache.size() > lookupCacheSize) {
+        // evict an arbitrary other lookup to stay within the size of the cache
+        Iterator<ParentKey> iterator = parentCache.keySet().iterator();
+        if (iterator.hasNext()) {
+          iterator.next();
+          iterator.remove();
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Resolves the given names against the given base file one at a time, following symbolic links.
+   * Returns {@code null} if the names don't resolve to a file.
+   */
+  @Nullable
+  private File walk(File dir, Iterable<Name> names, int linkDepth) throws IOException {
+    resolvedThrough(dir);
+    for (Name name : names) {
       Directory directory = toDirectory(dir);
       if (directory == null) {
         return null;
       }
 
-      DirectoryEntry entry = directory.get(name);
+      DirectoryEntry entry = get(directory, name);
       if (entry == null) {
         return null;
       }
 
       File file = entry.file();
+      resolvedThrough(file);
       if (file.isSymbolicLink()) {
         DirectoryEntry linkResult = followSymbolicLink(dir, (SymbolicLink) file, linkDepth);
 
@@ -149,14 +303,22 @@ final class FileTree {
         }
 
         dir = linkResult.fileOrNull();
+        resolvedThrough(dir);
       } else {
         dir = file;
       }
-
-      name = nameIterator.next();
     }
+    return dir;
+  }
 
-    return lookUpLast(dir, name, options, linkDepth);
+  /**
+   * Marks the given file as one that a lookup resolved names through, if lookups are cached.
+   */
+  private void resolvedThrough(@Nullable File file) {
+    if (parentCache != null && file != null
+        && (file.isDirectory() || file.isSymbolicLink())) {
+      file.setResolvedThrough();
+    }
   }
 
   /**
@@ -170,13 +332,17 @@ final class FileTree {
       return null;
     }
 
-    DirectoryEntry entry = directory.get(name);
+    DirectoryEntry entry = get(directory, name);
     if (entry == null) {
       return new DirectoryEntry(directory, name, null);
     }
 
     File file = entry.file();
     if (!options.contains(LinkOption.NOFOLLOW_LINKS) && file.isSymbolicLink()) {
+      if (linkDepth > 0) {
+        // following the target of another link, which a walk may be resolving names through
+        resolvedThrough(file);
+      }
       return followSymbolicLink(dir, (SymbolicLink) file, linkDepth);
     }
 
@@ -219,6 +385,24 @@ final class FileTree {
     }
   }
 
+  /**
+   * Gets the entry for the given name in the given directory, locking the directory if needed.
+   */
+  @Nullable
+  private DirectoryEntry get(Directory directory, Name name) {
+    if (!lockDirectories) {
+      return directory.get(name);
+    }
+
+    Lock lock = directory.entryLock().readLock();
+    lock.lock();
+    try {
+      return directory.get(name);
+    } finally {
+      lock.unlock();
+    }
+  }
+
   @Nullable
   private Directory toDirectory(@Nullable File file) {
     return file == null || !file.isDirectory() ? null : (Directory) file;
@@ -228,4 +412,48 @@ final class FileTree {
     // the empty path (created by FileSystem.getPath("")), has no root and a single name, ""
     return names.isEmpty() || names.size() == 1 && names.get(0).toString().isEmpty();
   }
+
+  /**
+   * Key for the lookup cache: the parent names of a path and the file they're resolved against.
+   */
+  private static final class ParentKey {
+
+    private final File base;
+    private final ImmutableList<Name> names;
+    private final int hash;
+
+    ParentKey(File base, ImmutableList<Name> names) {
+      this.base = base;
+      this.names = names;
+      this.hash = 31 * System.identityHashCode(base) + names.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj instanceof ParentKey) {
+        ParentKey other = (ParentKey) obj;
+        return base == other.base && names.equals(other.names);
+      }
+      return false;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  /**
+   * A directory in the lookup cache, with the generation of the tree it was resolved in.
+   */
+  private static final class CachedParent {
+
+    final Directory directory;
+    final long generation;
+
+    CachedParent(Directory directory, long generation) {
+      this.directory = directory;
+      this.generation = generation;
+    }
+  }
 }
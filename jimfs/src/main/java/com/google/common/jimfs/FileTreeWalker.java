@@ -0,0 +1,244 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import javax.annotation.Nullable;
+
+/**
+ * Walks a tree of files in a Jimfs file system by traversing its directories directly, rather than
+ * through {@linkplain Files#newDirectoryStream directory streams} and a lookup of each file's
+ * path, as {@link Files#walkFileTree} does. Walks are started with
+ * {@link Jimfs#walkFileTree(Path, Visitor)} or, to visit large trees in parallel,
+ * {@link Jimfs#walkFileTree(Path, Visitor, ForkJoinPool)}.
+ *
+ * <p>Each directory's entries are copied while it's locked, and the entries are then visited
+ * without holding any lock, so a visitor may modify the file system. The walk doesn't see the tree
+ * at a single point in time, though: a file created in a directory after the directory's entries
+ * were copied isn't visited, and a file that's deleted or moved after they were copied is still
+ * visited at its old path. The basic attributes of each file are read as it's visited. Symbolic
+ * links are not followed.
+ */
+public final class FileTreeWalker {
+
+  /**
+   * Visitor for the files in a tree.
+   */
+  public interface Visitor {
+
+    /**
+     * Visits the given file. If the file is a directory, returns whether its entries should be
+     * visited; the return value is ignored for other files.
+     *
+     * <p>The start of the walk is visited first, and each directory is visited before its
+     * entries. When the walk is in parallel, this is called concurrently from the threads of the
+     * pool, and the entries of different directories are visited in no particular order.
+     * Exceptions thrown by this method end the walk and are thrown from the method that started
+     * it, though when the walk is in parallel, other files may be visited before it ends.
+     */
+    boolean visit(Entry entry);
+  }
+
+  /**
+   * A file visited in a walk, with its basic attributes as of when it was visited.
+   */
+  public static final class Entry {
+
+    @Nullable
+    private final Entry parent;
+    private final Name name;
+    private final int depth;
+    private final File file;
+    private final BasicFileAttributes attributes;
+
+    @Nullable
+    private volatile JimfsPath path;
+
+    private Entry(@Nullable Entry parent, Name name, int depth, File file,
+        BasicFileAttributes attributes, @Nullable JimfsPath path) {
+      this.parent = parent;
+      this.name = checkNotNull(name);
+      this.depth = depth;
+      this.file = checkNotNull(file);
+      this.attributes = checkNotNull(attributes);
+      this.path = path;
+    }
+
+    /**
+     * Returns the path of the file: the start path of the walk resolved against the names of the
+     * directories leading to the file. The path is only created when it is first needed.
+     */
+    public Path path() {
+      JimfsPath result = path;
+      if (result == null) {
+        // only the start entry is created with its path, so the parent is never null here
+        result = ((JimfsPath) parent.path()).resolve(name);
+        path = result;
+      }
+      return result;
+    }
+
+    /**
+     * Returns the name of the file, which is the last name in its {@linkplain #path() path} (or
+     * the root if the path is a root).
+     */
+    public String fileName() {
+      return name.toString();
+    }
+
+    /**
+     * Returns the depth of the file in the walk. The start of the walk has depth 0, its entries
+     * have depth 1, and so on.
+     */
+    public int depth() {
+      return depth;
+    }
+
+    /**
+     * Returns the basic attributes of the file, read when the file was visited.
+     */
+    public BasicFileAttributes attributes() {
+      return attributes;
+    }
+
+    /**
+     * Returns the file.
+     */
+    File file() {
+      return file;
+    }
+
+    @Override
+    public String toString() {
+      return path().toString();
+    }
+  }
+
+  /**
+   * The number of tasks a worker thread may have queued, not counting those that other threads are
+   * likely to steal, before it stops forking tasks for the directories it finds and walks them
+   * itself.
+   */
+  private static final int MAX_SURPLUS_TASKS = 3;
+
+  /**
+   * Walks the tree rooted at the given path, in the given pool if it is not null.
+   */
+  static void walk(JimfsPath start, Visitor visitor, @Nullable ForkJoinPool pool)
+      throws IOException {
+    checkNotNull(visitor);
+    FileSystemView view = start.getJimfsFileSystem().getDefaultView();
+    File file = view.lookUpWithLock(start, Options.NOFOLLOW_LINKS)
+        .requireExists(start)
+        .file();
+    Name name = start.name();
+    Entry entry = new Entry(null, name == null ? Name.EMPTY : name, 0, file,
+        view.readAttributes(file, BasicFileAttributes.class), start);
+
+    if (visitor.visit(entry) && file.isDirectory()) {
+      FileTreeWalker walker = new FileTreeWalker(view, visitor);
+      if (pool == null) {
+        walker.walk(entry, false);
+      } else {
+        pool.invoke(walker.new WalkTask(entry));
+      }
+    }
+  }
+
+  private final FileSystemView view;
+  private final Visitor visitor;
+
+  private FileTreeWalker(FileSystemView view, Visitor visitor) {
+    this.view = view;
+    this.visitor = visitor;
+  }
+
+  /**
+   * Walks the tree under the given directory, which has been visited. All of a directory's entries
+   * are visited first, and then the trees under its subdirectories are walked one at a time in the
+   * order of the entries, so the walk is depth first by directory. It uses an explicit stack of
+   * directories rather than recursion, so a deep tree can't overflow the thread's stack. In
+   * parallel, directories are handed to new tasks while the current worker thread has few tasks
+   * queued, so that idle threads can steal them.
+   */
+  private void walk(Entry directory, boolean parallel) {
+    List<WalkTask> forked = new ArrayList<>();
+    ArrayDeque<Entry> directories = new ArrayDeque<>();
+    List<Entry> subdirectories = new ArrayList<>();
+    directories.push(directory);
+    while (!directories.isEmpty()) {
+      Entry parent = directories.pop();
+      int depth = parent.depth + 1;
+      for (DirectoryEntry child : view.snapshotEntries((Directory) parent.file)) {
+        File file = child.file();
+        Entry entry = new Entry(parent, child.name(), depth, file,
+            view.readAttributes(file, BasicFileAttributes.class), null);
+        if (visitor.visit(entry) && file.isDirectory()) {
+          if (parallel && ForkJoinTask.getSurplusQueuedTaskCount() <= MAX_SURPLUS_TASKS) {
+            WalkTask task = new WalkTask(entry);
+            task.fork();
+            forked.add(task);
+          } else {
+            subdirectories.add(entry);
+          }
+        }
+      }
+
+      // push the subdirectories in reverse so that the first of them is walked first
+      for (int i = subdirectories.size() - 1; i >= 0; i--) {
+        directories.push(subdirectories.get(i));
+      }
+      subdirectories.clear();
+    }
+
+    // join the most recently forked tasks first, as they're the least likely to have been stolen
+    for (int i = forked.size() - 1; i >= 0; i--) {
+      forked.get(i).join();
+    }
+  }
+
+  /**
+   * Task that walks the tree under a directory in parallel.
+   */
+  private final class WalkTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 0;
+
+    private final Entry directory;
+
+    WalkTask(Entry directory) {
+      this.directory = directory;
+    }
+
+    @Override
+    protected void compute() {
+      walk(directory, true);
+    }
+  }
+}
@@ -0,0 +1,830 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.Ascii;
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * {@code PathMatcher} for glob patterns that matches the root and names of a {@link JimfsPath}
+ * directly rather than matching a regex against the path's string form.
+ *
+ * <p>The glob is split on separators into segments, each of which matches exactly one
+ * separator-delimited segment of the path's string form, except for a {@code **} segment, which
+ * matches one or more of them. A segment is matched by checking its literal prefix and suffix and
+ * then matching any wildcards between them. Glob {@code {}} groups are expanded into alternative
+ * segment lists.
+ *
+ * <p>The matcher is always equivalent to the regex that {@link GlobToRegex} produces for the same
+ * glob. Globs using constructs it can't match that way, such as a {@code **} within a segment, get
+ * the regex matcher instead, and paths it can't split into segments (paths that aren't
+ * {@code JimfsPath}s, for example) are handed to the regex matcher.
+ */
+final class GlobPathMatcher implements PathMatcher {
+
+  /**
+   * Maximum number of alternatives that a glob's {@code {}} groups may expand to; globs that
+   * expand to more than this are matched with a regex instead.
+   */
+  private static final int MAX_ALTERNATIVES = 64;
+
+  /**
+   * Returns a matcher for the given glob, which must already have been validated by converting it
+   * to the regex used by {@code fallback}. Returns {@code fallback} itself if the glob or the given
+   * normalizations can't be matched without it.
+   */
+  static PathMatcher create(String glob, String separators,
+      ImmutableSet<PathNormalization> normalizations, PathMatcher fallback) {
+    boolean foldCase = false;
+    for (PathNormalization normalization : normalizations) {
+      switch (normalization) {
+        case NONE:
+          break;
+        case CASE_FOLD_ASCII:
+          foldCase = true;
+          break;
+        default:
+          // NFC/NFD matching uses the regex's canonical equivalence, which isn't replicated here
+          return fallback;
+      }
+    }
+
+    List<List<Object>> expanded = new Parser(glob, separators, foldCase).parse();
+    if (expanded == null) {
+      return fallback;
+    }
+
+    Alternative[] alternatives = new Alternative[expanded.size()];
+    boolean globStar = false;
+    for (int i = 0; i < alternatives.length; i++) {
+      Alternative alternative = Alternative.compile(expanded.get(i), foldCase);
+      if (alternative == null) {
+        return fallback;
+      }
+      alternatives[i] = alternative;
+      globStar |= alternative.hasGlobStar;
+    }
+    return new GlobPathMatcher(glob, separators, alternatives, globStar, fallback);
+  }
+
+  private final String glob;
+  private final String separators;
+  private final Alternative[] alternatives;
+  private final boolean hasGlobStar;
+  private final PathMatcher fallback;
+
+  private GlobPathMatcher(String glob, String separators, Alternative[] alternatives,
+      boolean hasGlobStar, PathMatcher fallback) {
+    this.glob = checkNotNull(glob);
+    this.separators = checkNotNull(separators);
+    this.alternatives = alternatives;
+    this.hasGlobStar = hasGlobStar;
+    this.fallback = checkNotNull(fallback);
+  }
+
+  @Override
+  public boolean matches(Path path) {
+    int rootSegments = rootSegments(path, separators, hasGlobStar);
+    if (rootSegments == -1) {
+      return fallback.matches(path);
+    }
+
+    JimfsPath jimfsPath = (JimfsPath) path;
+    String root = root(jimfsPath);
+    ImmutableList<Name> names = jimfsPath.names();
+    for (Alternative alternative : alternatives) {
+      if (matches(alternative, root, rootSegments, names)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the alternatives the glob expands to.
+   */
+  Alternative[] alternatives() {
+    return alternatives;
+  }
+
+  /**
+   * Returns the regex matcher for the glob.
+   */
+  PathMatcher fallback() {
+    return fallback;
+  }
+
+  /**
+   * Returns the number of segments in the root of the given path, which is 0 for a relative path,
+   * or -1 if the path must be matched against its string form by the regex instead of segment by
+   * segment. {@code globStar} indicates whether the glob being matched contains a {@code **}.
+   */
+  static int rootSegments(Path path, String separators, boolean globStar) {
+    if (!(path instanceof JimfsPath)) {
+      return -1;
+    }
+
+    // a path from a file system with different separators could have names that the regex would
+    // split on a separator
+    JimfsPath jimfsPath = (JimfsPath) path;
+    if (!separators.equals(jimfsPath.separators())) {
+      return -1;
+    }
+
+    String root = root(jimfsPath);
+    int rootSegments = 0;
+    if (root != null) {
+      // the root is expected to end with a separator, so that the first name starts a new segment
+      if (root.isEmpty() || !isSeparator(separators, root.charAt(root.length() - 1))) {
+        return -1;
+      }
+      for (int i = 0; i < root.length(); i++) {
+        if (isSeparator(separators, root.charAt(i))) {
+          rootSegments++;
+        }
+      }
+    }
+
+    // ** is translated to .*, which doesn't match line terminators
+    if (globStar && containsLineTerminator(root, jimfsPath.names())) {
+      return -1;
+    }
+    return rootSegments;
+  }
+
+  /**
+   * Returns the string form of the given path's root, or null if it has no root.
+   */
+  @Nullable
+  static String root(JimfsPath path) {
+    Name root = path.root();
+    return root == null ? null : root.toString();
+  }
+
+  /**
+   * Returns whether the path with the given root and names matches the given alternative. The
+   * segments of the path are those in the root followed by one for each name (or a single empty
+   * segment if there are no names).
+   */
+  private boolean matches(Alternative alternative,
+      @Nullable String root, int rootSegments, ImmutableList<Name> names) {
+    Segment[] segments = alternative.segments;
+    int count = rootSegments + Math.max(1, names.size());
+    if (alternative.hasGlobStar ? count < alternative.minSegments : count != segments.length) {
+      return false;
+    }
+
+    // the last segment is usually the most selective, so match from the end first
+    for (int i = 1; i <= alternative.trailing; i++) {
+      if (!segmentMatches(segments[segments.length - i], root, rootSegments, names, count - i)) {
+        return false;
+      }
+    }
+
+    for (int i = 0; i < alternative.leading; i++) {
+      if (!segmentMatches(segments[i], root, rootSegments, names, i)) {
+        return false;
+      }
+    }
+
+    if (!alternative.hasGlobStar) {
+      return true;
+    }
+
+    int patternStart = alternative.leading;
+    int patternEnd = segments.length - alternative.trailing;
+    if (patternEnd - patternStart == 1) {
+      // a single ** between the leading and trailing segments matches whatever is left, which the
+      // count check ensured is at least one segment
+      return true;
+    }
+
+    // Match the segments between the first and last ** the way a * is matched within a segment,
+    // except that a ** must consume at least one path segment.
+    int p = patternStart;
+    int s = patternStart;
+    int end = count - alternative.trailing;
+    int starP = -1;
+    int starS = -1;
+    while (s < end) {
+      if (p < patternEnd && segments[p] == Segment.GLOB_STAR) {
+        starP = p++;
+        starS = ++s;
+      } else if (p < patternEnd && segmentMatches(segments[p], root, rootSegments, names, s)) {
+        p++;
+        s++;
+      } else if (starP >= 0) {
+        p = starP + 1;
+        s = ++starS;
+      } else {
+        return false;
+      }
+    }
+    return p == patternEnd;
+  }
+
+  /**
+   * Returns whether the segment of the path at the given index matches the given segment.
+   */
+  private boolean segmentMatches(Segment segment,
+      @Nullable String root, int rootSegments, ImmutableList<Name> names, int index) {
+    if (index >= rootSegments) {
+      String name = names.isEmpty() ? "" : names.get(index - rootSegments).toString();
+      return segment.matches(name, 0, name.length());
+    }
+
+    int start = 0;
+    for (int i = 0; i < index; i++) {
+      start = indexOfSeparator(separators, root, start) + 1;
+    }
+    return segment.matches(root, start, indexOfSeparator(separators, root, start));
+  }
+
+  private static boolean isSeparator(String separators, char c) {
+    return separators.indexOf(c) >= 0;
+  }
+
+  /**
+   * Returns the index of the first separator in the given string at or after the given index, or
+   * -1 if there is none.
+   */
+  static int indexOfSeparator(String separators, String s, int fromIndex) {
+    for (int i = fromIndex; i < s.length(); i++) {
+      if (isSeparator(separators, s.charAt(i))) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean containsLineTerminator(@Nullable String root, ImmutableList<Name> names) {
+    if (root != null && containsLineTerminator(root)) {
+      return true;
+    }
+    for (int i = 0; i < names.size(); i++) {
+      if (containsLineTerminator(names.get(i).toString())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean containsLineTerminator(String s) {
+    for (int i = 0; i < s.length(); i++) {
+      switch (s.charAt(i)) {
+        case '\n':
+        case '\r':
+        case '\u0085':
+        case '\u2028':
+        case '\u2029':
+          return true;
+        default:
+          break;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(this).addValue(glob).toString();
+  }
+
+  /**
+   * Returns whether the given string has the given literal at the given offset. If
+   * {@code foldCase} is true, the literal must be in lower case and ASCII letters in the string are
+   * compared ignoring case.
+   */
+  private static boolean regionMatches(String s, int offset, String literal, boolean foldCase) {
+    if (!foldCase) {
+      return s.startsWith(literal, offset);
+    }
+    if (offset < 0 || offset > s.length() - literal.length()) {
+      return false;
+    }
+    for (int i = 0; i < literal.length(); i++) {
+      if (Ascii.toLowerCase(s.charAt(offset + i)) != literal.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the index following the code point at the given index, which must be less than end.
+   */
+  private static int nextCodePoint(String s, int index, int end) {
+    if (Character.isHighSurrogate(s.charAt(index))
+        && index + 1 < end && Character.isLowSurrogate(s.charAt(index + 1))) {
+      return index + 2;
+    }
+    return index + 1;
+  }
+
+  /**
+   * One of the alternative segment lists a glob expands to.
+   */
+  static final class Alternative {
+
+    /**
+     * Compiles the given separator-free glob items, returning null if they contain a construct that
+     * can't be matched without a regex.
+     */
+    @Nullable
+    static Alternative compile(List<Object> items, boolean foldCase) {
+      List<Segment> segments = new ArrayList<>();
+      List<Object> current = new ArrayList<>();
+      for (Object item : items) {
+        if (item == Parser.SEPARATOR) {
+          segments.add(Segment.compile(current, foldCase));
+          current.clear();
+        } else {
+          current.add(item);
+        }
+      }
+      segments.add(Segment.compile(current, foldCase));
+
+      if (segments.contains(null)) {
+        return null;
+      }
+      return new Alternative(segments.toArray(new Segment[segments.size()]));
+    }
+
+    final Segment[] segments;
+    final boolean hasGlobStar;
+
+    /** The number of segments before the first **, or 0 if there is none. */
+    final int leading;
+
+    /** The number of segments after the last **, or all of them if there is none. */
+    final int trailing;
+
+    /** The minimum number of path segments that can match. */
+    final int minSegments;
+
+    private Alternative(Segment[] segments) {
+      this.segments = segments;
+
+      int first = -1;
+      int last = -1;
+      for (int i = 0; i < segments.length; i++) {
+        if (segments[i] == Segment.GLOB_STAR) {
+          if (first == -1) {
+            first = i;
+          }
+          last = i;
+        }
+      }
+
+      this.hasGlobStar = first != -1;
+      this.leading = hasGlobStar ? first : 0;
+      this.trailing = hasGlobStar ? segments.length - last - 1 : segments.length;
+      this.minSegments = segments.length;
+    }
+  }
+
+  /**
+   * A glob segment, which matches a single segment of a path unless it is {@link #GLOB_STAR}.
+   */
+  static final class Segment {
+
+    /** A segment consisting of just {@code **}, which matches one or more path segments. */
+    static final Segment GLOB_STAR = new Segment("", "", new Token[0], false);
+
+    /**
+     * Compiles a segment from the given separator-free glob items, returning null if it uses a
+     * {@code **} anywhere other than as the whole segment.
+     */
+    @Nullable
+    static Segment compile(List<Object> items, boolean foldCase) {
+      if (items.size() == 1 && items.get(0) == Parser.GLOB_STAR) {
+        return GLOB_STAR;
+      }
+
+      List<Token> tokens = new ArrayList<>();
+      StringBuilder literal = new StringBuilder();
+      for (Object item : items) {
+        if (item == Parser.GLOB_STAR) {
+          return null;
+        } else if (item instanceof Character) {
+          literal.append((Character) item);
+        } else {
+          if (literal.length() > 0) {
+            tokens.add(new Literal(literal.toString(), foldCase));
+            literal.setLength(0);
+          }
+          // consecutive stars, from a {} group ending with * followed by a *, match as one
+          if (item != Token.STAR || tokens.isEmpty() || tokens.get(tokens.size() - 1) != item) {
+            tokens.add((Token) item);
+          }
+        }
+      }
+
+      String prefix = "";
+      String suffix = "";
+      if (literal.length() > 0) {
+        if (tokens.isEmpty()) {
+          prefix = foldCase ? Ascii.toLowerCase(literal.toString()) : literal.toString();
+        } else {
+          suffix = foldCase ? Ascii.toLowerCase(literal.toString()) : literal.toString();
+        }
+      }
+      if (!tokens.isEmpty() && tokens.get(0) instanceof Literal) {
+        prefix = ((Literal) tokens.remove(0)).literal;
+      }
+      return new Segment(prefix, suffix, tokens.toArray(new Token[tokens.size()]), foldCase);
+    }
+
+    private final String prefix;
+    private final String suffix;
+    private final Token[] middle;
+    private final boolean foldCase;
+    private final int minLength;
+
+    private Segment(String prefix, String suffix, Token[] middle, boolean foldCase) {
+      this.prefix = prefix;
+      this.suffix = suffix;
+      this.middle = middle;
+      this.foldCase = foldCase;
+
+      int minLength = prefix.length() + suffix.length();
+      for (Token token : middle) {
+        minLength += token.minLength();
+      }
+      this.minLength = minLength;
+    }
+
+    /**
+     * Returns whether this segment matches only its literal {@linkplain #prefix() prefix}.
+     */
+    boolean isLiteral() {
+      return this != GLOB_STAR && middle.length == 0;
+    }
+
+    /**
+     * Returns the literal that a matching path segment must start with, in lower case if ASCII
+     * case is folded.
+     */
+    String prefix() {
+      return prefix;
+    }
+
+    /**
+     * Returns the literal that a matching path segment must end with, in lower case if ASCII case
+     * is folded.
+     */
+    String suffix() {
+      return suffix;
+    }
+
+    /**
+     * Returns whether the characters of the given string from start to end match this segment.
+     */
+    boolean matches(String s, int start, int end) {
+      int length = end - start;
+      if (middle.length == 0) {
+        return length == prefix.length() && regionMatches(s, start, prefix, foldCase);
+      }
+
+      if (length < minLength
+          || !regionMatches(s, start, prefix, foldCase)
+          || !regionMatches(s, end - suffix.length(), suffix, foldCase)) {
+        return false;
+      }
+
+      start += prefix.length();
+      end -= suffix.length();
+      if (middle.length == 1 && middle[0] == Token.STAR) {
+        return true;
+      }
+
+      // Wildcard matching where a * initially matches nothing and, each time the rest of the
+      // segment fails to match, is extended by one code point. Every other token matches a fixed
+      // sequence from a given index, so only the most recent * ever needs extending.
+      int t = 0;
+      int i = start;
+      int starT = -1;
+      int starI = -1;
+      while (i < end) {
+        int next;
+        if (t < middle.length && middle[t] == Token.STAR) {
+          starT = t++;
+          starI = i;
+        } else if (t < middle.length && (next = middle[t].match(s, i, end)) >= 0) {
+          t++;
+          i = next;
+        } else if (starT >= 0) {
+          t = starT + 1;
+          i = starI = nextCodePoint(s, starI, end);
+        } else {
+          return false;
+        }
+      }
+
+      while (t < middle.length && middle[t] == Token.STAR) {
+        t++;
+      }
+      return t == middle.length;
+    }
+  }
+
+  /**
+   * A part of a glob segment other than its literal prefix and suffix.
+   */
+  private abstract static class Token {
+
+    /** Token for {@code *}, which is handled specially when matching. */
+    static final Token STAR = new Token() {
+      @Override
+      int minLength() {
+        return 0;
+      }
+
+      @Override
+      int match(String s, int start, int end) {
+        throw new AssertionError();
+      }
+    };
+
+    /** Token for {@code ?}, which matches any single code point. */
+    static final Token ANY = new Token() {
+      @Override
+      int minLength() {
+        return 1;
+      }
+
+      @Override
+      int match(String s, int start, int end) {
+        return nextCodePoint(s, start, end);
+      }
+    };
+
+    /**
+     * Returns the minimum number of chars this token matches.
+     */
+    abstract int minLength();
+
+    /**
+     * Matches this token against the given string at the given start index, which is less than
+     * end. Returns the index following the match or -1 if it doesn't match.
+     */
+    abstract int match(String s, int start, int end);
+  }
+
+  /**
+   * Token for a sequence of literal characters.
+   */
+  private static final class Literal extends Token {
+
+    final String literal;
+    private final boolean foldCase;
+
+    Literal(String literal, boolean foldCase) {
+      this.literal = foldCase ? Ascii.toLowerCase(literal) : literal;
+      this.foldCase = foldCase;
+    }
+
+    @Override
+    int minLength() {
+      return literal.length();
+    }
+
+    @Override
+    int match(String s, int start, int end) {
+      if (end - start >= literal.length() && regionMatches(s, start, literal, foldCase)) {
+        return start + literal.length();
+      }
+      return -1;
+    }
+  }
+
+  /**
+   * Token for a {@code []} character class, which matches a single code point.
+   */
+  private static final class CharClass extends Token {
+
+    /**
+     * Parses the content of a glob {@code []} section, returning null if it contains anything
+     * that regex character classes treat specially beyond ranges, since {@link GlobToRegex} copies
+     * the content into the regex mostly as-is.
+     */
+    @Nullable
+    static CharClass parse(String content, boolean foldCase) {
+      boolean negated = content.startsWith("!");
+      if (negated) {
+        content = content.substring(1);
+      }
+      if (content.isEmpty()) {
+        return null;
+      }
+
+      StringBuilder ranges = new StringBuilder();
+      for (int i = 0; i < content.length(); i++) {
+        char c = content.charAt(i);
+        if (c == '[' || c == '&' || c == '^' || Character.isSurrogate(c)) {
+          return null;
+        }
+      }
+
+      int i = 0;
+      while (i < content.length()) {
+        char low = content.charAt(i);
+        if (i + 2 < content.length() && content.charAt(i + 1) == '-') {
+          char high = content.charAt(i + 2);
+          if (low == '-' || high == '-'
+              || i + 3 < content.length() && content.charAt(i + 3) == '-') {
+            return null;
+          }
+          ranges.append(low).append(high);
+          i += 3;
+        } else {
+          ranges.append(low).append(low);
+          i++;
+        }
+      }
+      return new CharClass(ranges.toString(), negated, foldCase);
+    }
+
+    /** Pairs of chars giving the inclusive bounds of each range. */
+    private final String ranges;
+    private final boolean negated;
+    private final boolean foldCase;
+
+    private CharClass(String ranges, boolean negated, boolean foldCase) {
+      this.ranges = ranges;
+      this.negated = negated;
+      this.foldCase = foldCase;
+    }
+
+    @Override
+    int minLength() {
+      return 1;
+    }
+
+    @Override
+    int match(String s, int start, int end) {
+      int next = nextCodePoint(s, start, end);
+      int codePoint = s.codePointAt(start);
+      boolean contains = contains(codePoint);
+      if (!contains && foldCase && codePoint < 0x80) {
+        // like a case-insensitive regex, check both cases of an ASCII letter against each range
+        char c = (char) codePoint;
+        contains = contains(Ascii.toUpperCase(c)) || contains(Ascii.toLowerCase(c));
+      }
+      return contains != negated ? next : -1;
+    }
+
+    private boolean contains(int codePoint) {
+      for (int i = 0; i < ranges.length(); i += 2) {
+        if (codePoint >= ranges.charAt(i) && codePoint <= ranges.charAt(i + 1)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Parses a glob into the lists of items its {@code {}} groups expand to. An item is a literal
+   * {@code Character}, a {@link Token}, or one of the {@link #SEPARATOR} or {@link #GLOB_STAR}
+   * markers.
+   */
+  private static final class Parser {
+
+    static final Object SEPARATOR = new Object();
+    static final Object GLOB_STAR = new Object();
+
+    private final String glob;
+    private final String separators;
+    private final boolean foldCase;
+    private int index;
+
+    Parser(String glob, String separators, boolean foldCase) {
+      this.glob = glob;
+      this.separators = separators;
+      this.foldCase = foldCase;
+    }
+
+    /**
+     * Returns the expanded item lists, or null if the glob expands to too many alternatives or
+     * contains a construct that can't be matched without a regex.
+     */
+    @Nullable
+    List<List<Object>> parse() {
+      List<List<Object>> result = new ArrayList<>();
+      result.add(new ArrayList<Object>());
+      while (index < glob.length()) {
+        char c = glob.charAt(index++);
+        if (c == '{') {
+          List<List<Object>> group = parseGroup();
+          if (group == null || result.size() * group.size() > MAX_ALTERNATIVES) {
+            return null;
+          }
+          List<List<Object>> expanded = new ArrayList<>();
+          for (List<Object> prefix : result) {
+            for (List<Object> subpattern : group) {
+              List<Object> alternative = new ArrayList<>(prefix);
+              alternative.addAll(subpattern);
+              expanded.add(alternative);
+            }
+          }
+          result = expanded;
+        } else {
+          Object item = parseItem(c);
+          if (item == null) {
+            return null;
+          }
+          for (List<Object> alternative : result) {
+            alternative.add(item);
+          }
+        }
+      }
+      return result;
+    }
+
+    /**
+     * Parses the subpatterns of a {@code {}} group whose opening brace has been read.
+     */
+    @Nullable
+    private List<List<Object>> parseGroup() {
+      List<List<Object>> group = new ArrayList<>();
+      List<Object> current = new ArrayList<>();
+      // the glob has been validated, so the group is known to be closed and not to contain a {
+      while (true) {
+        char c = glob.charAt(index++);
+        if (c == '}') {
+          group.add(current);
+          return group;
+        } else if (c == ',') {
+          group.add(current);
+          current = new ArrayList<>();
+        } else {
+          Object item = parseItem(c);
+          if (item == null) {
+            return null;
+          }
+          current.add(item);
+        }
+      }
+    }
+
+    /**
+     * Parses the item starting with the given character, which has been read.
+     */
+    @Nullable
+    private Object parseItem(char c) {
+      switch (c) {
+        case '?':
+          return Token.ANY;
+        case '*':
+          if (index < glob.length() && glob.charAt(index) == '*') {
+            index++;
+            return GLOB_STAR;
+          }
+          return Token.STAR;
+        case '[':
+          // the first character of the content may be ], so start looking for the end after it
+          int end = glob.indexOf(']', index + 1);
+          String content = glob.substring(index, end);
+          index = end + 1;
+          return CharClass.parse(content, foldCase);
+        case '\\':
+          c = glob.charAt(index++);
+          break;
+        default:
+          break;
+      }
+
+      if (separators.indexOf(c) >= 0) {
+        return SEPARATOR;
+      }
+      // a regex matches a surrogate pair as a single code point, which a literal char can't
+      return Character.isSurrogate(c) ? null : c;
+    }
+  }
+}
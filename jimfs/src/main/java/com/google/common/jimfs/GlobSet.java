@@ -0,0 +1,446 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import com.google.common.base.Ascii;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import java.nio.file.FileSystem;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import javax.annotation.Nullable;
+
+/**
+ * A set of glob patterns, compiled together so that a path can be matched against all of them at
+ * once. Glob sets are created with {@link Jimfs#newGlobSet(FileSystem, Iterable)}, and each glob
+ * matches exactly the paths that the file system's {@link FileSystem#getPathMatcher
+ * getPathMatcher("glob:" + glob)} would.
+ *
+ * <p>The globs are compiled into a trie of their separator-delimited segments, which is walked
+ * once for each segment of a path. Globs with segments in common at the start share the work of
+ * matching them, literal segments are looked up by name, and other segments are only tried
+ * against names that end with their literal suffix, so the time to match a path depends far more
+ * on the path than on the number of globs. Globs that can't be compiled into the trie, and paths
+ * from other file systems, are matched against each glob in turn.
+ */
+public final class GlobSet {
+
+  private final ImmutableList<String> globs;
+  private final String separators;
+  private final boolean foldCase;
+
+  /** The regex matcher for each glob. */
+  private final PathMatcher[] regexMatchers;
+
+  /** The indexes of the globs that aren't in the trie. */
+  private final int[] uncompiled;
+
+  private final Node start;
+  private final boolean hasGlobStar;
+
+  private GlobSet(ImmutableList<String> globs, String separators, boolean foldCase,
+      PathMatcher[] regexMatchers, int[] uncompiled, Node start, boolean hasGlobStar) {
+    this.globs = globs;
+    this.separators = separators;
+    this.foldCase = foldCase;
+    this.regexMatchers = regexMatchers;
+    this.uncompiled = uncompiled;
+    this.start = start;
+    this.hasGlobStar = hasGlobStar;
+  }
+
+  /**
+   * Compiles a set of the given globs for a file system with the given separators and display
+   * normalizations.
+   */
+  static GlobSet create(
+      Iterable<String> globs, String separators, ImmutableSet<PathNormalization> normalizations) {
+    ImmutableList<String> globList = ImmutableList.copyOf(globs);
+    boolean foldCase = normalizations.contains(PathNormalization.CASE_FOLD_ASCII);
+    PathMatcher[] regexMatchers = new PathMatcher[globList.size()];
+    List<Integer> uncompiled = new ArrayList<>();
+    Node.Builder start = new Node.Builder();
+    boolean hasGlobStar = false;
+
+    for (int i = 0; i < globList.size(); i++) {
+      PathMatcher matcher =
+          PathMatchers.getPathMatcher("glob:" + globList.get(i), separators, normalizations);
+      if (matcher instanceof GlobPathMatcher) {
+        GlobPathMatcher globMatcher = (GlobPathMatcher) matcher;
+        regexMatchers[i] = globMatcher.fallback();
+        for (GlobPathMatcher.Alternative alternative : globMatcher.alternatives()) {
+          start.add(alternative.segments, 0, i);
+          hasGlobStar |= alternative.hasGlobStar;
+        }
+      } else {
+        regexMatchers[i] = matcher;
+        uncompiled.add(i);
+      }
+    }
+
+    int[] uncompiledIndexes = new int[uncompiled.size()];
+    for (int i = 0; i < uncompiledIndexes.length; i++) {
+      uncompiledIndexes[i] = uncompiled.get(i);
+    }
+    return new GlobSet(globList, separators, foldCase, regexMatchers, uncompiledIndexes,
+        start.build(foldCase), hasGlobStar);
+  }
+
+  /**
+   * Returns the globs in this set. The index of a glob in the list is the index that
+   * {@link #matches(Path)} uses for it.
+   */
+  public List<String> globs() {
+    return globs;
+  }
+
+  /**
+   * Returns the set of indexes in {@link #globs()} of the globs that match the given path.
+   */
+  public BitSet matches(Path path) {
+    BitSet result = new BitSet(globs.size());
+    int rootSegments = GlobPathMatcher.rootSegments(path, separators, hasGlobStar);
+    if (rootSegments == -1) {
+      for (int i = 0; i < regexMatchers.length; i++) {
+        if (regexMatchers[i].matches(path)) {
+          result.set(i);
+        }
+      }
+      return result;
+    }
+
+    for (int i : uncompiled) {
+      if (regexMatchers[i].matches(path)) {
+        result.set(i);
+      }
+    }
+
+    JimfsPath jimfsPath = (JimfsPath) path;
+    String root = GlobPathMatcher.root(jimfsPath);
+    ImmutableList<Name> names = jimfsPath.names();
+    int count = rootSegments + Math.max(1, names.size());
+
+    List<Node> current = new ArrayList<>();
+    List<Node> next = new ArrayList<>();
+    current.add(start);
+    int rootStart = 0;
+    for (int i = 0; i < count && !current.isEmpty(); i++) {
+      if (i < rootSegments) {
+        int end = GlobPathMatcher.indexOfSeparator(separators, root, rootStart);
+        step(current, root, rootStart, end, next);
+        rootStart = end + 1;
+      } else {
+        String name = names.isEmpty() ? "" : names.get(i - rootSegments).toString();
+        step(current, name, 0, name.length(), next);
+      }
+
+      List<Node> swap = current;
+      current = next;
+      next = swap;
+      next.clear();
+    }
+
+    for (Node node : current) {
+      for (int index : node.accepts) {
+        result.set(index);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Adds the nodes that the given nodes lead to for a path segment consisting of the given range
+   * of the given string to {@code next}.
+   */
+  private void step(List<Node> current, String s, int start, int end, List<Node> next) {
+    for (Node node : current) {
+      if (node.loops) {
+        addNode(next, node);
+      }
+      if (node.globStar != null) {
+        addNode(next, node.globStar);
+      }
+
+      Node literal = node.literals.get(s, start, end, foldCase);
+      if (literal != null) {
+        addNode(next, literal);
+      }
+
+      for (int length : node.suffixLengths) {
+        if (end - start >= length) {
+          Edge[] edges = node.bySuffix.get(s, end - length, end, foldCase);
+          if (edges != null) {
+            addMatching(next, edges, s, start, end);
+          }
+        }
+      }
+      addMatching(next, node.others, s, start, end);
+    }
+  }
+
+  private static void addMatching(List<Node> next, Edge[] edges, String s, int start, int end) {
+    for (Edge edge : edges) {
+      if (edge.segment.matches(s, start, end)) {
+        addNode(next, edge.target);
+      }
+    }
+  }
+
+  private static void addNode(List<Node> nodes, Node node) {
+    if (!nodes.contains(node)) {
+      nodes.add(node);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "GlobSet" + globs;
+  }
+
+  /**
+   * A wildcard segment and the node a path segment matching it leads to.
+   */
+  private static final class Edge {
+
+    final GlobPathMatcher.Segment segment;
+    final Node target;
+
+    Edge(GlobPathMatcher.Segment segment, Node target) {
+      this.segment = segment;
+      this.target = target;
+    }
+  }
+
+  /**
+   * A node in the trie, reached after matching some number of segments from the start of a path.
+   */
+  private static final class Node {
+
+    /** Whether this node is reached by a {@code **}, which may match any number of segments. */
+    final boolean loops;
+
+    /** The node reached by a {@code **} segment, if any. */
+    @Nullable
+    final Node globStar;
+
+    /** The nodes reached by segments that are literals, keyed by the literal. */
+    final RegionTable<Node> literals;
+
+    /** The distinct lengths of the keys in {@link #bySuffix}, longest first. */
+    final int[] suffixLengths;
+
+    /** Edges for wildcard segments with a literal suffix, keyed by the suffix. */
+    final RegionTable<Edge[]> bySuffix;
+
+    /** Edges for wildcard segments without a literal suffix. */
+    final Edge[] others;
+
+    /** The indexes of the globs that match a path whose segments end at this node. */
+    final int[] accepts;
+
+    Node(boolean loops, @Nullable Node globStar, RegionTable<Node> literals, int[] suffixLengths,
+        RegionTable<Edge[]> bySuffix, Edge[] others, int[] accepts) {
+      this.loops = loops;
+      this.globStar = globStar;
+      this.literals = literals;
+      this.suffixLengths = suffixLengths;
+      this.bySuffix = bySuffix;
+      this.others = others;
+      this.accepts = accepts;
+    }
+
+    /**
+     * Mutable form of a node, used while adding globs to the trie.
+     */
+    static final class Builder {
+
+      private final boolean loops;
+      private Builder globStar;
+      private final Map<String, Builder> literals = new LinkedHashMap<>();
+      private final Map<GlobPathMatcher.Segment, Builder> wildcards = new LinkedHashMap<>();
+      private final List<Integer> accepts = new ArrayList<>();
+
+      Builder() {
+        this(false);
+      }
+
+      private Builder(boolean loops) {
+        this.loops = loops;
+      }
+
+      /**
+       * Adds the given segments, starting at the given index, under this node, with the glob at
+       * the given index accepted at the node the last segment leads to.
+       */
+      void add(GlobPathMatcher.Segment[] segments, int index, int glob) {
+        if (index == segments.length) {
+          accepts.add(glob);
+          return;
+        }
+
+        GlobPathMatcher.Segment segment = segments[index];
+        Builder child;
+        if (segment == GlobPathMatcher.Segment.GLOB_STAR) {
+          if (globStar == null) {
+            globStar = new Builder(true);
+          }
+          child = globStar;
+        } else if (segment.isLiteral()) {
+          child = literals.get(segment.prefix());
+          if (child == null) {
+            child = new Builder();
+            literals.put(segment.prefix(), child);
+          }
+        } else {
+          child = new Builder();
+          wildcards.put(segment, child);
+        }
+        child.add(segments, index + 1, glob);
+      }
+
+      /**
+       * Builds the node and the nodes under it.
+       */
+      Node build(boolean foldCase) {
+        Map<String, Node> literalNodes = new HashMap<>();
+        for (Map.Entry<String, Builder> entry : literals.entrySet()) {
+          literalNodes.put(entry.getKey(), entry.getValue().build(foldCase));
+        }
+
+        Map<String, List<Edge>> bySuffix = new HashMap<>();
+        TreeSet<Integer> suffixLengths = new TreeSet<>();
+        List<Edge> others = new ArrayList<>();
+        for (Map.Entry<GlobPathMatcher.Segment, Builder> entry : wildcards.entrySet()) {
+          GlobPathMatcher.Segment segment = entry.getKey();
+          Edge edge = new Edge(segment, entry.getValue().build(foldCase));
+          String suffix = segment.suffix();
+          if (suffix.isEmpty()) {
+            others.add(edge);
+          } else {
+            List<Edge> edges = bySuffix.get(suffix);
+            if (edges == null) {
+              edges = new ArrayList<>();
+              bySuffix.put(suffix, edges);
+            }
+            edges.add(edge);
+            suffixLengths.add(suffix.length());
+          }
+        }
+
+        Map<String, Edge[]> bySuffixArrays = new HashMap<>();
+        for (Map.Entry<String, List<Edge>> entry : bySuffix.entrySet()) {
+          List<Edge> edges = entry.getValue();
+          bySuffixArrays.put(entry.getKey(), edges.toArray(new Edge[edges.size()]));
+        }
+
+        int[] lengths = new int[suffixLengths.size()];
+        int i = 0;
+        for (int length : suffixLengths.descendingSet()) {
+          lengths[i++] = length;
+        }
+
+        int[] acceptIndexes = new int[accepts.size()];
+        for (i = 0; i < acceptIndexes.length; i++) {
+          acceptIndexes[i] = accepts.get(i);
+        }
+
+        return new Node(loops,
+            globStar == null ? null : globStar.build(foldCase),
+            new RegionTable<Node>(literalNodes, foldCase),
+            lengths,
+            new RegionTable<Edge[]>(bySuffixArrays, foldCase),
+            others.toArray(new Edge[others.size()]),
+            acceptIndexes);
+      }
+    }
+  }
+
+  /**
+   * Immutable hash table with string keys that can be looked up by a range of characters in
+   * another string without creating a string for the range. If case is folded, keys must be in
+   * lower case and ASCII letters in the range are looked up ignoring case.
+   */
+  private static final class RegionTable<V> {
+
+    private final String[] keys;
+    private final Object[] values;
+    private final int mask;
+
+    RegionTable(Map<String, V> map, boolean foldCase) {
+      int size = Integer.highestOneBit(Math.max(1, map.size()) * 2) * 2;
+      this.keys = new String[size];
+      this.values = new Object[size];
+      this.mask = size - 1;
+
+      for (Map.Entry<String, V> entry : map.entrySet()) {
+        String key = entry.getKey();
+        int slot = hash(key, 0, key.length(), foldCase) & mask;
+        while (keys[slot] != null) {
+          slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = entry.getValue();
+      }
+    }
+
+    /**
+     * Returns the value for the key equal to the given range of the given string, or null if
+     * there is none.
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    V get(String s, int start, int end, boolean foldCase) {
+      int slot = hash(s, start, end, foldCase) & mask;
+      String key;
+      while ((key = keys[slot]) != null) {
+        if (key.length() == end - start && regionMatches(s, start, key, foldCase)) {
+          return (V) values[slot];
+        }
+        slot = (slot + 1) & mask;
+      }
+      return null;
+    }
+
+    private static int hash(String s, int start, int end, boolean foldCase) {
+      int hash = 0;
+      for (int i = start; i < end; i++) {
+        char c = s.charAt(i);
+        hash = 31 * hash + (foldCase ? Ascii.toLowerCase(c) : c);
+      }
+      return Util.smearHash(hash);
+    }
+
+    private static boolean regionMatches(String s, int start, String key, boolean foldCase) {
+      for (int i = 0; i < key.length(); i++) {
+        char c = s.charAt(start + i);
+        if ((foldCase ? Ascii.toLowerCase(c) : c) != key.charAt(i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
@@ -17,6 +17,7 @@
 package com.google.common.jimfs;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableMap;
@@ -24,9 +25,12 @@ import com.google.common.collect.ImmutableMap;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.ClosedFileSystemException;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
+import java.nio.file.Path;
 import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Static factory methods for creating new Jimfs file systems. File systems may either be created
@@ -82,6 +86,12 @@ public final class Jimfs {
    */
   public static final String CONFIG_KEY = "config";
 
+  /**
+   * The key used for mapping to the {@link FileSystemSnapshot} a new file system is forked from in
+   * the {@code env} map.
+   */
+  static final String SNAPSHOT_KEY = "snapshot";
+
   private Jimfs() {}
 
   /**
@@ -136,20 +146,159 @@ public final class Jimfs {
    * will be {@code jimfs://my-file-system/foo/bar}.
    */
   public static FileSystem newFileSystem(String name, Configuration configuration) {
-    try {
-      URI uri = new URI(URI_SCHEME, name, null, null);
-      return newFileSystem(uri, configuration);
-    } catch (URISyntaxException e) {
-      throw new IllegalArgumentException(e);
-    }
+    return newFileSystem(toUri(name), configuration);
+  }
+
+  /**
+   * Takes a snapshot of the given Jimfs file system, from which new file systems with the same
+   * files can be {@linkplain FileSystemSnapshot#fork() forked}. The file system is locked while its
+   * file tree is copied, but the content of its regular files is shared with the snapshot rather
+   * than copied.
+   *
+   * @throws IllegalArgumentException if the given file system is not a Jimfs file system
+   * @throws ClosedFileSystemException if the given file system is closed
+   * @throws IOException if the snapshot needs to copy the content of a file but there isn't enough
+   *     space on the file system to do so
+   */
+  public static FileSystemSnapshot snapshot(FileSystem fileSystem) throws IOException {
+    checkArgument(fileSystem instanceof JimfsFileSystem,
+        "file system (%s) must be a Jimfs file system", fileSystem);
+    JimfsFileSystem jimfsFileSystem = (JimfsFileSystem) fileSystem;
+    jimfsFileSystem.getFileStore().state().checkOpen();
+    return FileSystemSnapshot.create(jimfsFileSystem);
+  }
+
+  /**
+   * Releases all space that the given Jimfs file system has cached for reuse, so that it's
+   * available for garbage collection. Returns the number of bytes released. Space is cached when
+   * files are truncated or deleted; see {@link Configuration.Builder#setMaxCacheSize(long)} and
+   * {@link Configuration.Builder#setCacheTrimInterval} for limiting how much is kept and for how
+   * long.
+   *
+   * @throws IllegalArgumentException if the given file system is not a Jimfs file system
+   */
+  public static long trimCache(FileSystem fileSystem) {
+    checkArgument(fileSystem instanceof JimfsFileSystem,
+        "file system (%s) must be a Jimfs file system", fileSystem);
+    Disk disk = ((JimfsFileSystem) fileSystem).getFileStore().disk();
+    return disk.trimCache() * (long) disk.blockSize();
+  }
+
+  /**
+   * Sets a quota on the directory at the given path in a Jimfs file system, so that the regular
+   * files in the directory's tree may use at most {@code maxSize} bytes of space and the tree may
+   * contain at most {@code maxFileCount} files, not counting the directory itself. Pass
+   * {@link Long#MAX_VALUE} for a limit that shouldn't be enforced. Writing, copying or moving a
+   * file into the tree that would exceed a limit throws an {@link IOException}. Space is counted
+   * in whole blocks, and {@linkplain java.nio.file.StandardOpenOption#SPARSE sparse} regions of
+   * files don't count against it.
+   *
+   * <p>If the directory already has a quota, its limits are changed. Otherwise, the files already
+   * in its tree are charged to the new quota, even if that exceeds its limits. Quotas can't be
+   * nested: a quota can't be set on a directory in the tree of a directory that has one, or on a
+   * directory whose tree contains one. A regular file with links in more than one tree stays
+   * charged to the quota it was first charged to. A directory with entries can't be moved into
+   * the tree of a different quota.
+   *
+   * @throws IllegalArgumentException if the given path isn't a path in a Jimfs file system or
+   *     either limit is negative
+   * @throws ClosedFileSystemException if the path's file system is closed
+   * @throws IOException if the path doesn't locate a directory or the quota can't be set on it
+   */
+  public static void setQuota(Path directory, long maxSize, long maxFileCount)
+      throws IOException {
+    JimfsPath path = checkJimfsPath(directory);
+    path.getJimfsFileSystem().getDefaultView().setQuota(path, maxSize, maxFileCount);
+  }
+
+  /**
+   * Removes the quota set on the directory at the given path in a Jimfs file system with
+   * {@link #setQuota}.
+   *
+   * @throws IllegalArgumentException if the given path isn't a path in a Jimfs file system
+   * @throws ClosedFileSystemException if the path's file system is closed
+   * @throws IOException if the path doesn't locate a directory that has a quota
+   */
+  public static void removeQuota(Path directory) throws IOException {
+    JimfsPath path = checkJimfsPath(directory);
+    path.getJimfsFileSystem().getDefaultView().removeQuota(path);
+  }
+
+  /**
+   * Compiles the given glob patterns into a {@link GlobSet} for matching paths in the given Jimfs
+   * file system against all of them in a single pass. Each glob uses the syntax of, and matches
+   * the same paths as, the file system's {@link FileSystem#getPathMatcher getPathMatcher("glob:" +
+   * glob)}.
+   *
+   * @throws IllegalArgumentException if the given file system is not a Jimfs file system
+   * @throws java.util.regex.PatternSyntaxException if a glob is invalid
+   * @throws ClosedFileSystemException if the given file system is closed
+   */
+  public static GlobSet newGlobSet(FileSystem fileSystem, Iterable<String> globs) {
+    checkArgument(fileSystem instanceof JimfsFileSystem,
+        "file system (%s) must be a Jimfs file system", fileSystem);
+    JimfsFileSystem jimfsFileSystem = (JimfsFileSystem) fileSystem;
+    jimfsFileSystem.getFileStore().state().checkOpen();
+    return jimfsFileSystem.getPathService().createGlobSet(globs);
+  }
+
+  /**
+   * Walks the tree of files rooted at the given path in a Jimfs file system, calling the given
+   * visitor for the file at the path and for each file in its tree, in no particular order except
+   * that each directory is visited before its entries. Each file is passed to the visitor with its
+   * basic attributes. Symbolic links are not followed. See {@link FileTreeWalker} for how the walk
+   * relates to concurrent changes to the tree.
+   *
+   * <p>This is much faster than {@link java.nio.file.Files#walkFileTree}, which must look up each
+   * file by its path to read its attributes.
+   *
+   * @throws IllegalArgumentException if the given path isn't a path in a Jimfs file system
+   * @throws ClosedFileSystemException if the path's file system is closed
+   * @throws IOException if no file exists at the given path
+   */
+  public static void walkFileTree(Path start, FileTreeWalker.Visitor visitor) throws IOException {
+    FileTreeWalker.walk(checkJimfsPath(start), visitor, null);
+  }
+
+  /**
+   * Walks the tree of files rooted at the given path in a Jimfs file system as
+   * {@link #walkFileTree(Path, FileTreeWalker.Visitor)} does, but in parallel in the given pool.
+   * Directories are walked by different threads of the pool, so the visitor must be thread-safe.
+   * This method returns when all files have been visited.
+   *
+   * @throws IllegalArgumentException if the given path isn't a path in a Jimfs file system
+   * @throws ClosedFileSystemException if the path's file system is closed
+   * @throws IOException if no file exists at the given path
+   */
+  public static void walkFileTree(
+      Path start, FileTreeWalker.Visitor visitor, ForkJoinPool pool) throws IOException {
+    FileTreeWalker.walk(checkJimfsPath(start), visitor, checkNotNull(pool));
+  }
+
+  private static JimfsPath checkJimfsPath(Path path) {
+    checkArgument(path instanceof JimfsPath, "path (%s) must be a Jimfs path", path);
+    JimfsPath jimfsPath = (JimfsPath) path;
+    jimfsPath.getJimfsFileSystem().getFileStore().state().checkOpen();
+    return jimfsPath;
+  }
+
+  /**
+   * Creates a new file system with the given name, forked from the given snapshot.
+   */
+  static FileSystem fork(FileSystemSnapshot snapshot, String name) {
+    return newFileSystem(toUri(name),
+        ImmutableMap.of(CONFIG_KEY, snapshot.configuration(), SNAPSHOT_KEY, snapshot));
   }
 
   @VisibleForTesting
   static FileSystem newFileSystem(URI uri, Configuration config) {
+    return newFileSystem(uri, ImmutableMap.of(CONFIG_KEY, config));
+  }
+
+  private static FileSystem newFileSystem(URI uri, ImmutableMap<String, ?> env) {
     checkArgument(URI_SCHEME.equals(uri.getScheme()),
         "uri (%s) must have scheme %s", uri, URI_SCHEME);
 
-    ImmutableMap<String, ?> env = ImmutableMap.of(CONFIG_KEY, config);
     try {
       // Using FileSystems.newFileSystem so that we use the same FileSystemProvider that users will
       // get if they use FileSystems (or other methods like Paths.get(URI)) directly, if possible.
@@ -162,7 +311,15 @@ public final class Jimfs {
     }
   }
 
-  private static String newRandomFileSystemName() {
+  private static URI toUri(String name) {
+    try {
+      return new URI(URI_SCHEME, name, null, null);
+    } catch (URISyntaxException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  static String newRandomFileSystemName() {
     return UUID.randomUUID().toString();
   }
 }
@@ -16,6 +16,7 @@
 
 package com.google.common.jimfs;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkPositionIndexes;
 import static java.nio.file.StandardOpenOption.APPEND;
@@ -35,8 +36,6 @@ import java.nio.channels.NonWritableChannelException;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.nio.file.OpenOption;
-import java.util.Arrays;
-import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -147,7 +146,7 @@ final class JimfsFileChannel extends FileChannel {
             position += read;
           }
 
-          file.updateAccessTime();
+          fileSystemState.accessed(file);
           completed = true;
           return read;
         } finally {
@@ -167,8 +166,7 @@ final class JimfsFileChannel extends FileChannel {
   @Override
   public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
     checkPositionIndexes(offset, offset + length, dsts.length);
-    List<ByteBuffer> buffers = Arrays.asList(dsts).subList(offset, offset + length);
-    Util.checkNoneNull(buffers);
+    Util.checkNoneNull(dsts, offset, length);
     checkOpen();
     checkReadable();
 
@@ -182,12 +180,12 @@ final class JimfsFileChannel extends FileChannel {
 
         file.readLock().lockInterruptibly();
         try {
-          long read = file.read(position, buffers);
+          long read = file.read(position, dsts, offset, length);
           if (read != -1) {
             position += read;
           }
 
-          file.updateAccessTime();
+          fileSystemState.accessed(file);
           completed = true;
           return read;
         } finally {
@@ -226,7 +224,7 @@ final class JimfsFileChannel extends FileChannel {
           int written = file.write(position, src);
           position += written;
 
-          file.updateModifiedTime();
+          file.setLastModifiedTime(fileSystemState.now());
           completed = true;
           return written;
         } finally {
@@ -246,8 +244,7 @@ final class JimfsFileChannel extends FileChannel {
   @Override
   public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
     checkPositionIndexes(offset, offset + length, srcs.length);
-    List<ByteBuffer> buffers = Arrays.asList(srcs).subList(offset, offset + length);
-    Util.checkNoneNull(buffers);
+    Util.checkNoneNull(srcs, offset, length);
     checkOpen();
     checkWritable();
 
@@ -264,10 +261,10 @@ final class JimfsFileChannel extends FileChannel {
           if (append) {
             position = file.size();
           }
-          long written = file.write(position, buffers);
+          long written = file.write(position, srcs, offset, length);
           position += written;
 
-          file.updateModifiedTime();
+          file.setLastModifiedTime(fileSystemState.now());
           completed = true;
           return written;
         } finally {
@@ -332,7 +329,7 @@ final class JimfsFileChannel extends FileChannel {
             position = size;
           }
 
-          file.updateModifiedTime();
+          file.setLastModifiedTime(fileSystemState.now());
           completed = true;
           return this;
         } finally {
@@ -373,8 +370,10 @@ final class JimfsFileChannel extends FileChannel {
 
         file.readLock().lockInterruptibly();
         try {
-          long transferred = file.transferTo(position, count, target);
-          file.updateAccessTime();
+          long transferred = isOtherFileChannel(target)
+              ? ((JimfsFileChannel) target).transferFrom(file, position, count)
+              : file.transferTo(position, count, target);
+          fileSystemState.accessed(file);
           completed = true;
           return transferred;
         } finally {
@@ -413,13 +412,15 @@ final class JimfsFileChannel extends FileChannel {
             position = file.size();
           }
 
-          long transferred = file.transferFrom(src, position, count);
+          long transferred = isOtherFileChannel(src)
+              ? ((JimfsFileChannel) src).transferTo(file, position, count)
+              : file.transferFrom(src, position, count);
 
           if (append) {
             this.position = position + transferred;
           }
 
-          file.updateModifiedTime();
+          file.setLastModifiedTime(fileSystemState.now());
           completed = true;
           return transferred;
         } finally {
@@ -436,6 +437,95 @@ final class JimfsFileChannel extends FileChannel {
     }
   }
 
+  /**
+   * Returns whether or not the given channel is a channel for a Jimfs file other than this
+   * channel's file, between which and this channel's file bytes can be transferred directly.
+   */
+  private boolean isOtherFileChannel(Object channel) {
+    return channel instanceof JimfsFileChannel && ((JimfsFileChannel) channel).file != file;
+  }
+
+  /**
+   * Writes up to {@code count} bytes starting at position {@code position} in the given file to
+   * this channel, as {@link #write(ByteBuffer)} would. The caller holds the read lock of the
+   * source file.
+   */
+  private long transferFrom(RegularFile source, long position, long count) throws IOException {
+    checkOpen();
+    checkWritable();
+
+    synchronized (this) {
+      boolean completed = false;
+      try {
+        beginBlocking();
+        if (!isOpen()) {
+          return 0; // AsynchronousCloseException will be thrown
+        }
+
+        file.writeLock().lockInterruptibly();
+        try {
+          if (append) {
+            this.position = file.size();
+          }
+          long transferred = source.transferTo(position, count, file, this.position);
+          this.position += transferred;
+
+          file.setLastModifiedTime(fileSystemState.now());
+          completed = true;
+          return transferred;
+        } finally {
+          file.writeLock().unlock();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        endBlocking(completed);
+      }
+
+      // if InterruptedException is caught, endBlocking will throw ClosedByInterruptException
+      throw new AssertionError();
+    }
+  }
+
+  /**
+   * Reads up to {@code count} bytes from this channel into the given file starting at position
+   * {@code position}, as {@link #read(ByteBuffer)} would. The caller holds the write lock of the
+   * destination file.
+   */
+  private long transferTo(RegularFile dest, long position, long count) throws IOException {
+    checkOpen();
+    checkReadable();
+
+    synchronized (this) {
+      boolean completed = false;
+      try {
+        beginBlocking();
+        if (!isOpen()) {
+          return 0; // AsynchronousCloseException will be thrown
+        }
+
+        file.readLock().lockInterruptibly();
+        try {
+          long transferred = file.transferTo(this.position, count, dest, position);
+          this.position += transferred;
+
+          fileSystemState.accessed(file);
+          completed = true;
+          return transferred;
+        } finally {
+          file.readLock().unlock();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        endBlocking(completed);
+      }
+
+      // if InterruptedException is caught, endBlocking will throw ClosedByInterruptException
+      throw new AssertionError();
+    }
+  }
+
   @Override
   public int read(ByteBuffer dst, long position) throws IOException {
     checkNotNull(dst);
@@ -443,6 +533,15 @@ final class JimfsFileChannel extends FileChannel {
     checkOpen();
     checkReadable();
 
+    // a positional read doesn't use this channel's position, so first try to read without this
+    // channel's lock or the file's lock; this can't block, so it also doesn't need to be made
+    // interruptible, and it only fails if the file is written concurrently
+    int optimisticRead = file.readWithoutLocking(position, dst);
+    if (optimisticRead != RegularFile.OPTIMISTIC_READ_FAILED) {
+      fileSystemState.accessed(file);
+      return optimisticRead;
+    }
+
     synchronized (this) {
       boolean completed = false;
       try {
@@ -454,7 +553,7 @@ final class JimfsFileChannel extends FileChannel {
         file.readLock().lockInterruptibly();
         try {
           int read = file.read(position, dst);
-          file.updateAccessTime();
+          fileSystemState.accessed(file);
           completed = true;
           return read;
         } finally {
@@ -498,7 +597,7 @@ final class JimfsFileChannel extends FileChannel {
             this.position = position + written;
           }
 
-          file.updateModifiedTime();
+          file.setLastModifiedTime(fileSystemState.now());
           completed = true;
           return written;
         } finally {
@@ -515,11 +614,87 @@ final class JimfsFileChannel extends FileChannel {
     }
   }
 
+  /**
+   * Maps a region of the file into memory. {@link MapMode#READ_WRITE READ_WRITE} and
+   * {@link MapMode#READ_ONLY READ_ONLY} buffers share their content with the file (see
+   * {@link RegularFile#map}); {@link MapMode#PRIVATE PRIVATE} buffers are copies of the region, so
+   * changes to them are never visible in the file. As with a real file channel, the file is
+   * extended if the region goes past its end and this channel is writable.
+   *
+   * <p>The returned buffer is a direct buffer that isn't backed by an actual mapped file. On Java 7
+   * and 8, its {@link MappedByteBuffer#load() load}, {@link MappedByteBuffer#isLoaded() isLoaded}
+   * and {@link MappedByteBuffer#force() force} methods throw
+   * {@link UnsupportedOperationException}, unlike those of a buffer mapped from a real file. Newer
+   * JDKs, such as Java 17, treat them as no-ops. Changes to a shared buffer are visible in the file
+   * as soon as they're made, so there's nothing for {@code force} to do.
+   *
+   * <p>A {@code PRIVATE} buffer's memory is allocated outside the file system's storage, so it
+   * isn't counted toward the file system's
+   * {@linkplain Configuration.Builder#setMaxSize(long) max size} or any directory quota. It's freed
+   * when the buffer is garbage collected.
+   */
   @Override
   public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
-    // would like this to pretend to work, but can't create an implementation of MappedByteBuffer
-    // well, a direct buffer could be cast to MappedByteBuffer, but it couldn't work in general
-    throw new UnsupportedOperationException();
+    checkNotNull(mode);
+    Util.checkNotNegative(position, "position");
+    Util.checkNotNegative(size, "size");
+    checkArgument(size <= Integer.MAX_VALUE, "size (%s) may not be larger than Integer.MAX_VALUE",
+        size);
+    checkArgument(position + size >= 0, "position + size overflows: %s + %s", position, size);
+    checkOpen();
+    checkReadable();
+    if (mode != MapMode.READ_ONLY) {
+      checkWritable();
+    }
+
+    synchronized (this) {
+      boolean completed = false;
+      try {
+        beginBlocking();
+        if (!isOpen()) {
+          return null; // AsynchronousCloseException will be thrown
+        }
+
+        file.writeLock().lockInterruptibly();
+        try {
+          long end = position + size;
+          if (end > file.sizeWithoutLocking()) {
+            if (!write) {
+              throw new IOException("channel not open for writing: cannot extend file to " + end);
+            }
+            file.extend(end);
+            file.setLastModifiedTime(fileSystemState.now());
+          }
+
+          ByteBuffer buffer;
+          if (mode == MapMode.PRIVATE) {
+            buffer = ByteBuffer.allocateDirect((int) size);
+            file.read(position, buffer);
+            buffer.clear();
+          } else {
+            buffer = file.map(position, (int) size);
+            if (mode == MapMode.READ_ONLY) {
+              buffer = buffer.asReadOnlyBuffer();
+            }
+          }
+
+          fileSystemState.accessed(file);
+          completed = true;
+          // direct buffers are MappedByteBuffers, even when they aren't backed by a file; see the
+          // method's doc for how that affects load, isLoaded and force
+          return (MappedByteBuffer) buffer;
+        } finally {
+          file.writeLock().unlock();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        endBlocking(completed);
+      }
+
+      // if InterruptedException is caught, endBlocking will throw ClosedByInterruptException
+      throw new AssertionError();
+    }
   }
 
   @Override
@@ -52,7 +52,7 @@ import javax.annotation.Nullable;
 final class JimfsFileStore extends FileStore {
 
   private final FileTree tree;
-  private final HeapDisk disk;
+  private final Disk disk;
   private final AttributeService attributes;
   private final FileFactory factory;
   private final ImmutableSet<Feature> supportedFeatures;
@@ -61,7 +61,7 @@ final class JimfsFileStore extends FileStore {
   private final Lock readLock;
   private final Lock writeLock;
 
-  public JimfsFileStore(FileTree tree, FileFactory factory, HeapDisk disk,
+  public JimfsFileStore(FileTree tree, FileFactory factory, Disk disk,
       AttributeService attributes, ImmutableSet<Feature> supportedFeatures,
       FileSystemState state) {
     this.tree = checkNotNull(tree);
@@ -85,6 +85,13 @@ final class JimfsFileStore extends FileStore {
     return state;
   }
 
+  /**
+   * Returns the disk for this store.
+   */
+  Disk disk() {
+    return disk;
+  }
+
   /**
    * Returns the read lock for this store.
    */
@@ -99,6 +106,16 @@ final class JimfsFileStore extends FileStore {
     return writeLock;
   }
 
+  /**
+   * Returns whether or not this store uses {@linkplain LockGranularity#DIRECTORY per-directory
+   * locking}. If so, operations that change directories hold the read lock for this store and
+   * write lock the {@linkplain Directory#entryLock() directories} they change; only operations
+   * that change the structure of the file tree, such as moving a directory, need the write lock.
+   */
+  boolean usesDirectoryLocks() {
+    return tree.usesDirectoryLocks();
+  }
+
   /**
    * Returns the names of the root directories in this store.
    */
@@ -138,6 +155,21 @@ final class JimfsFileStore extends FileStore {
     return tree.lookUp(workingDirectory, path, options);
   }
 
+  /**
+   * Called after the given file is unlinked from a directory in this store's file tree.
+   */
+  void unlinked(File file) {
+    tree.unlinked(file);
+  }
+
+  /**
+   * Returns the number of times a file has been unlinked from a directory in this store's file
+   * tree.
+   */
+  long unlinkCount() {
+    return tree.unlinkCount();
+  }
+
   /**
    * Returns a supplier that creates a new regular file.
    */
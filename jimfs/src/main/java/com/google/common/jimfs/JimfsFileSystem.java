@@ -70,7 +70,7 @@ import javax.annotation.Nullable;
  * <ul>
  *   <li>{@link com.google.common.jimfs.FileFactory FileFactory} handles creation of new file
  *   objects.</li>
- *   <li>{@link com.google.common.jimfs.HeapDisk HeapDisk} handles allocation of blocks to
+ *   <li>{@link com.google.common.jimfs.Disk Disk} handles allocation of blocks to
  *   {@link RegularFile RegularFile} instances.</li>
  *   <li>{@link com.google.common.jimfs.FileTree FileTree} stores the root of the file hierarchy
  *   and handles file lookup.</li>
@@ -132,15 +132,19 @@ import javax.annotation.Nullable;
  * operations to continue to work as expected even if the directory is moved.
  *
  * <p>A directory can be watched for changes using the {@link java.nio.file.WatchService}
- * implementation, {@link com.google.common.jimfs.PollingWatchService PollingWatchService}.
+ * implementation, {@link com.google.common.jimfs.EventWatchService EventWatchService}. Watched
+ * directories post events to the service's keys as changes are made rather than being polled.
  *
  * <h3>Regular files</h3>
  *
  * {@link RegularFile RegularFile} makes use of a singleton
- * {@link com.google.common.jimfs.HeapDisk HeapDisk}. A disk is a resizable factory and cache for
+ * {@link com.google.common.jimfs.Disk Disk}. A disk is a resizable factory and cache for
  * fixed size blocks of memory. These blocks are allocated to files as needed and returned to the
  * disk when a file is deleted or truncated. When cached free blocks are available, those blocks
- * are allocated to files first. If more blocks are needed, they are created.
+ * are allocated to files first. If more blocks are needed, they are created. Depending on the
+ * configured {@link BlockStorage}, blocks are either byte arrays on the heap
+ * ({@link com.google.common.jimfs.HeapDisk HeapDisk}) or slices of large direct buffers
+ * ({@link com.google.common.jimfs.DirectDisk DirectDisk}).
  *
  * <h3>Linking</h3>
  *
@@ -172,6 +176,7 @@ final class JimfsFileSystem extends FileSystem {
 
   private final JimfsFileSystemProvider provider;
   private final URI uri;
+  private final Configuration configuration;
 
   private final JimfsFileStore fileStore;
   private final PathService pathService;
@@ -180,10 +185,11 @@ final class JimfsFileSystem extends FileSystem {
 
   private final FileSystemView defaultView;
 
-  JimfsFileSystem(JimfsFileSystemProvider provider, URI uri, JimfsFileStore fileStore,
-      PathService pathService, FileSystemView defaultView) {
+  JimfsFileSystem(JimfsFileSystemProvider provider, URI uri, Configuration configuration,
+      JimfsFileStore fileStore, PathService pathService, FileSystemView defaultView) {
     this.provider = checkNotNull(provider);
     this.uri = checkNotNull(uri);
+    this.configuration = checkNotNull(configuration);
     this.fileStore = checkNotNull(fileStore);
     this.pathService = checkNotNull(pathService);
     this.defaultView = checkNotNull(defaultView);
@@ -201,6 +207,13 @@ final class JimfsFileSystem extends FileSystem {
     return uri;
   }
 
+  /**
+   * Returns the configuration this file system was created with.
+   */
+  public Configuration getConfiguration() {
+    return configuration;
+  }
+
   /**
    * Returns the default view for this file system.
    */
@@ -292,7 +305,7 @@ final class JimfsFileSystem extends FileSystem {
 
   @Override
   public WatchService newWatchService() throws IOException {
-    return new PollingWatchService(defaultView, pathService, fileStore.state());
+    return new EventWatchService(defaultView, pathService, fileStore.state());
   }
 
   @Nullable
@@ -21,6 +21,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Strings.isNullOrEmpty;
 import static com.google.common.jimfs.Feature.FILE_CHANNEL;
 import static com.google.common.jimfs.Jimfs.CONFIG_KEY;
+import static com.google.common.jimfs.Jimfs.SNAPSHOT_KEY;
 import static com.google.common.jimfs.Jimfs.URI_SCHEME;
 import static java.nio.file.StandardOpenOption.APPEND;
 
@@ -109,7 +110,8 @@ public final class JimfsFileSystemProvider extends FileSystemProvider {
         env, CONFIG_KEY);
 
     Configuration config = (Configuration) env.get(CONFIG_KEY);
-    JimfsFileSystem fileSystem = JimfsFileSystems.newFileSystem(this, uri, config);
+    FileSystemSnapshot snapshot = (FileSystemSnapshot) env.get(SNAPSHOT_KEY);
+    JimfsFileSystem fileSystem = JimfsFileSystems.newFileSystem(this, uri, config, snapshot);
     if (fileSystems.putIfAbsent(uri, fileSystem) != null) {
       throw new FileSystemAlreadyExistsException(uri.toString());
     }
@@ -16,11 +16,14 @@
 
 package com.google.common.jimfs;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.net.URI;
 import java.util.HashMap;
 import java.util.Map;
 
+import javax.annotation.Nullable;
+
 /**
  * Initializes and configures new file system instances.
  *
@@ -36,15 +39,31 @@ final class JimfsFileSystems {
    */
   public static JimfsFileSystem newFileSystem(
       JimfsFileSystemProvider provider, URI uri, Configuration config) throws IOException {
+    return newFileSystem(provider, uri, config, null);
+  }
+
+  /**
+   * Initialize and configure a new file system with the given provider and URI, using the given
+   * configuration. If a snapshot is given, the file system is forked from it; its files are copied
+   * from the snapshot as they're accessed.
+   */
+  public static JimfsFileSystem newFileSystem(JimfsFileSystemProvider provider, URI uri,
+      Configuration config, @Nullable FileSystemSnapshot snapshot) throws IOException {
+    if (snapshot != null) {
+      snapshot.forkOpened();
+    }
+
     PathService pathService = new PathService(config);
     FileSystemState state = new FileSystemState(
-        JimfsFileSystemProvider.removeFileSystemRunnable(uri));
+        JimfsFileSystemProvider.removeFileSystemRunnable(uri),
+        config.fileTimeSource,
+        config.accessTimePolicy);
 
-    JimfsFileStore fileStore = createFileStore(config, pathService, state);
+    JimfsFileStore fileStore = createFileStore(config, pathService, state, snapshot);
     FileSystemView defaultView = createDefaultView(config, fileStore, pathService);
 
     JimfsFileSystem fileSystem = new JimfsFileSystem(
-        provider, uri, fileStore, pathService, defaultView);
+        provider, uri, config, fileStore, pathService, defaultView);
 
     pathService.setFileSystem(fileSystem);
     return fileSystem;
@@ -53,15 +72,19 @@ final class JimfsFileSystems {
   /**
    * Creates the file store for the file system.
    */
-  private static JimfsFileStore createFileStore(
-      Configuration config, PathService pathService, FileSystemState state) {
+  private static JimfsFileStore createFileStore(Configuration config, PathService pathService,
+      FileSystemState state, @Nullable final FileSystemSnapshot snapshot) {
     AttributeService attributeService = new AttributeService(config);
 
     // TODO(cgdecker): Make disk values configurable
-    HeapDisk disk = new HeapDisk(config);
-    FileFactory fileFactory = new FileFactory(disk);
+    // a fork stores its files on the snapshot's disk so that they can share blocks with it
+    final Disk disk = snapshot == null ? Disk.create(config) : snapshot.disk();
+    FileFactory fileFactory = snapshot == null
+        ? new FileFactory(disk, config.fileTimeSource)
+        : new FileFactory(disk, config.fileTimeSource, snapshot.nextFileId());
+    final SnapshotFork fork = snapshot == null ? null : new SnapshotFork(pathService);
 
-    Map<Name, Directory> roots = new HashMap<>();
+    final Map<Name, Directory> roots = new HashMap<>();
 
     // create roots
     for (String root : config.roots) {
@@ -72,13 +95,36 @@ final class JimfsFileSystems {
 
       Name rootName = path.root();
 
-      Directory rootDir = fileFactory.createRootDirectory(rootName);
-      attributeService.setInitialAttributes(rootDir);
+      Directory rootDir;
+      if (fork == null) {
+        rootDir = fileFactory.createRootDirectory(rootName);
+        attributeService.setInitialAttributes(rootDir);
+      } else {
+        rootDir = fork.forkRoot(snapshot.getRoot(rootName));
+      }
       roots.put(rootName, rootDir);
     }
 
+    // a shared disk outlives the file system, so the file system's files must give back their
+    // blocks when it's closed
+    state.register(new Closeable() {
+      @Override
+      public void close() {
+        if (disk.isShared()) {
+          FileSystemSnapshot.discardFiles(roots.values());
+          if (fork != null) {
+            fork.discardLinkedCopies();
+          }
+        }
+        if (snapshot != null) {
+          snapshot.forkClosed();
+        }
+      }
+    });
+
+    FileTree tree = new FileTree(roots, config.lockGranularity, config.lookupCacheSize);
     return new JimfsFileStore(
-        new FileTree(roots), fileFactory, disk, attributeService, config.supportedFeatures, state);
+        tree, fileFactory, disk, attributeService, config.supportedFeatures, state);
   }
 
   /**
@@ -94,6 +140,13 @@ final class JimfsFileSystems {
     }
 
     for (Name name : workingDirPath.names()) {
+      // a file system forked from a snapshot may already contain the working directory
+      DirectoryEntry entry = dir.get(name);
+      if (entry != null && entry.file().isDirectory()) {
+        dir = (Directory) entry.file();
+        continue;
+      }
+
       Directory newDir = fileStore.directoryCreator().get();
       fileStore.setInitialAttributes(newDir);
       dir.link(name, newDir);
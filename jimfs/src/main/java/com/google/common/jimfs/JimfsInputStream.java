@@ -59,7 +59,7 @@ final class JimfsInputStream extends InputStream {
       if (b == -1) {
         finished = true;
       } else {
-        file.updateAccessTime();
+        fileSystemState.accessed(file);
       }
       return b;
     } finally {
@@ -93,7 +93,7 @@ final class JimfsInputStream extends InputStream {
         pos += read;
       }
 
-      file.updateAccessTime();
+      fileSystemState.accessed(file);
       return read;
     } finally {
       file.readLock().unlock();
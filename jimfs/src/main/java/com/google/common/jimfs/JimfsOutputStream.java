@@ -56,7 +56,7 @@ final class JimfsOutputStream extends OutputStream {
       }
       file.write(pos++, (byte) b);
 
-      file.updateModifiedTime();
+      file.setLastModifiedTime(fileSystemState.now());
     } finally {
       file.writeLock().unlock();
     }
@@ -83,7 +83,7 @@ final class JimfsOutputStream extends OutputStream {
       }
       pos += file.write(pos, b, off, len);
 
-      file.updateModifiedTime();
+      file.setLastModifiedTime(fileSystemState.now());
     } finally {
       file.writeLock().unlock();
     }
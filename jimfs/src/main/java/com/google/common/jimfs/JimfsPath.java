@@ -51,7 +51,7 @@ import javax.annotation.Nullable;
  *
  * @author Colin Decker
  */
-final class JimfsPath implements Path {
+class JimfsPath implements Path {
 
   @Nullable
   private final Name root;
@@ -98,6 +98,14 @@ final class JimfsPath implements Path {
     return root == null && names.size() == 1 && names.get(0).toString().isEmpty();
   }
 
+  /**
+   * Returns all separators recognized in paths of this path's file system, starting with the
+   * default separator.
+   */
+  public String separators() {
+    return pathService.getSeparators();
+  }
+
   @Override
   public FileSystem getFileSystem() {
     return pathService.getFileSystem();
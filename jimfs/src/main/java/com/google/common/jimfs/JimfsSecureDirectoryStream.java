@@ -51,14 +51,32 @@ final class JimfsSecureDirectoryStream implements SecureDirectoryStream<Path> {
   private final Filter<? super Path> filter;
   private final FileSystemState fileSystemState;
 
+  /**
+   * The working directory that the stream's path was looked up from, or {@code null} if the paths
+   * the stream returns shouldn't carry their files.
+   */
+  @Nullable
+  private final File pathWorkingDirectory;
+
+  /** The file tree's unlink count from before the stream's directory was looked up. */
+  private final long unlinkCount;
+
   private boolean open = true;
   private Iterator<Path> iterator = new DirectoryIterator();
 
-  public JimfsSecureDirectoryStream(
-      FileSystemView view, Filter<? super Path> filter, FileSystemState fileSystemState) {
+  /**
+   * Creates a new stream. If {@code pathWorkingDirectory} isn't null, the paths the stream returns
+   * carry the files they were created for, so reading their attributes doesn't have to look them
+   * up again while nothing has been unlinked since the given unlink count. The stream's path must
+   * have been looked up from that working directory.
+   */
+  public JimfsSecureDirectoryStream(FileSystemView view, Filter<? super Path> filter,
+      FileSystemState fileSystemState, @Nullable File pathWorkingDirectory, long unlinkCount) {
     this.view = checkNotNull(view);
     this.filter = checkNotNull(filter);
     this.fileSystemState = fileSystemState;
+    this.pathWorkingDirectory = pathWorkingDirectory;
+    this.unlinkCount = unlinkCount;
     fileSystemState.register(this);
   }
 
@@ -90,20 +108,24 @@ final class JimfsSecureDirectoryStream implements SecureDirectoryStream<Path> {
   private final class DirectoryIterator extends AbstractIterator<Path> {
 
     @Nullable
-    private Iterator<Name> fileNames;
+    private DirectoryEntry[] entries;
+    private int index;
 
     @Override
     protected synchronized Path computeNext() {
       checkOpen();
 
       try {
-        if (fileNames == null) {
-          fileNames = view.snapshotWorkingDirectoryEntries().iterator();
+        if (entries == null) {
+          entries = view.snapshotWorkingDirectoryEntries();
         }
 
-        while (fileNames.hasNext()) {
-          Name name = fileNames.next();
-          Path path = view.getWorkingDirectoryPath().resolve(name);
+        while (index < entries.length) {
+          DirectoryEntry entry = entries[index++];
+          Path path = pathWorkingDirectory == null
+              ? view.getWorkingDirectoryPath().resolve(entry.name())
+              : new DirectoryStreamPath(view.getWorkingDirectoryPath(), entry.name(),
+                  entry.file(), pathWorkingDirectory, unlinkCount);
 
           if (filter.accept(path)) {
             return path;
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+/**
+ * Options for how finely a Jimfs file system locks its file tree when files are created, deleted,
+ * linked, copied or moved. This has no effect on reading or writing the content of files, which is
+ * always locked per file.
+ */
+public enum LockGranularity {
+
+  /**
+   * A single lock is used for the whole file system. Lookups may happen concurrently, but any
+   * operation that changes a directory excludes all other operations on the file tree. This is the
+   * default.
+   */
+  FILE_SYSTEM,
+
+  /**
+   * Each directory has its own lock, so operations that change different directories can run in
+   * parallel. Operations that change more than one directory lock them in a fixed order. Moving or
+   * renaming a directory changes the structure of the tree, so it still excludes all other
+   * operations on the file tree, as with {@link #FILE_SYSTEM}.
+   *
+   * <p>This adds a small amount of overhead to lookups, which must lock each directory they
+   * traverse.
+   */
+  DIRECTORY
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link FileTimeSource} whose time only changes when it's explicitly set or advanced, for file
+ * systems whose timestamps should be deterministic, such as in reproducible tests.
+ */
+public final class ManualFileTimeSource implements FileTimeSource {
+
+  private FileTime now;
+
+  /**
+   * Creates a new source whose time is initially the given time.
+   */
+  public ManualFileTimeSource(FileTime now) {
+    this.now = checkNotNull(now);
+  }
+
+  /**
+   * Sets the current time of this source to the given time.
+   */
+  public synchronized ManualFileTimeSource setNow(FileTime now) {
+    this.now = checkNotNull(now);
+    return this;
+  }
+
+  /**
+   * Advances the current time of this source by the given duration.
+   */
+  public synchronized ManualFileTimeSource advance(long duration, TimeUnit unit) {
+    this.now = FileTime.from(now.to(NANOSECONDS) + unit.toNanos(duration), NANOSECONDS);
+    return this;
+  }
+
+  @Override
+  public synchronized FileTime now() {
+    return now;
+  }
+}
@@ -44,6 +44,9 @@ final class PathMatchers {
    * element separators (one character each) recognized by the file system. For a glob-syntax path
    * matcher, any of the given separators will be recognized as a separator in the pattern, and any
    * of them will be matched as a separator when checking a path.
+   *
+   * <p>Glob-syntax path matchers match the names of a {@link JimfsPath} directly where possible
+   * (see {@link GlobPathMatcher}) rather than matching a regex against the path's string form.
    */
   // TODO(cgdecker): Should I be just canonicalizing separators rather than matching any separator?
   // Perhaps so, assuming Path always canonicalizes its separators
@@ -58,8 +61,10 @@ final class PathMatchers {
 
     switch (syntax) {
       case "glob":
-        pattern = GlobToRegex.toRegex(pattern, separators);
-        // fall through
+        // the regex validates the glob and matches any paths the compiled glob can't
+        PathMatcher regexMatcher =
+            fromRegex(GlobToRegex.toRegex(pattern, separators), normalizations);
+        return GlobPathMatcher.create(pattern, separators, normalizations, regexMatcher);
       case "regex":
         return fromRegex(pattern, normalizations);
       default:
@@ -67,6 +72,15 @@ final class PathMatchers {
     }
   }
 
+  /**
+   * Compiles a {@link GlobSet} for the given globs. The {@code separators} and
+   * {@code normalizations} are used as in {@link #getPathMatcher}.
+   */
+  public static GlobSet getGlobSet(
+      Iterable<String> globs, String separators, ImmutableSet<PathNormalization> normalizations) {
+    return GlobSet.create(globs, separators, normalizations);
+  }
+
   private static PathMatcher fromRegex(String regex, Iterable<PathNormalization> normalizations) {
     return new RegexPathMatcher(PathNormalization.compilePattern(regex, normalizations));
   }
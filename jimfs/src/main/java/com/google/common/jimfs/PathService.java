@@ -58,6 +58,7 @@ final class PathService implements Comparator<JimfsPath> {
       Name.canonicalOrdering().lexicographical();
 
   private final PathType type;
+  private final String separators;
 
   private final ImmutableSet<PathNormalization> displayNormalizations;
   private final ImmutableSet<PathNormalization> canonicalNormalizations;
@@ -81,6 +82,7 @@ final class PathService implements Comparator<JimfsPath> {
       Iterable<PathNormalization> canonicalNormalizations,
       boolean equalityUsesCanonicalForm) {
     this.type = checkNotNull(type);
+    this.separators = type.getSeparator() + type.getOtherSeparators();
     this.displayNormalizations = ImmutableSet.copyOf(displayNormalizations);
     this.canonicalNormalizations = ImmutableSet.copyOf(canonicalNormalizations);
     this.equalityUsesCanonicalForm = equalityUsesCanonicalForm;
@@ -116,6 +118,13 @@ final class PathService implements Comparator<JimfsPath> {
     return type.getSeparator();
   }
 
+  /**
+   * Returns all separators recognized in paths, starting with the default separator.
+   */
+  public String getSeparators() {
+    return separators;
+  }
+
   /**
    * Returns an empty path which has a single name, the empty string.
    */
@@ -283,8 +292,15 @@ final class PathService implements Comparator<JimfsPath> {
    * {@link FileSystem#getPathMatcher(String)}.
    */
   public PathMatcher createPathMatcher(String syntaxAndPattern) {
-    return PathMatchers.getPathMatcher(
-        syntaxAndPattern, type.getSeparator() + type.getOtherSeparators(), displayNormalizations);
+    return PathMatchers.getPathMatcher(syntaxAndPattern, separators, displayNormalizations);
+  }
+
+  /**
+   * Returns a {@link GlobSet} for the given globs, each of which is matched as the pattern of a
+   * {@code "glob:"} path matcher from {@link #createPathMatcher(String)} would be.
+   */
+  public GlobSet createGlobSet(Iterable<String> globs) {
+    return PathMatchers.getGlobSet(globs, separators, displayNormalizations);
   }
 
   private static final Predicate<Object> NOT_EMPTY = new Predicate<Object>() {
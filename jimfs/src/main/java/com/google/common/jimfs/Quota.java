@@ -0,0 +1,147 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits on the space used by and the number of files in the tree of a directory. Each file in the
+ * tree references the quota it's charged to, so space is charged as it's allocated and released
+ * as it's freed, and files are charged as they're created and released as they're deleted,
+ * without ever walking the tree.
+ *
+ * <p>A directory's own quota doesn't charge for the directory itself; that's charged to the quota
+ * of the tree the directory is in, if any. Quotas aren't nested, so a file is charged to at most
+ * one quota.
+ */
+final class Quota {
+
+  private final AtomicLong size = new AtomicLong();
+  private final AtomicLong fileCount = new AtomicLong();
+
+  private volatile long maxSize;
+  private volatile long maxFileCount;
+
+  /**
+   * Creates a new quota with the given limits.
+   */
+  Quota(long maxSize, long maxFileCount) {
+    setLimits(maxSize, maxFileCount);
+  }
+
+  /**
+   * Sets the limits of this quota. If the space or files already charged exceed the new limits,
+   * the charges stand but no more can be made until enough are released.
+   */
+  void setLimits(long maxSize, long maxFileCount) {
+    checkLimits(maxSize, maxFileCount);
+    this.maxSize = maxSize;
+    this.maxFileCount = maxFileCount;
+  }
+
+  /**
+   * Checks that the given limits are valid.
+   *
+   * @throws IllegalArgumentException if either limit is negative
+   */
+  static void checkLimits(long maxSize, long maxFileCount) {
+    checkArgument(maxSize >= 0, "maxSize (%s) may not be negative", maxSize);
+    checkArgument(maxFileCount >= 0, "maxFileCount (%s) may not be negative", maxFileCount);
+  }
+
+  /**
+   * Returns the maximum space, in bytes, that may be charged to this quota.
+   */
+  long maxSize() {
+    return maxSize;
+  }
+
+  /**
+   * Returns the maximum number of files that may be charged to this quota.
+   */
+  long maxFileCount() {
+    return maxFileCount;
+  }
+
+  /**
+   * Returns the space, in bytes, currently charged to this quota.
+   */
+  long size() {
+    return size.get();
+  }
+
+  /**
+   * Returns the number of files currently charged to this quota.
+   */
+  long fileCount() {
+    return fileCount.get();
+  }
+
+  /**
+   * Charges the given space, in bytes, and number of files to this quota.
+   *
+   * @throws IOException if either charge would exceed this quota's limits, in which case neither
+   *     is made
+   */
+  void charge(long size, long fileCount) throws IOException {
+    chargeReplacing(size, fileCount, 0, 0);
+  }
+
+  /**
+   * Charges the given space, in bytes, and number of files to this quota for a file that replaces
+   * one whose charges, the given replaced space and number of files, are about to be released.
+   * Only the difference between the charges and the replaced charges must fit in this quota's
+   * limits, so the quota may exceed its limits until the replaced charges are released.
+   *
+   * @throws IOException if either difference would exceed this quota's limits, in which case
+   *     neither charge is made
+   */
+  void chargeReplacing(long size, long fileCount, long replacedSize, long replacedFileCount)
+      throws IOException {
+    charge(this.size, size, replacedSize, maxSize);
+    try {
+      charge(this.fileCount, fileCount, replacedFileCount, maxFileCount);
+    } catch (IOException e) {
+      this.size.addAndGet(-size);
+      throw e;
+    }
+  }
+
+  /**
+   * Releases the given space, in bytes, and number of files charged to this quota.
+   */
+  void release(long size, long fileCount) {
+    this.size.addAndGet(-size);
+    this.fileCount.addAndGet(-fileCount);
+  }
+
+  private static void charge(AtomicLong used, long amount, long replaced, long max)
+      throws IOException {
+    while (true) {
+      long current = used.get();
+      if (amount > replaced && current + amount - replaced > max) {
+        throw new IOException("disk quota exceeded");
+      }
+      if (used.compareAndSet(current, current + amount)) {
+        return;
+      }
+    }
+  }
+}
@@ -21,47 +21,157 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.jimfs.Util.clear;
 import static com.google.common.jimfs.Util.nextPowerOf2;
 
-import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Iterables;
 import com.google.common.primitives.UnsignedBytes;
 
 import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import javax.annotation.Nullable;
+
 /**
- * A mutable, resizable store for bytes. Bytes are stored in fixed-sized byte arrays (blocks)
- * allocated by a {@link HeapDisk}.
+ * A mutable, resizable store for bytes. Bytes are stored in fixed-sized byte buffers (blocks)
+ * allocated by a {@link Disk}. Depending on the disk, blocks may be backed by arrays on the heap or
+ * by direct memory.
+ *
+ * <p>The position and limit of a block are never changed; blocks are only accessed through
+ * absolute operations or through duplicates.
  *
  * @author Colin Decker
  */
 final class RegularFile extends File {
 
-  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  /**
+   * Returned by {@link #readWithoutLocking} when the read fails because the file was written
+   * concurrently.
+   */
+  static final int OPTIMISTIC_READ_FAILED = Integer.MIN_VALUE;
+
+  private static final AtomicLongFieldUpdater<RegularFile> STAMP =
+      AtomicLongFieldUpdater.newUpdater(RegularFile.class, "stamp");
+
+  /**
+   * A load fence, which keeps loads before it from being reordered with loads after it, or
+   * {@code null} if the JDK doesn't provide one. Java 9 and later have
+   * {@code VarHandle.acquireFence()} and Java 8 has {@code Unsafe.loadFence()}; Java 7 has
+   * neither, so reads without locking aren't possible there.
+   */
+  @Nullable
+  private static final MethodHandle LOAD_FENCE = findLoadFence();
+
+  @Nullable
+  private static MethodHandle findLoadFence() {
+    MethodType type = MethodType.methodType(void.class);
+    try {
+      Class<?> varHandle = Class.forName("java.lang.invoke.VarHandle");
+      return MethodHandles.publicLookup().findStatic(varHandle, "acquireFence", type);
+    } catch (ReflectiveOperationException e) {
+      // not Java 9 or later
+    }
+
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      return MethodHandles.publicLookup()
+          .findVirtual(unsafeClass, "loadFence", type)
+          .bindTo(theUnsafe.get(null));
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    }
+  }
 
-  private final HeapDisk disk;
+  /**
+   * Returns whether or not {@link #readWithoutLocking} can succeed with the running JDK.
+   */
+  static boolean canReadWithoutLocking() {
+    return LOAD_FENCE != null;
+  }
+
+  /**
+   * Keeps the loads before this call from being reordered with the loads after it.
+   */
+  private static void loadFence() {
+    try {
+      LOAD_FENCE.invokeExact();
+    } catch (Throwable e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private final ContentLock lock = new ContentLock();
+
+  /**
+   * Incremented when the write lock for this file is acquired and again when it's released, so
+   * it's odd while the file may be changing. Used to validate reads that don't lock.
+   */
+  private volatile long stamp;
+
+  private final Disk disk;
 
   /** Block list for the file. */
-  private byte[][] blocks;
+  private ByteBuffer[] blocks;
   /** Block count for the the file, which also acts as the head of the block list. */
   private int blockCount;
 
   private long size;
 
   /**
-   * Creates a new regular file with the given ID and using the given disk.
+   * Whether or not some of this file's blocks may be {@linkplain Disk#share shared} with other
+   * files, in which case they must be copied before they're written to. Cleared when a
+   * {@linkplain #checkBlocks check} finds that no blocks are shared anymore.
    */
-  public static RegularFile create(int id, HeapDisk disk) {
-    return new RegularFile(id, disk, new byte[32][], 0, 0);
+  private boolean mayShareBlocks;
+
+  /**
+   * Whether or not some of this file's blocks may be {@linkplain Disk#hole() holes}, ranges of the
+   * file that have never been written to and that read as zeros without taking up space on the
+   * disk. Cleared when a {@linkplain #checkBlocks check} finds that all holes have been written
+   * to.
+   */
+  private boolean mayHaveHoles;
+
+  /**
+   * Number of writes to existing blocks left before the blocks are checked again to see whether
+   * {@link #mayShareBlocks} and {@link #mayHaveHoles} can be cleared.
+   */
+  private int writesUntilBlockCheck;
+
+  /**
+   * Ranges of this file's blocks that have been {@linkplain #map mapped} and now live in a single
+   * contiguous direct buffer, or {@code null} if no part of the file has been mapped.
+   */
+  @Nullable
+  private List<MappedRegion> mappedRegions;
+
+  /**
+   * Creates a new regular file with the given ID and creation time and using the given disk.
+   */
+  public static RegularFile create(int id, FileTime creationTime, Disk disk) {
+    return new RegularFile(id, creationTime, disk, new ByteBuffer[32], 0, 0);
   }
 
-  RegularFile(int id, HeapDisk disk, byte[][] blocks, int blockCount, long size) {
-    super(id);
+  RegularFile(int id, FileTime creationTime,
+      Disk disk, ByteBuffer[] blocks, int blockCount, long size) {
+    super(id, creationTime);
     this.disk = checkNotNull(disk);
     this.blocks = checkNotNull(blocks);
     this.blockCount = blockCount;
@@ -73,6 +183,79 @@ final class RegularFile extends File {
   private int openCount = 0;
   private boolean deleted = false;
 
+  /**
+   * The lock for this file's content. Acquiring the outermost hold on the write lock advances the
+   * file's {@link #stamp} to an odd value and releasing it advances the stamp to the next even
+   * value.
+   */
+  private final class ContentLock implements ReadWriteLock {
+
+    private final ReentrantReadWriteLock delegate = new ReentrantReadWriteLock();
+
+    private final Lock writeLock = new Lock() {
+      @Override
+      public void lock() {
+        delegate.writeLock().lock();
+        acquired();
+      }
+
+      @Override
+      public void lockInterruptibly() throws InterruptedException {
+        delegate.writeLock().lockInterruptibly();
+        acquired();
+      }
+
+      @Override
+      public boolean tryLock() {
+        if (delegate.writeLock().tryLock()) {
+          acquired();
+          return true;
+        }
+        return false;
+      }
+
+      @Override
+      public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+        if (delegate.writeLock().tryLock(time, unit)) {
+          acquired();
+          return true;
+        }
+        return false;
+      }
+
+      @Override
+      public void unlock() {
+        if (delegate.getWriteHoldCount() == 1) {
+          STAMP.incrementAndGet(RegularFile.this);
+        }
+        delegate.writeLock().unlock();
+      }
+
+      @Override
+      public Condition newCondition() {
+        // a thread waiting on the condition releases the lock without advancing the stamp, which
+        // only causes reads that don't lock to fail until the lock is acquired and released again
+        return delegate.writeLock().newCondition();
+      }
+
+      private void acquired() {
+        if (delegate.getWriteHoldCount() == 1) {
+          STAMP.incrementAndGet(RegularFile.this);
+        }
+      }
+    };
+
+    @Override
+    public Lock readLock() {
+      return delegate.readLock();
+    }
+
+    @Override
+    public Lock writeLock() {
+      return writeLock;
+    }
+  }
+
   /**
    * Returns the read lock for this file.
    */
@@ -128,24 +311,99 @@ final class RegularFile extends File {
   void truncateBlocks(int count) {
     clear(blocks, count, blockCount - count);
     blockCount = count;
+    if (count == 0) {
+      mayShareBlocks = false;
+      mayHaveHoles = false;
+    }
+
+    if (mappedRegions != null) {
+      trimMappedRegions(count);
+    }
   }
 
   /**
    * Adds the given block to the end of this file.
    */
-  void addBlock(byte[] block) {
+  void addBlock(ByteBuffer block) {
     expandIfNecessary(blockCount + 1);
     blocks[blockCount++] = block;
   }
 
+  /**
+   * Adds {@code count} {@linkplain Disk#hole() holes} to the end of this file.
+   */
+  void addHoles(int count) {
+    int newBlockCount = blockCount + count;
+    expandIfNecessary(newBlockCount);
+    Arrays.fill(blocks, blockCount, newBlockCount, disk.hole());
+    blockCount = newBlockCount;
+    mayHaveHoles = true;
+  }
+
   /**
    * Gets the block at the given index in this file.
    */
-  @VisibleForTesting
-  byte[] getBlock(int index) {
+  ByteBuffer getBlock(int index) {
     return blocks[index];
   }
 
+  /**
+   * Replaces the block at the given index in this file with the given block.
+   */
+  void setBlock(int index, ByteBuffer block) {
+    blocks[index] = block;
+  }
+
+  /**
+   * Returns the disk space allocated to this file, in bytes: the size of its blocks that aren't
+   * {@linkplain Disk#hole() holes}. This is the space charged to the file's {@linkplain #quota()
+   * quota}.
+   */
+  long allocatedSize() {
+    int count = blockCount;
+    if (mayHaveHoles) {
+      count = 0;
+      for (int i = 0; i < blockCount; i++) {
+        if (!disk.isHole(blocks[i])) {
+          count++;
+        }
+      }
+    }
+    return (long) count * disk.blockSize();
+  }
+
+  /**
+   * Returns whether or not any blocks of this file are part of a mapped region. Such blocks may
+   * still be referenced by buffers returned from {@link #map}, so they must not be reused for
+   * other files when they're freed.
+   */
+  boolean isMapped() {
+    return mappedRegions != null;
+  }
+
+  /**
+   * Returns whether or not any blocks of this file may be {@linkplain Disk#share shared} with
+   * other files.
+   */
+  boolean mayShareBlocks() {
+    return mayShareBlocks;
+  }
+
+  /**
+   * Marks this file as possibly sharing blocks with other files. Called by the disk when it shares
+   * blocks of this file.
+   */
+  void setMayShareBlocks() {
+    mayShareBlocks = true;
+  }
+
+  /**
+   * Returns whether or not any blocks of this file may be {@linkplain Disk#hole() holes}.
+   */
+  boolean mayHaveHoles() {
+    return mayHaveHoles;
+  }
+
   // end of lower-level methods dealing with the blocks array
 
   /**
@@ -169,20 +427,45 @@ final class RegularFile extends File {
   }
 
   @Override
-  RegularFile copyWithoutContent(int id) {
-    byte[][] copyBlocks = new byte[Math.max(blockCount * 2, 32)][];
-    return new RegularFile(id, disk, copyBlocks, 0, size);
+  RegularFile copyWithoutContent(int id, FileTime creationTime) {
+    ByteBuffer[] copyBlocks = new ByteBuffer[Math.max(blockCount * 2, 32)];
+    return new RegularFile(id, creationTime, disk, copyBlocks, 0, size);
   }
 
+  /**
+   * Copies the content of this file to the given file. If both files are on the same disk, the
+   * copy shares this file's blocks until one of the files writes to them, so only the blocks
+   * that are written to are ever actually copied. Blocks of a mapped file can be changed without
+   * locking through the mapped buffer, so they're always copied.
+   */
   @Override
   void copyContentTo(File file) throws IOException {
     RegularFile copy = (RegularFile) file;
+    if (copy.disk == disk && !isMapped()) {
+      if (blockCount > 0) {
+        disk.share(this, copy);
+        copy.mayHaveHoles = mayHaveHoles;
+      }
+      return;
+    }
+
+    if (mayHaveHoles) {
+      // holes stay holes in the copy, so only the blocks that have been written are allocated
+      for (int i = 0; i < blockCount; i++) {
+        if (disk.isHole(blocks[i])) {
+          copy.addHoles(1);
+        } else {
+          copy.disk.allocate(copy, 1);
+          copy(blocks[i], copy.blocks[i]);
+        }
+      }
+      return;
+    }
+
     disk.allocate(copy, blockCount);
 
     for (int i = 0; i < blockCount; i++) {
-      byte[] block = blocks[i];
-      byte[] copyBlock = copy.blocks[i];
-      System.arraycopy(block, 0, copyBlock, 0, block.length);
+      copy(blocks[i], copy.blocks[i]);
     }
   }
 
@@ -199,6 +482,21 @@ final class RegularFile extends File {
     openCount++;
   }
 
+  /**
+   * Marks this file as opened, as {@link #opened()} does, unless it has already been deleted.
+   * Returns {@code false} if the file was deleted and so was not opened. A file can only be found
+   * after it has been deleted when a lookup races with the deletion, which is possible with
+   * {@linkplain LockGranularity#DIRECTORY per-directory locking}.
+   */
+  public synchronized boolean openIfNotDeleted() {
+    if (deleted) {
+      return false;
+    }
+
+    openCount++;
+    return true;
+  }
+
   @Override
   public synchronized void closed() {
     if (--openCount == 0 && deleted) {
@@ -220,13 +518,31 @@ final class RegularFile extends File {
     }
   }
 
+  /**
+   * Marks this file as deleted regardless of its links, as when the file system containing it is
+   * closed. Its contents are deleted now if no streams or channels are open to the file, or
+   * otherwise when the last of them is closed.
+   */
+  public synchronized void discarded() {
+    if (!deleted) {
+      deleted = true;
+      if (openCount == 0) {
+        deleteContents();
+      }
+    }
+  }
+
   /**
    * Deletes the contents of this file. Called when this file has been deleted and all open streams
    * and channels to it have been closed.
    */
   private void deleteContents() {
+    // the write lock isn't held here, but a read that doesn't lock may still be in progress on a
+    // channel that was just closed, so the stamp must show that the content is changing
+    STAMP.incrementAndGet(this);
     disk.free(this);
     size = 0;
+    STAMP.incrementAndGet(this);
   }
 
   /**
@@ -254,38 +570,148 @@ final class RegularFile extends File {
   }
 
   /**
-   * Prepares for a write of len bytes starting at position pos.
+   * Extends this file to the given {@code size}. If the given size is greater than the current
+   * size of this file, the file is resized and all bytes between the current size and the given
+   * size are set to 0. Otherwise, this method does nothing. Returns {@code true} if this file was
+   * modified by the call (its size changed) and {@code false} otherwise.
+   *
+   * @throws IOException if the file needs more blocks but the disk is full
    */
-  private void prepareForWrite(long pos, long len) throws IOException {
-    long end = pos + len;
+  public boolean extend(long size) throws IOException {
+    if (size <= this.size) {
+      return false;
+    }
 
-    // allocate any additional blocks needed
-    int lastBlockIndex = blockCount - 1;
-    int endBlockIndex = blockIndex(end - 1);
+    prepareForWrite(size, 0);
+    return true;
+  }
 
-    if (endBlockIndex > lastBlockIndex) {
-      int additionalBlocksNeeded = endBlockIndex - lastBlockIndex;
-      disk.allocate(this, additionalBlocksNeeded);
+  /**
+   * Returns a direct buffer that shares its content with the {@code size} bytes of this file
+   * starting at position {@code pos}; changes to the file are visible in the buffer and changes to
+   * the buffer are visible in the file. The given range must not extend past the current size of
+   * this file.
+   *
+   * <p>The first time a range of blocks is mapped, the contents of those blocks are copied to a
+   * single new direct buffer and the blocks are replaced with slices of that buffer. Mapping a
+   * range that lies within an already mapped range just returns a new view of the existing buffer.
+   * If the file is later truncated, buffers mapping the removed part of the file are no longer
+   * connected to the file.
+   *
+   * @throws IOException if the range overlaps, but is not contained in, a previously mapped range
+   */
+  public ByteBuffer map(long pos, int size) throws IOException {
+    if (size == 0) {
+      return ByteBuffer.allocateDirect(0);
     }
 
-    // zero bytes between current size and pos
-    if (pos > size) {
-      long remaining = pos - size;
+    int firstBlock = blockIndex(pos);
+    int lastBlock = blockIndex(pos + size - 1);
+    MappedRegion region = mapBlocks(firstBlock, lastBlock);
 
-      int blockIndex = blockIndex(size);
-      byte[] block = blocks[blockIndex];
-      int off = offsetInBlock(size);
+    int offset = (int) (pos - (long) region.firstBlock * disk.blockSize());
+    return window(region.buffer, offset, size).slice();
+  }
 
-      remaining -= zero(block, off, length(off, remaining));
+  /**
+   * Gets the mapped region containing the blocks from {@code firstBlock} to {@code lastBlock},
+   * inclusive, creating it if none of those blocks have been mapped yet.
+   */
+  private MappedRegion mapBlocks(int firstBlock, int lastBlock) throws IOException {
+    if (mappedRegions == null) {
+      mappedRegions = new ArrayList<>();
+    }
 
-      while (remaining > 0) {
-        block = blocks[++blockIndex];
+    for (MappedRegion region : mappedRegions) {
+      if (region.contains(firstBlock, lastBlock)) {
+        return region;
+      } else if (region.overlaps(firstBlock, lastBlock)) {
+        throw new IOException("range overlaps, but is not contained in, an existing mapping");
+      }
+    }
+
+    int blockSize = disk.blockSize();
+    int count = lastBlock - firstBlock + 1;
+    long regionSize = (long) count * blockSize;
+    if (regionSize > Integer.MAX_VALUE) {
+      throw new IOException("blocks in range are too large to map: " + regionSize + " bytes");
+    }
 
-        remaining -= zero(block, 0, length(remaining));
+    ByteBuffer buffer = ByteBuffer.allocateDirect((int) regionSize);
+    for (int i = 0; i < count; i++) {
+      // the mapped buffer can be written to, so a shared block must be made exclusive to this
+      // file before it's replaced
+      ByteBuffer oldBlock = blockForWrite(firstBlock + i);
+      ByteBuffer block = window(buffer, i * blockSize, blockSize).slice();
+      copy(oldBlock, block);
+      blocks[firstBlock + i] = block;
+    }
+
+    MappedRegion region = new MappedRegion(buffer, firstBlock, count);
+    mappedRegions.add(region);
+    return region;
+  }
+
+  /**
+   * Removes mapped regions, or parts of mapped regions, that are beyond the given block count.
+   */
+  private void trimMappedRegions(int count) {
+    Iterator<MappedRegion> iterator = mappedRegions.iterator();
+    while (iterator.hasNext()) {
+      MappedRegion region = iterator.next();
+      if (region.firstBlock >= count) {
+        iterator.remove();
+      } else {
+        region.blockCount = Math.min(region.blockCount, count - region.firstBlock);
+      }
+    }
+
+    if (mappedRegions.isEmpty()) {
+      mappedRegions = null;
+    }
+  }
+
+  /**
+   * Prepares for a write of len bytes starting at position pos.
+   *
+   * <p>If pos is greater than the current size, the gap is filled with zeros. Only blocks that
+   * this file already has are actually zeroed; the blocks past those and before pos are added as
+   * {@linkplain Disk#hole() holes}, which take up no space on the disk until they're written to.
+   */
+  private void prepareForWrite(long pos, long len) throws IOException {
+    if (pos > size) {
+      // zero bytes between current size and pos in blocks the file already has
+      long zeroEnd = Math.min(pos, (long) blockCount * disk.blockSize());
+      long zeroPos = size;
+      while (zeroPos < zeroEnd) {
+        int blockIndex = blockIndex(zeroPos);
+        int off = offsetInBlock(zeroPos);
+        int zeroLen = length(off, zeroEnd - zeroPos);
+        if (!disk.isHole(blocks[blockIndex])) {
+          zero(blockForWrite(blockIndex), off, zeroLen);
+        }
+        zeroPos += zeroLen;
+      }
+
+      // any other blocks before pos are holes
+      int holesNeeded = blockIndex(pos - 1) + 1 - blockCount;
+      if (holesNeeded > 0) {
+        addHoles(holesNeeded);
       }
 
       size = pos;
     }
+
+    // allocate any additional blocks needed
+    if (len > 0) {
+      int lastBlockIndex = blockCount - 1;
+      int endBlockIndex = blockIndex(pos + len - 1);
+
+      if (endBlockIndex > lastBlockIndex) {
+        int additionalBlocksNeeded = endBlockIndex - lastBlockIndex;
+        disk.allocate(this, additionalBlocksNeeded);
+      }
+    }
   }
 
   /**
@@ -298,9 +724,9 @@ final class RegularFile extends File {
   public int write(long pos, byte b) throws IOException {
     prepareForWrite(pos, 1);
 
-    byte[] block = blocks[blockIndex(pos)];
+    ByteBuffer block = blockForWrite(blockIndex(pos));
     int off = offsetInBlock(pos);
-    block[off] = b;
+    block.put(off, b);
 
     if (pos >= size) {
       size = pos + 1;
@@ -327,7 +753,7 @@ final class RegularFile extends File {
     int remaining = len;
 
     int blockIndex = blockIndex(pos);
-    byte[] block = blocks[blockIndex];
+    ByteBuffer block = blockForWrite(blockIndex);
     int offInBlock = offsetInBlock(pos);
 
     int written = put(block, offInBlock, b, off, length(offInBlock, remaining));
@@ -335,7 +761,7 @@ final class RegularFile extends File {
     off += written;
 
     while (remaining > 0) {
-      block = blocks[++blockIndex];
+      block = blockForWrite(++blockIndex);
 
       written = put(block, 0, b, off, length(remaining));
       remaining -= written;
@@ -368,13 +794,13 @@ final class RegularFile extends File {
     }
 
     int blockIndex = blockIndex(pos);
-    byte[] block = blocks[blockIndex];
+    ByteBuffer block = blockForWrite(blockIndex);
     int off = offsetInBlock(pos);
 
     put(block, off, buf);
 
     while (buf.hasRemaining()) {
-      block = blocks[++blockIndex];
+      block = blockForWrite(++blockIndex);
 
       put(block, 0, buf);
     }
@@ -396,11 +822,65 @@ final class RegularFile extends File {
    * @throws IOException if the file needs more blocks but the disk is full
    */
   public long write(long pos, Iterable<ByteBuffer> bufs) throws IOException {
-    long start = pos;
-    for (ByteBuffer buf : bufs) {
-      pos += write(pos, buf);
+    ByteBuffer[] array = Iterables.toArray(bufs, ByteBuffer.class);
+    return write(pos, array, 0, array.length);
+  }
+
+  /**
+   * Writes all available bytes from each of the {@code length} buffers in {@code bufs} starting at
+   * index {@code offset}, in order, to this file starting at position {@code pos}. {@code pos} may
+   * be greater than the current size of this file, in which case this file is resized and all
+   * bytes between the current size and {@code pos} are set to 0. Returns the number of bytes
+   * written.
+   *
+   * <p>The blocks of this file and the buffers are walked together in a single pass, so a block is
+   * only looked up once however many buffers are written to it.
+   *
+   * @throws IOException if the file needs more blocks but the disk is full
+   */
+  public long write(long pos, ByteBuffer[] bufs, int offset, int length) throws IOException {
+    int end = offset + length;
+    long len = 0;
+    for (int i = offset; i < end; i++) {
+      len += bufs[i].remaining();
     }
-    return pos - start;
+
+    prepareForWrite(pos, len);
+
+    if (len == 0) {
+      return 0;
+    }
+
+    int blockSize = disk.blockSize();
+    int blockIndex = blockIndex(pos);
+    ByteBuffer block = blockForWrite(blockIndex);
+    int off = offsetInBlock(pos);
+
+    long remaining = len;
+    int i = offset;
+    while (remaining > 0) {
+      ByteBuffer buf = bufs[i];
+      if (!buf.hasRemaining()) {
+        i++;
+        continue;
+      }
+
+      if (off == blockSize) {
+        block = blockForWrite(++blockIndex);
+        off = 0;
+      }
+
+      int written = put(block, off, buf);
+      off += written;
+      remaining -= written;
+    }
+
+    long endPos = pos + len;
+    if (endPos > size) {
+      size = endPos;
+    }
+
+    return len;
   }
 
   /**
@@ -422,10 +902,10 @@ final class RegularFile extends File {
     long remaining = count;
 
     int blockIndex = blockIndex(pos);
-    byte[] block = blockForWrite(blockIndex);
+    ByteBuffer block = blockForWrite(blockIndex);
     int off = offsetInBlock(pos);
 
-    ByteBuffer buf = ByteBuffer.wrap(block, off, length(off, remaining));
+    ByteBuffer buf = window(block, off, length(off, remaining));
 
     long currentPos = pos;
     int read = 0;
@@ -448,7 +928,7 @@ final class RegularFile extends File {
       outer: while (remaining > 0) {
         block = blockForWrite(++blockIndex);
 
-        buf = ByteBuffer.wrap(block, 0, length(remaining));
+        buf = window(block, 0, length(remaining));
         while (buf.hasRemaining()) {
           read = src.read(buf);
           if (read == -1) {
@@ -481,9 +961,9 @@ final class RegularFile extends File {
       return -1;
     }
 
-    byte[] block = blocks[blockIndex(pos)];
+    ByteBuffer block = blocks[blockIndex(pos)];
     int off = offsetInBlock(pos);
-    return UnsignedBytes.toInt(block[off]);
+    return UnsignedBytes.toInt(block.get(off));
   }
 
   /**
@@ -499,7 +979,7 @@ final class RegularFile extends File {
       int remaining = bytesToRead;
 
       int blockIndex = blockIndex(pos);
-      byte[] block = blocks[blockIndex];
+      ByteBuffer block = blocks[blockIndex];
       int offsetInBlock = offsetInBlock(pos);
 
       int read = get(block, offsetInBlock, b, off, length(offsetInBlock, remaining));
@@ -532,7 +1012,7 @@ final class RegularFile extends File {
       int remaining = bytesToRead;
 
       int blockIndex = blockIndex(pos);
-      byte[] block = blocks[blockIndex];
+      ByteBuffer block = blocks[blockIndex];
       int off = offsetInBlock(pos);
 
       remaining -= get(block, off, buf, length(off, remaining));
@@ -547,27 +1027,109 @@ final class RegularFile extends File {
     return bytesToRead;
   }
 
+  /**
+   * Reads up to {@code buf.remaining()} bytes starting at position {@code pos} in this file to the
+   * given buffer without locking, as {@link #read(long, ByteBuffer)} does. Returns the number of
+   * bytes read or -1 if {@code pos} is greater than or equal to the size of this file.
+   *
+   * <p>This is an optimistic read: the bytes are copied and then the read is validated by checking
+   * that this file's write lock was not held at any point during the copy. If it was, returns
+   * {@link #OPTIMISTIC_READ_FAILED} after restoring the buffer's position, in which case the
+   * content of the buffer past its position is undefined and the caller should read again while
+   * holding the read lock. Like optimistic reads with Java 8's {@code StampedLock}, any number of
+   * threads can read this way at once without writing to any shared state. Always fails if the JDK
+   * provides no {@linkplain #canReadWithoutLocking() load fence} to validate the read with.
+   */
+  public int readWithoutLocking(long pos, ByteBuffer buf) {
+    if (LOAD_FENCE == null) {
+      return OPTIMISTIC_READ_FAILED;
+    }
+
+    long stamp = this.stamp;
+    if ((stamp & 1) != 0) {
+      return OPTIMISTIC_READ_FAILED; // a write is in progress
+    }
+
+    int startPosition = buf.position();
+    int read;
+    try {
+      read = read(pos, buf);
+    } catch (RuntimeException e) {
+      // a concurrent write may have changed the blocks being read; if not, this is a real failure
+      loadFence();
+      if (this.stamp == stamp) {
+        throw e;
+      }
+      read = OPTIMISTIC_READ_FAILED;
+    }
+
+    // a volatile read only keeps later loads from moving before it, not earlier loads from moving
+    // after it, so without the fence the stamp could be read before the content and validate a
+    // torn read; StampedLock.validate uses a load fence the same way
+    loadFence();
+    if (this.stamp != stamp) {
+      buf.position(startPosition);
+      return OPTIMISTIC_READ_FAILED;
+    }
+    return read;
+  }
+
   /**
    * Reads up to the total {@code remaining()} number of bytes in each of {@code bufs} starting at
    * position {@code pos} in this file to the given buffers, in order. Returns the number of bytes
    * read or -1 if {@code pos} is greater than or equal to the size of this file.
    */
   public long read(long pos, Iterable<ByteBuffer> bufs) {
-    if (pos >= size()) {
-      return -1;
+    ByteBuffer[] array = Iterables.toArray(bufs, ByteBuffer.class);
+    return read(pos, array, 0, array.length);
+  }
+
+  /**
+   * Reads up to the total {@code remaining()} number of bytes in each of the {@code length} buffers
+   * in {@code bufs} starting at index {@code offset}, starting at position {@code pos} in this
+   * file, to the given buffers in order. Returns the number of bytes read or -1 if {@code pos} is
+   * greater than or equal to the size of this file.
+   *
+   * <p>The blocks of this file and the buffers are walked together in a single pass, so a block is
+   * only looked up once however many buffers are filled from it.
+   */
+  public long read(long pos, ByteBuffer[] bufs, int offset, int length) {
+    int end = offset + length;
+    long max = 0;
+    for (int i = offset; i < end; i++) {
+      max += bufs[i].remaining();
     }
 
-    long start = pos;
-    for (ByteBuffer buf : bufs) {
-      int read = read(pos, buf);
-      if (read == -1) {
-        break;
-      } else {
-        pos += read;
+    long bytesToRead = bytesToRead(pos, max);
+
+    if (bytesToRead > 0) {
+      int blockSize = disk.blockSize();
+      int blockIndex = blockIndex(pos);
+      ByteBuffer block = blocks[blockIndex];
+      int off = offsetInBlock(pos);
+
+      long remaining = bytesToRead;
+      int i = offset;
+      while (remaining > 0) {
+        ByteBuffer buf = bufs[i];
+        if (!buf.hasRemaining()) {
+          i++;
+          continue;
+        }
+
+        if (off == blockSize) {
+          block = blocks[++blockIndex];
+          off = 0;
+        }
+
+        int read = (int) Math.min(Math.min(blockSize - off, buf.remaining()), remaining);
+        get(block, off, buf, read);
+        off += read;
+        remaining -= read;
       }
     }
 
-    return pos - start;
+    return bytesToRead;
   }
 
   /**
@@ -585,24 +1147,22 @@ final class RegularFile extends File {
       long remaining = bytesToRead;
 
       int blockIndex = blockIndex(pos);
-      byte[] block = blocks[blockIndex];
+      ByteBuffer block = blocks[blockIndex];
       int off = offsetInBlock(pos);
 
-      ByteBuffer buf = ByteBuffer.wrap(block, off, length(off, remaining));
+      ByteBuffer buf = window(block, off, length(off, remaining));
       while (buf.hasRemaining()) {
         remaining -= dest.write(buf);
       }
-      buf.clear();
 
       while (remaining > 0) {
         int index = ++blockIndex;
         block = blocks[index];
 
-        buf = ByteBuffer.wrap(block, 0, length(remaining));
+        buf = window(block, 0, length(remaining));
         while (buf.hasRemaining()) {
           remaining -= dest.write(buf);
         }
-        buf.clear();
       }
     }
 
@@ -610,17 +1170,114 @@ final class RegularFile extends File {
   }
 
   /**
-   * Gets the block at the given index, expanding to create the block if necessary.
+   * Transfers up to {@code count} bytes starting at position {@code pos} in this file to the given
+   * file starting at position {@code destPos}, which may be past the end of that file as with
+   * {@link #write(long, ByteBuffer)}. Returns the number of bytes transferred, possibly 0. Like
+   * {@link #transferTo(long, long, WritableByteChannel)}, does not return -1 if {@code pos} is
+   * greater than or equal to the current size of this file.
+   *
+   * <p>If both files are on the same disk, neither is mapped and the positions are at the same
+   * offset within a block, whole blocks are {@linkplain Disk#share shared} with the destination
+   * file rather than copied, so only the partial blocks at either end of the range are actually
+   * copied. Otherwise, the bytes are copied directly from this file's blocks.
+   *
+   * @throws IOException if the destination file needs more blocks but the disk is full
    */
-  private byte[] blockForWrite(int index) throws IOException {
+  public long transferTo(long pos, long count, RegularFile dest, long destPos)
+      throws IOException {
+    checkArgument(dest != this, "can't transfer bytes from a file to itself");
+    long bytesToRead = bytesToRead(pos, count);
+    if (bytesToRead <= 0) {
+      return 0;
+    }
+
+    long remaining = bytesToRead;
+    int off = offsetInBlock(pos);
+    if (dest.disk == disk && !isMapped() && !dest.isMapped()
+        && off == dest.offsetInBlock(destPos)) {
+      if (off != 0) {
+        int len = length(off, remaining);
+        dest.write(destPos, window(blocks[blockIndex(pos)], off, len));
+        pos += len;
+        destPos += len;
+        remaining -= len;
+      }
+
+      int sharedBlockCount = (int) (remaining / disk.blockSize());
+      if (sharedBlockCount > 0) {
+        if (destPos > dest.size) {
+          dest.prepareForWrite(destPos, 0);
+        }
+
+        disk.share(this, blockIndex(pos), dest, dest.blockIndex(destPos), sharedBlockCount);
+        dest.mayHaveHoles |= mayHaveHoles;
+
+        long sharedBytes = (long) sharedBlockCount * disk.blockSize();
+        pos += sharedBytes;
+        destPos += sharedBytes;
+        remaining -= sharedBytes;
+        if (destPos > dest.size) {
+          dest.size = destPos;
+        }
+      }
+    }
+
+    while (remaining > 0) {
+      off = offsetInBlock(pos);
+      int len = length(off, remaining);
+      dest.write(destPos, window(blocks[blockIndex(pos)], off, len));
+      pos += len;
+      destPos += len;
+      remaining -= len;
+    }
+
+    return bytesToRead;
+  }
+
+  /**
+   * Gets the block at the given index for writing, expanding to create the block if necessary,
+   * copying the block first if it's shared with another file and allocating it first if it's a
+   * hole.
+   */
+  private ByteBuffer blockForWrite(int index) throws IOException {
     if (index >= blockCount) {
       int additionalBlocksNeeded = index - blockCount + 1;
       disk.allocate(this, additionalBlocksNeeded);
+    } else if (mayShareBlocks || mayHaveHoles) {
+      ByteBuffer block = disk.copyOnWrite(this, index);
+      if (--writesUntilBlockCheck <= 0) {
+        checkBlocks();
+      }
+      return block;
     }
 
     return blocks[index];
   }
 
+  /**
+   * Clears {@link #mayShareBlocks} if none of this file's blocks are still shared and
+   * {@link #mayHaveHoles} if none of its blocks are still holes, so that writes stop going
+   * through {@link Disk#copyOnWrite} once the other files have released the blocks they shared
+   * and all holes have been filled. Scans every block, so it's only done once every
+   * {@link #blockCount} writes. Must be called while holding the write lock.
+   */
+  private void checkBlocks() {
+    boolean shared = false;
+    boolean holes = false;
+    for (int i = 0; i < blockCount && !(shared && holes); i++) {
+      ByteBuffer block = blocks[i];
+      if (disk.isHole(block)) {
+        holes = true;
+      } else if (!shared && mayShareBlocks) {
+        shared = disk.isSharedBlock(block);
+      }
+    }
+
+    mayShareBlocks = shared;
+    mayHaveHoles = holes;
+    writesUntilBlockCheck = blockCount;
+  }
+
   private int blockIndex(long position) {
     return (int) (position / disk.blockSize());
   }
@@ -649,10 +1306,33 @@ final class RegularFile extends File {
     return Math.min(available, max);
   }
 
+  /**
+   * Returns a view of the given block with its position at {@code offset} and its limit at
+   * {@code offset + len}.
+   */
+  private static ByteBuffer window(ByteBuffer block, int offset, int len) {
+    ByteBuffer window = block.duplicate();
+    window.limit(offset + len);
+    window.position(offset);
+    return window;
+  }
+
+  /**
+   * Copies the full contents of the given block to the given target block.
+   */
+  private static void copy(ByteBuffer block, ByteBuffer target) {
+    if (block.hasArray() && target.hasArray()) {
+      System.arraycopy(block.array(), block.arrayOffset(),
+          target.array(), target.arrayOffset(), block.capacity());
+    } else {
+      target.duplicate().put(block.duplicate());
+    }
+  }
+
   /**
    * Zeroes len bytes in the given block starting at the given offset. Returns len.
    */
-  private static int zero(byte[] block, int offset, int len) {
+  private static int zero(ByteBuffer block, int offset, int len) {
     Util.zero(block, offset, len);
     return len;
   }
@@ -660,17 +1340,28 @@ final class RegularFile extends File {
   /**
    * Puts the given slice of the given array at the given offset in the given block.
    */
-  private static int put(byte[] block, int offset, byte[] b, int off, int len) {
-    System.arraycopy(b, off, block, offset, len);
+  private static int put(ByteBuffer block, int offset, byte[] b, int off, int len) {
+    if (block.hasArray()) {
+      System.arraycopy(b, off, block.array(), block.arrayOffset() + offset, len);
+    } else {
+      window(block, offset, len).put(b, off, len);
+    }
     return len;
   }
 
   /**
    * Puts the contents of the given byte buffer at the given offset in the given block.
    */
-  private static int put(byte[] block, int offset, ByteBuffer buf) {
-    int len = Math.min(block.length - offset, buf.remaining());
-    buf.get(block, offset, len);
+  private static int put(ByteBuffer block, int offset, ByteBuffer buf) {
+    int len = Math.min(block.capacity() - offset, buf.remaining());
+    if (block.hasArray()) {
+      buf.get(block.array(), block.arrayOffset() + offset, len);
+    } else {
+      int limit = buf.limit();
+      buf.limit(buf.position() + len);
+      window(block, offset, len).put(buf);
+      buf.limit(limit);
+    }
     return len;
   }
 
@@ -678,16 +1369,54 @@ final class RegularFile extends File {
    * Reads len bytes starting at the given offset in the given block into the given slice of the
    * given byte array.
    */
-  private static int get(byte[] block, int offset, byte[] b, int off, int len) {
-    System.arraycopy(block, offset, b, off, len);
+  private static int get(ByteBuffer block, int offset, byte[] b, int off, int len) {
+    if (block.hasArray()) {
+      System.arraycopy(block.array(), block.arrayOffset() + offset, b, off, len);
+    } else {
+      window(block, offset, len).get(b, off, len);
+    }
     return len;
   }
 
   /**
    * Reads len bytes starting at the given offset in the given block into the given byte buffer.
    */
-  private static int get(byte[] block, int offset, ByteBuffer buf, int len) {
-    buf.put(block, offset, len);
+  private static int get(ByteBuffer block, int offset, ByteBuffer buf, int len) {
+    if (block.hasArray()) {
+      buf.put(block.array(), block.arrayOffset() + offset, len);
+    } else {
+      buf.put(window(block, offset, len));
+    }
     return len;
   }
+
+  /**
+   * A contiguous direct buffer that a range of this file's blocks are slices of.
+   */
+  private static final class MappedRegion {
+
+    private final ByteBuffer buffer;
+    private final int firstBlock;
+    private int blockCount;
+
+    private MappedRegion(ByteBuffer buffer, int firstBlock, int blockCount) {
+      this.buffer = buffer;
+      this.firstBlock = firstBlock;
+      this.blockCount = blockCount;
+    }
+
+    /**
+     * Returns whether this region contains all blocks from {@code first} to {@code last}.
+     */
+    boolean contains(int first, int last) {
+      return first >= firstBlock && last < firstBlock + blockCount;
+    }
+
+    /**
+     * Returns whether this region contains any blocks from {@code first} to {@code last}.
+     */
+    boolean overlaps(int first, int last) {
+      return first < firstBlock + blockCount && last >= firstBlock;
+    }
+  }
 }
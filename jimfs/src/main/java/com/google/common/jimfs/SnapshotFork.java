@@ -0,0 +1,109 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Copies files from a {@link FileSystemSnapshot} into a file system forked from it. A directory is
+ * copied without its entries, which are only copied the first time the directory is accessed, so
+ * forking a file system doesn't need to walk the snapshot's file tree. Regular files share their
+ * blocks with the snapshot until they're written to. Copies have the same IDs as the files they're
+ * copied from; new files in the fork get IDs starting at the snapshot's
+ * {@linkplain FileSystemSnapshot#nextFileId() next file ID}.
+ */
+final class SnapshotFork {
+
+  private final PathService pathService;
+
+  /**
+   * Copies of snapshot files that have more than one link, so that each of the links is restored
+   * to the same copy.
+   */
+  private final Map<File, File> linkedCopies = new IdentityHashMap<>();
+
+  SnapshotFork(PathService pathService) {
+    this.pathService = checkNotNull(pathService);
+  }
+
+  /**
+   * Creates the fork's copy of the given root directory of the snapshot, which copies the entries
+   * of the snapshot's root when first accessed.
+   */
+  Directory forkRoot(Directory source) {
+    Directory root = Directory.createRoot(
+        source.id(), source.getCreationTime(), source.entryInParent().name());
+    source.copyAttributes(root);
+    root.setLinkCount(source.links());
+    root.copyEntriesLazily(source, this);
+    return root;
+  }
+
+  /**
+   * Returns the fork's copy of the given snapshot file, creating it if it hasn't been copied yet.
+   * The copy has the same link count as the given file.
+   */
+  synchronized File copyOf(File file) {
+    File copy = linkedCopies.get(file);
+    if (copy != null) {
+      return copy;
+    }
+
+    try {
+      if (file.isSymbolicLink()) {
+        // the link's target must be a path in the fork's file system, not the snapshot's
+        JimfsPath target = ((SymbolicLink) file).target();
+        copy = SymbolicLink.create(file.id(), file.getCreationTime(),
+            pathService.createPath(target.root(), target.names()));
+      } else {
+        copy = file.copyWithoutContent(file.id(), file.getCreationTime());
+      }
+      file.copyAttributes(copy);
+      copy.setLinkCount(file.links());
+      if (file.isDirectory()) {
+        ((Directory) copy).copyEntriesLazily((Directory) file, this);
+      } else {
+        file.copyContentTo(copy);
+      }
+    } catch (IOException e) {
+      // can't happen; regular files on the same disk share blocks rather than allocating new ones
+      throw new AssertionError(e);
+    }
+
+    if (!file.isDirectory() && file.links() > 1) {
+      linkedCopies.put(file, copy);
+    }
+    return copy;
+  }
+
+  /**
+   * Discards the fork's copies of regular files with more than one link. A copy that has been
+   * unlinked from every directory the fork has accessed may still be linked from a directory
+   * whose entries were never copied, so it can't be found by walking the fork's file tree.
+   */
+  synchronized void discardLinkedCopies() {
+    for (File copy : linkedCopies.values()) {
+      if (copy.isRegularFile()) {
+        ((RegularFile) copy).discarded();
+      }
+    }
+  }
+}
@@ -0,0 +1,742 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Table;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.AclEntry;
+import java.nio.file.attribute.AclEntryFlag;
+import java.nio.file.attribute.AclEntryPermission;
+import java.nio.file.attribute.AclEntryType;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.GroupPrincipal;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+/**
+ * Writes {@link FileSystemSnapshot}s as binary images and reads them back.
+ *
+ * <p>An image is a header followed by the file tree under each root directory, written depth
+ * first. Each file is written in full where it's first linked to; later links to the same file
+ * only give its ID. Numbers are big-endian, and strings are written as UTF-8 preceded by their
+ * length in bytes.
+ *
+ * <pre>
+ *   image   = MAGIC VERSION nextFileId:int rootCount:int (rootName:string file)*
+ *   file    = LINK id:int
+ *           | kind:byte id:int creationTime:long lastModifiedTime:long lastAccessTime:long
+ *             attributeCount:int (view:string attribute:string value)* content
+ *   content = entryCount:int (name:string file)*   (directory)
+ *           | size:long byte*                       (regular file)
+ *           | target:string                         (symbolic link)
+ *   value   = type:byte data
+ * </pre>
+ *
+ * <p>Times, including the values of time attributes, are written as nanoseconds since the epoch.
+ * Images written with version 1 of the format, which gave times in milliseconds, can still be
+ * read.
+ *
+ * <p>The content of regular files is written straight from their blocks, and read straight into
+ * the blocks of the new snapshot's disk. When reading from a file, the image is memory-mapped if
+ * possible, so that reading it is mostly a matter of copying bytes from the mapped image.
+ */
+final class SnapshotImage {
+
+  private SnapshotImage() {}
+
+  private static final int MAGIC = 0x4A494D46; // "JIMF"
+  private static final int VERSION = 2;
+
+  /** The version of the format that wrote times in milliseconds rather than nanoseconds. */
+  private static final int MILLISECOND_TIMES_VERSION = 1;
+
+  // file kinds
+  private static final byte DIRECTORY = 1;
+  private static final byte REGULAR_FILE = 2;
+  private static final byte SYMBOLIC_LINK = 3;
+  private static final byte LINK = 4;
+
+  // attribute value types
+  private static final byte STRING = 1;
+  private static final byte BOOLEAN = 2;
+  private static final byte INTEGER = 3;
+  private static final byte LONG = 4;
+  private static final byte BYTES = 5;
+  private static final byte FILE_TIME = 6;
+  private static final byte USER = 7;
+  private static final byte GROUP = 8;
+  private static final byte POSIX_PERMISSIONS = 9;
+  private static final byte ACL = 10;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /** The maximum size of each region of an image file that is mapped at a time. */
+  private static final int MAX_MAPPED_REGION_SIZE = 1 << 30; // 1 GB
+
+  /**
+   * Writes an image of the given snapshot to the given stream.
+   */
+  static void write(FileSystemSnapshot snapshot, OutputStream out) throws IOException {
+    new ImageWriter(out).write(snapshot);
+  }
+
+  /**
+   * Reads a snapshot, using the given configuration, from the image in the given file.
+   */
+  static FileSystemSnapshot read(Path image, Configuration configuration) throws IOException {
+    return read(image, configuration, MAX_MAPPED_REGION_SIZE);
+  }
+
+  @VisibleForTesting
+  static FileSystemSnapshot read(Path image, Configuration configuration, int mappedRegionSize)
+      throws IOException {
+    FileChannel channel;
+    try {
+      channel = FileChannel.open(image, READ);
+    } catch (UnsupportedOperationException e) {
+      try (InputStream in = Files.newInputStream(image)) {
+        return read(in, configuration);
+      }
+    }
+
+    try {
+      ImageReader reader;
+      try {
+        reader = new MappedImageReader(channel, mappedRegionSize);
+      } catch (UnsupportedOperationException e) {
+        reader = new StreamImageReader(channel);
+      }
+      return new SnapshotReader(reader, configuration).read();
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Reads a snapshot, using the given configuration, from the image in the given stream.
+   */
+  static FileSystemSnapshot read(InputStream in, Configuration configuration) throws IOException {
+    ImageReader reader = new StreamImageReader(Channels.newChannel(in));
+    return new SnapshotReader(reader, configuration).read();
+  }
+
+  private static boolean isReserved(Name name) {
+    return name.equals(Name.SELF) || name.equals(Name.PARENT);
+  }
+
+  /**
+   * Writes the image of a snapshot.
+   */
+  private static final class ImageWriter {
+
+    private final DataOutputStream out;
+
+    /** Files that have already been written. */
+    private final Set<File> written =
+        Collections.newSetFromMap(new IdentityHashMap<File, Boolean>());
+
+    /** Buffer for copying bytes out of blocks that aren't backed by an array. */
+    @Nullable
+    private byte[] transferBuffer;
+
+    ImageWriter(OutputStream out) {
+      this.out = new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+    }
+
+    void write(FileSystemSnapshot snapshot) throws IOException {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(snapshot.nextFileId());
+
+      ImmutableSortedMap<Name, Directory> roots = snapshot.roots();
+      out.writeInt(roots.size());
+      for (Map.Entry<Name, Directory> root : roots.entrySet()) {
+        writeString(root.getKey().toString());
+        writeFile(root.getValue());
+      }
+      out.flush();
+    }
+
+    private void writeFile(File file) throws IOException {
+      if (!written.add(file)) {
+        out.writeByte(LINK);
+        out.writeInt(file.id());
+        return;
+      }
+
+      out.writeByte(file.isDirectory() ? DIRECTORY
+          : file.isRegularFile() ? REGULAR_FILE
+          : SYMBOLIC_LINK);
+      out.writeInt(file.id());
+      writeTime(file.getCreationTime());
+      writeTime(file.getLastModifiedTime());
+      writeTime(file.getLastAccessTime());
+
+      ImmutableTable<String, String, Object> attributes = file.getAttributes();
+      out.writeInt(attributes.size());
+      for (Table.Cell<String, String, Object> cell : attributes.cellSet()) {
+        writeString(cell.getRowKey());
+        writeString(cell.getColumnKey());
+        writeValue(cell.getRowKey() + ":" + cell.getColumnKey(), cell.getValue());
+      }
+
+      if (file.isDirectory()) {
+        Directory dir = (Directory) file;
+        out.writeInt(dir.entryCount() - 2); // not including "." and ".."
+        for (DirectoryEntry entry : dir) {
+          if (!isReserved(entry.name())) {
+            writeString(entry.name().toString());
+            writeFile(entry.file());
+          }
+        }
+      } else if (file.isRegularFile()) {
+        writeContent((RegularFile) file);
+      } else {
+        writeString(((SymbolicLink) file).target().toString());
+      }
+    }
+
+    private void writeContent(RegularFile file) throws IOException {
+      long remaining = file.size();
+      out.writeLong(remaining);
+      for (int i = 0; remaining > 0; i++) {
+        ByteBuffer block = file.getBlock(i);
+        int length = (int) Math.min(block.remaining(), remaining);
+        writeBytes(block, length);
+        remaining -= length;
+      }
+    }
+
+    private void writeBytes(ByteBuffer block, int length) throws IOException {
+      if (block.hasArray()) {
+        out.write(block.array(), block.arrayOffset() + block.position(), length);
+        return;
+      }
+
+      if (transferBuffer == null) {
+        transferBuffer = new byte[BUFFER_SIZE];
+      }
+      ByteBuffer source = block.duplicate();
+      while (length > 0) {
+        int n = Math.min(length, transferBuffer.length);
+        source.get(transferBuffer, 0, n);
+        out.write(transferBuffer, 0, n);
+        length -= n;
+      }
+    }
+
+    private void writeValue(String attribute, Object value) throws IOException {
+      if (value instanceof String) {
+        out.writeByte(STRING);
+        writeString((String) value);
+      } else if (value instanceof Boolean) {
+        out.writeByte(BOOLEAN);
+        out.writeBoolean((Boolean) value);
+      } else if (value instanceof Integer) {
+        out.writeByte(INTEGER);
+        out.writeInt((Integer) value);
+      } else if (value instanceof Long) {
+        out.writeByte(LONG);
+        out.writeLong((Long) value);
+      } else if (value instanceof byte[]) {
+        out.writeByte(BYTES);
+        writeBytes((byte[]) value);
+      } else if (value instanceof FileTime) {
+        out.writeByte(FILE_TIME);
+        writeTime((FileTime) value);
+      } else if (value instanceof GroupPrincipal) {
+        out.writeByte(GROUP);
+        writeString(((GroupPrincipal) value).getName());
+      } else if (value instanceof UserPrincipal) {
+        out.writeByte(USER);
+        writeString(((UserPrincipal) value).getName());
+      } else if (value instanceof Set
+          && Iterables.all((Set<?>) value, Predicates.instanceOf(PosixFilePermission.class))) {
+        @SuppressWarnings("unchecked") // checked above
+        Set<PosixFilePermission> permissions = (Set<PosixFilePermission>) value;
+        out.writeByte(POSIX_PERMISSIONS);
+        writeString(PosixFilePermissions.toString(permissions));
+      } else if (value instanceof List
+          && Iterables.all((List<?>) value, Predicates.instanceOf(AclEntry.class))) {
+        out.writeByte(ACL);
+        writeAcl((List<?>) value);
+      } else {
+        throw new IOException("can't write value of attribute '" + attribute + "' of type "
+            + value.getClass().getName());
+      }
+    }
+
+    private void writeAcl(List<?> acl) throws IOException {
+      out.writeInt(acl.size());
+      for (Object element : acl) {
+        AclEntry entry = (AclEntry) element;
+        writeString(entry.type().name());
+
+        UserPrincipal principal = entry.principal();
+        out.writeBoolean(principal instanceof GroupPrincipal);
+        writeString(principal.getName());
+
+        out.writeInt(entry.permissions().size());
+        for (AclEntryPermission permission : entry.permissions()) {
+          writeString(permission.name());
+        }
+        out.writeInt(entry.flags().size());
+        for (AclEntryFlag flag : entry.flags()) {
+          writeString(flag.name());
+        }
+      }
+    }
+
+    private void writeTime(FileTime time) throws IOException {
+      out.writeLong(time.to(NANOSECONDS));
+    }
+
+    private void writeString(String string) throws IOException {
+      writeBytes(string.getBytes(UTF_8));
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  /**
+   * Reads a snapshot from an image.
+   */
+  private static final class SnapshotReader {
+
+    private final ImageReader in;
+    private final Configuration configuration;
+    private final PathService pathService;
+    private final Disk disk;
+
+    /** Files that have been read, by ID. */
+    private final Map<Integer, File> files = new HashMap<>();
+
+    /** The unit of the times in the image, which depends on its version. */
+    private TimeUnit timeUnit = NANOSECONDS;
+
+    SnapshotReader(ImageReader in, Configuration configuration) {
+      this.in = in;
+      this.configuration = configuration;
+      this.pathService = new PathService(configuration);
+      this.disk = Disk.create(configuration);
+    }
+
+    FileSystemSnapshot read() throws IOException {
+      try {
+        if (in.readInt() != MAGIC) {
+          throw new IOException("not a Jimfs snapshot image");
+        }
+        int version = in.readInt();
+        if (version == MILLISECOND_TIMES_VERSION) {
+          timeUnit = MILLISECONDS;
+        } else if (version != VERSION) {
+          throw new IOException("unsupported snapshot image version: " + version);
+        }
+        int nextFileId = in.readInt();
+
+        ImmutableSortedMap.Builder<Name, Directory> roots =
+            ImmutableSortedMap.orderedBy(Name.canonicalOrdering());
+        Set<Name> rootNames = new HashSet<>();
+        int rootCount = in.readInt();
+        for (int i = 0; i < rootCount; i++) {
+          Name rootName = readRootName();
+          File root = readFile(rootName);
+          if (rootName == null || !root.isDirectory() || !rootNames.add(rootName)) {
+            throw new IOException("invalid snapshot image: bad root directory " + rootName);
+          }
+          roots.put(rootName, (Directory) root);
+        }
+        checkRoots(rootNames);
+
+        for (int id : files.keySet()) {
+          nextFileId = Math.max(nextFileId, id + 1);
+        }
+        return new FileSystemSnapshot(configuration, disk, roots.build(), nextFileId);
+      } catch (IllegalArgumentException e) {
+        // thrown for invalid names and paths, or names that occur twice in a directory
+        throw new IOException("invalid snapshot image", e);
+      }
+    }
+
+    @Nullable
+    private Name readRootName() throws IOException {
+      String root = in.readString();
+      try {
+        return pathService.parsePath(root).root();
+      } catch (IllegalArgumentException e) {
+        throw new IOException("root directory '" + root
+            + "' of the snapshot image isn't valid for the configured path type", e);
+      }
+    }
+
+    /**
+     * Checks that the roots of the image are the roots of the configuration used to read it.
+     */
+    private void checkRoots(Set<Name> rootNames) throws IOException {
+      Set<Name> configuredRootNames = new HashSet<>();
+      for (String root : configuration.roots) {
+        configuredRootNames.add(pathService.parsePath(root).root());
+      }
+      if (!rootNames.equals(configuredRootNames)) {
+        throw new IOException("root directories of the snapshot image " + rootNames
+            + " don't match the configured root directories " + configuredRootNames);
+      }
+    }
+
+    /**
+     * Reads a file; if a root name is given, the file is a root directory with that name.
+     */
+    private File readFile(@Nullable Name rootName) throws IOException {
+      byte kind = in.readByte();
+      int id = in.readInt();
+      if (kind == LINK) {
+        File file = files.get(id);
+        if (file == null || file.isDirectory()) {
+          throw new IOException("invalid snapshot image: bad link to file " + id);
+        }
+        return file;
+      }
+
+      FileTime creationTime = readTime();
+      FileTime lastModifiedTime = readTime();
+      FileTime lastAccessTime = readTime();
+
+      ImmutableTable.Builder<String, String, Object> attributes = ImmutableTable.builder();
+      int attributeCount = in.readInt();
+      for (int i = 0; i < attributeCount; i++) {
+        attributes.put(in.readString(), in.readString(), readValue());
+      }
+
+      File file;
+      switch (kind) {
+        case DIRECTORY:
+          file = readDirectory(id, creationTime, rootName);
+          break;
+        case REGULAR_FILE:
+          RegularFile regularFile = RegularFile.create(id, creationTime, disk);
+          in.readContent(regularFile, in.readLong());
+          file = regularFile;
+          break;
+        case SYMBOLIC_LINK:
+          file = SymbolicLink.create(id, creationTime, pathService.parsePath(in.readString()));
+          break;
+        default:
+          throw new IOException("invalid snapshot image: unknown file kind " + kind);
+      }
+
+      if (files.put(id, file) != null) {
+        throw new IOException("invalid snapshot image: duplicate file ID " + id);
+      }
+
+      file.setLastModifiedTime(lastModifiedTime);
+      file.setLastAccessTime(lastAccessTime);
+      for (Table.Cell<String, String, Object> cell : attributes.build().cellSet()) {
+        file.setAttribute(cell.getRowKey(), cell.getColumnKey(), cell.getValue());
+      }
+      return file;
+    }
+
+    private Directory readDirectory(int id, FileTime creationTime, @Nullable Name rootName)
+        throws IOException {
+      Directory dir = rootName == null
+          ? Directory.create(id, creationTime)
+          : Directory.createRoot(id, creationTime, rootName);
+      int entryCount = in.readInt();
+      for (int i = 0; i < entryCount; i++) {
+        Name name = pathService.name(in.readString());
+        dir.link(name, readFile(null));
+      }
+      return dir;
+    }
+
+    private FileTime readTime() throws IOException {
+      return FileTime.from(in.readLong(), timeUnit);
+    }
+
+    private Object readValue() throws IOException {
+      byte type = in.readByte();
+      switch (type) {
+        case STRING:
+          return in.readString();
+        case BOOLEAN:
+          return in.readByte() != 0;
+        case INTEGER:
+          return in.readInt();
+        case LONG:
+          return in.readLong();
+        case BYTES:
+          return in.readBytes();
+        case FILE_TIME:
+          return readTime();
+        case USER:
+          return UserLookupService.createUserPrincipal(in.readString());
+        case GROUP:
+          return UserLookupService.createGroupPrincipal(in.readString());
+        case POSIX_PERMISSIONS:
+          return ImmutableSet.copyOf(PosixFilePermissions.fromString(in.readString()));
+        case ACL:
+          return readAcl();
+        default:
+          throw new IOException("invalid snapshot image: unknown attribute value type " + type);
+      }
+    }
+
+    private ImmutableList<AclEntry> readAcl() throws IOException {
+      ImmutableList.Builder<AclEntry> acl = ImmutableList.builder();
+      int size = in.readInt();
+      for (int i = 0; i < size; i++) {
+        AclEntry.Builder entry = AclEntry.newBuilder()
+            .setType(AclEntryType.valueOf(in.readString()));
+
+        boolean group = in.readByte() != 0;
+        String principalName = in.readString();
+        entry.setPrincipal(group
+            ? UserLookupService.createGroupPrincipal(principalName)
+            : UserLookupService.createUserPrincipal(principalName));
+
+        Set<AclEntryPermission> permissions = new HashSet<>();
+        int permissionCount = in.readInt();
+        for (int j = 0; j < permissionCount; j++) {
+          permissions.add(AclEntryPermission.valueOf(in.readString()));
+        }
+        Set<AclEntryFlag> flags = new HashSet<>();
+        int flagCount = in.readInt();
+        for (int j = 0; j < flagCount; j++) {
+          flags.add(AclEntryFlag.valueOf(in.readString()));
+        }
+
+        acl.add(entry.setPermissions(permissions).setFlags(flags).build());
+      }
+      return acl.build();
+    }
+  }
+
+  /**
+   * Source of the bytes of an image. Bytes are read from a buffer, which subclasses refill as
+   * needed.
+   */
+  private abstract static class ImageReader {
+
+    protected ByteBuffer buffer;
+
+    /**
+     * Refills the buffer so that at least {@code count} bytes remain in it, where {@code count} is
+     * no more than 8.
+     *
+     * @throws EOFException if the end of the image is reached first
+     */
+    protected abstract void refill(int count) throws IOException;
+
+    private void require(int count) throws IOException {
+      if (buffer.remaining() < count) {
+        refill(count);
+      }
+    }
+
+    byte readByte() throws IOException {
+      require(1);
+      return buffer.get();
+    }
+
+    int readInt() throws IOException {
+      require(4);
+      return buffer.getInt();
+    }
+
+    long readLong() throws IOException {
+      require(8);
+      return buffer.getLong();
+    }
+
+    byte[] readBytes() throws IOException {
+      int length = readInt();
+      if (length < 0) {
+        throw new IOException("invalid snapshot image: negative length " + length);
+      }
+
+      byte[] bytes = new byte[length];
+      int off = 0;
+      while (off < length) {
+        require(1);
+        int n = Math.min(buffer.remaining(), length - off);
+        buffer.get(bytes, off, n);
+        off += n;
+      }
+      return bytes;
+    }
+
+    String readString() throws IOException {
+      return new String(readBytes(), UTF_8);
+    }
+
+    /**
+     * Reads {@code size} bytes of content into the given empty file, copying them from the buffer
+     * into the file's blocks as many at a time as the buffer holds.
+     */
+    void readContent(RegularFile file, long size) throws IOException {
+      long pos = 0;
+      while (pos < size) {
+        require(1);
+        int n = (int) Math.min(buffer.remaining(), size - pos);
+        ByteBuffer chunk = buffer.duplicate();
+        chunk.limit(chunk.position() + n);
+        file.write(pos, chunk);
+        buffer.position(buffer.position() + n);
+        pos += n;
+      }
+    }
+  }
+
+  /**
+   * Reads an image from a file by mapping it into memory, one region at a time. Regions don't
+   * overlap; a number that spans two regions is copied into a small buffer of its own.
+   */
+  private static final class MappedImageReader extends ImageReader {
+
+    private final FileChannel channel;
+    private final long size;
+    private final int regionSize;
+
+    /** The position in the file of the start of the next region to map. */
+    private long nextRegionStart;
+
+    /** A mapped region that hasn't been read from yet, if the buffer currently holds a number. */
+    @Nullable
+    private ByteBuffer nextRegion;
+
+    /**
+     * @throws UnsupportedOperationException if the channel can't be mapped
+     */
+    MappedImageReader(FileChannel channel, int regionSize) throws IOException {
+      this.channel = channel;
+      this.size = channel.size();
+      this.regionSize = regionSize;
+      this.buffer = ByteBuffer.allocate(0);
+      if (size > 0) {
+        this.buffer = takeNextRegion();
+      }
+    }
+
+    @Override
+    protected void refill(int count) throws IOException {
+      if (!buffer.hasRemaining()) {
+        buffer = takeNextRegion();
+        if (buffer.remaining() >= count) {
+          return;
+        }
+      }
+
+      ByteBuffer number = ByteBuffer.allocate(count);
+      number.put(buffer);
+      while (number.hasRemaining()) {
+        ByteBuffer region = takeNextRegion();
+        int n = Math.min(number.remaining(), region.remaining());
+        ByteBuffer part = region.duplicate();
+        part.limit(part.position() + n);
+        number.put(part);
+        region.position(region.position() + n);
+        if (region.hasRemaining()) {
+          nextRegion = region;
+        }
+      }
+      number.flip();
+      buffer = number;
+    }
+
+    private ByteBuffer takeNextRegion() throws IOException {
+      if (nextRegion != null) {
+        ByteBuffer region = nextRegion;
+        nextRegion = null;
+        return region;
+      }
+
+      if (nextRegionStart >= size) {
+        throw new EOFException();
+      }
+      long length = Math.min(size - nextRegionStart, regionSize);
+      ByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, nextRegionStart, length);
+      nextRegionStart += length;
+      return region;
+    }
+  }
+
+  /**
+   * Reads an image from a channel through a heap buffer.
+   */
+  private static final class StreamImageReader extends ImageReader {
+
+    private final ReadableByteChannel channel;
+
+    StreamImageReader(ReadableByteChannel channel) {
+      this.channel = channel;
+      this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+      buffer.flip();
+    }
+
+    @Override
+    protected void refill(int count) throws IOException {
+      buffer.compact();
+      try {
+        while (buffer.position() < count) {
+          if (channel.read(buffer) == -1) {
+            throw new EOFException();
+          }
+        }
+      } finally {
+        buffer.flip();
+      }
+    }
+  }
+}
@@ -119,7 +119,7 @@ final class UnixAttributeProvider extends AttributeProvider {
             (Set<PosixFilePermission>) file.getAttribute("posix", "permissions");
         return toMode(permissions);
       case "ctime":
-        return FileTime.fromMillis(file.getCreationTime());
+        return file.getCreationTime();
       case "rdev":
         return 0L;
       case "dev":
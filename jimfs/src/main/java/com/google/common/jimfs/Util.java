@@ -21,6 +21,8 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 import com.google.common.collect.ImmutableCollection;
 
+import java.nio.ByteBuffer;
+
 /**
  * Miscellaneous static utility methods.
  *
@@ -61,6 +63,15 @@ final class Util {
     }
   }
 
+  /**
+   * Checks that no element in the given range of the given array is null, throwing NPE if any is.
+   */
+  static void checkNoneNull(Object[] objects, int offset, int length) {
+    for (int i = offset; i < offset + length; i++) {
+      checkNotNull(objects[i]);
+    }
+  }
+
   private static final int C1 = 0xcc9e2d51;
   private static final int C2 = 0x1b873593;
 
@@ -78,7 +89,7 @@ final class Util {
 
   private static final int ARRAY_LEN = 8192;
   private static final byte[] ZERO_ARRAY = new byte[ARRAY_LEN];
-  private static final byte[][] NULL_ARRAY = new byte[ARRAY_LEN][];
+  private static final ByteBuffer[] NULL_ARRAY = new ByteBuffer[ARRAY_LEN];
 
   /**
    * Zeroes all bytes between off (inclusive) and off + len (exclusive) in the given array.
@@ -97,11 +108,32 @@ final class Util {
     System.arraycopy(ZERO_ARRAY, 0, bytes, off, remaining);
   }
 
+  /**
+   * Zeroes all bytes between off (inclusive) and off + len (exclusive) in the given buffer. The
+   * position and limit of the buffer are not changed.
+   */
+  static void zero(ByteBuffer buffer, int off, int len) {
+    if (buffer.hasArray()) {
+      zero(buffer.array(), buffer.arrayOffset() + off, len);
+      return;
+    }
+
+    ByteBuffer slice = buffer.duplicate();
+    slice.position(off);
+    int remaining = len;
+    while (remaining > ARRAY_LEN) {
+      slice.put(ZERO_ARRAY, 0, ARRAY_LEN);
+      remaining -= ARRAY_LEN;
+    }
+
+    slice.put(ZERO_ARRAY, 0, remaining);
+  }
+
   /**
    * Clears (sets to null) all blocks between off (inclusive) and off + len (exclusive) in the
    * given array.
    */
-  static void clear(byte[][] blocks, int off, int len) {
+  static void clear(ByteBuffer[] blocks, int off, int len) {
     // this is significantly faster than looping or Arrays.fill (which loops), particularly when
     // the length of the slice to be cleared is <= to ARRAY_LEN (in that case, it's faster by a
     // factor of 2)
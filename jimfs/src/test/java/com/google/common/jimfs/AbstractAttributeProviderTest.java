@@ -25,6 +25,7 @@ import org.junit.Before;
 
 import java.io.IOException;
 import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.attribute.FileTime;
 import java.util.Map;
 import java.util.Set;
 
@@ -35,6 +36,9 @@ import java.util.Set;
  */
 public abstract class AbstractAttributeProviderTest<P extends AttributeProvider> {
 
+  protected final ManualFileTimeSource fileTimeSource =
+      new ManualFileTimeSource(FileTime.fromMillis(0));
+
   protected static final ImmutableMap<String, FileAttributeView> NO_INHERITED_VIEWS =
       ImmutableMap.of();
 
@@ -63,7 +67,7 @@ public abstract class AbstractAttributeProviderTest<P extends AttributeProvider>
   @Before
   public void setUp() {
     this.provider = createProvider();
-    this.file = Directory.create(0);
+    this.file = Directory.create(0, fileTimeSource.now());
 
     Map<String, ?> defaultValues = createDefaultValues();
     setDefaultValues(file, provider, defaultValues);
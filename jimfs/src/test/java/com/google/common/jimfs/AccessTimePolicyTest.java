@@ -0,0 +1,194 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.file.StandardCopyOption.COPY_ATTRIBUTES;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * Tests for how reads update last access times with each {@link AccessTimePolicy}.
+ */
+@RunWith(JUnit4.class)
+public class AccessTimePolicyTest {
+
+  private static final FileTime OLD = FileTime.fromMillis(1000);
+  private static final FileTime OLDER = FileTime.fromMillis(500);
+
+  private FileSystem fs;
+
+  @After
+  public void tearDown() throws IOException {
+    if (fs != null) {
+      fs.close();
+    }
+  }
+
+  private Path createFile(AccessTimePolicy policy) throws IOException {
+    fs = Jimfs.newFileSystem(Configuration.unix().toBuilder()
+        .setAccessTimePolicy(policy)
+        .build());
+    Path file = Files.write(fs.getPath("/file"), new byte[] {1, 2, 3});
+    Files.setLastModifiedTime(file, OLDER);
+    Files.setAttribute(file, "lastAccessTime", OLD);
+    return file;
+  }
+
+  private static FileTime lastAccessTime(Path path) throws IOException {
+    return (FileTime) Files.getAttribute(path, "lastAccessTime");
+  }
+
+  private static FileSystemState newState(FileTimeSource clock, AccessTimePolicy policy) {
+    return new FileSystemState(new Runnable() {
+      @Override
+      public void run() {}
+    }, clock, policy);
+  }
+
+  private static void read(Path file) throws IOException {
+    try (InputStream in = Files.newInputStream(file)) {
+      while (in.read() != -1) {}
+    }
+  }
+
+  @Test
+  public void testStrict() throws IOException {
+    Path file = createFile(AccessTimePolicy.STRICT);
+    read(file);
+    assertThat(lastAccessTime(file).toMillis()).isGreaterThan(OLD.toMillis());
+  }
+
+  @Test
+  public void testStrict_channel() throws IOException {
+    Path file = createFile(AccessTimePolicy.STRICT);
+    try (FileChannel channel = FileChannel.open(file)) {
+      channel.read(ByteBuffer.allocate(10));
+    }
+    assertThat(lastAccessTime(file).toMillis()).isGreaterThan(OLD.toMillis());
+  }
+
+  @Test
+  public void testStrict_directory() throws IOException {
+    Path file = createFile(AccessTimePolicy.STRICT);
+    Path dir = Files.createDirectory(fs.getPath("/dir"));
+    Files.setAttribute(dir, "lastAccessTime", OLD);
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+      stream.iterator().hasNext();
+    }
+    assertThat(lastAccessTime(dir).toMillis()).isGreaterThan(OLD.toMillis());
+    assertThat(lastAccessTime(file)).isEqualTo(OLD);
+  }
+
+  @Test
+  public void testNone() throws IOException {
+    Path file = createFile(AccessTimePolicy.NONE);
+    read(file);
+    assertThat(lastAccessTime(file)).isEqualTo(OLD);
+  }
+
+  @Test
+  public void testNone_doesNotReadClock() {
+    CountingTimeSource clock = new CountingTimeSource();
+    FileSystemState state = newState(clock, AccessTimePolicy.NONE);
+    File file = Directory.create(0, OLD);
+
+    state.accessed(file);
+    state.accessed(file);
+    assertThat(clock.reads).isEqualTo(0);
+    assertThat(file.getLastAccessTime()).isEqualTo(OLD);
+  }
+
+  @Test
+  public void testRelative() throws IOException {
+    Path file = createFile(AccessTimePolicy.RELATIVE);
+
+    // the access time is later than the modified time and recent, so it isn't updated
+    FileTime recent = FileTime.fromMillis(System.currentTimeMillis() - 10000);
+    Files.setAttribute(file, "lastAccessTime", recent);
+    read(file);
+    assertThat(lastAccessTime(file)).isEqualTo(recent);
+
+    // modified since the last access
+    Files.setLastModifiedTime(file, FileTime.fromMillis(recent.toMillis() + 1));
+    read(file);
+    assertThat(lastAccessTime(file).toMillis()).isGreaterThan(recent.toMillis());
+
+    // last accessed more than a day ago
+    Files.setLastModifiedTime(file, OLDER);
+    read(file);
+    assertThat(lastAccessTime(file).toMillis()).isGreaterThan(OLD.toMillis());
+  }
+
+  @Test
+  public void testLazy() throws IOException {
+    Path file = createFile(AccessTimePolicy.LAZY);
+    read(file);
+    assertThat(lastAccessTime(file).toMillis()).isGreaterThan(OLD.toMillis());
+
+    // setting the access time explicitly discards the recorded read
+    Files.setAttribute(file, "lastAccessTime", OLD);
+    assertThat(lastAccessTime(file)).isEqualTo(OLD);
+  }
+
+  @Test
+  public void testLazy_recordsTimeOfRead() {
+    CountingTimeSource clock = new CountingTimeSource();
+    FileSystemState state = newState(clock, AccessTimePolicy.LAZY);
+    File file = Directory.create(0, OLD);
+
+    state.accessed(file);
+    state.accessed(file);
+    assertThat(clock.reads).isEqualTo(2);
+
+    // the access time is the time of the last read, not of when the access time is read
+    assertThat(file.getLastAccessTime()).isEqualTo(FileTime.fromMillis(OLD.toMillis() + 2));
+    assertThat(clock.reads).isEqualTo(2);
+  }
+
+  @Test
+  public void testLazy_copiedWithAttributes() throws IOException {
+    Path file = createFile(AccessTimePolicy.LAZY);
+    read(file);
+    Path copy = Files.copy(file, fs.getPath("/copy"), COPY_ATTRIBUTES);
+    assertThat(lastAccessTime(copy).toMillis()).isGreaterThan(OLD.toMillis());
+  }
+
+  private static final class CountingTimeSource implements FileTimeSource {
+
+    int reads;
+
+    @Override
+    public FileTime now() {
+      reads++;
+      return FileTime.fromMillis(OLD.toMillis() + reads);
+    }
+  }
+}
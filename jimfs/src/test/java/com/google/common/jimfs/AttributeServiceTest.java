@@ -43,6 +43,9 @@ import java.nio.file.attribute.PosixFileAttributes;
 @RunWith(JUnit4.class)
 public class AttributeServiceTest {
 
+  private final ManualFileTimeSource fileTimeSource =
+      new ManualFileTimeSource(FileTime.fromMillis(0));
+
   private AttributeService service;
 
   @Before
@@ -69,7 +72,7 @@ public class AttributeServiceTest {
 
   @Test
   public void testSetInitialAttributes() {
-    File file = Directory.create(0);
+    File file = Directory.create(0, fileTimeSource.now());
     service.setInitialAttributes(file);
 
     assertThat(file.getAttributeNames("test")).containsExactly("bar", "baz");
@@ -82,7 +85,7 @@ public class AttributeServiceTest {
 
   @Test
   public void testGetAttribute() {
-    File file = Directory.create(0);
+    File file = Directory.create(0, fileTimeSource.now());
     service.setInitialAttributes(file);
 
     assertThat(service.getAttribute(file, "test:foo")).isEqualTo("hello");
@@ -94,7 +97,7 @@ public class AttributeServiceTest {
 
   @Test
   public void testGetAttribute_fromInheritedProvider() {
-    File file = Directory.create(0);
+    File file = Directory.create(0, fileTimeSource.now());
     assertThat(service.getAttribute(file, "test:isRegularFile")).isEqualTo(false);
     assertThat(service.getAttribute(file, "test:isDirectory")).isEqualTo(true);
     assertThat(service.getAttribute(file, "test", "fileKey")).isEqualTo(0);
@@ -102,7 +105,7 @@ public class AttributeServiceTest {
 
   @Test
   public void testGetAttribute_failsForAttributesNotDefinedByProvider() {
-    File file = Directory.create(0);
+    File file = Directory.create(0, fileTimeSource.now());
     try {
       service.getAttribute(file, "test:blah");
       fail();
@@ -119,7 +122,7 @@ public class AttributeServiceTest {
 
   @Test
   public void testSetAttribute() {
-    File file = Directory.create(0);
+    File file = Directory.create(0, fileTimeSource.now());
     service.setAttribute(file, "test:bar", 10L, false);
     assertThat(file.getAttribute("test", "bar")).isEqualTo(10L);
 
@@ -129,7 +132,7 @@ public class AttributeServiceTest {
 
   @Test
   public void testSetAttribute_forInheritedProvider() {
-    File file = Directory.create(0);
+    File file = Directory.create(0, fileTimeSource.now());
     service.setAttribute(file, "test:lastModifiedTime", FileTime.fromMillis(0), false);
     assertThat(file.getAttribute("test", "lastModifiedTime")).isNull();
     assertThat(service.getAttribute(file, "basic:lastModifiedTime")).isEqualTo(
@@ -138,7 +141,7 @@ public class AttributeServiceTest {
 
   @Test
   public void testSetAttribute_withAlternateAcceptedType() {
-    File file = Directory.create(0);
+    File file = Directory.create(0, fileTimeSource.now());
     service.setAttribute(file, "test:bar", 10F, false);
     assertThat(file.getAttribute("test", "bar")).isEqualTo(10L);
 
@@ -148,14 +151,14 @@ public class AttributeServiceTest {
 
   @Test
   public void testSetAttribute_onCreate() {
-    File file = Directory.create(0);
+    File file = Directory.create(0, fileTimeSource.now());
     service.setInitialAttributes(file, new BasicFileAttribute<>("test:baz", 123));
     assertThat(file.getAttribute("test", "baz")).isEqualTo(123);
   }
 
   @Test
   public void testSetAttribute_failsForAttributesNotDefinedByProvider() {
-    File file = Directory.create(0);
+    File file = Directory.create(0, fileTimeSource.now());
     service.setInitialAttributes(file);
 
     try {
@@ -176,7 +179,7 @@ public class AttributeServiceTest {
 
   @Test
   public void testSetAttribute_failsForArgumentThatIsNotOfCorrectType() {
-    File file = Directory.create(0);
+    File file = Directory.create(0, fileTimeSource.now());
     service.setInitialAttributes(file);
     try {
       service.setAttribute(file, "test:bar", "wrong", false);
@@ -189,7 +192,7 @@ public class AttributeServiceTest {
 
   @Test
   public void testSetAttribute_failsForNullArgument() {
-    File file = Directory.create(0);
+    File file = Directory.create(0, fileTimeSource.now());
     service.setInitialAttributes(file);
     try {
       service.setAttribute(file, "test:bar", null, false);
@@ -202,7 +205,7 @@ public class AttributeServiceTest {
 
   @Test
   public void testSetAttribute_failsForAttributeThatIsNotSettable() {
-    File file = Directory.create(0);
+    File file = Directory.create(0, fileTimeSource.now());
     try {
       service.setAttribute(file, "test:foo", "world", false);
       fail();
@@ -214,7 +217,7 @@ public class AttributeServiceTest {
 
   @Test
   public void testSetAttribute_onCreate_failsForAttributeThatIsNotSettableOnCreate() {
-    File file = Directory.create(0);
+    File file = Directory.create(0, fileTimeSource.now());
     try {
       service.setInitialAttributes(file, new BasicFileAttribute<>("test:foo", "world"));
       fail();
@@ -232,7 +235,7 @@ public class AttributeServiceTest {
   @SuppressWarnings("ConstantConditions")
   @Test
   public void testGetFileAttributeView() throws IOException {
-    final File file = Directory.create(0);
+    final File file = Directory.create(0, fileTimeSource.now());
     service.setInitialAttributes(file);
 
     FileLookup fileLookup = new FileLookup() {
@@ -256,7 +259,7 @@ public class AttributeServiceTest {
 
   @Test
   public void testGetFileAttributeView_isNullForUnsupportedView() {
-    final File file = Directory.create(0);
+    final File file = Directory.create(0, fileTimeSource.now());
     FileLookup fileLookup = new FileLookup() {
       @Override
       public File lookup() throws IOException {
@@ -269,7 +272,7 @@ public class AttributeServiceTest {
 
   @Test
   public void testReadAttributes_asMap() {
-    File file = Directory.create(0);
+    File file = Directory.create(0, fileTimeSource.now());
     service.setInitialAttributes(file);
 
     ImmutableMap<String, Object> map = service.readAttributes(file, "test:foo,bar,baz");
@@ -315,7 +318,7 @@ public class AttributeServiceTest {
 
   @Test
   public void testReadAttributes_asMap_failsForInvalidAttributes() {
-    File file = Directory.create(0);
+    File file = Directory.create(0, fileTimeSource.now());
     try {
       service.readAttributes(file, "basic:fileKey,isOther,*,creationTime");
       fail();
@@ -333,7 +336,7 @@ public class AttributeServiceTest {
 
   @Test
   public void testReadAttributes_asObject() {
-    File file = Directory.create(0);
+    File file = Directory.create(0, fileTimeSource.now());
     service.setInitialAttributes(file);
 
     BasicFileAttributes basicAttrs = service.readAttributes(file, BasicFileAttributes.class);
@@ -352,7 +355,7 @@ public class AttributeServiceTest {
 
   @Test
   public void testReadAttributes_failsForUnsupportedAttributesType() {
-    File file = Directory.create(0);
+    File file = Directory.create(0, fileTimeSource.now());
     try {
       service.readAttributes(file, PosixFileAttributes.class);
       fail();
@@ -362,7 +365,7 @@ public class AttributeServiceTest {
 
   @Test
   public void testIllegalAttributeFormats() {
-    File file = Directory.create(0);
+    File file = Directory.create(0, fileTimeSource.now());
     try {
       service.getAttribute(file, ":bar");
       fail();
@@ -58,8 +58,8 @@ public class BasicAttributeProviderTest extends
 
   @Test
   public void testInitialAttributes() {
-    long time = file.getCreationTime();
-    assertThat(time).isNotEqualTo(0L);
+    FileTime time = file.getCreationTime();
+    assertThat(time).isEqualTo(fileTimeSource.now());
     assertThat(time).isEqualTo(file.getLastAccessTime());
     assertThat(time).isEqualTo(file.getLastModifiedTime());
 
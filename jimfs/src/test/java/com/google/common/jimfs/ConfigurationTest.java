@@ -38,7 +38,9 @@ import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
 import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Tests for {@link Configuration}, {@link Configuration.Builder} and file systems created from
@@ -66,6 +68,13 @@ public class ConfigurationTest {
     assertThat(config.blockSize).is(8192);
     assertThat(config.maxSize).isEqualTo(4L * 1024 * 1024 * 1024);
     assertThat(config.maxCacheSize).is(-1);
+    assertThat(config.cacheTrimIntervalNanos).is(0);
+    assertThat(config.backgroundZeroing).isFalse();
+    assertThat(config.blockStorage).isEqualTo(BlockStorage.HEAP);
+    assertThat(config.lockGranularity).isEqualTo(LockGranularity.FILE_SYSTEM);
+    assertThat(config.lookupCacheSize).is(Configuration.Builder.DEFAULT_LOOKUP_CACHE_SIZE);
+    assertThat(config.accessTimePolicy).isEqualTo(AccessTimePolicy.STRICT);
+    assertThat(config.fileTimeSource).isSameAs(FileTimeSources.system());
     assertThat(config.attributeViews).containsExactly("basic");
     assertThat(config.attributeProviders).isEmpty();
     assertThat(config.defaultAttributeValues).isEmpty();
@@ -168,6 +177,7 @@ public class ConfigurationTest {
   @Test
   public void testBuilder() {
     AttributeProvider unixProvider = StandardAttributeProviders.get("unix");
+    FileTimeSource fileTimeSource = new ManualFileTimeSource(FileTime.fromMillis(0));
 
     Configuration config = Configuration.builder(PathType.unix())
         .setRoots("/")
@@ -178,6 +188,13 @@ public class ConfigurationTest {
         .setBlockSize(10)
         .setMaxSize(100)
         .setMaxCacheSize(50)
+        .setCacheTrimInterval(30, TimeUnit.SECONDS)
+        .setBackgroundZeroing(true)
+        .setBlockStorage(BlockStorage.DIRECT)
+        .setLockGranularity(LockGranularity.DIRECTORY)
+        .setLookupCacheSize(10)
+        .setAccessTimePolicy(AccessTimePolicy.LAZY)
+        .setFileTimeSource(fileTimeSource)
         .setAttributeViews("basic", "posix")
         .addAttributeProvider(unixProvider)
         .setDefaultAttributeValue(
@@ -193,6 +210,13 @@ public class ConfigurationTest {
     assertThat(config.blockSize).is(10);
     assertThat(config.maxSize).is(100);
     assertThat(config.maxCacheSize).is(50);
+    assertThat(config.cacheTrimIntervalNanos).isEqualTo(TimeUnit.SECONDS.toNanos(30));
+    assertThat(config.backgroundZeroing).isTrue();
+    assertThat(config.blockStorage).isEqualTo(BlockStorage.DIRECT);
+    assertThat(config.lockGranularity).isEqualTo(LockGranularity.DIRECTORY);
+    assertThat(config.lookupCacheSize).is(10);
+    assertThat(config.accessTimePolicy).isEqualTo(AccessTimePolicy.LAZY);
+    assertThat(config.fileTimeSource).isSameAs(fileTimeSource);
     assertThat(config.attributeViews).containsExactly("basic", "posix");
     assertThat(config.attributeProviders).containsExactly(unixProvider);
     assertThat(config.defaultAttributeValues)
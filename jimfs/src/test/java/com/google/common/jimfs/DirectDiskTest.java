@@ -0,0 +1,110 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertArrayEquals;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * Tests for {@link DirectDisk}.
+ */
+@RunWith(JUnit4.class)
+public class DirectDiskTest {
+
+  private final ManualFileTimeSource fileTimeSource =
+      new ManualFileTimeSource(FileTime.fromMillis(0));
+
+  @Test
+  public void testCreateFromConfiguration() {
+    Configuration config = Configuration.unix().toBuilder()
+        .setBlockSize(4)
+        .setMaxSize(99)
+        .setBlockStorage(BlockStorage.DIRECT)
+        .build();
+
+    Disk disk = Disk.create(config);
+
+    assertThat(disk).isInstanceOf(DirectDisk.class);
+    assertThat(disk.blockSize()).is(4);
+    assertThat(disk.getTotalSpace()).is(96);
+  }
+
+  @Test
+  public void testAllocate() throws IOException {
+    DirectDisk disk = new DirectDisk(4, 10, 0);
+    RegularFile blocks = RegularFile.create(-1, fileTimeSource.now(), disk);
+
+    disk.allocate(blocks, 10);
+
+    assertThat(blocks.blockCount()).is(10);
+    for (int i = 0; i < blocks.blockCount(); i++) {
+      ByteBuffer block = blocks.getBlock(i);
+      assertThat(block.isDirect()).isTrue();
+      assertThat(block.capacity()).is(4);
+      assertThat(block.position()).is(0);
+      assertThat(block.limit()).is(4);
+    }
+    assertThat(disk.getUnallocatedSpace()).is(0);
+  }
+
+  @Test
+  public void testBlocksDoNotOverlap() throws IOException {
+    DirectDisk disk = new DirectDisk(4, 10, 0);
+    RegularFile file = RegularFile.create(0, fileTimeSource.now(), disk);
+
+    byte[] bytes = new byte[40];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) i;
+    }
+    file.write(0, bytes, 0, bytes.length);
+
+    byte[] read = new byte[40];
+    assertThat(file.read(0, read, 0, read.length)).is(40);
+    assertArrayEquals(bytes, read);
+  }
+
+  @Test
+  public void testFileSystemWithDirectStorage() throws IOException {
+    FileSystem fs = Jimfs.newFileSystem(Configuration.unix().toBuilder()
+        .setBlockSize(16)
+        .setBlockStorage(BlockStorage.DIRECT)
+        .build());
+
+    Path path = fs.getPath("/foo");
+    byte[] bytes = new byte[1000];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) i;
+    }
+    Files.write(path, bytes);
+    assertArrayEquals(bytes, Files.readAllBytes(path));
+
+    Path copy = fs.getPath("/bar");
+    Files.copy(path, copy);
+    assertArrayEquals(bytes, Files.readAllBytes(copy));
+  }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.nio.file.ClosedFileSystemException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SecureDirectoryStream;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * Tests for {@link DirectoryStreamPath}, the paths that directory streams return.
+ */
+@RunWith(JUnit4.class)
+public class DirectoryStreamPathTest {
+
+  private FileSystem fs;
+
+  @Before
+  public void setUp() throws IOException {
+    fs = Jimfs.newFileSystem(Configuration.unix());
+    Files.createDirectories(fs.getPath("/foo/bar"));
+    Files.write(fs.getPath("/foo/file"), new byte[] {1, 2, 3});
+    Files.createSymbolicLink(fs.getPath("/foo/link"), fs.getPath("bar"));
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    fs.close();
+  }
+
+  @Test
+  public void testStreamReturnsDirectoryStreamPaths() throws IOException {
+    ImmutableList<Path> paths = list("/foo");
+    assertThat(paths.toString()).isEqualTo("[/foo/bar, /foo/file, /foo/link]");
+    for (Path path : paths) {
+      assertThat(path).isInstanceOf(DirectoryStreamPath.class);
+      assertThat(path).isEqualTo(fs.getPath(path.toString()));
+      assertThat(path.hashCode()).isEqualTo(fs.getPath(path.toString()).hashCode());
+    }
+
+    assertThat(list("/foo/../foo").toString())
+        .isEqualTo("[/foo/../foo/bar, /foo/../foo/file, /foo/../foo/link]");
+  }
+
+  @Test
+  public void testReadAttributes() throws IOException {
+    Path file = get(list("/foo"), "file");
+    Path link = get(list("/foo"), "link");
+
+    assertThat(Files.readAttributes(file, BasicFileAttributes.class).size()).isEqualTo(3);
+    assertThat(Files.readAttributes(link, BasicFileAttributes.class).isDirectory()).isTrue();
+    assertThat(Files.readAttributes(link, BasicFileAttributes.class, NOFOLLOW_LINKS)
+        .isSymbolicLink()).isTrue();
+    assertThat(Files.readAttributes(link, "isSymbolicLink", NOFOLLOW_LINKS))
+        .containsEntry("isSymbolicLink", true);
+  }
+
+  @Test
+  public void testReadAttributes_reflectChangesSinceListing() throws IOException {
+    Path file = get(list("/foo"), "file");
+    Files.write(fs.getPath("/foo/file"), new byte[] {1, 2, 3, 4, 5});
+    Files.setLastModifiedTime(file, FileTime.fromMillis(1000));
+
+    BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+    assertThat(attrs.size()).isEqualTo(5);
+    assertThat(attrs.lastModifiedTime()).isEqualTo(FileTime.fromMillis(1000));
+  }
+
+  @Test
+  public void testReadAttributes_afterFileDeleted() throws IOException {
+    Path file = get(list("/foo"), "file");
+    Files.delete(fs.getPath("/foo/file"));
+
+    try {
+      Files.readAttributes(file, BasicFileAttributes.class);
+      fail();
+    } catch (NoSuchFileException expected) {
+    }
+
+    Files.createDirectory(fs.getPath("/foo/file"));
+    assertThat(Files.isDirectory(file)).isTrue();
+  }
+
+  @Test
+  public void testReadAttributes_afterDirectoryMoved() throws IOException {
+    Path bar = get(list("/foo"), "bar");
+    Files.move(fs.getPath("/foo"), fs.getPath("/baz"));
+    Files.createDirectory(fs.getPath("/foo"));
+    Files.createFile(fs.getPath("/foo/bar"));
+
+    assertThat(Files.isRegularFile(bar)).isTrue();
+  }
+
+  @Test
+  public void testReadAttributes_afterFileSystemClosed() throws IOException {
+    Path file = get(list("/foo"), "file");
+    fs.close();
+
+    try {
+      Files.readAttributes(file, BasicFileAttributes.class);
+      fail();
+    } catch (ClosedFileSystemException expected) {
+    }
+  }
+
+  @Test
+  public void testReadAttributes_relativeToWorkingDirectory() throws IOException {
+    FileSystem relative = Jimfs.newFileSystem(Configuration.unix().toBuilder()
+        .setWorkingDirectory("/work")
+        .build());
+    try {
+      Files.createDirectories(relative.getPath("dir/sub"));
+      Path sub = get(list(relative.getPath("dir")), "sub");
+      assertThat(sub.toString()).isEqualTo("dir/sub");
+      assertThat(Files.isDirectory(sub)).isTrue();
+    } finally {
+      relative.close();
+    }
+  }
+
+  @Test
+  public void testSecureDirectoryStream_relativePathsDoNotCarryFiles() throws IOException {
+    try (SecureDirectoryStream<Path> stream =
+        (SecureDirectoryStream<Path>) Files.newDirectoryStream(fs.getPath("/foo"))) {
+      Files.createFile(fs.getPath("/foo/bar/a"));
+
+      try (DirectoryStream<Path> barStream = stream.newDirectoryStream(fs.getPath("bar"))) {
+        Path a = barStream.iterator().next();
+        assertThat(a.toString()).isEqualTo("/foo/bar/a");
+        assertThat(a).isNotInstanceOf(DirectoryStreamPath.class);
+      }
+
+      try (DirectoryStream<Path> barStream = stream.newDirectoryStream(fs.getPath("/foo/bar"))) {
+        assertThat(barStream.iterator().next()).isInstanceOf(DirectoryStreamPath.class);
+      }
+    }
+  }
+
+  private ImmutableList<Path> list(String dir) throws IOException {
+    return list(fs.getPath(dir));
+  }
+
+  private static ImmutableList<Path> list(Path dir) throws IOException {
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+      return ImmutableList.copyOf(stream);
+    }
+  }
+
+  private static Path get(ImmutableList<Path> paths, String fileName) {
+    for (Path path : paths) {
+      if (path.getFileName().toString().equals(fileName)) {
+        return path;
+      }
+    }
+    throw new AssertionError("no " + fileName + " in " + paths);
+  }
+}
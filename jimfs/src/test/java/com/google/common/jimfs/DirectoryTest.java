@@ -32,6 +32,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.nio.file.attribute.FileTime;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -45,14 +46,17 @@ import javax.annotation.Nullable;
 @RunWith(JUnit4.class)
 public class DirectoryTest {
 
+  private final ManualFileTimeSource fileTimeSource =
+      new ManualFileTimeSource(FileTime.fromMillis(0));
+
   private Directory root;
   private Directory dir;
 
   @Before
   public void setUp() {
-    root = Directory.createRoot(0, Name.simple("/"));
+    root = Directory.createRoot(0, fileTimeSource.now(), Name.simple("/"));
 
-    dir = Directory.create(1);
+    dir = Directory.create(1, fileTimeSource.now());
     root.link(Name.simple("foo"), dir);
   }
 
@@ -85,7 +89,7 @@ public class DirectoryTest {
   public void testLink() {
     assertThat(dir.get(Name.simple("bar"))).isNull();
 
-    File bar = Directory.create(2);
+    File bar = Directory.create(2, fileTimeSource.now());
     dir.link(Name.simple("bar"), bar);
 
     assertThat(dir.get(Name.simple("bar"))).isEqualTo(entry(dir, "bar", bar));
@@ -94,7 +98,7 @@ public class DirectoryTest {
   @Test
   public void testLink_existingNameFails() {
     try {
-      root.link(Name.simple("foo"), Directory.create(2));
+      root.link(Name.simple("foo"), Directory.create(2, fileTimeSource.now()));
       fail();
     } catch (IllegalArgumentException expected) {
     }
@@ -103,13 +107,13 @@ public class DirectoryTest {
   @Test
   public void testLink_parentAndSelfNameFails() {
     try {
-      dir.link(Name.simple("."), Directory.create(2));
+      dir.link(Name.simple("."), Directory.create(2, fileTimeSource.now()));
       fail();
     } catch (IllegalArgumentException expected) {
     }
 
     try {
-      dir.link(Name.simple(".."), Directory.create(2));
+      dir.link(Name.simple(".."), Directory.create(2, fileTimeSource.now()));
       fail();
     } catch (IllegalArgumentException expected) {
     }
@@ -117,7 +121,7 @@ public class DirectoryTest {
 
   @Test
   public void testGet_normalizingCaseInsensitive() {
-    File bar = Directory.create(2);
+    File bar = Directory.create(2, fileTimeSource.now());
     Name barName = caseInsensitive("bar");
 
     dir.link(barName, bar);
@@ -164,7 +168,7 @@ public class DirectoryTest {
 
   @Test
   public void testUnlink_normalizingCaseInsensitive() {
-    dir.link(caseInsensitive("bar"), Directory.create(2));
+    dir.link(caseInsensitive("bar"), Directory.create(2, fileTimeSource.now()));
 
     assertThat(dir.get(caseInsensitive("bar"))).isNotNull();
 
@@ -175,7 +179,7 @@ public class DirectoryTest {
 
   @Test
   public void testLinkDirectory() {
-    Directory newDir = Directory.create(10);
+    Directory newDir = Directory.create(10, fileTimeSource.now());
 
     assertThat(newDir.entryInParent()).isNull();
     assertThat(newDir.get(Name.SELF).file()).isEqualTo(newDir);
@@ -194,7 +198,7 @@ public class DirectoryTest {
 
   @Test
   public void testUnlinkDirectory() {
-    Directory newDir = Directory.create(10);
+    Directory newDir = Directory.create(10, fileTimeSource.now());
 
     dir.link(Name.simple("foo"), newDir);
 
@@ -239,7 +243,7 @@ public class DirectoryTest {
 
   // Tests for internal hash table implementation
 
-  private static final Directory A = Directory.create(0);
+  private static final Directory A = Directory.create(0, FileTime.fromMillis(0));
 
   @Test
   public void testInitialState() {
@@ -355,6 +359,41 @@ public class DirectoryTest {
     }
   }
 
+  @Test
+  public void testPutsAndRemovesWhileGrowing() {
+    // the table moves its entries to a larger table a few at a time, so entries are added, removed
+    // and looked up while spread across two tables
+    Set<DirectoryEntry> entriesInDir = new HashSet<>();
+    entriesInDir.add(new DirectoryEntry(dir, Name.SELF, dir));
+    entriesInDir.add(new DirectoryEntry(dir, Name.PARENT, root));
+
+    for (int i = 0; i < 50000; i++) {
+      DirectoryEntry entry = entry(String.valueOf(i));
+      dir.put(entry);
+      entriesInDir.add(entry);
+      assertThat(dir.get(entry.name())).isEqualTo(entry);
+
+      if (i % 3 == 0) {
+        String nameToRemove = String.valueOf(i / 3 * 2);
+        dir.remove(Name.simple(nameToRemove));
+        entriesInDir.remove(entry(nameToRemove));
+        assertThat(dir.get(Name.simple(nameToRemove))).isNull();
+      }
+
+      DirectoryEntry earlier = entry(String.valueOf(i / 2));
+      assertThat(dir.get(earlier.name()))
+          .isEqualTo(entriesInDir.contains(earlier) ? earlier : null);
+    }
+
+    assertThat(dir.entryCount()).is(entriesInDir.size());
+    assertThat(ImmutableSet.copyOf(dir)).isEqualTo(entriesInDir);
+    assertThat(Iterables.size(dir)).is(entriesInDir.size());
+
+    for (DirectoryEntry expected : entriesInDir) {
+      assertThat(dir.get(expected.name())).isEqualTo(expected);
+    }
+  }
+
   private static DirectoryEntry entry(String name) {
     return new DirectoryEntry(A, Name.simple(name), A);
   }
@@ -0,0 +1,356 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.jimfs.AbstractWatchService.Event;
+import com.google.common.jimfs.AbstractWatchService.Key;
+import com.google.common.util.concurrent.Runnables;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Tests for {@link EventWatchService}. Events are posted as changes are made, so they can be
+ * checked immediately after making the changes.
+ */
+@RunWith(JUnit4.class)
+public class EventWatchServiceTest {
+
+  private JimfsFileSystem fs;
+  private EventWatchService watcher;
+
+  @Before
+  public void setUp() {
+    fs = (JimfsFileSystem) Jimfs.newFileSystem(Configuration.unix());
+    watcher = new EventWatchService(fs.getDefaultView(),
+        fs.getPathService(), new FileSystemState(Runnables.doNothing()));
+  }
+
+  @After
+  public void tearDown() {
+    watcher.close();
+  }
+
+  @Test
+  public void testNewWatcher() {
+    assertThat(watcher.isOpen()).isTrue();
+    assertThat(watcher.poll()).isNull();
+  }
+
+  @Test
+  public void testRegister() throws IOException {
+    Key key = watcher.register(createDirectory(), ImmutableList.of(ENTRY_CREATE));
+    assertThat(key.isValid()).isTrue();
+    assertThat(watcher.poll()).isNull();
+  }
+
+  @Test
+  public void testRegister_fileDoesNotExist() throws IOException {
+    try {
+      watcher.register(fs.getPath("/a/b/c"), ImmutableList.of(ENTRY_CREATE));
+      fail();
+    } catch (NoSuchFileException expected) {
+    }
+  }
+
+  @Test
+  public void testRegister_fileIsNotDirectory() throws IOException {
+    Path path = fs.getPath("/a.txt");
+    Files.createFile(path);
+    try {
+      watcher.register(path, ImmutableList.of(ENTRY_CREATE));
+      fail();
+    } catch (NotDirectoryException expected) {
+    }
+  }
+
+  @Test
+  public void testCancelledKeyGetsNoEvents() throws IOException {
+    JimfsPath path = createDirectory();
+    Key key = watcher.register(path, ImmutableList.of(ENTRY_CREATE));
+    key.cancel();
+    assertThat(key.isValid()).isFalse();
+
+    Files.createFile(path.resolve("foo"));
+    assertThat(watcher.poll()).isNull();
+  }
+
+  @Test
+  public void testCancelOneOfTwoKeysForDirectory() throws IOException {
+    JimfsPath path = createDirectory();
+    Key key1 = watcher.register(path, ImmutableList.of(ENTRY_MODIFY));
+    Key key2 = watcher.register(path, ImmutableList.of(ENTRY_MODIFY));
+    Files.createFile(path.resolve("foo"));
+
+    key1.cancel();
+    Files.write(path.resolve("foo"), new byte[] {1});
+
+    assertThat(watcher.poll()).isEqualTo(key2);
+    assertThat(key2.pollEvents()).containsExactly(new Event<>(ENTRY_MODIFY, 1, fs.getPath("foo")));
+    assertThat(watcher.poll()).isNull();
+
+    key2.cancel();
+    Files.write(path.resolve("foo"), new byte[] {2});
+    assertThat(watcher.poll()).isNull();
+  }
+
+  @Test
+  public void testCloseCancelsAllKeys() throws IOException {
+    Key key1 = watcher.register(createDirectory(), ImmutableList.of(ENTRY_CREATE));
+    Key key2 = watcher.register(createDirectory(), ImmutableList.of(ENTRY_DELETE));
+
+    assertThat(key1.isValid()).isTrue();
+    assertThat(key2.isValid()).isTrue();
+
+    watcher.close();
+
+    assertThat(key1.isValid()).isFalse();
+    assertThat(key2.isValid()).isFalse();
+  }
+
+  @Test
+  public void testWatchForOneEventType() throws IOException {
+    JimfsPath path = createDirectory();
+    watcher.register(path, ImmutableList.of(ENTRY_CREATE));
+
+    Files.createFile(path.resolve("foo"));
+
+    assertWatcherHasEvents(new Event<>(ENTRY_CREATE, 1, fs.getPath("foo")));
+
+    Files.createFile(path.resolve("bar"));
+    Files.createFile(path.resolve("baz"));
+    Files.delete(path.resolve("bar"));
+
+    assertWatcherHasEvents(
+        new Event<>(ENTRY_CREATE, 1, fs.getPath("bar")),
+        new Event<>(ENTRY_CREATE, 1, fs.getPath("baz")));
+  }
+
+  @Test
+  public void testWatchForMultipleEventTypes() throws IOException {
+    JimfsPath path = createDirectory();
+    watcher.register(path, ImmutableList.of(ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY));
+
+    Files.createDirectory(path.resolve("foo"));
+    Files.createFile(path.resolve("bar"));
+
+    assertWatcherHasEvents(
+        new Event<>(ENTRY_CREATE, 1, fs.getPath("foo")),
+        new Event<>(ENTRY_CREATE, 1, fs.getPath("bar")));
+
+    Files.createFile(path.resolve("baz"));
+    Files.delete(path.resolve("bar"));
+    Files.createFile(path.resolve("foo/bar"));
+
+    assertWatcherHasEvents(
+        new Event<>(ENTRY_CREATE, 1, fs.getPath("baz")),
+        new Event<>(ENTRY_DELETE, 1, fs.getPath("bar")),
+        new Event<>(ENTRY_MODIFY, 1, fs.getPath("foo")));
+
+    Files.delete(path.resolve("foo/bar"));
+    Files.delete(path.resolve("foo"));
+
+    assertWatcherHasEvents(
+        new Event<>(ENTRY_MODIFY, 1, fs.getPath("foo")),
+        new Event<>(ENTRY_DELETE, 1, fs.getPath("foo")));
+
+    Files.createDirectories(path.resolve("foo/bar"));
+
+    assertWatcherHasEvents(
+        new Event<>(ENTRY_CREATE, 1, fs.getPath("foo")),
+        new Event<>(ENTRY_MODIFY, 1, fs.getPath("foo")));
+  }
+
+  @Test
+  public void testWriteToFile() throws IOException {
+    JimfsPath path = createDirectory();
+    Path file = Files.createFile(path.resolve("foo"));
+    watcher.register(path, ImmutableList.of(ENTRY_MODIFY));
+
+    try (OutputStream out = Files.newOutputStream(file)) {
+      for (int i = 0; i < 10; i++) {
+        out.write(i);
+      }
+    }
+
+    // repeated modifications of the same file are folded into a single event
+    WatchKey key = watcher.poll();
+    List<WatchEvent<?>> events = key.pollEvents();
+    assertThat(events).hasSize(1);
+    assertThat(events.get(0).kind()).isEqualTo(ENTRY_MODIFY);
+    assertThat(events.get(0).context()).isEqualTo(fs.getPath("foo"));
+    assertThat(events.get(0).count()).isEqualTo(10);
+  }
+
+  @Test
+  public void testSetLastModifiedTime() throws IOException {
+    JimfsPath path = createDirectory();
+    Path file = Files.createFile(path.resolve("foo"));
+    watcher.register(path, ImmutableList.of(ENTRY_MODIFY));
+
+    Files.setLastModifiedTime(file, FileTime.fromMillis(0));
+
+    assertWatcherHasEvents(new Event<>(ENTRY_MODIFY, 1, fs.getPath("foo")));
+  }
+
+  @Test
+  public void testModifyHardLinkedFile() throws IOException {
+    JimfsPath dir1 = createDirectory();
+    JimfsPath dir2 = createDirectory();
+    Path file = Files.createFile(dir1.resolve("foo"));
+    Files.createLink(dir1.resolve("bar"), file);
+    Files.createLink(dir2.resolve("baz"), file);
+    Key key1 = watcher.register(dir1, ImmutableList.of(ENTRY_MODIFY));
+    Key key2 = watcher.register(dir2, ImmutableList.of(ENTRY_MODIFY));
+
+    Files.setLastModifiedTime(file, FileTime.fromMillis(0));
+
+    assertThat(key1.pollEvents()).containsExactly(
+        new Event<>(ENTRY_MODIFY, 1, fs.getPath("foo")),
+        new Event<>(ENTRY_MODIFY, 1, fs.getPath("bar")));
+    assertThat(key2.pollEvents()).containsExactly(
+        new Event<>(ENTRY_MODIFY, 1, fs.getPath("baz")));
+  }
+
+  @Test
+  public void testMoveBetweenWatchedDirectories() throws IOException {
+    JimfsPath dir1 = createDirectory();
+    JimfsPath dir2 = createDirectory();
+    Path file = Files.createFile(dir1.resolve("foo"));
+    Key key1 = watcher.register(dir1, ImmutableList.of(ENTRY_DELETE, ENTRY_MODIFY));
+    Key key2 = watcher.register(dir2, ImmutableList.of(ENTRY_CREATE, ENTRY_MODIFY));
+
+    Path moved = Files.move(file, dir2.resolve("bar"));
+    assertThat(key1.pollEvents()).containsExactly(
+        new Event<>(ENTRY_DELETE, 1, fs.getPath("foo")));
+    assertThat(key2.pollEvents()).containsExactly(
+        new Event<>(ENTRY_CREATE, 1, fs.getPath("bar")));
+
+    Files.setLastModifiedTime(moved, FileTime.fromMillis(0));
+    assertThat(key1.pollEvents()).isEmpty();
+    assertThat(key2.pollEvents()).containsExactly(
+        new Event<>(ENTRY_MODIFY, 1, fs.getPath("bar")));
+  }
+
+  @Test
+  public void testUnwatchedFileNoLongerPostsEvents() throws IOException {
+    JimfsPath path = createDirectory();
+    Path file = Files.createFile(path.resolve("foo"));
+    Key key = watcher.register(path, ImmutableList.of(ENTRY_MODIFY));
+    key.cancel();
+
+    Key key2 = watcher.register(createDirectory(), ImmutableList.of(ENTRY_MODIFY));
+    Files.setLastModifiedTime(file, FileTime.fromMillis(0));
+
+    assertThat(key.pollEvents()).isEmpty();
+    assertThat(key2.pollEvents()).isEmpty();
+    assertThat(watcher.poll()).isNull();
+  }
+
+  @Test
+  public void testDeleteWatchedDirectory() throws IOException {
+    JimfsPath path = createDirectory();
+    Key key = watcher.register(path, ImmutableList.of(ENTRY_CREATE));
+
+    Files.delete(path);
+
+    assertThat(watcher.poll()).isEqualTo(key);
+    assertThat(key.isValid()).isFalse();
+    assertThat(key.reset()).isFalse();
+
+    Files.createDirectory(path);
+    Files.createFile(path.resolve("foo"));
+    assertThat(watcher.poll()).isNull();
+  }
+
+  @Test
+  public void testOverflow() throws IOException {
+    JimfsPath path = createDirectory();
+    watcher.register(path, ImmutableList.of(ENTRY_CREATE));
+
+    for (int i = 0; i < Key.MAX_QUEUE_SIZE + 10; i++) {
+      Files.createFile(path.resolve("file" + i));
+    }
+
+    List<WatchEvent<?>> events = watcher.poll().pollEvents();
+    assertThat(events).hasSize(Key.MAX_QUEUE_SIZE + 1);
+    assertThat(events.get(Key.MAX_QUEUE_SIZE)).isEqualTo(new Event<>(OVERFLOW, 10, null));
+  }
+
+  @Test
+  public void testWatchDirectoryWithDirectoryLocking() throws IOException {
+    fs = (JimfsFileSystem) Jimfs.newFileSystem(Configuration.unix().toBuilder()
+        .setLockGranularity(LockGranularity.DIRECTORY)
+        .build());
+    watcher.close();
+    watcher = new EventWatchService(fs.getDefaultView(),
+        fs.getPathService(), new FileSystemState(Runnables.doNothing()));
+
+    JimfsPath path = createDirectory();
+    Key key = watcher.register(path, ImmutableList.of(ENTRY_CREATE, ENTRY_DELETE));
+    Files.createFile(path.resolve("foo"));
+    Files.move(path.resolve("foo"), path.resolve("bar"));
+
+    assertWatcherHasEvents(
+        new Event<>(ENTRY_CREATE, 1, fs.getPath("foo")),
+        new Event<>(ENTRY_DELETE, 1, fs.getPath("foo")),
+        new Event<>(ENTRY_CREATE, 1, fs.getPath("bar")));
+
+    Files.delete(path.resolve("bar"));
+    Files.delete(path);
+    assertWatcherHasEvents(new Event<>(ENTRY_DELETE, 1, fs.getPath("bar")));
+    assertThat(key.isValid()).isFalse();
+  }
+
+  private void assertWatcherHasEvents(WatchEvent<?>... events) {
+    WatchKey key = watcher.poll();
+    assertThat(key).isNotNull();
+    assertThat(key.pollEvents()).containsExactlyElementsIn(Arrays.asList(events)).inOrder();
+    key.reset();
+    assertThat(watcher.poll()).isNull();
+  }
+
+  private JimfsPath createDirectory() throws IOException {
+    JimfsPath path = fs.getPath("/" + UUID.randomUUID().toString());
+    Files.createDirectory(path);
+    return path;
+  }
+}
@@ -23,6 +23,8 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.nio.file.attribute.FileTime;
+
 /**
  * Tests for {@link FileFactory}.
  *
@@ -31,11 +33,14 @@ import org.junit.runners.JUnit4;
 @RunWith(JUnit4.class)
 public class FileFactoryTest {
 
+  private final ManualFileTimeSource fileTimeSource =
+      new ManualFileTimeSource(FileTime.fromMillis(0));
+
   private FileFactory factory;
 
   @Before
   public void setUp() {
-    factory = new FileFactory(new HeapDisk(2, 2, 0));
+    factory = new FileFactory(new HeapDisk(2, 2, 0), fileTimeSource);
   }
 
   @Test
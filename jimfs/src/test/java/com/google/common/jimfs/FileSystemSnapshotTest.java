@@ -0,0 +1,310 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.nio.file.ClosedFileSystemException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+
+/**
+ * Tests for {@link FileSystemSnapshot}.
+ */
+@RunWith(JUnit4.class)
+public class FileSystemSnapshotTest {
+
+  private static final Configuration CONFIGURATION = Configuration.unix().toBuilder()
+      .setAttributeViews("basic", "owner", "posix", "unix")
+      .setBlockSize(4)
+      .setMaxSize(1024)
+      .build();
+
+  private FileSystem fs;
+
+  @Before
+  public void setUp() throws IOException {
+    fs = Jimfs.newFileSystem(CONFIGURATION);
+    Files.createDirectories(fs.getPath("/foo/bar"));
+    Files.write(fs.getPath("/foo/bar/file"), bytes("hello world"));
+    Files.createLink(fs.getPath("/foo/link"), fs.getPath("/foo/bar/file"));
+    Files.createSymbolicLink(fs.getPath("/foo/symlink"), fs.getPath("bar"));
+    Files.setLastModifiedTime(fs.getPath("/foo"), FileTime.fromMillis(1000));
+    Files.setPosixFilePermissions(
+        fs.getPath("/foo/bar"), PosixFilePermissions.fromString("r-x------"));
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    fs.close();
+  }
+
+  @Test
+  public void testFork_containsFilesAndAttributes() throws IOException {
+    FileSystem fork = Jimfs.snapshot(fs).fork();
+
+    assertThat(Files.readAllBytes(fork.getPath("/foo/bar/file"))).isEqualTo(bytes("hello world"));
+    assertThat(Files.readAllBytes(fork.getPath("/foo/link"))).isEqualTo(bytes("hello world"));
+    Path target = Files.readSymbolicLink(fork.getPath("/foo/symlink"));
+    assertThat(target).isEqualTo(fork.getPath("bar"));
+    assertThat(target.getFileSystem()).isSameAs(fork);
+    assertThat(Files.readAllBytes(fork.getPath("/foo/symlink/file")))
+        .isEqualTo(bytes("hello world"));
+    assertThat(Files.getLastModifiedTime(fork.getPath("/foo")))
+        .isEqualTo(FileTime.fromMillis(1000));
+    assertThat(Files.getPosixFilePermissions(fork.getPath("/foo/bar")))
+        .isEqualTo(PosixFilePermissions.fromString("r-x------"));
+    assertThat(Files.isDirectory(fork.getPath("/work"))).isTrue();
+    assertThat(fork.getPath("").toAbsolutePath().toString()).isEqualTo("/work");
+  }
+
+  @Test
+  public void testFork_linkCounts() throws IOException {
+    FileSystem fork = Jimfs.snapshot(fs).fork();
+
+    // link counts are right before and after the directories containing the links are accessed
+    assertThat(Files.getAttribute(fork.getPath("/foo/link"), "unix:nlink")).isEqualTo(2);
+    assertThat(Files.getAttribute(fork.getPath("/foo"), "unix:nlink"))
+        .isEqualTo(Files.getAttribute(fs.getPath("/foo"), "unix:nlink"));
+    assertThat(Files.getAttribute(fork.getPath("/"), "unix:nlink"))
+        .isEqualTo(Files.getAttribute(fs.getPath("/"), "unix:nlink"));
+    assertThat(Files.getAttribute(fork.getPath("/foo/bar/file"), "unix:nlink")).isEqualTo(2);
+    assertThat(Files.getAttribute(fork.getPath("/foo/bar"), "unix:nlink"))
+        .isEqualTo(Files.getAttribute(fs.getPath("/foo/bar"), "unix:nlink"));
+  }
+
+  @Test
+  public void testFork_preservesFileKeys() throws IOException {
+    FileSystem fork = Jimfs.snapshot(fs).fork();
+
+    for (String path : ImmutableList.of("/", "/foo", "/foo/bar", "/foo/link", "/foo/symlink")) {
+      assertThat(Files.getAttribute(fork.getPath(path), "fileKey", NOFOLLOW_LINKS))
+          .isEqualTo(Files.getAttribute(fs.getPath(path), "fileKey", NOFOLLOW_LINKS));
+    }
+    assertThat(Files.getAttribute(Files.createFile(fork.getPath("/new")), "fileKey"))
+        .isEqualTo(Files.getAttribute(Files.createFile(fs.getPath("/new")), "fileKey"));
+  }
+
+  @Test
+  public void testFork_hardLinksAreToTheSameFile() throws IOException {
+    FileSystem fork = Jimfs.snapshot(fs).fork();
+
+    Files.write(fork.getPath("/foo/link"), bytes("bye"));
+    assertThat(Files.readAllBytes(fork.getPath("/foo/bar/file"))).isEqualTo(bytes("bye"));
+    assertThat(Files.isSameFile(fork.getPath("/foo/link"), fork.getPath("/foo/bar/file")))
+        .isTrue();
+  }
+
+  @Test
+  public void testFork_deleteOneHardLinkBeforeAccessingOther() throws IOException {
+    FileSystem fork = Jimfs.snapshot(fs).fork();
+
+    Files.delete(fork.getPath("/foo/link"));
+    assertThat(Files.readAllBytes(fork.getPath("/foo/bar/file"))).isEqualTo(bytes("hello world"));
+    assertThat(Files.getAttribute(fork.getPath("/foo/bar/file"), "unix:nlink")).isEqualTo(1);
+  }
+
+  @Test
+  public void testChangesToOriginal_notVisibleInSnapshot() throws IOException {
+    FileSystemSnapshot snapshot = Jimfs.snapshot(fs);
+
+    Files.write(fs.getPath("/foo/bar/file"), bytes("HELLO"));
+    Files.delete(fs.getPath("/foo/link"));
+    Files.createFile(fs.getPath("/foo/new"));
+
+    FileSystem fork = snapshot.fork();
+    assertThat(Files.readAllBytes(fork.getPath("/foo/bar/file"))).isEqualTo(bytes("hello world"));
+    assertThat(Files.exists(fork.getPath("/foo/link"))).isTrue();
+    assertThat(Files.exists(fork.getPath("/foo/new"))).isFalse();
+  }
+
+  @Test
+  public void testChangesToFork_notVisibleInOriginalOrOtherForks() throws IOException {
+    FileSystemSnapshot snapshot = Jimfs.snapshot(fs);
+    FileSystem fork1 = snapshot.fork();
+    FileSystem fork2 = snapshot.fork();
+
+    Files.write(fork1.getPath("/foo/bar/file"), bytes("HELLO"));
+    Files.delete(fork1.getPath("/foo/symlink"));
+    Files.createDirectory(fork1.getPath("/baz"));
+
+    assertThat(Files.readAllBytes(fork1.getPath("/foo/bar/file"))).isEqualTo(bytes("HELLO"));
+    for (FileSystem other : ImmutableList.of(fs, fork2, snapshot.fork())) {
+      assertThat(Files.readAllBytes(other.getPath("/foo/bar/file")))
+          .isEqualTo(bytes("hello world"));
+      assertThat(Files.exists(other.getPath("/foo/symlink"))).isTrue();
+      assertThat(Files.exists(other.getPath("/baz"))).isFalse();
+    }
+  }
+
+  @Test
+  public void testForks_shareBlocksUntilWritten() throws IOException {
+    long unallocated = fs.getFileStores().iterator().next().getUnallocatedSpace();
+
+    FileSystemSnapshot snapshot = Jimfs.snapshot(fs);
+    FileSystem fork = snapshot.fork();
+    assertThat(Files.readAllBytes(fork.getPath("/foo/bar/file"))).isEqualTo(bytes("hello world"));
+    assertThat(fork.getFileStores().iterator().next().getUnallocatedSpace()).isEqualTo(unallocated);
+
+    // writing to one block of the file copies just that block
+    Files.write(fork.getPath("/foo/bar/file"), bytes("H"), WRITE);
+    assertThat(fork.getFileStores().iterator().next().getUnallocatedSpace())
+        .isEqualTo(unallocated - 4);
+    assertThat(fs.getFileStores().iterator().next().getUnallocatedSpace())
+        .isEqualTo(unallocated - 4);
+  }
+
+  @Test
+  public void testFork_closeFreesBlocks() throws IOException {
+    long unallocated = getUnallocatedSpace(fs);
+    FileSystemSnapshot snapshot = Jimfs.snapshot(fs);
+
+    // each fork fills half the disk, so the disk would fill up if closing forks didn't free them
+    for (int i = 0; i < 10; i++) {
+      FileSystem fork = snapshot.fork();
+      Files.write(fork.getPath("/foo/bar/file"), new byte[256]);
+      Files.write(fork.getPath("/foo/file2"), new byte[256]);
+      fork.close();
+      assertThat(getUnallocatedSpace(fs)).isEqualTo(unallocated);
+    }
+  }
+
+  @Test
+  public void testFork_closeFreesBlocksOfUnlinkedHardLink() throws IOException {
+    long unallocated = getUnallocatedSpace(fs);
+    FileSystemSnapshot snapshot = Jimfs.snapshot(fs);
+
+    // the fork's copy of the file is still linked from /foo/bar, which the fork never reads
+    FileSystem fork = snapshot.fork();
+    Files.write(fork.getPath("/foo/link"), new byte[256]);
+    Files.delete(fork.getPath("/foo/link"));
+    assertThat(getUnallocatedSpace(fs)).isEqualTo(unallocated - 256);
+
+    fork.close();
+    assertThat(getUnallocatedSpace(fs)).isEqualTo(unallocated);
+  }
+
+  @Test
+  public void testSnapshot_close() throws IOException {
+    long unallocated = getUnallocatedSpace(fs);
+    FileSystemSnapshot snapshot = Jimfs.snapshot(fs);
+
+    // the snapshot keeps the file's blocks after the file system deletes the file
+    Files.delete(fs.getPath("/foo/link"));
+    Files.delete(fs.getPath("/foo/bar/file"));
+    assertThat(getUnallocatedSpace(fs)).isEqualTo(unallocated);
+
+    snapshot.close();
+    assertThat(getUnallocatedSpace(fs)).isEqualTo(unallocated + 12);
+
+    try {
+      snapshot.fork();
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+  }
+
+  @Test
+  public void testSnapshot_closeWithOpenFork() throws IOException {
+    FileSystemSnapshot snapshot = Jimfs.snapshot(fs);
+    FileSystem fork = snapshot.fork();
+    fs.close();
+    long unallocated = snapshot.disk().getUnallocatedSpace();
+
+    // the fork can still copy files from the closed snapshot
+    snapshot.close();
+    assertThat(snapshot.disk().getUnallocatedSpace()).isEqualTo(unallocated);
+    assertThat(Files.readAllBytes(fork.getPath("/foo/bar/file"))).isEqualTo(bytes("hello world"));
+
+    fork.close();
+    assertThat(snapshot.disk().getUnallocatedSpace()).isEqualTo(unallocated + 12);
+  }
+
+  @Test
+  public void testFork_withName() throws IOException {
+    FileSystem fork = Jimfs.snapshot(fs).fork("forked");
+    try {
+      assertThat(fork.getPath("/foo").toUri().toString()).isEqualTo("jimfs://forked/foo");
+      assertThat(fork.provider().getFileSystem(((JimfsFileSystem) fork).getUri())).isSameAs(fork);
+    } finally {
+      fork.close();
+    }
+  }
+
+  @Test
+  public void testFork_afterOriginalClosed() throws IOException {
+    FileSystemSnapshot snapshot = Jimfs.snapshot(fs);
+    fs.close();
+
+    FileSystem fork = snapshot.fork();
+    assertThat(Files.readAllBytes(fork.getPath("/foo/link"))).isEqualTo(bytes("hello world"));
+  }
+
+  @Test
+  public void testSnapshot_ofFork() throws IOException {
+    FileSystem fork = Jimfs.snapshot(fs).fork();
+    Files.write(fork.getPath("/foo/bar/file2"), bytes("abc"));
+
+    FileSystem forkOfFork = Jimfs.snapshot(fork).fork();
+    assertThat(Files.readAllBytes(forkOfFork.getPath("/foo/link"))).isEqualTo(bytes("hello world"));
+    assertThat(Files.readAllBytes(forkOfFork.getPath("/foo/bar/file2"))).isEqualTo(bytes("abc"));
+  }
+
+  @Test
+  public void testSnapshot_notJimfs() throws IOException {
+    try {
+      Jimfs.snapshot(FileSystems.getDefault());
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test
+  public void testSnapshot_closedFileSystem() throws IOException {
+    fs.close();
+    try {
+      Jimfs.snapshot(fs);
+      fail();
+    } catch (ClosedFileSystemException expected) {
+    }
+  }
+
+  private static long getUnallocatedSpace(FileSystem fileSystem) throws IOException {
+    return fileSystem.getFileStores().iterator().next().getUnallocatedSpace();
+  }
+
+  private static byte[] bytes(String string) {
+    return string.getBytes(UTF_8);
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.fail;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * Tests for {@link FileTimeSources} and {@link ManualFileTimeSource}.
+ */
+@RunWith(JUnit4.class)
+public class FileTimeSourceTest {
+
+  private static final FileTime START = FileTime.fromMillis(1000000);
+
+  @Test
+  public void testManualSource() {
+    ManualFileTimeSource source = new ManualFileTimeSource(START);
+    assertThat(source.now()).isEqualTo(START);
+    assertThat(source.now()).isEqualTo(START);
+
+    source.advance(1, NANOSECONDS);
+    assertThat(source.now()).isEqualTo(FileTime.from(START.to(NANOSECONDS) + 1, NANOSECONDS));
+
+    source.setNow(FileTime.fromMillis(5));
+    assertThat(source.now()).isEqualTo(FileTime.fromMillis(5));
+  }
+
+  @Test
+  public void testManualSource_fileSystemTimestamps() throws IOException {
+    ManualFileTimeSource source = new ManualFileTimeSource(START);
+    try (FileSystem fs = Jimfs.newFileSystem(Configuration.unix().toBuilder()
+        .setFileTimeSource(source)
+        .build())) {
+      Path dir = Files.createDirectory(fs.getPath("/dir"));
+      assertThat(Files.getAttribute(dir, "creationTime")).isEqualTo(START);
+      assertThat(Files.getLastModifiedTime(dir)).isEqualTo(START);
+
+      source.advance(1, SECONDS);
+      Path file = Files.createFile(dir.resolve("file"));
+      FileTime created = source.now();
+      assertThat(Files.getAttribute(file, "creationTime")).isEqualTo(created);
+      assertThat(Files.getLastModifiedTime(dir)).isEqualTo(created);
+
+      source.advance(1, SECONDS);
+      Files.write(file, new byte[] {1, 2, 3});
+      assertThat(Files.getLastModifiedTime(file)).isEqualTo(source.now());
+      assertThat(Files.getAttribute(file, "creationTime")).isEqualTo(created);
+
+      source.advance(1, SECONDS);
+      Files.readAllBytes(file);
+      assertThat(Files.getAttribute(file, "lastAccessTime")).isEqualTo(source.now());
+    }
+  }
+
+  @Test
+  public void testPreciseSource_nanosecondPrecision() {
+    FileTimeSource source = FileTimeSources.precise();
+    FileTime previous = source.now();
+    boolean subMillisecond = false;
+    for (int i = 0; i < 1000 && !subMillisecond; i++) {
+      FileTime now = source.now();
+      assertThat(now.compareTo(previous) >= 0).isTrue();
+      subMillisecond = now.to(NANOSECONDS) % 1000000 != 0;
+      previous = now;
+    }
+    assertThat(subMillisecond).isTrue();
+  }
+
+  @Test
+  public void testPreciseSource_tracksSystemTime() {
+    long before = System.currentTimeMillis();
+    long now = FileTimeSources.precise().now().toMillis();
+    assertThat(Math.abs(now - before)).isLessThan(1000L);
+  }
+
+  @Test
+  public void testCachedSource() {
+    FileTimeSource source = FileTimeSources.cached(1, MILLISECONDS);
+    FileTime first = source.now();
+    assertThat(Math.abs(first.toMillis() - System.currentTimeMillis())).isLessThan(1000L);
+
+    long deadline = System.currentTimeMillis() + 10000;
+    while (source.now().equals(first)) {
+      if (System.currentTimeMillis() > deadline) {
+        fail("cached time was never updated");
+      }
+      Uninterruptibles.sleepUninterruptibly(5, MILLISECONDS);
+    }
+  }
+
+  @Test
+  public void testCachedSource_invalidInterval() {
+    try {
+      FileTimeSources.cached(0, MILLISECONDS);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+}
@@ -34,6 +34,7 @@ import org.junit.runners.JUnit4;
 import java.io.IOException;
 import java.nio.file.LinkOption;
 import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.FileTime;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
@@ -48,6 +49,9 @@ import javax.annotation.Nullable;
 @RunWith(JUnit4.class)
 public class FileTreeTest {
 
+  private final ManualFileTimeSource fileTimeSource =
+      new ManualFileTimeSource(FileTime.fromMillis(0));
+
   /*
    * Directory structure. Each file should have a unique name.
    *
@@ -114,17 +118,17 @@ public class FileTreeTest {
 
   @Before
   public void setUp() {
-    Directory root = Directory.createRoot(0, Name.simple("/"));
+    Directory root = Directory.createRoot(0, fileTimeSource.now(), Name.simple("/"));
     files.put("/", root);
 
-    Directory otherRoot = Directory.createRoot(2, Name.simple("$"));
+    Directory otherRoot = Directory.createRoot(2, fileTimeSource.now(), Name.simple("$"));
     files.put("$", otherRoot);
 
     Map<Name, Directory> roots = new HashMap<>();
     roots.put(Name.simple("/"), root);
     roots.put(Name.simple("$"), otherRoot);
 
-    fileTree = new FileTree(roots);
+    fileTree = new FileTree(roots, LockGranularity.FILE_SYSTEM, 100);
 
     workingDirectory = createDirectory("/", "work");
 
@@ -415,6 +419,106 @@ public class FileTreeTest {
     assertExists(lookup("four/six/.."), "/", "work");
   }
 
+  // lookup cache
+
+  @Test
+  public void testLookupCache_hits() throws IOException {
+    assertExists(lookup("/work/one/two/three"), "two", "three");
+    assertThat(fileTree.lookupCacheHitCount()).isEqualTo(0);
+    assertThat(fileTree.lookupCacheMissCount()).isEqualTo(1);
+
+    // the same parent path resolves from the cache for any name
+    assertExists(lookup("/work/one/two/three"), "two", "three");
+    assertParentExists(lookup("/work/one/two/foo"), "two");
+    assertThat(fileTree.lookupCacheHitCount()).isEqualTo(2);
+    assertThat(fileTree.lookupCacheMissCount()).isEqualTo(1);
+
+    // relative paths are resolved against the working directory, so they're cached separately
+    assertExists(lookup("one/two/three"), "two", "three");
+    assertExists(lookup("one/two/three"), "two", "three");
+    assertThat(fileTree.lookupCacheHitCount()).isEqualTo(3);
+    assertThat(fileTree.lookupCacheMissCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void testLookupCache_disabled() throws IOException {
+    Map<Name, Directory> roots = new HashMap<>();
+    roots.put(Name.simple("/"), (Directory) files.get("/"));
+    fileTree = new FileTree(roots);
+
+    assertExists(lookup("/work/one/two/three"), "two", "three");
+    assertExists(lookup("/work/one/two/three"), "two", "three");
+    assertThat(fileTree.lookupCacheHitCount()).isEqualTo(0);
+    assertThat(fileTree.lookupCacheMissCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testLookupCache_unlinkingDirectoryInvalidates() throws IOException {
+    assertExists(lookup("/work/one/two/three"), "two", "three");
+    delete("one", "two");
+
+    try {
+      lookup("/work/one/two/three");
+      fail();
+    } catch (NoSuchFileException expected) {
+    }
+
+    createDirectory("one", "two");
+    assertParentExists(lookup("/work/one/two/three"), "two");
+  }
+
+  @Test
+  public void testLookupCache_unlinkingSymbolicLinkInvalidates() throws IOException {
+    assertExists(lookup("four/six/two"), "one", "two");
+    delete("four", "six");
+    createSymbolicLink("four", "six", "/foo");
+
+    assertExists(lookup("four/six/bar"), "foo", "bar");
+    assertParentExists(lookup("four/six/two"), "foo");
+  }
+
+  @Test
+  public void testLookupCache_unlinkingSymbolicLinkInTargetInvalidates() throws IOException {
+    createSymbolicLink("four", "seven", "six");
+    assertExists(lookup("four/seven/two"), "one", "two");
+    delete("four", "six");
+    createSymbolicLink("four", "six", "/foo");
+
+    assertExists(lookup("four/seven/bar"), "foo", "bar");
+    assertParentExists(lookup("four/seven/two"), "foo");
+  }
+
+  @Test
+  public void testLookupCache_unlinkingUnresolvedDirectoryDoesNotInvalidate() throws IOException {
+    assertExists(lookup("/work/one/two/three"), "two", "three");
+    delete("foo", "bar");
+
+    assertExists(lookup("/work/one/two/three"), "two", "three");
+    assertThat(fileTree.lookupCacheHitCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testLookupCache_unlinkingRegularFileDoesNotInvalidate() throws IOException {
+    assertExists(lookup("one/eleven"), "one", "eleven");
+    delete("one", "eleven");
+
+    assertParentExists(lookup("one/eleven"), "one");
+    assertThat(fileTree.lookupCacheHitCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testUnlinkCount() throws IOException {
+    assertThat(fileTree.unlinkCount()).isEqualTo(0);
+    createDirectory("one", "twelve");
+    assertThat(fileTree.unlinkCount()).isEqualTo(0);
+
+    delete("one", "eleven");
+    assertThat(fileTree.unlinkCount()).isEqualTo(1);
+    delete("one", "twelve");
+    delete("four", "six");
+    assertThat(fileTree.unlinkCount()).isEqualTo(3);
+  }
+
   private DirectoryEntry lookup(String path, LinkOption... options) throws IOException {
     JimfsPath pathObj = pathService.parsePath(path);
     return fileTree.lookUp(workingDirectory, pathObj, Options.getLinkOptions(options));
@@ -440,7 +544,7 @@ public class FileTreeTest {
 
   private File createDirectory(String parent, String name) {
     Directory dir = (Directory) files.get(parent);
-    Directory newFile = Directory.create(new Random().nextInt());
+    Directory newFile = Directory.create(new Random().nextInt(), fileTimeSource.now());
     dir.link(Name.simple(name), newFile);
     files.put(name, newFile);
     return newFile;
@@ -454,9 +558,16 @@ public class FileTreeTest {
     return newFile;
   }
 
+  private void delete(String parent, String name) {
+    Directory dir = (Directory) files.get(parent);
+    dir.unlink(Name.simple(name));
+    fileTree.unlinked(files.remove(name));
+  }
+
   private File createSymbolicLink(String parent, String name, String target) {
     Directory dir = (Directory) files.get(parent);
-    File newFile = SymbolicLink.create(new Random().nextInt(), pathService.parsePath(target));
+    File newFile = SymbolicLink.create(
+        new Random().nextInt(), fileTimeSource.now(), pathService.parsePath(target));
     dir.link(Name.simple(name), newFile);
     files.put(name, newFile);
     return newFile;
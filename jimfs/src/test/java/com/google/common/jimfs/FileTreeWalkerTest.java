@@ -0,0 +1,324 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Sets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Tests for {@link FileTreeWalker}.
+ */
+@RunWith(JUnit4.class)
+public class FileTreeWalkerTest {
+
+  private FileSystem fs;
+  private ForkJoinPool pool;
+
+  @Before
+  public void setUp() throws IOException {
+    fs = Jimfs.newFileSystem(Configuration.unix());
+    pool = new ForkJoinPool(4);
+    createTree(Files.createDirectory(fs.getPath("/tree")), 3);
+    Files.write(fs.getPath("/tree/dir0/file0"), new byte[] {1, 2, 3});
+    Files.createSymbolicLink(fs.getPath("/tree/link"), fs.getPath("/tree/dir0"));
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    pool.shutdown();
+    fs.close();
+  }
+
+  private static void createTree(Path dir, int depth) throws IOException {
+    for (int i = 0; i < 4; i++) {
+      Files.createFile(dir.resolve("file" + i));
+      if (depth > 0) {
+        createTree(Files.createDirectory(dir.resolve("dir" + i)), depth - 1);
+      }
+    }
+  }
+
+  @Test
+  public void testWalk_visitsSameFilesAsWalkFileTree() throws IOException {
+    Set<String> expected = walkFileTree(fs.getPath("/tree"));
+    assertThat(walk(fs.getPath("/tree"), null)).isEqualTo(expected);
+    assertThat(walk(fs.getPath("/tree"), pool)).isEqualTo(expected);
+  }
+
+  @Test
+  public void testWalk_withDirectoryLocking() throws IOException {
+    Set<String> expected = walkFileTree(fs.getPath("/tree"));
+    try (FileSystem directoryLocking = Jimfs.newFileSystem(Configuration.unix().toBuilder()
+        .setLockGranularity(LockGranularity.DIRECTORY)
+        .build())) {
+      createTree(Files.createDirectory(directoryLocking.getPath("/tree")), 3);
+      Files.write(directoryLocking.getPath("/tree/dir0/file0"), new byte[] {1, 2, 3});
+      Files.createSymbolicLink(
+          directoryLocking.getPath("/tree/link"), directoryLocking.getPath("/tree/dir0"));
+
+      assertThat(walk(directoryLocking.getPath("/tree"), null)).isEqualTo(expected);
+      assertThat(walk(directoryLocking.getPath("/tree"), pool)).isEqualTo(expected);
+    }
+  }
+
+  @Test
+  public void testWalk_relativePath() throws IOException {
+    FileSystem relative = Jimfs.newFileSystem(Configuration.unix().toBuilder()
+        .setWorkingDirectory("/work")
+        .build());
+    try {
+      Files.createDirectories(relative.getPath("a/b"));
+      Files.createFile(relative.getPath("a/b/c"));
+      assertThat(walk(relative.getPath("a"), null))
+          .isEqualTo(ImmutableSet.of("a 0 directory", "a/b 1 directory", "a/b/c 2 0"));
+    } finally {
+      relative.close();
+    }
+  }
+
+  @Test
+  public void testWalk_entries() throws IOException {
+    final Set<String> entries = Sets.newConcurrentHashSet();
+    Jimfs.walkFileTree(fs.getPath("/tree/dir0"), new FileTreeWalker.Visitor() {
+      @Override
+      public boolean visit(FileTreeWalker.Entry entry) {
+        entries.add(entry.fileName() + " " + entry.depth() + " " + entry.path().getFileName());
+        return entry.depth() == 0;
+      }
+    });
+    assertThat(entries).isEqualTo(ImmutableSet.of("dir0 0 dir0",
+        "file0 1 file0", "file1 1 file1", "file2 1 file2", "file3 1 file3",
+        "dir0 1 dir0", "dir1 1 dir1", "dir2 1 dir2", "dir3 1 dir3"));
+  }
+
+  @Test
+  public void testWalk_order() throws IOException {
+    final List<Path> visited = new ArrayList<>();
+    final ListMultimap<Path, Path> subdirectories = ArrayListMultimap.create();
+    Jimfs.walkFileTree(fs.getPath("/tree"), new FileTreeWalker.Visitor() {
+      @Override
+      public boolean visit(FileTreeWalker.Entry entry) {
+        visited.add(entry.path());
+        if (entry.depth() > 0 && entry.attributes().isDirectory()) {
+          subdirectories.put(entry.path().getParent(), entry.path());
+        }
+        return true;
+      }
+    });
+
+    // each directory's entries are visited together, and then its subdirectories are walked depth
+    // first in the order they were visited
+    List<Path> walkedDirectories = new ArrayList<>();
+    for (Path path : visited.subList(1, visited.size())) {
+      Path parent = path.getParent();
+      if (!parent.equals(Iterables.getLast(walkedDirectories, null))) {
+        assertThat(walkedDirectories).doesNotContain(parent);
+        walkedDirectories.add(parent);
+      }
+    }
+    List<Path> expected = new ArrayList<>();
+    addDepthFirst(fs.getPath("/tree"), subdirectories, expected);
+    assertThat(walkedDirectories).isEqualTo(expected);
+  }
+
+  private static void addDepthFirst(
+      Path dir, ListMultimap<Path, Path> subdirectories, List<Path> result) {
+    result.add(dir);
+    for (Path subdirectory : subdirectories.get(dir)) {
+      addDepthFirst(subdirectory, subdirectories, result);
+    }
+  }
+
+  @Test
+  public void testWalk_skipsEntriesOfDirectoriesNotToBeVisited() throws IOException {
+    for (ForkJoinPool pool : new ForkJoinPool[] {null, this.pool}) {
+      Set<String> visited = walk(fs.getPath("/tree"), pool, "/tree/dir1");
+      assertThat(visited).contains("/tree/dir1 1 directory");
+      for (String entry : visited) {
+        assertThat(entry.startsWith("/tree/dir1/")).isFalse();
+      }
+    }
+  }
+
+  @Test
+  public void testWalk_startIsFileOrSymbolicLink() throws IOException {
+    assertThat(walk(fs.getPath("/tree/dir0/file0"), pool))
+        .isEqualTo(ImmutableSet.of("/tree/dir0/file0 0 3"));
+    assertThat(walk(fs.getPath("/tree/link"), pool))
+        .isEqualTo(ImmutableSet.of("/tree/link 0 symbolic link"));
+  }
+
+  @Test
+  public void testWalk_root() throws IOException {
+    Set<String> visited = walk(fs.getPath("/"), null);
+    assertThat(visited).contains("/ 0 directory");
+    assertThat(visited).contains("/tree/dir3/dir3/dir3/file3 5 0");
+  }
+
+  @Test
+  public void testWalk_visitorMayModifyFileSystem() throws IOException {
+    for (ForkJoinPool pool : new ForkJoinPool[] {null, this.pool}) {
+      walk(fs.getPath("/tree"), pool, new FileTreeWalker.Visitor() {
+        @Override
+        public boolean visit(FileTreeWalker.Entry entry) {
+          try {
+            if (entry.attributes().isRegularFile()) {
+              Files.delete(entry.path());
+            }
+          } catch (IOException e) {
+            throw new AssertionError(e);
+          }
+          return true;
+        }
+      });
+    }
+
+    for (String entry : walkFileTree(fs.getPath("/tree"))) {
+      assertThat(entry.endsWith("directory") || entry.endsWith("symbolic link")).isTrue();
+    }
+  }
+
+  @Test
+  public void testWalk_visitorExceptionEndsWalk() throws IOException {
+    for (ForkJoinPool pool : new ForkJoinPool[] {null, this.pool}) {
+      try {
+        walk(fs.getPath("/tree"), pool, new FileTreeWalker.Visitor() {
+          @Override
+          public boolean visit(FileTreeWalker.Entry entry) {
+            if (entry.depth() == 3) {
+              throw new IllegalStateException("depth 3");
+            }
+            return true;
+          }
+        });
+        fail();
+      } catch (IllegalStateException expected) {
+        assertThat(Throwables.getRootCause(expected).getMessage()).isEqualTo("depth 3");
+      }
+    }
+  }
+
+  @Test
+  public void testWalk_invalidStart() throws IOException {
+    try {
+      Jimfs.walkFileTree(fs.getPath("/foo"), new CollectingVisitor());
+      fail();
+    } catch (NoSuchFileException expected) {
+    }
+
+    try {
+      Jimfs.walkFileTree(FileSystems.getDefault().getPath("foo"), new CollectingVisitor());
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  private static Set<String> walk(Path start, ForkJoinPool pool, String... skip)
+      throws IOException {
+    CollectingVisitor visitor = new CollectingVisitor(skip);
+    walk(start, pool, visitor);
+    return visitor.visited;
+  }
+
+  private static void walk(Path start, ForkJoinPool pool, FileTreeWalker.Visitor visitor)
+      throws IOException {
+    if (pool == null) {
+      Jimfs.walkFileTree(start, visitor);
+    } else {
+      Jimfs.walkFileTree(start, visitor, pool);
+    }
+  }
+
+  /**
+   * Walks the given tree with {@link Files#walkFileTree}, returning strings in the form that
+   * {@link CollectingVisitor} collects.
+   */
+  private static Set<String> walkFileTree(final Path start) throws IOException {
+    // relativizing the start against itself gives an empty path, which has one name
+    final Set<String> visited = Sets.newHashSet();
+    visited.add(describe(start, 0, Files.readAttributes(start, BasicFileAttributes.class)));
+    Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+        if (!dir.equals(start)) {
+          visited.add(describe(dir, start.relativize(dir).getNameCount(), attrs));
+        }
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+        visited.add(describe(file, start.relativize(file).getNameCount(), attrs));
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    return visited;
+  }
+
+  private static String describe(Path path, int depth, BasicFileAttributes attrs) {
+    String type = attrs.isDirectory() ? "directory"
+        : attrs.isSymbolicLink() ? "symbolic link"
+        : String.valueOf(attrs.size());
+    return path + " " + depth + " " + type;
+  }
+
+  /**
+   * Visitor that collects a description of each file it visits.
+   */
+  private static final class CollectingVisitor implements FileTreeWalker.Visitor {
+
+    final Set<String> visited = Sets.newConcurrentHashSet();
+    private final ImmutableSet<String> skip;
+
+    CollectingVisitor(String... skip) {
+      this.skip = ImmutableSet.copyOf(skip);
+    }
+
+    @Override
+    public boolean visit(FileTreeWalker.Entry entry) {
+      assertThat(visited.add(describe(entry.path(), entry.depth(), entry.attributes()))).isTrue();
+      return !skip.contains(entry.path().toString());
+    }
+  }
+}
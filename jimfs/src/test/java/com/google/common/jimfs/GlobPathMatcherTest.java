@@ -0,0 +1,163 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import static com.google.common.jimfs.PathServiceTest.fakeUnixPathService;
+import static com.google.common.jimfs.PathServiceTest.fakeWindowsPathService;
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.truth.Truth;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Tests for {@link GlobPathMatcher}.
+ */
+@RunWith(JUnit4.class)
+public class GlobPathMatcherTest extends AbstractGlobMatcherTest {
+
+  private static final ImmutableSet<PathNormalization> NO_NORMALIZATIONS = ImmutableSet.of();
+
+  private final PathService unixPathService = fakeUnixPathService();
+  private final PathService windowsPathService = fakeWindowsPathService();
+
+  @Override
+  protected PathMatcher matcher(String pattern) {
+    final PathMatcher matcher = unixPathService.createPathMatcher("glob:" + pattern);
+    return new PathMatcher() {
+      @Override
+      public boolean matches(Path path) {
+        return matcher.matches(unixPathService.parsePath(path.toString()));
+      }
+
+      @Override
+      public String toString() {
+        return matcher.toString();
+      }
+    };
+  }
+
+  @Test
+  public void testCompiledOnlyWhenEquivalentToRegex() {
+    assertCompiled("*.java", "/foo/**/bar/*.txt", "**", "{a,b}/**/*.{java,class}", "[!a-c]?x*",
+        "\\*\\{");
+    Truth.assertThat(
+        PathMatchers.getPathMatcher("glob:*", "/", ImmutableSet.of(PathNormalization.NONE)))
+        .isInstanceOf(GlobPathMatcher.class);
+    Truth.assertThat(PathMatchers.getPathMatcher(
+        "glob:*", "/", ImmutableSet.of(PathNormalization.CASE_FOLD_ASCII)))
+        .isInstanceOf(GlobPathMatcher.class);
+
+    assertNotCompiled("**.java", "foo**", "a/***", "[a&&b]", "[^a]", "[a-c-e]",
+        "\uD83D\uDE00*");
+    Truth.assertThat(
+        PathMatchers.getPathMatcher("glob:*", "/", ImmutableSet.of(PathNormalization.NFC)))
+        .isInstanceOf(PathMatchers.RegexPathMatcher.class);
+
+    String tooManyAlternatives = "{a,b}{c,d}{e,f}{g,h}{i,j}{k,l}{m,n}";
+    assertNotCompiled(tooManyAlternatives);
+    assertThat(tooManyAlternatives).matches("acegikm").doesNotMatch("acegikmo");
+  }
+
+  @Test
+  public void testMatchesLikeRegex_unix() {
+    ImmutableList<String> globs = ImmutableList.of(
+        "", "*", "**", "?", "??", "/", "/*", "/**", "**/", "**/**", "*/**/*", "/*/*",
+        "*.java", "**/*.java", "**/a/**/*.java", "a/**", "a/**/b", "**/b/**", "a*b*c", "*?.txt",
+        "[a-c]*", "[!a-c]?*", "[-.]*", "{a,b}/**/*.{java,class}",
+        "**/{main,test}/**/*.{java,class}", "{*,**}", "{a*,b}*c", "foo//bar", "**.java",
+        "*\uD83D\uDE00*", "?.txt", "*?*?*");
+    ImmutableList<JimfsPath> paths = parse(unixPathService,
+        "", "/", "a", "/a", "abc", "/a/b", "a/b", "a/b/c", "a/x/y/b", "/a/b/c/d.java", "a/b/c.java",
+        "Foo.java", ".java", "a.txt", "ab.txt", "src/main/x/Y.java", "src/test/Y.class", "-x",
+        "a\nb/c.java", "a/b\r/c", "\uD83D\uDE00.txt", "x/\uD83D\uDE00\uD83D\uDE00");
+    assertMatchesLikeRegex(unixPathService, NO_NORMALIZATIONS, globs, paths);
+
+    // paths from a file system with different separators are matched against their string form
+    ImmutableList<JimfsPath> windowsPaths = parse(windowsPathService,
+        "C:\\", "C:\\a\\b", "a\\b.java", "b.java");
+    assertMatchesLikeRegex(unixPathService, NO_NORMALIZATIONS, globs, windowsPaths);
+  }
+
+  @Test
+  public void testMatchesLikeRegex_windows() {
+    ImmutableList<String> globs = ImmutableList.of(
+        "*", "**", "C:/*", "C:\\\\*", "C:/**", "?:/**/*.java", "[A-C]:/*/b", "//host/share/**",
+        "/*/*/*/*", "**/*.java", "*/*", "{C:/,}a/**");
+    ImmutableList<JimfsPath> paths = parse(windowsPathService,
+        "C:\\", "C:\\a", "C:\\a\\b", "D:\\a\\b.java", "a\\b.java", "b.java", "a",
+        "\\\\host\\share\\", "\\\\host\\share\\a\\b", "\\\\other\\share\\a.java");
+    assertMatchesLikeRegex(windowsPathService, NO_NORMALIZATIONS, globs, paths);
+  }
+
+  @Test
+  public void testMatchesLikeRegex_caseFold() {
+    ImmutableList<String> globs = ImmutableList.of(
+        "*.java", "FOO/*", "**/[a-c]*.JAVA", "[!B]*", "[A]", "{Foo,bar}.*", "?É*");
+    ImmutableList<JimfsPath> paths = parse(unixPathService,
+        "Foo.JAVA", "foo/bar", "FOO/BAR", "x/Bar.java", "b", "B", "a", "A", "foo.txt", "BAR.x",
+        "aÉ", "aé");
+    assertMatchesLikeRegex(unixPathService,
+        ImmutableSet.of(PathNormalization.CASE_FOLD_ASCII), globs, paths);
+  }
+
+  private void assertCompiled(String... globs) {
+    for (String glob : globs) {
+      Truth.assertThat(unixPathService.createPathMatcher("glob:" + glob))
+          .isInstanceOf(GlobPathMatcher.class);
+    }
+  }
+
+  private void assertNotCompiled(String... globs) {
+    for (String glob : globs) {
+      Truth.assertThat(unixPathService.createPathMatcher("glob:" + glob))
+          .isInstanceOf(PathMatchers.RegexPathMatcher.class);
+    }
+  }
+
+  private static ImmutableList<JimfsPath> parse(PathService service, String... paths) {
+    ImmutableList.Builder<JimfsPath> builder = ImmutableList.builder();
+    for (String path : paths) {
+      builder.add(service.parsePath(path));
+    }
+    return builder.build();
+  }
+
+  private static void assertMatchesLikeRegex(PathService service,
+      ImmutableSet<PathNormalization> normalizations, List<String> globs, List<JimfsPath> paths) {
+    String separators = service.getSeparators();
+    for (String glob : globs) {
+      PathMatcher matcher =
+          PathMatchers.getPathMatcher("glob:" + glob, separators, normalizations);
+      Pattern regex = PathNormalization.compilePattern(
+          GlobToRegex.toRegex(glob, separators), normalizations);
+      for (JimfsPath path : paths) {
+        assertEquals("glob '" + glob + "' matching '" + path + "'",
+            regex.matcher(path.toString()).matches(), matcher.matches(path));
+      }
+    }
+  }
+}
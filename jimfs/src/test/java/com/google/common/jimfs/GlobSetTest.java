@@ -0,0 +1,153 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.nio.file.ClosedFileSystemException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.BitSet;
+import java.util.List;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Tests for {@link GlobSet}.
+ */
+@RunWith(JUnit4.class)
+public class GlobSetTest {
+
+  private static final ImmutableList<String> UNIX_GLOBS = ImmutableList.of(
+      "", "*", "**", "/", "/*", "/**", "**/", "**/**", "*/**/*", "/*/*",
+      "*.java", "**/*.java", "**/*.class", "**/*.JAVA", "**/a/**/*.java", "a/**", "a/**/b",
+      "**/b/**", "a", "a/b", "/a/b", "a/b/*.java", "a/*/c.java", "a*b*c", "*?.txt", "[a-c]*",
+      "[!a-c]?*", "{a,b}/**/*.{java,class}", "src/{main,test}/**/*.java", "**/.*", "**.java",
+      "foo//bar", "*\uD83D\uDE00*", "?.txt", "**/*.txt", "**/*b.txt", "**/a*.txt");
+
+  private static final ImmutableList<String> UNIX_PATHS = ImmutableList.of(
+      "", "/", "a", "/a", "abc", "/a/b", "a/b", "a/b/c", "a/x/y/b", "/a/b/c/d.java", "a/b/c.java",
+      "Foo.java", "Foo.JAVA", ".java", "a.txt", "ab.txt", "b/a.txt", "src/main/x/Y.java",
+      "src/test/Y.class", "a\nb/c.java", "\uD83D\uDE00.txt");
+
+  @Test
+  public void testGlobs() throws IOException {
+    try (FileSystem fs = Jimfs.newFileSystem(Configuration.unix())) {
+      GlobSet globs = Jimfs.newGlobSet(fs, ImmutableList.of("*.java", "**", "*.java"));
+      assertThat(globs.globs()).isEqualTo(ImmutableList.of("*.java", "**", "*.java"));
+      assertThat(globs.matches(fs.getPath("Foo.java"))).isEqualTo(bits(0, 1, 2));
+      assertThat(globs.matches(fs.getPath("foo/Foo.java"))).isEqualTo(bits(1));
+
+      GlobSet empty = Jimfs.newGlobSet(fs, ImmutableList.<String>of());
+      assertThat(empty.matches(fs.getPath("Foo.java"))).isEqualTo(bits());
+    }
+  }
+
+  @Test
+  public void testMatchesLikePathMatchers_unix() throws IOException {
+    try (FileSystem fs = Jimfs.newFileSystem(Configuration.unix())) {
+      assertMatchesLikePathMatchers(fs, UNIX_GLOBS, UNIX_PATHS);
+    }
+  }
+
+  @Test
+  public void testMatchesLikePathMatchers_caseFold() throws IOException {
+    Configuration config = Configuration.unix().toBuilder()
+        .setNameDisplayNormalization(PathNormalization.CASE_FOLD_ASCII)
+        .build();
+    try (FileSystem fs = Jimfs.newFileSystem(config)) {
+      assertMatchesLikePathMatchers(fs, UNIX_GLOBS, UNIX_PATHS);
+    }
+  }
+
+  @Test
+  public void testMatchesLikePathMatchers_windows() throws IOException {
+    try (FileSystem fs = Jimfs.newFileSystem(Configuration.windows())) {
+      assertMatchesLikePathMatchers(fs,
+          ImmutableList.of("*", "**", "C:/*", "C:/**", "c:/a/*", "?:/**/*.java", "[A-C]:/*/b",
+              "//host/share/**", "//host/share/a/*", "**/*.java", "*/*", "{C:/,}a/**"),
+          ImmutableList.of("C:\\", "C:\\a", "C:\\a\\b", "D:\\a\\b.java", "a\\b.java", "b.java",
+              "a", "\\\\host\\share\\", "\\\\host\\share\\a\\b", "\\\\other\\share\\a.java"));
+    }
+  }
+
+  @Test
+  public void testMatchesPathsFromOtherFileSystems() throws IOException {
+    try (FileSystem unix = Jimfs.newFileSystem(Configuration.unix());
+        FileSystem windows = Jimfs.newFileSystem(Configuration.windows())) {
+      GlobSet globs = Jimfs.newGlobSet(unix, ImmutableList.of("*", "**/*.java", "C:*"));
+      assertThat(globs.matches(windows.getPath("C:\\foo\\Bar.java"))).isEqualTo(bits(0, 2));
+      assertThat(globs.matches(FileSystems.getDefault().getPath("Bar.java")))
+          .isEqualTo(bits(0));
+    }
+  }
+
+  @Test
+  public void testInvalidArguments() throws IOException {
+    try {
+      Jimfs.newGlobSet(FileSystems.getDefault(), ImmutableList.of("*"));
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+
+    FileSystem fs = Jimfs.newFileSystem(Configuration.unix());
+    try {
+      Jimfs.newGlobSet(fs, ImmutableList.of("*", "{"));
+      fail();
+    } catch (PatternSyntaxException expected) {
+    }
+
+    fs.close();
+    try {
+      Jimfs.newGlobSet(fs, ImmutableList.of("*"));
+      fail();
+    } catch (ClosedFileSystemException expected) {
+    }
+  }
+
+  private static void assertMatchesLikePathMatchers(
+      FileSystem fs, List<String> globs, List<String> paths) {
+    GlobSet set = Jimfs.newGlobSet(fs, globs);
+    for (String pathString : paths) {
+      Path path = fs.getPath(pathString);
+      BitSet matches = set.matches(path);
+      for (int i = 0; i < globs.size(); i++) {
+        PathMatcher matcher = fs.getPathMatcher("glob:" + globs.get(i));
+        assertEquals("glob '" + globs.get(i) + "' matching '" + path + "'",
+            matcher.matches(path), matches.get(i));
+      }
+    }
+  }
+
+  private static BitSet bits(int... indexes) {
+    BitSet bits = new BitSet();
+    for (int index : indexes) {
+      bits.set(index);
+    }
+    return bits;
+  }
+}
@@ -17,6 +17,8 @@
 package com.google.common.jimfs;
 
 import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.junit.Assert.fail;
 
 import org.junit.Before;
@@ -25,8 +27,17 @@ import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Tests for {@link HeapDisk}.
@@ -36,12 +47,15 @@ import java.util.List;
 @RunWith(JUnit4.class)
 public class HeapDiskTest {
 
+  private final ManualFileTimeSource fileTimeSource =
+      new ManualFileTimeSource(FileTime.fromMillis(0));
+
   private RegularFile blocks;
 
   @Before
   public void setUp() {
     // the HeapDisk of this file is unused; it's passed to other HeapDisks to test operations
-    blocks = RegularFile.create(-1, new HeapDisk(2, 2, 2));
+    blocks = RegularFile.create(-1, fileTimeSource.now(), new HeapDisk(2, 2, 2));
   }
 
   @Test
@@ -51,7 +65,7 @@ public class HeapDiskTest {
     assertThat(disk.blockSize()).is(8192);
     assertThat(disk.getTotalSpace()).is(819200);
     assertThat(disk.getUnallocatedSpace()).is(819200);
-    assertThat(disk.blockCache.blockCount()).is(0);
+    assertThat(disk.cachedBlockCount()).is(0);
   }
 
   @Test
@@ -67,7 +81,7 @@ public class HeapDiskTest {
     assertThat(disk.blockSize()).is(4);
     assertThat(disk.getTotalSpace()).is(96);
     assertThat(disk.getUnallocatedSpace()).is(96);
-    assertThat(disk.blockCache.blockCount()).is(0);
+    assertThat(disk.cachedBlockCount()).is(0);
   }
 
   @Test
@@ -77,17 +91,17 @@ public class HeapDiskTest {
     disk.allocate(blocks, 1);
 
     assertThat(blocks.blockCount()).is(1);
-    assertThat(blocks.getBlock(0).length).is(4);
+    assertThat(blocks.getBlock(0).capacity()).is(4);
     assertThat(disk.getUnallocatedSpace()).is(36);
 
     disk.allocate(blocks, 5);
 
     assertThat(blocks.blockCount()).is(6);
     for (int i = 0; i < blocks.blockCount(); i++) {
-      assertThat(blocks.getBlock(i).length).is(4);
+      assertThat(blocks.getBlock(i).capacity()).is(4);
     }
     assertThat(disk.getUnallocatedSpace()).is(16);
-    assertThat(disk.blockCache.blockCount()).is(0);
+    assertThat(disk.cachedBlockCount()).is(0);
   }
 
   @Test
@@ -99,13 +113,13 @@ public class HeapDiskTest {
 
     assertThat(blocks.blockCount()).is(4);
     assertThat(disk.getUnallocatedSpace()).is(24);
-    assertThat(disk.blockCache.blockCount()).is(0);
+    assertThat(disk.cachedBlockCount()).is(0);
     
     disk.free(blocks);
 
     assertThat(blocks.blockCount()).is(0);
     assertThat(disk.getUnallocatedSpace()).is(40);
-    assertThat(disk.blockCache.blockCount()).is(0);
+    assertThat(disk.cachedBlockCount()).is(0);
   }
 
   @Test
@@ -117,13 +131,13 @@ public class HeapDiskTest {
 
     assertThat(blocks.blockCount()).is(4);
     assertThat(disk.getUnallocatedSpace()).is(24);
-    assertThat(disk.blockCache.blockCount()).is(2);
+    assertThat(disk.cachedBlockCount()).is(2);
 
     disk.free(blocks);
 
     assertThat(blocks.blockCount()).is(0);
     assertThat(disk.getUnallocatedSpace()).is(40);
-    assertThat(disk.blockCache.blockCount()).is(6);
+    assertThat(disk.cachedBlockCount()).is(6);
   }
 
   @Test
@@ -135,40 +149,411 @@ public class HeapDiskTest {
 
     assertThat(blocks.blockCount()).is(4);
     assertThat(disk.getUnallocatedSpace()).is(24);
-    assertThat(disk.blockCache.blockCount()).is(2);
+    assertThat(disk.cachedBlockCount()).is(2);
 
     disk.free(blocks);
 
     assertThat(blocks.blockCount()).is(0);
     assertThat(disk.getUnallocatedSpace()).is(40);
-    assertThat(disk.blockCache.blockCount()).is(4);
+    assertThat(disk.cachedBlockCount()).is(4);
   }
 
   @Test
-  public void testAllocateFromCache_fullAllocationFromCache() throws IOException {
+  public void testShare() throws IOException {
+    HeapDisk disk = new HeapDisk(4, 10, 10);
+    disk.allocate(blocks, 3);
+    RegularFile copy = RegularFile.create(-2, fileTimeSource.now(), new HeapDisk(2, 2, 2));
+
+    disk.share(blocks, copy);
+
+    assertThat(copy.blockCount()).is(3);
+    for (int i = 0; i < 3; i++) {
+      assertThat(copy.getBlock(i)).isSameAs(blocks.getBlock(i));
+    }
+    assertThat(disk.getUnallocatedSpace()).is(28);
+  }
+
+  @Test
+  public void testCopyOnWrite() throws IOException {
+    HeapDisk disk = new HeapDisk(4, 10, 10);
+    disk.allocate(blocks, 3);
+    blocks.getBlock(1).put(0, (byte) 1);
+    RegularFile copy = RegularFile.create(-2, fileTimeSource.now(), new HeapDisk(2, 2, 2));
+    disk.share(blocks, copy);
+
+    ByteBuffer block = disk.copyOnWrite(copy, 1);
+
+    assertThat(block).isNotSameAs(blocks.getBlock(1));
+    assertThat(copy.getBlock(1)).isSameAs(block);
+    assertThat(block.get(0)).isEqualTo((byte) 1);
+    assertThat(disk.getUnallocatedSpace()).is(24);
+
+    // neither file shares the block anymore
+    assertThat(disk.copyOnWrite(copy, 1)).isSameAs(block);
+    assertThat(disk.copyOnWrite(blocks, 1)).isSameAs(blocks.getBlock(1));
+    assertThat(disk.getUnallocatedSpace()).is(24);
+  }
+
+  @Test
+  public void testCopyOnWrite_diskFull() throws IOException {
+    HeapDisk disk = new HeapDisk(4, 3, 0);
+    disk.allocate(blocks, 3);
+    RegularFile copy = RegularFile.create(-2, fileTimeSource.now(), new HeapDisk(2, 2, 2));
+    disk.share(blocks, copy);
+
+    try {
+      disk.copyOnWrite(copy, 0);
+      fail();
+    } catch (IOException expected) {
+    }
+
+    assertThat(copy.getBlock(0)).isSameAs(blocks.getBlock(0));
+  }
+
+  @Test
+  public void testCopyOnWrite_hole() throws IOException {
+    HeapDisk disk = new HeapDisk(4, 10, 10);
+    RegularFile file = RegularFile.create(-2, fileTimeSource.now(), disk);
+    file.addHoles(2);
+
+    assertThat(disk.isHole(file.getBlock(0))).isTrue();
+    assertThat(disk.getUnallocatedSpace()).is(40);
+
+    // a cached block may hold old bytes, which must not show up in the filled hole
+    disk.allocate(blocks, 1);
+    blocks.getBlock(0).put(0, (byte) 1);
+    disk.free(blocks);
+
+    ByteBuffer block = disk.copyOnWrite(file, 1);
+
+    assertThat(disk.isHole(block)).isFalse();
+    assertThat(file.getBlock(1)).isSameAs(block);
+    assertThat(block.get(0)).isEqualTo((byte) 0);
+    assertThat(disk.isHole(file.getBlock(0))).isTrue();
+    assertThat(disk.getUnallocatedSpace()).is(36);
+    assertThat(disk.cachedBlockCount()).is(0);
+  }
+
+  @Test
+  public void testCopyOnWrite_holePrefersZeroedBlock() throws IOException {
+    HeapDisk disk = new HeapDisk(4, 10, 10, 4);
+    RegularFile file = RegularFile.create(-2, fileTimeSource.now(), disk);
+    file.addHoles(1);
+
+    disk.allocate(blocks, 2);
+    ByteBuffer dirty = blocks.getBlock(0);
+    ByteBuffer zeroed = blocks.getBlock(1);
+    zeroed.put(0, (byte) 1);
+    disk.free(blocks, 1);
+    assertThat(disk.zeroDirtyBlocks()).is(1);
+    dirty.put(0, (byte) 1);
+    disk.free(blocks);
+
+    // filling a hole takes the zeroed block, leaving the dirty block as is
+    assertThat(disk.copyOnWrite(file, 0)).isSameAs(zeroed);
+    assertThat(zeroed.get(0)).isEqualTo((byte) 0);
+    assertThat(dirty.get(0)).isEqualTo((byte) 1);
+
+    // allocating blocks to be written takes the dirty block
+    disk.allocate(blocks, 1);
+    assertThat(blocks.getBlock(0)).isSameAs(dirty);
+  }
+
+  @Test
+  public void testCopyOnWrite_flagsClearedOnceBlocksAreExclusive() throws IOException {
+    HeapDisk disk = new HeapDisk(4, 10, 10);
+    RegularFile file = RegularFile.create(-2, fileTimeSource.now(), disk);
+    file.write(4, new byte[8], 0, 8); // the first block is a hole
+    RegularFile copy = RegularFile.create(-3, fileTimeSource.now(), disk);
+    file.copyContentTo(copy);
+
+    assertThat(file.mayShareBlocks()).isTrue();
+    assertThat(copy.mayShareBlocks()).isTrue();
+    assertThat(copy.mayHaveHoles()).isTrue();
+
+    // the blocks are checked again once the copy has written as many times as it has blocks
+    for (int i = 0; i < 6; i++) {
+      copy.write((i % 3) * 4, (byte) 1);
+    }
+
+    assertThat(copy.mayShareBlocks()).isFalse();
+    assertThat(copy.mayHaveHoles()).isFalse();
+    assertThat(file.mayShareBlocks()).isTrue();
+
+    // the copy no longer shares any blocks with the file, but the file still has a hole
+    for (int i = 0; i < 3; i++) {
+      file.write(4, (byte) 1);
+    }
+
+    assertThat(file.mayShareBlocks()).isFalse();
+    assertThat(file.mayHaveHoles()).isTrue();
+  }
+
+  @Test
+  public void testZeroDirtyBlocks() throws IOException {
+    HeapDisk disk = new HeapDisk(4, 10, 10, 4);
+    disk.allocate(blocks, 2);
+    ByteBuffer block1 = blocks.getBlock(0);
+    ByteBuffer block2 = blocks.getBlock(1);
+    block1.put(0, (byte) 1);
+    block2.put(3, (byte) 2);
+    disk.free(blocks);
+
+    assertThat(disk.zeroDirtyBlocks()).is(2);
+    assertThat(block1.get(0)).isEqualTo((byte) 0);
+    assertThat(block2.get(3)).isEqualTo((byte) 0);
+    assertThat(disk.cachedBlockCount()).is(2);
+
+    assertThat(disk.zeroDirtyBlocks()).is(0);
+  }
+
+  @Test
+  public void testFree_holes() throws IOException {
+    HeapDisk disk = new HeapDisk(4, 10, 10, 4); // no extents, so only requested blocks are created
+    RegularFile file = RegularFile.create(-2, fileTimeSource.now(), disk);
+    disk.allocate(file, 1);
+    file.addHoles(3);
+    disk.allocate(file, 1);
+
+    assertThat(disk.getUnallocatedSpace()).is(32);
+
+    disk.free(file, 2);
+
+    assertThat(file.blockCount()).is(3);
+    assertThat(disk.getUnallocatedSpace()).is(36);
+    assertThat(disk.cachedBlockCount()).is(1);
+
+    disk.free(file);
+
+    assertThat(file.blockCount()).is(0);
+    assertThat(disk.getUnallocatedSpace()).is(40);
+    assertThat(disk.cachedBlockCount()).is(2);
+  }
+
+  @Test
+  public void testAllocate_extentsGrowWithFile() throws IOException {
+    HeapDisk disk = new HeapDisk(4, 100, 100, 32);
+    RegularFile file = RegularFile.create(-2, fileTimeSource.now(), disk);
+
+    disk.allocate(file, 1);
+    disk.allocate(file, 1);
+    assertThat(disk.cachedBlockCount()).is(0);
+
+    // the file has 2 blocks, so the new block comes from an extent of 2 and the other is cached
+    disk.allocate(file, 1);
+    assertThat(disk.cachedBlockCount()).is(1);
+    assertThat(disk.getUnallocatedSpace()).is((100 - 3) * 4);
+
+    disk.allocate(file, 1);
+    assertThat(disk.cachedBlockCount()).is(0);
+    assertSameExtent(file.getBlock(2), file.getBlock(3));
+
+    // extents are capped at 8 blocks (32 bytes)
+    for (int i = 0; i < 12; i++) {
+      disk.allocate(file, 1);
+    }
+    assertThat(file.blockCount()).is(16);
+    assertSameExtent(file.getBlock(8), file.getBlock(15));
+    assertThat(file.getBlock(7).array()).isNotSameAs(file.getBlock(8).array());
+
+    // a request for more blocks than an extent holds is split into several extents
+    disk.allocate(file, 20);
+    assertThat(file.blockCount()).is(36);
+    assertThat(disk.cachedBlockCount()).is(0);
+    assertSameExtent(file.getBlock(16), file.getBlock(23));
+    assertSameExtent(file.getBlock(24), file.getBlock(31));
+    assertThat(file.getBlock(23).array()).isNotSameAs(file.getBlock(24).array());
+    assertThat(disk.getUnallocatedSpace()).is((100 - 36) * 4);
+  }
+
+  @Test
+  public void testAllocate_extentBlocksAreSeparate() throws IOException {
+    HeapDisk disk = new HeapDisk(4, 100, 100);
+    RegularFile file = RegularFile.create(-2, fileTimeSource.now(), disk);
+    disk.allocate(file, 3);
+
+    assertSameExtent(file.getBlock(0), file.getBlock(2));
+    for (int i = 0; i < 3; i++) {
+      ByteBuffer block = file.getBlock(i);
+      assertThat(block.capacity()).is(4);
+      block.put(0, (byte) (i + 1));
+    }
+    for (int i = 0; i < 3; i++) {
+      assertThat(file.getBlock(i).get(0)).isEqualTo((byte) (i + 1));
+    }
+  }
+
+  @Test
+  public void testTrimCache() throws IOException {
     HeapDisk disk = new HeapDisk(4, 10, 10);
     disk.allocate(blocks, 10);
+    disk.free(blocks);
+    assertThat(disk.cachedBlockCount()).is(10);
 
-    assertThat(disk.getUnallocatedSpace()).is(0);
+    assertThat(disk.trimCache()).is(10);
+    assertThat(disk.cachedBlockCount()).is(0);
+    assertThat(disk.getUnallocatedSpace()).is(40);
+    assertThat(disk.trimCache()).is(0);
+  }
+
+  @Test
+  public void testTrimIdleBlocks() throws IOException {
+    HeapDisk disk = new HeapDisk(4, 10, 10);
+    disk.allocate(blocks, 10);
+    disk.free(blocks);
+
+    // nothing has been cached for a whole interval yet
+    assertThat(disk.trimIdleBlocks()).is(0);
+    assertThat(disk.cachedBlockCount()).is(10);
+
+    // 4 blocks are used during this interval, so only the other 6 went unused
+    disk.allocate(blocks, 4);
+    disk.free(blocks);
+    assertThat(disk.cachedBlockCount()).is(10);
+    assertThat(disk.trimIdleBlocks()).is(6);
+    assertThat(disk.cachedBlockCount()).is(4);
+
+    assertThat(disk.trimIdleBlocks()).is(4);
+    assertThat(disk.cachedBlockCount()).is(0);
+  }
+
+  @Test
+  public void testCreate_trimsCacheInBackground() throws Exception {
+    Configuration config = Configuration.unix().toBuilder()
+        .setBlockSize(4)
+        .setMaxSize(40)
+        .setCacheTrimInterval(10, MILLISECONDS)
+        .build();
+    Disk disk = Disk.create(config);
+    RegularFile file = RegularFile.create(-2, fileTimeSource.now(), disk);
+    disk.allocate(file, 10);
+    disk.free(file);
+
+    long deadline = System.nanoTime() + SECONDS.toNanos(10);
+    while (disk.cachedBlockCount() > 0 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(disk.cachedBlockCount()).is(0);
+  }
+
+  @Test
+  public void testCreate_zeroesFreedBlocksInBackground() throws Exception {
+    Configuration config = Configuration.unix().toBuilder()
+        .setBlockSize(4)
+        .setMaxSize(40)
+        .setBackgroundZeroing(true)
+        .build();
+    Disk disk = Disk.create(config);
+    RegularFile file = RegularFile.create(-2, fileTimeSource.now(), disk);
+    disk.allocate(file, 1);
+    ByteBuffer block = file.getBlock(0);
+    block.put(0, (byte) 1);
+    disk.free(file);
+
+    long deadline = System.nanoTime() + SECONDS.toNanos(10);
+    while (block.get(0) != 0 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(block.get(0)).isEqualTo((byte) 0);
+    assertThat(disk.zeroDirtyBlocks()).is(0);
+  }
+
+  @Test
+  public void testConcurrentAllocateAndFree() throws Exception {
+    final int maxBlockCount = 64;
+    final HeapDisk disk = new HeapDisk(4, maxBlockCount, 16);
+    final AtomicInteger heldBlockCount = new AtomicInteger();
+    final CountDownLatch start = new CountDownLatch(1);
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        final int seed = i;
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            Random random = new Random(seed);
+            RegularFile file = RegularFile.create(seed, FileTime.fromMillis(0), disk);
+            start.await();
+            for (int j = 0; j < 10000; j++) {
+              int count = random.nextInt(16) + 1;
+              try {
+                disk.allocate(file, count);
+              } catch (IOException expected) {
+                continue;
+              }
+              // the disk never hands out more blocks than it has
+              assertThat(heldBlockCount.addAndGet(count) <= maxBlockCount).isTrue();
+              heldBlockCount.addAndGet(-count);
+              disk.free(file);
+            }
+            return null;
+          }
+        }));
+      }
+
+      start.countDown();
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertThat(disk.getUnallocatedSpace()).is(maxBlockCount * 4);
+    assertThat(disk.cachedBlockCount() <= 16).isTrue();
+  }
+
+  private static void assertSameExtent(ByteBuffer block1, ByteBuffer block2) {
+    assertThat(block1.array()).isSameAs(block2.array());
+  }
+
+  @Test
+  public void testFree_sharedBlocks() throws IOException {
+    HeapDisk disk = new HeapDisk(4, 10, 10);
+    disk.allocate(blocks, 3);
+    RegularFile copy = RegularFile.create(-2, fileTimeSource.now(), new HeapDisk(2, 2, 2));
+    disk.share(blocks, copy);
 
     disk.free(blocks);
 
     assertThat(blocks.blockCount()).is(0);
-    assertThat(disk.blockCache.blockCount()).is(10);
+    assertThat(disk.getUnallocatedSpace()).is(28);
+    assertThat(disk.cachedBlockCount()).is(0);
+
+    disk.free(copy);
+
+    assertThat(copy.blockCount()).is(0);
+    assertThat(disk.getUnallocatedSpace()).is(40);
+    assertThat(disk.cachedBlockCount()).is(3);
+  }
 
-    List<byte[]> cachedBlocks = new ArrayList<>();
+  @Test
+  public void testAllocateFromCache_fullAllocationFromCache() throws IOException {
+    HeapDisk disk = new HeapDisk(4, 10, 10);
+    disk.allocate(blocks, 10);
+
+    assertThat(disk.getUnallocatedSpace()).is(0);
+
+    List<ByteBuffer> cachedBlocks = new ArrayList<>();
     for (int i = 0; i < 10; i++) {
-      cachedBlocks.add(disk.blockCache.getBlock(i));
+      cachedBlocks.add(blocks.getBlock(i));
     }
 
+    disk.free(blocks);
+
+    assertThat(blocks.blockCount()).is(0);
+    assertThat(disk.cachedBlockCount()).is(10);
+
     disk.allocate(blocks, 6);
 
     assertThat(blocks.blockCount()).is(6);
-    assertThat(disk.blockCache.blockCount()).is(4);
+    assertThat(disk.cachedBlockCount()).is(4);
 
     // the 6 arrays in blocks are the last 6 arrays that were cached
     for (int i = 0; i < 6; i++) {
-      assertThat(blocks.getBlock(i)).isEqualTo(cachedBlocks.get(i + 4));
+      assertThat(blocks.getBlock(i)).isSameAs(cachedBlocks.get(i + 4));
     }
   }
 
@@ -179,24 +564,25 @@ public class HeapDiskTest {
 
     assertThat(disk.getUnallocatedSpace()).is(0);
 
+    // the last 4 blocks of the file are the ones that get cached
+    List<ByteBuffer> cachedBlocks = new ArrayList<>();
+    for (int i = 6; i < 10; i++) {
+      cachedBlocks.add(blocks.getBlock(i));
+    }
+
     disk.free(blocks);
 
     assertThat(blocks.blockCount()).is(0);
-    assertThat(disk.blockCache.blockCount()).is(4);
-
-    List<byte[]> cachedBlocks = new ArrayList<>();
-    for (int i = 0; i < 4; i++) {
-      cachedBlocks.add(disk.blockCache.getBlock(i));
-    }
+    assertThat(disk.cachedBlockCount()).is(4);
 
     disk.allocate(blocks, 6);
 
     assertThat(blocks.blockCount()).is(6);
-    assertThat(disk.blockCache.blockCount()).is(0);
+    assertThat(disk.cachedBlockCount()).is(0);
 
-    // the last 4 arrays in blocks are the 4 arrays that were cached
-    for (int i = 2; i < 6; i++) {
-      assertThat(blocks.getBlock(i)).isEqualTo(cachedBlocks.get(i - 2));
+    // the first 4 arrays in blocks are the 4 arrays that were cached
+    for (int i = 0; i < 4; i++) {
+      assertThat(blocks.getBlock(i)).isSameAs(cachedBlocks.get(i));
     }
   }
 
@@ -216,7 +602,7 @@ public class HeapDiskTest {
     HeapDisk disk = new HeapDisk(4, 10, 4);
     disk.allocate(blocks, 6);
 
-    RegularFile blocks2 = RegularFile.create(-2, disk);
+    RegularFile blocks2 = RegularFile.create(-2, fileTimeSource.now(), disk);
 
     try {
       disk.allocate(blocks2, 5);
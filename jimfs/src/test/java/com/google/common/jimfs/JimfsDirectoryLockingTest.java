@@ -0,0 +1,328 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the Unix-like file system tests against a file system using
+ * {@linkplain LockGranularity#DIRECTORY per-directory locking} and tests concurrent changes to
+ * such a file system.
+ */
+@RunWith(JUnit4.class)
+public class JimfsDirectoryLockingTest extends JimfsUnixLikeFileSystemTest {
+
+  private static final Configuration DIRECTORY_LOCKING_CONFIGURATION =
+      Configuration.unix().toBuilder()
+          .setAttributeViews("basic", "owner", "posix", "unix")
+          .setMaxSize(1024 * 1024 * 1024) // 1 GB
+          .setMaxCacheSize(256 * 1024 * 1024) // 256 MB
+          .setLockGranularity(LockGranularity.DIRECTORY)
+          .build();
+
+  private static final int THREADS = 8;
+  private static final int ITERATIONS = 200;
+
+  @Override
+  protected FileSystem createFileSystem() {
+    return Jimfs.newFileSystem("unix", DIRECTORY_LOCKING_CONFIGURATION);
+  }
+
+  @Test
+  public void testConcurrentCreateAndDelete_separateDirectories() throws Exception {
+    final CountDownLatch start = new CountDownLatch(1);
+    List<Callable<Void>> tasks = new ArrayList<>();
+    for (int i = 0; i < THREADS; i++) {
+      final Path dir = Files.createDirectory(path("/dir" + i));
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException, InterruptedException {
+          start.await();
+          for (int j = 0; j < ITERATIONS; j++) {
+            Path file = dir.resolve("file" + j);
+            Files.createFile(file);
+            Files.write(file, new byte[] {1, 2, 3});
+          }
+          for (int j = 0; j < ITERATIONS; j += 2) {
+            Files.delete(dir.resolve("file" + j));
+          }
+          return null;
+        }
+      });
+    }
+
+    runConcurrently(start, tasks);
+
+    for (int i = 0; i < THREADS; i++) {
+      assertThat(list(path("/dir" + i))).hasSize(ITERATIONS / 2);
+    }
+  }
+
+  @Test
+  public void testConcurrentCreateAndDelete_sameDirectory() throws Exception {
+    Files.createDirectory(path("/dir"));
+
+    final CountDownLatch start = new CountDownLatch(1);
+    List<Callable<Void>> tasks = new ArrayList<>();
+    for (int i = 0; i < THREADS; i++) {
+      final String prefix = "/dir/" + i + "-";
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException, InterruptedException {
+          start.await();
+          for (int j = 0; j < ITERATIONS; j++) {
+            Files.createFile(path(prefix + j));
+          }
+          for (int j = 0; j < ITERATIONS; j += 2) {
+            Files.delete(path(prefix + j));
+          }
+          return null;
+        }
+      });
+    }
+
+    runConcurrently(start, tasks);
+
+    assertThat(list(path("/dir"))).hasSize(THREADS * ITERATIONS / 2);
+  }
+
+  @Test
+  public void testConcurrentMoves() throws Exception {
+    Files.createDirectory(path("/a"));
+    Files.createDirectory(path("/b"));
+    for (int i = 0; i < THREADS; i++) {
+      Files.createFile(path("/a/" + i));
+    }
+
+    // each thread moves its own file back and forth between the two directories, while another
+    // thread moves a directory around to make sure that structural changes interleave correctly
+    final CountDownLatch start = new CountDownLatch(1);
+    List<Callable<Void>> tasks = new ArrayList<>();
+    for (int i = 0; i < THREADS; i++) {
+      final Path a = path("/a/" + i);
+      final Path b = path("/b/" + i);
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException, InterruptedException {
+          start.await();
+          for (int j = 0; j < ITERATIONS; j++) {
+            Files.move(a, b, ATOMIC_MOVE);
+            Files.move(b, a, ATOMIC_MOVE);
+          }
+          return null;
+        }
+      });
+    }
+    Files.createDirectory(path("/c"));
+    tasks.add(new Callable<Void>() {
+      @Override
+      public Void call() throws IOException, InterruptedException {
+        start.await();
+        for (int j = 0; j < ITERATIONS; j++) {
+          Files.move(path("/c"), path("/d"), ATOMIC_MOVE);
+          Files.move(path("/d"), path("/c"), ATOMIC_MOVE);
+        }
+        return null;
+      }
+    });
+
+    runConcurrently(start, tasks);
+
+    assertThat(list(path("/a"))).hasSize(THREADS);
+    assertThat(list(path("/b"))).isEmpty();
+    assertThatPath("/c").isDirectory();
+  }
+
+  @Test
+  public void testConcurrentOpenAndDelete() throws Exception {
+    Files.createDirectory(path("/dir"));
+
+    final CountDownLatch start = new CountDownLatch(1);
+    final Path file = path("/dir/file");
+    List<Callable<Void>> tasks = new ArrayList<>();
+    tasks.add(new Callable<Void>() {
+      @Override
+      public Void call() throws IOException, InterruptedException {
+        start.await();
+        for (int j = 0; j < ITERATIONS; j++) {
+          Files.write(file, new byte[] {1, 2, 3});
+        }
+        return null;
+      }
+    });
+    tasks.add(new Callable<Void>() {
+      @Override
+      public Void call() throws IOException, InterruptedException {
+        start.await();
+        for (int j = 0; j < ITERATIONS; j++) {
+          try {
+            // Files.write truncates an existing file before writing to it, so it may be empty
+            int length = Files.readAllBytes(file).length;
+            assertThat(length == 0 || length == 3).isTrue();
+          } catch (NoSuchFileException expected) {
+          }
+          Files.deleteIfExists(file);
+        }
+        return null;
+      }
+    });
+
+    runConcurrently(start, tasks);
+  }
+
+  @Test
+  public void testConcurrentCreateAndDeleteParent() throws Exception {
+    final int rounds = ITERATIONS * 10;
+    for (int i = 0; i < rounds; i++) {
+      Files.createDirectory(path("/d" + i));
+    }
+
+    // a file created in a directory that's deleted concurrently must either keep the directory
+    // from being deleted or not be created; it must never be linked into the deleted directory
+    final boolean[] created = new boolean[rounds];
+    final boolean[] deleted = new boolean[rounds];
+    final CountDownLatch start = new CountDownLatch(1);
+    List<Callable<Void>> tasks = new ArrayList<>();
+    tasks.add(new Callable<Void>() {
+      @Override
+      public Void call() throws IOException, InterruptedException {
+        start.await();
+        for (int i = 0; i < rounds; i++) {
+          try {
+            Files.createFile(path("/d" + i + "/f"));
+            created[i] = true;
+          } catch (NoSuchFileException expected) {
+          }
+        }
+        return null;
+      }
+    });
+    tasks.add(deleteDirectoriesTask(start, rounds, deleted));
+
+    runConcurrently(start, tasks);
+
+    for (int i = 0; i < rounds; i++) {
+      assertThat(created[i] && deleted[i]).isFalse();
+      assertThat(Files.exists(path("/d" + i + "/f"))).isEqualTo(created[i]);
+    }
+  }
+
+  @Test
+  public void testConcurrentMoveAndDeleteParent() throws Exception {
+    final int rounds = ITERATIONS * 10;
+    Files.createDirectory(path("/src"));
+    for (int i = 0; i < rounds; i++) {
+      Files.createDirectory(path("/d" + i));
+      Files.createFile(path("/src/" + i));
+    }
+
+    // a file moved into a directory that's deleted concurrently must not be lost
+    final boolean[] moved = new boolean[rounds];
+    final boolean[] deleted = new boolean[rounds];
+    final CountDownLatch start = new CountDownLatch(1);
+    List<Callable<Void>> tasks = new ArrayList<>();
+    tasks.add(new Callable<Void>() {
+      @Override
+      public Void call() throws IOException, InterruptedException {
+        start.await();
+        for (int i = 0; i < rounds; i++) {
+          try {
+            Files.move(path("/src/" + i), path("/d" + i + "/f"));
+            moved[i] = true;
+          } catch (NoSuchFileException expected) {
+          }
+        }
+        return null;
+      }
+    });
+    tasks.add(deleteDirectoriesTask(start, rounds, deleted));
+
+    runConcurrently(start, tasks);
+
+    for (int i = 0; i < rounds; i++) {
+      assertThat(moved[i] && deleted[i]).isFalse();
+      assertThat(Files.exists(path("/d" + i + "/f"))).isEqualTo(moved[i]);
+      assertThat(Files.exists(path("/src/" + i))).isEqualTo(!moved[i]);
+    }
+  }
+
+  /**
+   * Returns a task that tries to delete each of the directories "/d0" to "/d{count - 1}",
+   * recording which of them it deleted.
+   */
+  private Callable<Void> deleteDirectoriesTask(
+      final CountDownLatch start, final int count, final boolean[] deleted) {
+    return new Callable<Void>() {
+      @Override
+      public Void call() throws IOException, InterruptedException {
+        start.await();
+        for (int i = 0; i < count; i++) {
+          try {
+            Files.delete(path("/d" + i));
+            deleted[i] = true;
+          } catch (DirectoryNotEmptyException expected) {
+          }
+        }
+        return null;
+      }
+    };
+  }
+
+  private static void runConcurrently(CountDownLatch start, List<Callable<Void>> tasks)
+      throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+    try {
+      List<Future<Void>> futures = new ArrayList<>();
+      for (Callable<Void> task : tasks) {
+        futures.add(executor.submit(task));
+      }
+      start.countDown();
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static List<Path> list(Path dir) throws IOException {
+    List<Path> result = new ArrayList<>();
+    for (Path path : Files.newDirectoryStream(dir)) {
+      result.add(path);
+    }
+    return result;
+  }
+}
@@ -25,6 +25,7 @@ import static java.nio.file.StandardOpenOption.APPEND;
 import static java.nio.file.StandardOpenOption.READ;
 import static java.nio.file.StandardOpenOption.WRITE;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
@@ -44,14 +45,17 @@ import org.junit.runners.JUnit4;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.AsynchronousCloseException;
 import java.nio.channels.ClosedByInterruptException;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.channels.FileLock;
 import java.nio.channels.NonReadableChannelException;
 import java.nio.channels.NonWritableChannelException;
 import java.nio.file.OpenOption;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
@@ -72,6 +76,9 @@ import java.util.concurrent.Future;
 @RunWith(JUnit4.class)
 public class JimfsFileChannelTest {
 
+  private final ManualFileTimeSource fileTimeSource =
+      new ManualFileTimeSource(FileTime.fromMillis(0));
+
   private static FileChannel channel(RegularFile file, OpenOption... options)
       throws IOException {
     return new JimfsFileChannel(file,
@@ -207,6 +214,80 @@ public class JimfsFileChannelTest {
     assertEquals(0, channel.position());
   }
 
+  @Test
+  public void testTransferTo_otherJimfsChannel_sharesWholeBlocks() throws IOException {
+    HeapDisk disk = new HeapDisk(4, 100, 100);
+    RegularFile source = RegularFile.create(0, fileTimeSource.now(), disk);
+    source.write(0, bytes("0123456789"), 0, 10);
+    RegularFile dest = RegularFile.create(1, fileTimeSource.now(), disk);
+    FileChannel sourceChannel = channel(source, READ, WRITE);
+    FileChannel destChannel = channel(dest, WRITE);
+
+    assertEquals(10, sourceChannel.transferTo(0, 100, destChannel));
+    assertEquals(0, sourceChannel.position());
+    assertEquals(10, destChannel.position());
+    assertContentEquals("0123456789", dest);
+
+    // the two full blocks are shared; only the last, partial block was copied
+    assertEquals(3, dest.blockCount());
+    assertEquals((100 - 4) * 4, disk.getUnallocatedSpace());
+
+    // writes to either file don't change the other
+    sourceChannel.write(buffer("9"), 1);
+    destChannel.write(buffer("0"), 5);
+    assertContentEquals("0923456789", source);
+    assertContentEquals("0123406789", dest);
+    assertEquals((100 - 6) * 4, disk.getUnallocatedSpace());
+  }
+
+  @Test
+  public void testTransferFrom_otherJimfsChannel_unalignedPositions() throws IOException {
+    HeapDisk disk = new HeapDisk(4, 100, 100);
+    RegularFile source = RegularFile.create(0, fileTimeSource.now(), disk);
+    source.write(0, bytes("0123456789"), 0, 10);
+    RegularFile dest = RegularFile.create(1, fileTimeSource.now(), disk);
+    FileChannel sourceChannel = channel(source, READ);
+    FileChannel destChannel = channel(dest, WRITE);
+
+    sourceChannel.position(1);
+    assertEquals(6, destChannel.transferFrom(sourceChannel, 3, 6));
+    assertEquals(7, sourceChannel.position());
+    assertEquals(0, destChannel.position());
+    assertContentEquals("000123456", dest);
+  }
+
+  @Test
+  public void testTransferFrom_otherJimfsChannel_append() throws IOException {
+    HeapDisk disk = new HeapDisk(4, 100, 100);
+    RegularFile source = RegularFile.create(0, fileTimeSource.now(), disk);
+    source.write(0, bytes("01234567"), 0, 8);
+    RegularFile dest = RegularFile.create(1, fileTimeSource.now(), disk);
+    dest.write(0, bytes("9876"), 0, 4);
+    FileChannel sourceChannel = channel(source, READ);
+    FileChannel destChannel = channel(dest, WRITE, APPEND);
+
+    assertEquals(8, destChannel.transferFrom(sourceChannel, 0, 100));
+    assertEquals(12, destChannel.position());
+    assertContentEquals("987601234567", dest);
+  }
+
+  @Test
+  public void testTransferTo_otherJimfsChannel_differentDisks() throws IOException {
+    RegularFile source = regularFile(0);
+    source.write(0, bytes("0123456789"), 0, 10);
+    RegularFile dest = RegularFile.create(1, fileTimeSource.now(), new HeapDisk(4, 100, 100));
+    FileChannel destChannel = channel(dest, WRITE);
+
+    assertEquals(7, channel(source, READ).transferTo(3, 100, destChannel));
+    assertContentEquals("3456789", dest);
+  }
+
+  private static void assertContentEquals(String expected, RegularFile file) {
+    byte[] content = new byte[(int) file.sizeWithoutLocking()];
+    file.read(0, content, 0, content.length);
+    assertArrayEquals(bytes(expected), content);
+  }
+
   @Test
   public void testTruncate() throws IOException {
     RegularFile file = regularFile(10);
@@ -226,76 +307,180 @@ public class JimfsFileChannelTest {
     assertEquals(2, channel.position());
   }
 
+  @Test
+  public void testMap_readWrite() throws IOException {
+    RegularFile file = regularFile(10);
+    FileChannel channel = channel(file, READ, WRITE);
+
+    MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 2, 5);
+    assertTrue(buffer.isDirect());
+    assertEquals(0, buffer.position());
+    assertEquals(5, buffer.limit());
+
+    // changes to the buffer are visible in the file
+    buffer.put(0, (byte) 1);
+    assertEquals(1, file.read(2));
+
+    // changes to the file are visible in the buffer
+    file.write(6, (byte) 2);
+    assertEquals(2, buffer.get(4));
+
+    // mapping a range within the same blocks shares content with the existing mapping
+    MappedByteBuffer buffer2 = channel.map(MapMode.READ_WRITE, 0, 10);
+    buffer2.put(3, (byte) 3);
+    assertEquals(3, buffer.get(1));
+  }
+
+  @Test
+  public void testMap_extendsFile() throws IOException {
+    RegularFile file = regularFile(10);
+    FileChannel channel = channel(file, READ, WRITE);
+
+    MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 5, 20000);
+    assertEquals(20005, file.size());
+    assertEquals(20000, buffer.capacity());
+
+    buffer.put(19999, (byte) 1);
+    assertEquals(1, file.read(20004));
+  }
+
+  @Test
+  public void testMap_readOnly() throws IOException {
+    RegularFile file = regularFile(10);
+    FileChannel channel = channel(file, READ);
+
+    MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, 10);
+    assertTrue(buffer.isReadOnly());
+
+    file.write(0, (byte) 1);
+    assertEquals(1, buffer.get(0));
+
+    try {
+      channel.map(MapMode.READ_ONLY, 0, 11);
+      fail();
+    } catch (IOException expected) {
+    }
+
+    try {
+      channel.map(MapMode.READ_WRITE, 0, 10);
+      fail();
+    } catch (NonWritableChannelException expected) {
+    }
+  }
+
+  @Test
+  public void testMap_private() throws IOException {
+    RegularFile file = regularFile(10);
+    file.write(0, (byte) 1);
+    FileChannel channel = channel(file, READ, WRITE);
+
+    MappedByteBuffer buffer = channel.map(MapMode.PRIVATE, 0, 10);
+    assertEquals(1, buffer.get(0));
+
+    buffer.put(0, (byte) 2);
+    assertEquals(1, file.read(0));
+  }
+
+  @Test
+  public void testMap_overlappingExistingMapping() throws IOException {
+    RegularFile file = regularFile(10);
+    FileChannel channel = channel(file, READ, WRITE);
+
+    channel.map(MapMode.READ_WRITE, 0, 10);
+    try {
+      channel.map(MapMode.READ_WRITE, 5, 20000);
+      fail();
+    } catch (IOException expected) {
+    }
+  }
+
+  @Test
+  public void testMap_mappedBlocksAreNotReused() throws IOException {
+    HeapDisk disk = new HeapDisk(4, 10, 10);
+    RegularFile file = RegularFile.create(0, fileTimeSource.now(), disk);
+    file.write(0, new byte[8], 0, 8);
+    FileChannel channel = channel(file, READ, WRITE);
+
+    MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, 8);
+    file.truncate(0);
+    assertEquals(0, disk.cachedBlockCount());
+
+    RegularFile other = RegularFile.create(1, fileTimeSource.now(), disk);
+    other.write(0, new byte[8], 0, 8);
+    buffer.put(0, (byte) 1);
+    assertEquals(0, other.read(0));
+  }
+
   @Test
   public void testFileTimeUpdates() throws IOException {
     RegularFile file = regularFile(10);
     FileChannel channel = new JimfsFileChannel(file, ImmutableSet.<OpenOption>of(READ, WRITE),
-        new FileSystemState(Runnables.doNothing()));
+        new FileSystemState(Runnables.doNothing(), fileTimeSource, AccessTimePolicy.STRICT));
 
     // accessed
-    long accessTime = file.getLastAccessTime();
-    Uninterruptibles.sleepUninterruptibly(2, MILLISECONDS);
+    FileTime accessTime = file.getLastAccessTime();
+    fileTimeSource.advance(1, MILLISECONDS);
 
     channel.read(ByteBuffer.allocate(10));
     assertNotEquals(accessTime, file.getLastAccessTime());
 
     accessTime = file.getLastAccessTime();
-    Uninterruptibles.sleepUninterruptibly(2, MILLISECONDS);
+    fileTimeSource.advance(1, MILLISECONDS);
 
     channel.read(ByteBuffer.allocate(10), 0);
     assertNotEquals(accessTime, file.getLastAccessTime());
 
     accessTime = file.getLastAccessTime();
-    Uninterruptibles.sleepUninterruptibly(2, MILLISECONDS);
+    fileTimeSource.advance(1, MILLISECONDS);
 
     channel.read(new ByteBuffer[]{ByteBuffer.allocate(10)});
     assertNotEquals(accessTime, file.getLastAccessTime());
 
     accessTime = file.getLastAccessTime();
-    Uninterruptibles.sleepUninterruptibly(2, MILLISECONDS);
+    fileTimeSource.advance(1, MILLISECONDS);
 
     channel.read(new ByteBuffer[]{ByteBuffer.allocate(10)}, 0, 1);
     assertNotEquals(accessTime, file.getLastAccessTime());
 
     accessTime = file.getLastAccessTime();
-    Uninterruptibles.sleepUninterruptibly(2, MILLISECONDS);
+    fileTimeSource.advance(1, MILLISECONDS);
 
     channel.transferTo(0, 10, new ByteBufferChannel(10));
     assertNotEquals(accessTime, file.getLastAccessTime());
 
     // modified
-    long modifiedTime = file.getLastModifiedTime();
-    Uninterruptibles.sleepUninterruptibly(2, MILLISECONDS);
+    FileTime modifiedTime = file.getLastModifiedTime();
+    fileTimeSource.advance(1, MILLISECONDS);
 
     channel.write(ByteBuffer.allocate(10));
     assertNotEquals(modifiedTime, file.getLastModifiedTime());
 
     modifiedTime = file.getLastModifiedTime();
-    Uninterruptibles.sleepUninterruptibly(2, MILLISECONDS);
+    fileTimeSource.advance(1, MILLISECONDS);
 
     channel.write(ByteBuffer.allocate(10), 0);
     assertNotEquals(modifiedTime, file.getLastModifiedTime());
 
     modifiedTime = file.getLastModifiedTime();
-    Uninterruptibles.sleepUninterruptibly(2, MILLISECONDS);
+    fileTimeSource.advance(1, MILLISECONDS);
 
     channel.write(new ByteBuffer[]{ByteBuffer.allocate(10)});
     assertNotEquals(modifiedTime, file.getLastModifiedTime());
 
     modifiedTime = file.getLastModifiedTime();
-    Uninterruptibles.sleepUninterruptibly(2, MILLISECONDS);
+    fileTimeSource.advance(1, MILLISECONDS);
 
     channel.write(new ByteBuffer[]{ByteBuffer.allocate(10)}, 0, 1);
     assertNotEquals(modifiedTime, file.getLastModifiedTime());
 
     modifiedTime = file.getLastModifiedTime();
-    Uninterruptibles.sleepUninterruptibly(2, MILLISECONDS);
+    fileTimeSource.advance(1, MILLISECONDS);
 
     channel.truncate(0);
     assertNotEquals(modifiedTime, file.getLastModifiedTime());
 
     modifiedTime = file.getLastModifiedTime();
-    Uninterruptibles.sleepUninterruptibly(2, MILLISECONDS);
+    fileTimeSource.advance(1, MILLISECONDS);
 
     channel.transferFrom(new ByteBufferChannel(10), 0, 10);
     assertNotEquals(modifiedTime, file.getLastModifiedTime());
@@ -665,6 +850,56 @@ public class JimfsFileChannelTest {
     assertFalse(lock.isValid());
   }
 
+  @Test
+  public void testPositionalRead_doesNotLockChannel() throws Exception {
+    RegularFile file = regularFile(10);
+    final FileChannel channel = channel(file, READ);
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      // holding the channel's lock blocks all operations that use the channel's position
+      synchronized (channel) {
+        Future<Integer> read = executor.submit(new Callable<Integer>() {
+          @Override
+          public Integer call() throws IOException {
+            return channel.read(ByteBuffer.allocate(5), 3);
+          }
+        });
+        assertEquals(5, (int) read.get(1000, MILLISECONDS));
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testPositionalRead_waitsForWrite() throws Exception {
+    RegularFile file = regularFile(10);
+    final FileChannel channel = channel(file, READ);
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<Integer> read;
+      file.writeLock().lock();
+      try {
+        read = executor.submit(new Callable<Integer>() {
+          @Override
+          public Integer call() throws IOException {
+            return channel.read(ByteBuffer.allocate(20), 0);
+          }
+        });
+        Uninterruptibles.sleepUninterruptibly(10, MILLISECONDS);
+        assertFalse(read.isDone());
+        file.write(10, new byte[10], 0, 10);
+      } finally {
+        file.writeLock().unlock();
+      }
+      assertEquals(20, (int) read.get(1000, MILLISECONDS));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
   @Test
   public void testAsynchronousClose() throws Exception {
     RegularFile file = regularFile(10);
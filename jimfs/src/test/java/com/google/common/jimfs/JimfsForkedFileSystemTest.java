@@ -0,0 +1,46 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+
+/**
+ * Runs the Unix-like file system tests against a file system {@linkplain FileSystemSnapshot#fork()
+ * forked} from a snapshot of a new file system.
+ */
+@RunWith(JUnit4.class)
+public class JimfsForkedFileSystemTest extends JimfsUnixLikeFileSystemTest {
+
+  private static final Configuration UNIX_CONFIGURATION = Configuration.unix().toBuilder()
+      .setAttributeViews("basic", "owner", "posix", "unix")
+      .setMaxSize(1024 * 1024 * 1024) // 1 GB
+      .setMaxCacheSize(256 * 1024 * 1024) // 256 MB
+      .build();
+
+  @Override
+  protected FileSystem createFileSystem() {
+    try (FileSystem original = Jimfs.newFileSystem(UNIX_CONFIGURATION)) {
+      return Jimfs.snapshot(original).fork("unix");
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+  }
+}
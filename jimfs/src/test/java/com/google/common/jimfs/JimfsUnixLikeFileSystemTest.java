@@ -165,6 +165,246 @@ public class JimfsUnixLikeFileSystemTest extends AbstractJimfsIntegrationTest {
     assertThat(fileStore.getUsableSpace()).isEqualTo(totalSpace);
   }
 
+  @Test
+  public void testTrimCache() throws IOException {
+    Files.write(fs.getPath("/foo"), new byte[10000]);
+    Files.delete(fs.getPath("/foo"));
+
+    // the file's 2 blocks were cached when it was deleted
+    assertThat(Jimfs.trimCache(fs)).isEqualTo(2 * 8192);
+    assertThat(Jimfs.trimCache(fs)).isEqualTo(0);
+  }
+
+  @Test
+  public void testQuota_size() throws IOException {
+    Files.createDirectory(path("/quota"));
+    Jimfs.setQuota(path("/quota"), 3 * 8192, Long.MAX_VALUE);
+
+    Files.write(path("/quota/foo"), new byte[10000]);
+    try {
+      Files.write(path("/quota/bar"), new byte[10000]);
+      fail();
+    } catch (IOException expected) {
+    }
+
+    // files outside the directory's tree aren't limited
+    Files.write(path("/foo"), new byte[100000]);
+
+    Files.delete(path("/quota/foo"));
+    Files.write(path("/quota/bar"), new byte[10000]);
+    assertThat(Files.size(path("/quota/bar"))).isEqualTo(10000);
+
+    // blocks that only become part of the file when it's written count once they are
+    try (FileChannel channel = FileChannel.open(path("/quota/sparse"), CREATE_NEW, SPARSE, WRITE)) {
+      channel.write(ByteBuffer.wrap(new byte[] {1}), 100000);
+      try {
+        channel.write(ByteBuffer.wrap(new byte[] {1}), 0);
+        fail();
+      } catch (IOException expected) {
+      }
+    }
+  }
+
+  @Test
+  public void testQuota_fileCount() throws IOException {
+    Files.createDirectory(path("/quota"));
+    Jimfs.setQuota(path("/quota"), Long.MAX_VALUE, 2);
+
+    Files.createFile(path("/quota/foo"));
+    Files.createDirectory(path("/quota/dir"));
+    try {
+      Files.createFile(path("/quota/dir/bar"));
+      fail();
+    } catch (IOException expected) {
+    }
+
+    Files.delete(path("/quota/foo"));
+    Files.createSymbolicLink(path("/quota/dir/link"), path("/foo"));
+    assertThat(Files.isSymbolicLink(path("/quota/dir/link"))).isTrue();
+
+    Jimfs.setQuota(path("/quota"), Long.MAX_VALUE, 3);
+    Files.createFile(path("/quota/foo"));
+  }
+
+  @Test
+  public void testQuota_chargesExistingFiles() throws IOException {
+    Files.createDirectories(path("/quota/dir"));
+    Files.write(path("/quota/foo"), new byte[10000]);
+    Files.write(path("/quota/dir/bar"), new byte[10000]);
+
+    Jimfs.setQuota(path("/quota"), 3 * 8192, 3);
+    try {
+      Files.write(path("/quota/dir/bar"), new byte[10000], APPEND);
+      fail();
+    } catch (IOException expected) {
+    }
+    try {
+      Files.createFile(path("/quota/baz"));
+      fail();
+    } catch (IOException expected) {
+    }
+
+    Jimfs.removeQuota(path("/quota"));
+    Files.write(path("/quota/dir/bar"), new byte[10000], APPEND);
+    Files.createFile(path("/quota/baz"));
+  }
+
+  @Test
+  public void testQuota_copyAndMove() throws IOException {
+    Files.createDirectory(path("/quota"));
+    Jimfs.setQuota(path("/quota"), 2 * 8192, Long.MAX_VALUE);
+
+    Files.write(path("/big"), new byte[20000]);
+    try {
+      Files.copy(path("/big"), path("/quota/big"));
+      fail();
+    } catch (IOException expected) {
+    }
+    Files.delete(path("/quota/big"));
+
+    try {
+      Files.move(path("/big"), path("/quota/big"));
+      fail();
+    } catch (IOException expected) {
+    }
+    assertThat(Files.size(path("/big"))).isEqualTo(20000);
+    assertThat(Files.exists(path("/quota/big"))).isFalse();
+
+    Files.write(path("/small"), new byte[8192]);
+    Files.move(path("/small"), path("/quota/small"));
+    Files.copy(path("/quota/small"), path("/quota/copy"));
+    try {
+      Files.write(path("/quota/copy"), new byte[] {1}, APPEND);
+      fail();
+    } catch (IOException expected) {
+    }
+
+    // moving a file out of the tree releases its space
+    Files.move(path("/quota/small"), path("/small"));
+    Files.write(path("/quota/copy"), new byte[] {1}, APPEND);
+  }
+
+  @Test
+  public void testQuota_replace() throws IOException {
+    Files.createDirectory(path("/quota"));
+    Jimfs.setQuota(path("/quota"), 2 * 8192, Long.MAX_VALUE);
+    Files.write(path("/quota/dst"), new byte[10000]);
+
+    // the space of the replaced file counts toward the file replacing it
+    Files.write(path("/src"), new byte[10000]);
+    Files.move(path("/src"), path("/quota/dst"), REPLACE_EXISTING);
+    assertThat(Files.size(path("/quota/dst"))).isEqualTo(10000);
+  }
+
+  @Test
+  public void testQuota_failedReplaceLeavesTarget() throws IOException {
+    Files.createDirectory(path("/quota"));
+    Jimfs.setQuota(path("/quota"), 64 * 1024, 1);
+    Files.write(path("/quota/dst"), new byte[] {1, 2, 3});
+    Files.write(path("/src"), new byte[1024 * 1024]);
+
+    try {
+      Files.move(path("/src"), path("/quota/dst"), REPLACE_EXISTING);
+      fail();
+    } catch (IOException expected) {
+      assertThat(expected.getMessage()).contains("quota");
+    }
+    assertThat(Files.readAllBytes(path("/quota/dst"))).isEqualTo(new byte[] {1, 2, 3});
+    assertThat(Files.size(path("/src"))).isEqualTo(1024 * 1024);
+
+    // a replaced file that's still linked elsewhere doesn't give its charge to the new file
+    Files.createLink(path("/link"), path("/quota/dst"));
+    try {
+      Files.copy(path("/src"), path("/quota/dst"), REPLACE_EXISTING);
+      fail();
+    } catch (IOException expected) {
+      assertThat(expected.getMessage()).contains("quota");
+    }
+    assertThat(Files.readAllBytes(path("/quota/dst"))).isEqualTo(new byte[] {1, 2, 3});
+  }
+
+  @Test
+  public void testQuota_moveDirectory() throws IOException {
+    Files.createDirectories(path("/quota"));
+    Files.createDirectories(path("/dir/sub"));
+    Jimfs.setQuota(path("/quota"), Long.MAX_VALUE, 1);
+
+    try {
+      Files.move(path("/dir"), path("/quota/dir"));
+      fail();
+    } catch (FileSystemException expected) {
+    }
+
+    Files.move(path("/dir/sub"), path("/quota/sub"));
+    try {
+      Files.createDirectory(path("/quota/sub/foo"));
+      fail();
+    } catch (IOException expected) {
+    }
+
+    // moving the directory with the quota moves the quota with it
+    Files.move(path("/quota"), path("/dir/quota"));
+    try {
+      Files.createDirectory(path("/dir/quota/foo"));
+      fail();
+    } catch (IOException expected) {
+    }
+  }
+
+  @Test
+  public void testQuota_notNested() throws IOException {
+    Files.createDirectories(path("/quota/dir"));
+    Jimfs.setQuota(path("/quota"), Long.MAX_VALUE, 10);
+
+    try {
+      Jimfs.setQuota(path("/quota/dir"), Long.MAX_VALUE, 10);
+      fail();
+    } catch (FileSystemException expected) {
+    }
+
+    try {
+      Jimfs.setQuota(path("/"), Long.MAX_VALUE, 10);
+      fail();
+    } catch (FileSystemException expected) {
+    }
+
+    try {
+      Jimfs.removeQuota(path("/quota/dir"));
+      fail();
+    } catch (FileSystemException expected) {
+    }
+  }
+
+  @Test
+  public void testSparseFile() throws IOException {
+    FileStore fileStore = Iterables.getOnlyElement(fs.getFileStores());
+    long totalSpace = fileStore.getTotalSpace();
+    long position = 10L * 1024 * 1024 * 1024; // 10 GB, well past the size of the disk
+
+    try (FileChannel channel = FileChannel.open(path("/sparse"), CREATE_NEW, SPARSE, READ, WRITE)) {
+      channel.write(ByteBuffer.wrap(new byte[] {1}), position);
+      assertThat(channel.size()).isEqualTo(position + 1);
+
+      // only the block that was written to is allocated
+      assertThat(fileStore.getUnallocatedSpace()).isEqualTo(totalSpace - 8192);
+
+      ByteBuffer buf = ByteBuffer.allocate(100);
+      assertThat(channel.read(buf, position / 2)).isEqualTo(100);
+      assertThat(buf.array()).isEqualTo(new byte[100]);
+
+      buf.clear();
+      assertThat(channel.read(buf, position - 50)).isEqualTo(51);
+      assertThat(buf.get(50)).isEqualTo((byte) 1);
+      assertThat(Arrays.copyOf(buf.array(), 50)).isEqualTo(new byte[50]);
+
+      channel.truncate(1000);
+      assertThat(fileStore.getUnallocatedSpace()).isEqualTo(totalSpace);
+    }
+
+    Files.delete(path("/sparse"));
+    assertThat(fileStore.getUnallocatedSpace()).isEqualTo(totalSpace);
+  }
+
   @Test
   public void testPaths() {
     assertThatPath("/").isAbsolute()
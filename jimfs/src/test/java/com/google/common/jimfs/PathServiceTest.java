@@ -164,7 +164,7 @@ public class PathServiceTest {
     assertThat(service.createPathMatcher("regex:foo"))
         .isInstanceOf(PathMatchers.RegexPathMatcher.class);
     assertThat(service.createPathMatcher("glob:foo"))
-        .isInstanceOf(PathMatchers.RegexPathMatcher.class);
+        .isInstanceOf(GlobPathMatcher.class);
   }
 
   public static PathService fakeUnixPathService() {
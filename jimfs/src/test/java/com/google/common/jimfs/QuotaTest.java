@@ -0,0 +1,125 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+
+/**
+ * Tests for {@link Quota}.
+ */
+@RunWith(JUnit4.class)
+public class QuotaTest {
+
+  @Test
+  public void testChargeAndRelease() throws IOException {
+    Quota quota = new Quota(100, 2);
+    quota.charge(60, 1);
+    quota.charge(40, 1);
+    assertThat(quota.size()).isEqualTo(100);
+    assertThat(quota.fileCount()).isEqualTo(2);
+
+    quota.release(30, 1);
+    assertThat(quota.size()).isEqualTo(70);
+    assertThat(quota.fileCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testCharge_overLimit() throws IOException {
+    Quota quota = new Quota(100, 2);
+    quota.charge(60, 2);
+
+    try {
+      quota.charge(50, 0);
+      fail();
+    } catch (IOException expected) {
+    }
+
+    // neither charge is made if either would exceed its limit
+    try {
+      quota.charge(10, 1);
+      fail();
+    } catch (IOException expected) {
+    }
+
+    assertThat(quota.size()).isEqualTo(60);
+    assertThat(quota.fileCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void testChargeReplacing() throws IOException {
+    Quota quota = new Quota(100, 2);
+    quota.charge(80, 2);
+
+    // only the difference from the replaced charges must fit, until they're released
+    quota.chargeReplacing(90, 1, 80, 1);
+    assertThat(quota.size()).isEqualTo(170);
+    assertThat(quota.fileCount()).isEqualTo(3);
+    quota.release(80, 1);
+    assertThat(quota.size()).isEqualTo(90);
+    assertThat(quota.fileCount()).isEqualTo(2);
+
+    try {
+      quota.chargeReplacing(30, 1, 10, 1);
+      fail();
+    } catch (IOException expected) {
+    }
+    assertThat(quota.size()).isEqualTo(90);
+    assertThat(quota.fileCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void testSetLimits() throws IOException {
+    Quota quota = new Quota(100, 10);
+    quota.charge(80, 5);
+
+    // charges over a lowered limit stand, but nothing more can be charged
+    quota.setLimits(50, 10);
+    assertThat(quota.size()).isEqualTo(80);
+    try {
+      quota.charge(1, 0);
+      fail();
+    } catch (IOException expected) {
+    }
+
+    // releasing is always allowed
+    quota.release(40, 0);
+    quota.charge(10, 0);
+    assertThat(quota.size()).isEqualTo(50);
+  }
+
+  @Test
+  public void testSetLimits_negative() {
+    try {
+      new Quota(-1, 10);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+
+    try {
+      new Quota(10, -1);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+}
@@ -18,13 +18,14 @@ package com.google.common.jimfs;
 
 import static com.google.common.truth.Truth.assertThat;
 
-import com.google.common.primitives.Bytes;
-
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.nio.ByteBuffer;
+import java.nio.file.attribute.FileTime;
+
 /**
  * Tests for the lower-level operations dealing with the blocks of a {@link RegularFile}.
  *
@@ -41,7 +42,7 @@ public class RegularFileBlocksTest {
   }
 
   private static RegularFile createFile() {
-    return RegularFile.create(-1, new HeapDisk(2, 2, 2));
+    return RegularFile.create(-1, FileTime.fromMillis(0), new HeapDisk(2, 2, 2));
   }
 
   @Test
@@ -54,25 +55,25 @@ public class RegularFileBlocksTest {
 
   @Test
   public void testAddAndGet() {
-    file.addBlock(new byte[] {1});
+    file.addBlock(ByteBuffer.wrap(new byte[] {1}));
 
     assertThat(file.blockCount()).is(1);
-    assertThat(Bytes.asList(file.getBlock(0))).isEqualTo(Bytes.asList(new byte[] {1}));
+    assertThat(file.getBlock(0)).isEqualTo(ByteBuffer.wrap(new byte[] {1}));
     assertThat(file.getBlock(1)).isNull();
 
-    file.addBlock(new byte[] {1, 2});
+    file.addBlock(ByteBuffer.wrap(new byte[] {1, 2}));
 
     assertThat(file.blockCount()).is(2);
-    assertThat(Bytes.asList(file.getBlock(1))).isEqualTo(Bytes.asList(new byte[] {1, 2}));
+    assertThat(file.getBlock(1)).isEqualTo(ByteBuffer.wrap(new byte[] {1, 2}));
     assertThat(file.getBlock(2)).isNull();
   }
 
   @Test
   public void testTruncate() {
-    file.addBlock(new byte[0]);
-    file.addBlock(new byte[0]);
-    file.addBlock(new byte[0]);
-    file.addBlock(new byte[0]);
+    file.addBlock(ByteBuffer.allocate(0));
+    file.addBlock(ByteBuffer.allocate(0));
+    file.addBlock(ByteBuffer.allocate(0));
+    file.addBlock(ByteBuffer.allocate(0));
 
     assertThat(file.blockCount()).is(4);
 
@@ -90,8 +91,8 @@ public class RegularFileBlocksTest {
 
   @Test
   public void testCopyTo() {
-    file.addBlock(new byte[] {1});
-    file.addBlock(new byte[] {1, 2});
+    file.addBlock(ByteBuffer.wrap(new byte[] {1}));
+    file.addBlock(ByteBuffer.wrap(new byte[] {1, 2}));
     RegularFile other = createFile();
 
     assertThat(other.blockCount()).is(0);
@@ -117,9 +118,9 @@ public class RegularFileBlocksTest {
 
   @Test
   public void testTransferTo() {
-    file.addBlock(new byte[] {1});
-    file.addBlock(new byte[] {1, 2});
-    file.addBlock(new byte[] {1, 2, 3});
+    file.addBlock(ByteBuffer.wrap(new byte[] {1}));
+    file.addBlock(ByteBuffer.wrap(new byte[] {1, 2}));
+    file.addBlock(ByteBuffer.wrap(new byte[] {1, 2, 3}));
     RegularFile other = createFile();
 
     assertThat(file.blockCount()).is(3);
@@ -131,16 +132,16 @@ public class RegularFileBlocksTest {
     assertThat(other.blockCount()).is(3);
 
     assertThat(file.getBlock(0)).isNull();
-    assertThat(Bytes.asList(other.getBlock(0))).isEqualTo(Bytes.asList(new byte[] {1}));
-    assertThat(Bytes.asList(other.getBlock(1))).isEqualTo(Bytes.asList(new byte[] {1, 2}));
-    assertThat(Bytes.asList(other.getBlock(2))).isEqualTo(Bytes.asList(new byte[] {1, 2, 3}));
+    assertThat(other.getBlock(0)).isEqualTo(ByteBuffer.wrap(new byte[] {1}));
+    assertThat(other.getBlock(1)).isEqualTo(ByteBuffer.wrap(new byte[] {1, 2}));
+    assertThat(other.getBlock(2)).isEqualTo(ByteBuffer.wrap(new byte[] {1, 2, 3}));
 
     other.transferBlocksTo(file, 1);
 
     assertThat(file.blockCount()).is(1);
     assertThat(other.blockCount()).is(2);
     assertThat(other.getBlock(2)).isNull();
-    assertThat(Bytes.asList(file.getBlock(0))).isEqualTo(Bytes.asList(new byte[]{1, 2, 3}));
+    assertThat(file.getBlock(0)).isEqualTo(ByteBuffer.wrap(new byte[] {1, 2, 3}));
     assertThat(file.getBlock(1)).isNull();
   }
 }
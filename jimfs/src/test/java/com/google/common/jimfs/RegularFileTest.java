@@ -35,6 +35,7 @@ import java.io.IOException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.nio.ByteBuffer;
+import java.nio.file.attribute.FileTime;
 import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.List;
@@ -42,47 +43,56 @@ import java.util.Random;
 import java.util.Set;
 
 /**
- * Tests for {@link RegularFile} and by extension for {@link HeapDisk}. These tests test files
- * created by a heap disk in a number of different states.
+ * Tests for {@link RegularFile} and by extension for {@link HeapDisk} and {@link DirectDisk}.
+ * These tests test files created by each kind of disk in a number of different states.
  *
  * @author Colin Decker
  */
 public class RegularFileTest {
 
+  private static final FileTime CREATION_TIME = FileTime.fromMillis(0);
+
   /**
-   * Returns a test suite for testing file methods with a variety of {@code HeapDisk}
+   * Returns a test suite for testing file methods with a variety of {@code Disk}
    * configurations.
    */
   public static TestSuite suite() {
     TestSuite suite = new TestSuite();
 
-    for (ReuseStrategy reuseStrategy : EnumSet.allOf(ReuseStrategy.class)) {
-      TestSuite suiteForReuseStrategy = new TestSuite(reuseStrategy.toString());
-      Set<List<Integer>> sizeOptions = Sets.cartesianProduct(
-          ImmutableList.of(BLOCK_SIZES, CACHE_SIZES));
-      for (List<Integer> options : sizeOptions) {
-        int blockSize = options.get(0);
-        int cacheSize = options.get(1);
-        if (cacheSize > 0 && cacheSize < blockSize) {
-          // skip cases where the cache size is not -1 (all) or 0 (none) but it is < blockSize,
-          // because this is equivalent to a cache size of 0
-          continue;
-        }
-
-        TestConfiguration state = new TestConfiguration(blockSize, cacheSize, reuseStrategy);
-        TestSuite suiteForTest = new TestSuite(state.toString());
-        for (Method method : TEST_METHODS) {
-          RegularFileTestRunner tester = new RegularFileTestRunner(method.getName(), state);
-          suiteForTest.addTest(tester);
-        }
-        suiteForReuseStrategy.addTest(suiteForTest);
+    for (BlockStorage storage : EnumSet.allOf(BlockStorage.class)) {
+      for (ReuseStrategy reuseStrategy : EnumSet.allOf(ReuseStrategy.class)) {
+        suite.addTest(suite(storage, reuseStrategy));
       }
-      suite.addTest(suiteForReuseStrategy);
     }
 
     return suite;
   }
 
+  private static TestSuite suite(BlockStorage storage, ReuseStrategy reuseStrategy) {
+    TestSuite suiteForReuseStrategy = new TestSuite(storage + " " + reuseStrategy);
+    Set<List<Integer>> sizeOptions = Sets.cartesianProduct(
+        ImmutableList.of(BLOCK_SIZES, CACHE_SIZES));
+    for (List<Integer> options : sizeOptions) {
+      int blockSize = options.get(0);
+      int cacheSize = options.get(1);
+      if (cacheSize > 0 && cacheSize < blockSize) {
+        // skip cases where the cache size is not -1 (all) or 0 (none) but it is < blockSize,
+        // because this is equivalent to a cache size of 0
+        continue;
+      }
+
+      TestConfiguration state =
+          new TestConfiguration(storage, blockSize, cacheSize, reuseStrategy);
+      TestSuite suiteForTest = new TestSuite(state.toString());
+      for (Method method : TEST_METHODS) {
+        RegularFileTestRunner tester = new RegularFileTestRunner(method.getName(), state);
+        suiteForTest.addTest(tester);
+      }
+      suiteForReuseStrategy.addTest(suiteForTest);
+    }
+    return suiteForReuseStrategy;
+  }
+
   public static final ImmutableSet<Integer> BLOCK_SIZES = ImmutableSet.of(2, 8, 128, 8192);
   public static final ImmutableSet<Integer> CACHE_SIZES = ImmutableSet.of(0, 4, 16, 128, -1);
 
@@ -100,7 +110,7 @@ public class RegularFileTest {
 
   /**
    * Different strategies for handling reuse of disks and/or files between tests, intended to
-   * ensure that {@link HeapDisk} operates properly in a variety of usage states including newly
+   * ensure that {@link Disk} operates properly in a variety of usage states including newly
    * created, having created files that have not been deleted yet, having created files that have
    * been deleted, and having created files some of which have been deleted and some of which have
    * not.
@@ -129,13 +139,16 @@ public class RegularFileTest {
    */
   public static final class TestConfiguration {
 
+    private final BlockStorage storage;
     private final int blockSize;
     private final int cacheSize;
     private final ReuseStrategy reuseStrategy;
 
-    private HeapDisk disk;
+    private Disk disk;
 
-    public TestConfiguration(int blockSize, int cacheSize, ReuseStrategy reuseStrategy) {
+    public TestConfiguration(
+        BlockStorage storage, int blockSize, int cacheSize, ReuseStrategy reuseStrategy) {
+      this.storage = storage;
       this.blockSize = blockSize;
       this.cacheSize = cacheSize;
       this.reuseStrategy = reuseStrategy;
@@ -145,16 +158,23 @@ public class RegularFileTest {
       }
     }
 
-    private HeapDisk createDisk() {
+    private Disk createDisk() {
       int maxCachedBlockCount = cacheSize == -1 ? Integer.MAX_VALUE : (cacheSize / blockSize);
-      return new HeapDisk(blockSize, Integer.MAX_VALUE, maxCachedBlockCount);
+      switch (storage) {
+        case HEAP:
+          return new HeapDisk(blockSize, Integer.MAX_VALUE, maxCachedBlockCount);
+        case DIRECT:
+          return new DirectDisk(blockSize, Integer.MAX_VALUE, maxCachedBlockCount);
+        default:
+          throw new AssertionError();
+      }
     }
 
     public RegularFile createRegularFile() {
       if (reuseStrategy == ReuseStrategy.NEW_DISK) {
         disk = createDisk();
       }
-      return RegularFile.create(0, disk);
+      return RegularFile.create(0, CREATION_TIME, disk);
     }
 
     public void tearDown(RegularFile file) {
@@ -176,7 +196,7 @@ public class RegularFileTest {
 
     @Override
     public String toString() {
-      return reuseStrategy + " [" + blockSize + ", " + cacheSize + "]";
+      return storage + " " + reuseStrategy + " [" + blockSize + ", " + cacheSize + "]";
     }
   }
 
@@ -400,7 +420,7 @@ public class RegularFileTest {
     }
 
     public void testEmpty_copy() throws IOException {
-      RegularFile copy = file.copyWithoutContent(1);
+      RegularFile copy = file.copyWithoutContent(1, CREATION_TIME);
       assertContentEquals("", copy);
     }
 
@@ -592,6 +612,54 @@ public class RegularFileTest {
       assertBufferEquals("00", 2, buf2);
     }
 
+    public void testNonEmpty_read_bufferArrayRange() throws IOException {
+      fillContent("123456789");
+      ByteBuffer[] bufs = {
+          ByteBuffer.allocate(2), ByteBuffer.allocate(1), ByteBuffer.allocate(0),
+          ByteBuffer.allocate(3), ByteBuffer.allocate(4), ByteBuffer.allocate(2)};
+      assertEquals(7, file.read(2, bufs, 1, 4));
+      assertBufferEquals("00", 2, bufs[0]);
+      assertBufferEquals("3", 0, bufs[1]);
+      assertBufferEquals("456", 0, bufs[3]);
+      assertBufferEquals("7890", 1, bufs[4]);
+      assertBufferEquals("00", 2, bufs[5]);
+    }
+
+    public void testNonEmpty_readWithoutLocking() throws IOException {
+      if (!RegularFile.canReadWithoutLocking()) {
+        return;
+      }
+      fillContent("22223333");
+      ByteBuffer buffer = ByteBuffer.allocate(3);
+      assertEquals(3, file.readWithoutLocking(3, buffer));
+      assertBufferEquals("233", 0, buffer);
+      assertEquals(-1, file.readWithoutLocking(8, buffer));
+    }
+
+    public void testNonEmpty_readWithoutLocking_failsWhileWriteLocked() throws IOException {
+      fillContent("22223333");
+      ByteBuffer buffer = ByteBuffer.allocate(3);
+
+      file.writeLock().lock();
+      try {
+        assertEquals(RegularFile.OPTIMISTIC_READ_FAILED, file.readWithoutLocking(3, buffer));
+        assertEquals(0, buffer.position());
+
+        // releasing a reentrant hold doesn't end the write
+        file.writeLock().lock();
+        file.writeLock().unlock();
+        assertEquals(RegularFile.OPTIMISTIC_READ_FAILED, file.readWithoutLocking(3, buffer));
+        assertEquals(0, buffer.position());
+      } finally {
+        file.writeLock().unlock();
+      }
+
+      if (RegularFile.canReadWithoutLocking()) {
+        assertEquals(3, file.readWithoutLocking(3, buffer));
+        assertBufferEquals("233", 0, buffer);
+      }
+    }
+
     public void testNonEmpty_write_partial_fromStart_singleByte() throws IOException {
       fillContent("222222");
       assertEquals(1, file.write(0, (byte) 1));
@@ -710,6 +778,17 @@ public class RegularFileTest {
       assertContentEquals("22222200001133", file);
     }
 
+    public void testNonEmpty_write_bufferArrayRange() throws IOException {
+      fillContent("222222");
+      ByteBuffer[] bufs = {
+          buffer("99"), buffer("1"), buffer(""), buffer("34"), buffer("567"), buffer("99")};
+      assertEquals(6, file.write(1, bufs, 1, 4));
+      assertContentEquals("2134567", file);
+      assertEquals(2, bufs[0].remaining());
+      assertEquals(0, bufs[4].remaining());
+      assertEquals(2, bufs[5].remaining());
+    }
+
     public void testNonEmpty_write_overwrite_sameLength() throws IOException {
       fillContent("2222");
       assertEquals(4, file.write(0, buffer("1234")));
@@ -823,20 +902,58 @@ public class RegularFileTest {
 
     public void testNonEmpty_copy() throws IOException {
       fillContent("123456");
-      RegularFile copy = file.copyWithoutContent(1);
+      RegularFile copy = file.copyWithoutContent(1, CREATION_TIME);
       file.copyContentTo(copy);
       assertContentEquals("123456", copy);
     }
 
     public void testNonEmpty_copy_multipleTimes() throws IOException {
       fillContent("123456");
-      RegularFile copy = file.copyWithoutContent(1);
+      RegularFile copy = file.copyWithoutContent(1, CREATION_TIME);
       file.copyContentTo(copy);
-      RegularFile copy2 = copy.copyWithoutContent(2);
+      RegularFile copy2 = copy.copyWithoutContent(2, CREATION_TIME);
       copy.copyContentTo(copy2);
       assertContentEquals("123456", copy);
     }
 
+    public void testNonEmpty_copy_thenWriteToCopy() throws IOException {
+      fillContent("123456");
+      RegularFile copy = file.copyWithoutContent(1, CREATION_TIME);
+      file.copyContentTo(copy);
+      copy.write(0, bytes("99"), 0, 2);
+      assertContentEquals("993456", copy);
+      assertContentEquals("123456", file);
+    }
+
+    public void testNonEmpty_copy_thenWriteToOriginal() throws IOException {
+      fillContent("123456");
+      RegularFile copy = file.copyWithoutContent(1, CREATION_TIME);
+      file.copyContentTo(copy);
+      file.write(4, buffer("99"));
+      assertContentEquals("123499", file);
+      assertContentEquals("123456", copy);
+    }
+
+    public void testNonEmpty_copy_thenTruncateAndExtendCopy() throws IOException {
+      fillContent("123456");
+      RegularFile copy = file.copyWithoutContent(1, CREATION_TIME);
+      file.copyContentTo(copy);
+      copy.truncate(2);
+      copy.write(5, (byte) 1);
+      assertContentEquals("120001", copy);
+      assertContentEquals("123456", file);
+    }
+
+    public void testNonEmpty_copy_thenDeleteOriginal() throws IOException {
+      fillContent("123456");
+      RegularFile copy = file.copyWithoutContent(1, CREATION_TIME);
+      file.copyContentTo(copy);
+      file.deleted();
+      RegularFile other = RegularFile.create(2, CREATION_TIME, configuration.disk);
+      other.write(0, buffer("999999"));
+      assertContentEquals("123456", copy);
+    }
+
     public void testNonEmpty_truncate_toZero() throws IOException {
       fillContent("123456");
       file.truncate(0);
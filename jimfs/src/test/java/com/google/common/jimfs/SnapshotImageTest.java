@@ -0,0 +1,350 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.AclEntry;
+import java.nio.file.attribute.AclEntryFlag;
+import java.nio.file.attribute.AclEntryPermission;
+import java.nio.file.attribute.AclEntryType;
+import java.nio.file.attribute.AclFileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.GroupPrincipal;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Random;
+
+/**
+ * Tests for {@link SnapshotImage}, through {@link FileSystemSnapshot#writeTo} and
+ * {@link FileSystemSnapshot#readFrom}.
+ */
+@RunWith(JUnit4.class)
+public class SnapshotImageTest {
+
+  private static final Configuration CONFIGURATION = Configuration.unix().toBuilder()
+      .setAttributeViews("basic", "owner", "posix", "unix", "acl", "dos", "user")
+      .setBlockSize(64)
+      .build();
+
+  private FileSystem fs;
+  private byte[] bigContent;
+
+  @Before
+  public void setUp() throws IOException {
+    fs = Jimfs.newFileSystem(CONFIGURATION);
+
+    bigContent = new byte[10000];
+    new Random(19).nextBytes(bigContent);
+
+    Files.createDirectories(fs.getPath("/foo/bar"));
+    Files.write(fs.getPath("/foo/bar/file"), bytes("hello world"));
+    Files.write(fs.getPath("/foo/big"), bigContent);
+    Files.createFile(fs.getPath("/foo/empty"));
+    Files.createLink(fs.getPath("/link"), fs.getPath("/foo/bar/file"));
+    Files.createSymbolicLink(fs.getPath("/foo/symlink"), fs.getPath("../link"));
+    Files.setLastModifiedTime(fs.getPath("/foo/bar"), FileTime.fromMillis(12345));
+    Files.setPosixFilePermissions(
+        fs.getPath("/foo/big"), PosixFilePermissions.fromString("rw-r-----"));
+    Files.setAttribute(fs.getPath("/foo"), "dos:hidden", true);
+    Files.getFileAttributeView(fs.getPath("/foo/empty"), UserDefinedFileAttributeView.class)
+        .write("color", ByteBuffer.wrap(bytes("blue")));
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    fs.close();
+  }
+
+  @Test
+  public void testRoundTrip_stream() throws IOException {
+    FileSystemSnapshot snapshot = FileSystemSnapshot.readFrom(
+        new ByteArrayInputStream(writeImage()), CONFIGURATION);
+    assertSameFiles(snapshot.fork());
+  }
+
+  @Test
+  public void testRoundTrip_mappedFile() throws IOException {
+    Path image = Files.createTempFile("jimfs", ".img");
+    try {
+      try (OutputStream out = Files.newOutputStream(image)) {
+        Jimfs.snapshot(fs).writeTo(out);
+      }
+      assertSameFiles(FileSystemSnapshot.readFrom(image, CONFIGURATION).fork());
+    } finally {
+      Files.delete(image);
+    }
+  }
+
+  @Test
+  public void testRoundTrip_manySmallMappedRegions() throws IOException {
+    // mapping the image a few bytes at a time makes numbers, strings and content cross region
+    // boundaries
+    Path image = Files.createTempFile("jimfs", ".img");
+    try {
+      Files.write(image, writeImage());
+      for (int regionSize : new int[] {1, 7, 13, 1000}) {
+        assertSameFiles(SnapshotImage.read(image, CONFIGURATION, regionSize).fork());
+      }
+    } finally {
+      Files.delete(image);
+    }
+  }
+
+  @Test
+  public void testRoundTrip_mappedJimfsFile() throws IOException {
+    try (FileSystem other = Jimfs.newFileSystem(Configuration.unix())) {
+      byte[] bytes = writeImage();
+      for (int regionSize : new int[] {8, 1024, Integer.MAX_VALUE}) {
+        Path image = other.getPath("/image" + regionSize);
+        Files.write(image, bytes);
+        assertSameFiles(SnapshotImage.read(image, CONFIGURATION, regionSize).fork());
+      }
+    }
+  }
+
+  @Test
+  public void testRoundTrip_acl() throws IOException {
+    UserPrincipal user = fs.getUserPrincipalLookupService().lookupPrincipalByName("user");
+    GroupPrincipal group =
+        fs.getUserPrincipalLookupService().lookupPrincipalByGroupName("group");
+    ImmutableList<AclEntry> acl = ImmutableList.of(
+        AclEntry.newBuilder()
+            .setType(AclEntryType.ALLOW)
+            .setPrincipal(user)
+            .setPermissions(AclEntryPermission.READ_DATA, AclEntryPermission.WRITE_DATA)
+            .setFlags(AclEntryFlag.FILE_INHERIT)
+            .build(),
+        AclEntry.newBuilder()
+            .setType(AclEntryType.DENY)
+            .setPrincipal(group)
+            .setPermissions(AclEntryPermission.DELETE)
+            .build());
+    Files.getFileAttributeView(fs.getPath("/foo"), AclFileAttributeView.class).setAcl(acl);
+
+    FileSystem fork = FileSystemSnapshot.readFrom(
+        new ByteArrayInputStream(writeImage()), CONFIGURATION).fork();
+    assertThat(Files.getFileAttributeView(fork.getPath("/foo"), AclFileAttributeView.class)
+        .getAcl()).isEqualTo(acl);
+  }
+
+  @Test
+  public void testRoundTrip_nanosecondTimes() throws IOException {
+    FileTime time = FileTime.from(1234567890123456789L, NANOSECONDS);
+    Files.setLastModifiedTime(fs.getPath("/foo/big"), time);
+
+    FileSystem fork = FileSystemSnapshot.readFrom(
+        new ByteArrayInputStream(writeImage()), CONFIGURATION).fork();
+    assertThat(Files.getLastModifiedTime(fork.getPath("/foo/big"))).isEqualTo(time);
+  }
+
+  @Test
+  public void testRead_version1Image() throws IOException {
+    // version 1 images gave times in milliseconds
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(0x4A494D46);
+    out.writeInt(1); // version
+    out.writeInt(1); // next file ID
+    out.writeInt(1); // root count
+    out.writeInt(1);
+    out.write(bytes("/"));
+    out.writeByte(1); // directory
+    out.writeInt(0); // ID
+    out.writeLong(1000); // creation time
+    out.writeLong(2000); // last modified time
+    out.writeLong(3000); // last access time
+    out.writeInt(0); // attribute count
+    out.writeInt(0); // entry count
+    out.flush();
+
+    FileSystem fork = FileSystemSnapshot.readFrom(
+        new ByteArrayInputStream(bytes.toByteArray()), CONFIGURATION).fork();
+    assertThat(Files.getAttribute(fork.getPath("/"), "creationTime"))
+        .isEqualTo(FileTime.fromMillis(1000));
+    assertThat(Files.getLastModifiedTime(fork.getPath("/"))).isEqualTo(FileTime.fromMillis(2000));
+  }
+
+  @Test
+  public void testRead_preservesFileIds() throws IOException {
+    FileSystem fork = FileSystemSnapshot.readFrom(
+        new ByteArrayInputStream(writeImage()), CONFIGURATION).fork();
+
+    for (String path : ImmutableList.of("/", "/foo", "/foo/bar/file", "/link", "/foo/big")) {
+      assertThat(Files.getAttribute(fork.getPath(path), "fileKey"))
+          .isEqualTo(Files.getAttribute(fs.getPath(path), "fileKey"));
+    }
+
+    // new files don't reuse IDs
+    Path newFile = Files.createFile(fork.getPath("/new"));
+    Object newFileKey = Files.getAttribute(newFile, "fileKey");
+    for (Path path : Files.newDirectoryStream(fork.getPath("/foo"))) {
+      assertThat(Files.getAttribute(path, "fileKey")).isNotEqualTo(newFileKey);
+    }
+  }
+
+  @Test
+  public void testRead_contentUsesNewDisk() throws IOException {
+    FileSystemSnapshot snapshot = FileSystemSnapshot.readFrom(
+        new ByteArrayInputStream(writeImage()), CONFIGURATION);
+    FileSystem fork = snapshot.fork();
+
+    long used = fork.getFileStores().iterator().next().getTotalSpace()
+        - fork.getFileStores().iterator().next().getUnallocatedSpace();
+    long expected = fs.getFileStores().iterator().next().getTotalSpace()
+        - fs.getFileStores().iterator().next().getUnallocatedSpace();
+    assertThat(used).isEqualTo(expected);
+  }
+
+  @Test
+  public void testRead_notEnoughSpace() throws IOException {
+    Configuration small = CONFIGURATION.toBuilder().setMaxSize(1024).build();
+    try {
+      FileSystemSnapshot.readFrom(new ByteArrayInputStream(writeImage()), small);
+      fail();
+    } catch (IOException expected) {
+    }
+  }
+
+  @Test
+  public void testRead_rootsDontMatchConfiguration() throws IOException {
+    try {
+      FileSystemSnapshot.readFrom(
+          new ByteArrayInputStream(writeImage()), Configuration.windows());
+      fail();
+    } catch (IOException expected) {
+      assertThat(expected.getMessage()).contains("root directory");
+    }
+  }
+
+  @Test
+  public void testRead_notAnImage() throws IOException {
+    try {
+      FileSystemSnapshot.readFrom(
+          new ByteArrayInputStream(bytes("not an image at all")), CONFIGURATION);
+      fail();
+    } catch (IOException expected) {
+      assertThat(expected.getMessage()).contains("not a Jimfs snapshot image");
+    }
+  }
+
+  @Test
+  public void testRead_truncated() throws IOException {
+    byte[] image = writeImage();
+    try {
+      FileSystemSnapshot.readFrom(
+          new ByteArrayInputStream(Arrays.copyOf(image, image.length - 100)), CONFIGURATION);
+      fail();
+    } catch (EOFException expected) {
+    }
+  }
+
+  @Test
+  public void testWrite_unsupportedAttributeValue() throws IOException {
+    JimfsFileSystem jimfs = (JimfsFileSystem) fs;
+    File file = jimfs.getDefaultView()
+        .lookUpWithLock((JimfsPath) fs.getPath("/foo/empty"), Options.NOFOLLOW_LINKS)
+        .file();
+    file.setAttribute("test", "thing", new Object());
+
+    try {
+      writeImage();
+      fail();
+    } catch (IOException expected) {
+      assertThat(expected.getMessage()).contains("test:thing");
+    }
+  }
+
+  @Test
+  public void testWrite_serializableAttributeValue() throws IOException {
+    // arbitrary objects aren't serialized, since reading them back would deserialize whatever
+    // classes an image names
+    JimfsFileSystem jimfs = (JimfsFileSystem) fs;
+    File file = jimfs.getDefaultView()
+        .lookUpWithLock((JimfsPath) fs.getPath("/foo/empty"), Options.NOFOLLOW_LINKS)
+        .file();
+    file.setAttribute("test", "thing", new Date(0));
+
+    try {
+      writeImage();
+      fail();
+    } catch (IOException expected) {
+      assertThat(expected.getMessage()).contains("test:thing");
+    }
+  }
+
+  private byte[] writeImage() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Jimfs.snapshot(fs).writeTo(out);
+    return out.toByteArray();
+  }
+
+  private void assertSameFiles(FileSystem fork) throws IOException {
+    assertThat(Files.readAllBytes(fork.getPath("/foo/bar/file"))).isEqualTo(bytes("hello world"));
+    assertThat(Files.readAllBytes(fork.getPath("/foo/big"))).isEqualTo(bigContent);
+    assertThat(Files.size(fork.getPath("/foo/empty"))).isEqualTo(0L);
+    assertThat(Files.isSameFile(fork.getPath("/link"), fork.getPath("/foo/bar/file"))).isTrue();
+    assertThat(Files.getAttribute(fork.getPath("/link"), "unix:nlink")).isEqualTo(2);
+    assertThat(Files.readSymbolicLink(fork.getPath("/foo/symlink")))
+        .isEqualTo(fork.getPath("../link"));
+    assertThat(Files.readAllBytes(fork.getPath("/foo/symlink"))).isEqualTo(bytes("hello world"));
+
+    assertThat(Files.getLastModifiedTime(fork.getPath("/foo/bar")))
+        .isEqualTo(FileTime.fromMillis(12345));
+    assertThat(Files.getLastModifiedTime(fork.getPath("/foo/big")))
+        .isEqualTo(Files.getLastModifiedTime(fs.getPath("/foo/big")));
+    assertThat(Files.getPosixFilePermissions(fork.getPath("/foo/big")))
+        .isEqualTo(PosixFilePermissions.fromString("rw-r-----"));
+    assertThat(Files.getOwner(fork.getPath("/foo/big")))
+        .isEqualTo(Files.getOwner(fs.getPath("/foo/big")));
+    assertThat(Files.getAttribute(fork.getPath("/foo"), "dos:hidden")).isEqualTo(true);
+    assertThat(Files.getAttribute(fork.getPath("/foo/empty"), "user:color"))
+        .isEqualTo(bytes("blue"));
+    assertThat(ImmutableSet.copyOf(Files.newDirectoryStream(fork.getPath("/foo"))))
+        .hasSize(4);
+    fork.close();
+  }
+
+  private static byte[] bytes(String string) {
+    return string.getBytes(UTF_8);
+  }
+}
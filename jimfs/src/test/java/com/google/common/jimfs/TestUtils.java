@@ -27,6 +27,7 @@ import java.nio.ByteBuffer;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
@@ -138,7 +139,8 @@ public final class TestUtils {
   }
 
   static RegularFile regularFile(int size) {
-    RegularFile file = RegularFile.create(0, new HeapDisk(8096, 1000, 1000));
+    RegularFile file =
+        RegularFile.create(0, FileTime.fromMillis(0), new HeapDisk(8096, 1000, 1000));
     try {
       file.write(0, new byte[size], 0, size);
       return file;
@@ -72,7 +72,7 @@ public class UnixAttributeProviderTest extends
     // these have logical origins in attributes from other views
     assertThat(provider.get(file, "mode")).isEqualTo(0644); // rw-r--r--
     assertThat(provider.get(file, "ctime"))
-        .isEqualTo(FileTime.fromMillis(file.getCreationTime()));
+        .isEqualTo(file.getCreationTime());
 
     // this is based on a property this file system does actually have
     assertThat(provider.get(file, "nlink")).isEqualTo(1);